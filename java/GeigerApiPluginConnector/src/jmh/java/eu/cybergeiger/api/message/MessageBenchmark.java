@@ -0,0 +1,63 @@
+package eu.cybergeiger.api.message;
+
+import eu.cybergeiger.api.plugin.CommunicationSecret;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * <p>Measures serializing and deserializing messages with payloads of different sizes.</p>
+ */
+@State(Scope.Benchmark)
+public class MessageBenchmark {
+  @Param({"0", "1024", "65536", "1048576"})
+  public int payloadSize;
+
+  @Param({"V1", "V2"})
+  public WireFormat format;
+
+  private CommunicationSecret secret;
+  private Message message;
+  private ByteArrayWriter writer;
+  private ByteArrayReader reader;
+  private byte[] serialized;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(0);
+    byte[] key = new byte[32];
+    random.nextBytes(key);
+    secret = new CommunicationSecret(key);
+    byte[] payload = new byte[payloadSize];
+    random.nextBytes(payload);
+    message = new Message(
+      "plugin", "__MASTERPLUGIN__", MessageType.STORAGE_EVENT,
+      new GeigerUrl("__MASTERPLUGIN__", "storage/getValue"), payload
+    );
+    writer = new ByteArrayWriter(payloadSize * 2 + 1024, format);
+    message.toByteArrayStream(writer, secret);
+    serialized = writer.toByteArray();
+    reader = new ByteArrayReader();
+  }
+
+  @Benchmark
+  public int serialize() throws IOException {
+    writer.reset();
+    message.toByteArrayStream(writer, secret);
+    return writer.size();
+  }
+
+  @Benchmark
+  public Message deserialize() throws IOException {
+    reader.reset(serialized, 0, serialized.length);
+    return Message.fromByteArrayStream(reader);
+  }
+}
@@ -0,0 +1,44 @@
+package eu.cybergeiger.api.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * <p>Measures hashing data of different sizes.</p>
+ *
+ * <p>Keyed types are computed with hashers taken from a {@link HasherPool} as they cannot be used
+ * through {@link HashType#digest(byte[])}.</p>
+ */
+@State(Scope.Benchmark)
+public class HashTypeBenchmark {
+  @Param({"SHA512", "SHA1", "HMAC_SHA256", "HMAC_SHA512"})
+  public HashType type;
+
+  @Param({"64", "1024", "65536", "1048576"})
+  public int size;
+
+  private byte[] data;
+  private HasherPool pool;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    data = new byte[size];
+    random.nextBytes(data);
+    if (type.isKeyed()) {
+      byte[] key = new byte[32];
+      random.nextBytes(key);
+      pool = new HasherPool(type, key);
+    }
+  }
+
+  @Benchmark
+  public Hash digest() {
+    return pool == null ? type.digest(data) : pool.acquire().update(data).finish();
+  }
+}
@@ -0,0 +1,51 @@
+package eu.cybergeiger.storage;
+
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.WireFormat;
+import eu.cybergeiger.storage.node.Field;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * <p>Measures encoding and decoding search criteria with all fields set.</p>
+ */
+@State(Scope.Benchmark)
+public class SearchCriteriaBenchmark {
+  @Param({"V1", "V2"})
+  public WireFormat format;
+
+  private SearchCriteria criteria;
+  private ByteArrayWriter writer;
+  private ByteArrayReader reader;
+  private byte[] serialized;
+
+  @Setup
+  public void setup() throws IOException {
+    criteria = new SearchCriteria();
+    for (Field field : Field.values()) criteria.set(field, "value of " + field.toStringStandard());
+    writer = new ByteArrayWriter(format);
+    criteria.toByteArrayStream(writer);
+    serialized = writer.toByteArray();
+    reader = new ByteArrayReader();
+    reader.setFormat(format);
+  }
+
+  @Benchmark
+  public int serialize() throws IOException {
+    writer.reset();
+    criteria.toByteArrayStream(writer);
+    return writer.size();
+  }
+
+  @Benchmark
+  public SearchCriteria deserialize() throws IOException {
+    reader.reset(serialized, 0, serialized.length);
+    return SearchCriteria.fromByteArrayStream(reader);
+  }
+}
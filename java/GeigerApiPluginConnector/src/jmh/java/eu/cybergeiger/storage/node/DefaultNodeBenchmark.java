@@ -0,0 +1,78 @@
+package eu.cybergeiger.storage.node;
+
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.WireFormat;
+import eu.cybergeiger.storage.StorageController;
+import eu.cybergeiger.storage.StorageException;
+import eu.cybergeiger.storage.node.value.DefaultNodeValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * <p>Measures serializing and deserializing node trees.</p>
+ *
+ * <p>Wide trees have all nodes directly below the root, deep trees are a single chain of
+ * nodes. Every node holds one value.</p>
+ */
+@State(Scope.Benchmark)
+public class DefaultNodeBenchmark {
+  public enum Shape {
+    WIDE,
+    DEEP
+  }
+
+  @Param({"WIDE", "DEEP"})
+  public Shape shape;
+
+  @Param({"10", "100", "1000"})
+  public int nodeCount;
+
+  @Param({"V1", "V2"})
+  public WireFormat format;
+
+  private DefaultNode root;
+  private ByteArrayWriter writer;
+  private ByteArrayReader reader;
+  private byte[] serialized;
+
+  private static DefaultNode createNode(String path) throws StorageException {
+    DefaultNode node = new DefaultNode(path, "plugin");
+    node.addValue(new DefaultNodeValue("key", "value of " + path));
+    return node;
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    root = createNode(StorageController.PATH_DELIMITER + "root");
+    DefaultNode parent = root;
+    for (int i = 1; i < nodeCount; i++) {
+      DefaultNode node = createNode(parent.getPath() + StorageController.PATH_DELIMITER + "n" + i);
+      parent.addChild(node);
+      if (shape == Shape.DEEP) parent = node;
+    }
+    writer = new ByteArrayWriter(format);
+    root.toByteArrayStream(writer);
+    serialized = writer.toByteArray();
+    reader = new ByteArrayReader();
+    reader.setFormat(format);
+  }
+
+  @Benchmark
+  public int serialize() throws IOException {
+    writer.reset();
+    root.toByteArrayStream(writer);
+    return writer.size();
+  }
+
+  @Benchmark
+  public DefaultNode deserialize() throws IOException {
+    reader.reset(serialized, 0, serialized.length);
+    return DefaultNode.fromByteArrayStream(reader, null);
+  }
+}
@@ -0,0 +1,58 @@
+package eu.cybergeiger.storage.node.value;
+
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.WireFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * <p>Measures serializing and deserializing values translated into many locales.</p>
+ */
+@State(Scope.Benchmark)
+public class DefaultNodeValueBenchmark {
+  @Param({"1", "10", "100"})
+  public int localeCount;
+
+  @Param({"V1", "V2"})
+  public WireFormat format;
+
+  private DefaultNodeValue value;
+  private ByteArrayWriter writer;
+  private ByteArrayReader reader;
+  private byte[] serialized;
+
+  @Setup
+  public void setup() throws IOException {
+    value = new DefaultNodeValue("key", "value", "type", "description", 0);
+    for (int i = 1; i < localeCount; i++) {
+      Locale locale = Locale.forLanguageTag("x-l" + i);
+      value.setValue("value in locale " + i, locale);
+      value.setDescription("description in locale " + i, locale);
+    }
+    writer = new ByteArrayWriter(format);
+    value.toByteArrayStream(writer);
+    serialized = writer.toByteArray();
+    reader = new ByteArrayReader();
+    reader.setFormat(format);
+  }
+
+  @Benchmark
+  public int serialize() throws IOException {
+    writer.reset();
+    value.toByteArrayStream(writer);
+    return writer.size();
+  }
+
+  @Benchmark
+  public DefaultNodeValue deserialize() throws IOException {
+    reader.reset(serialized, 0, serialized.length);
+    return DefaultNodeValue.fromByteArrayStream(reader);
+  }
+}
@@ -0,0 +1,108 @@
+package eu.cybergeiger.api;
+
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.PluginListener;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+
+/**
+ * <p>Notifies listeners and records a sample of the notifications.</p>
+ *
+ * <p>Recording is only active while {@link GeigerApi#logger} logs {@link Level#FINE}. Each sampled
+ * notification stores its message type, request id, listener and duration in a fixed size ring.
+ * Writers never wait for each other. Once the ring is full, the oldest records are overwritten.
+ * Nothing is formatted until the records are dumped.</p>
+ */
+final class DispatchTracer {
+  private static final class Record {
+    final long sequence;
+    final long timestampMillis;
+    final MessageType type;
+    final String requestId;
+    final String listenerClass;
+    final int listenerIdentity;
+    final long dispatchNanos;
+
+    Record(long sequence, Message message, PluginListener listener, long dispatchNanos) {
+      this.sequence = sequence;
+      this.timestampMillis = System.currentTimeMillis();
+      this.type = message.getType();
+      this.requestId = message.getRequestId();
+      this.listenerClass = listener.getClass().getName();
+      this.listenerIdentity = System.identityHashCode(listener);
+      this.dispatchNanos = dispatchNanos;
+    }
+  }
+
+  private final AtomicReferenceArray<Record> records;
+  private final int mask;
+  private final int sampleRate;
+  private final AtomicLong nextSequence = new AtomicLong();
+
+  /**
+   * @param capacity   number of records kept, rounded up to a power of two
+   * @param sampleRate on average one in this many notifications is recorded
+   */
+  DispatchTracer(int capacity, int sampleRate) {
+    int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    records = new AtomicReferenceArray<>(size);
+    mask = size - 1;
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * <p>Notifies the listener in the calling thread.</p>
+   */
+  void deliver(PluginListener listener, Message message) {
+    if (!GeigerApi.logger.isLoggable(Level.FINE) ||
+      (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)) {
+      listener.pluginEvent(message);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      listener.pluginEvent(message);
+    } finally {
+      long sequence = nextSequence.getAndIncrement();
+      records.set(
+        (int) (sequence & mask),
+        new Record(sequence, message, listener, System.nanoTime() - start)
+      );
+    }
+  }
+
+  /**
+   * <p>Formats the recorded notifications, oldest first.</p>
+   *
+   * @return one line per notification
+   */
+  String dump() {
+    List<Record> snapshot = new ArrayList<>();
+    for (int i = 0; i < records.length(); i++) {
+      Record record = records.get(i);
+      if (record != null) snapshot.add(record);
+    }
+    snapshot.sort(Comparator.comparingLong(record -> record.sequence));
+    SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+    StringBuilder out = new StringBuilder();
+    for (Record record : snapshot) {
+      out.append(format.format(new Date(record.timestampMillis)))
+        .append(' ').append(record.type)
+        .append(" requestId=").append(record.requestId)
+        .append(" listener=").append(record.listenerClass)
+        .append('@').append(Integer.toHexString(record.listenerIdentity))
+        .append(" dispatchMicros=").append(record.dispatchNanos / 1000)
+        .append('\n');
+    }
+    return out.toString();
+  }
+}
@@ -2,11 +2,15 @@ package eu.cybergeiger.api;
 
 import eu.cybergeiger.storage.StorageController;
 import eu.cybergeiger.storage.StorageException;
+import eu.cybergeiger.storage.utils.Futures;
+import eu.cybergeiger.api.communication.CommunicationHelper;
+import eu.cybergeiger.api.communication.CommunicationOptions;
 import eu.cybergeiger.api.message.Message;
 import eu.cybergeiger.api.message.MessageType;
 import eu.cybergeiger.api.plugin.*;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 /**
@@ -56,6 +60,44 @@ public interface GeigerApi extends PluginRegistrar, MenuRegistrar, AutoCloseable
    */
   void sendMessage(Message msg) throws IOException;
 
+  /**
+   * <p>Sends a message without waiting for it to be delivered.</p>
+   *
+   * <p>The default implementation sends the message synchronously.</p>
+   *
+   * @param msg the message to be sent
+   * @return future completed once the message was delivered
+   */
+  default CompletableFuture<Void> sendMessageAsync(Message msg) {
+    return Futures.run(() -> sendMessage(msg));
+  }
+
+  /**
+   * <p>Returns a future completed with the response to a request.</p>
+   *
+   * <p>Has to be called before the request is sent. The default implementation listens for
+   * messages of the response types.</p>
+   *
+   * @param request       the request to wait for the response of
+   * @param responseTypes possible message types of the response
+   * @param timeoutMillis time after which the future fails with a TimeoutException
+   * @return future completed with the response
+   */
+  default CompletableFuture<Message> expectResponse(Message request, MessageType[] responseTypes,
+                                                    long timeoutMillis) {
+    return CommunicationHelper.listenForResponse(this, request, responseTypes, timeoutMillis);
+  }
+
+  /**
+   * <p>Time to wait for the response to a request of the given type.</p>
+   *
+   * @param requestType the type of the request
+   * @return the timeout in milliseconds
+   */
+  default long getResponseTimeoutMillis(MessageType requestType) {
+    return CommunicationOptions.DEFAULT.getResponseTimeoutMillis(requestType);
+  }
+
   /**
    * <p>Reset the GeigerApi by removing all registered plugins and MenuItems.</p>
    */
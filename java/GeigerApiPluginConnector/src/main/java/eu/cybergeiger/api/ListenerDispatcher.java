@@ -0,0 +1,158 @@
+package eu.cybergeiger.api;
+
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.plugin.PluginListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * <p>Delivers messages to listeners on an executor instead of the receiving thread.</p>
+ *
+ * <p>Every listener has its own bounded queue which is drained by at most one task at a time.
+ * Each listener therefore receives messages in the order they arrived, while different
+ * listeners are notified in parallel. Messages arriving at a full queue are dropped.</p>
+ */
+final class ListenerDispatcher {
+  /**
+   * <p>Maximum number of messages delivered by one task before the executor is yielded to the
+   * queues of other listeners.</p>
+   */
+  private static final int BATCH_SIZE = 64;
+
+  private final class ListenerQueue implements Runnable {
+    private final PluginListener listener;
+    private final Queue<Message> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean removed;
+
+    ListenerQueue(PluginListener listener) {
+      this.listener = listener;
+    }
+
+    /**
+     * <p>Adds a message without scheduling its delivery.</p>
+     *
+     * @return false if the message was dropped
+     */
+    boolean enqueue(Message message) {
+      if (depth.incrementAndGet() > capacity) {
+        depth.decrementAndGet();
+        dropped.incrementAndGet();
+        return false;
+      }
+      messages.add(message);
+      return true;
+    }
+
+    void schedule() {
+      if (!scheduled.compareAndSet(false, true)) return;
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        // Dispatcher was closed.
+        scheduled.set(false);
+      }
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        Message message = messages.poll();
+        if (message == null) break;
+        depth.decrementAndGet();
+        try {
+          tracer.deliver(listener, message);
+        } catch (RuntimeException e) {
+          GeigerApi.logger.log(Level.WARNING, "PluginListener threw exception.", e);
+        }
+      }
+      scheduled.set(false);
+      // Messages added after the last poll but before resetting the flag were not scheduled.
+      if (!messages.isEmpty()) schedule();
+      else if (removed) queues.computeIfPresent(listener, (key, queue) ->
+        queue == this && isIdle() ? null : queue);
+    }
+
+    private boolean isIdle() {
+      return messages.isEmpty() && !scheduled.get();
+    }
+  }
+
+  private final ExecutorService executor;
+  private final DispatchTracer tracer;
+  private final int capacity;
+  private final Map<PluginListener, ListenerQueue> queues = new ConcurrentHashMap<>();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param executor executor the listeners are notified on
+   * @param tracer   tracer recording the notifications
+   * @param capacity maximum number of messages queued per listener
+   */
+  ListenerDispatcher(ExecutorService executor, DispatchTracer tracer, int capacity) {
+    this.executor = executor;
+    this.tracer = tracer;
+    this.capacity = capacity;
+  }
+
+  /**
+   * <p>Queues a message for a listener.</p>
+   *
+   * @return false if the message was dropped because the queue of the listener is full
+   */
+  boolean dispatch(PluginListener listener, Message message) {
+    boolean[] queued = new boolean[1];
+    // Enqueueing while holding the entry keeps a draining queue from being dropped meanwhile.
+    queues.compute(listener, (key, queue) -> {
+      if (queue == null) queue = new ListenerQueue(key);
+      queued[0] = queue.enqueue(message);
+      return queue;
+    }).schedule();
+    return queued[0];
+  }
+
+  /**
+   * <p>Forgets the queue of a listener once it is no longer registered.</p>
+   *
+   * <p>Messages already queued are still delivered. The queue is kept until they are, so that
+   * messages dispatched meanwhile are not delivered by a second queue in parallel.</p>
+   */
+  void remove(PluginListener listener) {
+    queues.computeIfPresent(listener, (key, queue) -> {
+      queue.removed = true;
+      return queue.isIdle() ? null : queue;
+    });
+  }
+
+  /**
+   * @return the number of messages waiting for each listener
+   */
+  Map<PluginListener, Integer> getQueueDepths() {
+    Map<PluginListener, Integer> depths = new HashMap<>();
+    for (ListenerQueue queue : queues.values())
+      depths.put(queue.listener, queue.depth.get());
+    return depths;
+  }
+
+  /**
+   * @return the number of messages dropped because the queue of their listener was full
+   */
+  long getDroppedCount() {
+    return dropped.get();
+  }
+
+  void close() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,87 @@
+package eu.cybergeiger.api;
+
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.PluginListener;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Listeners registered per message type.</p>
+ *
+ * <p>Each message type has an immutable array of listeners, indexed by the ordinal of the type.
+ * Registering and deregistering replace the array of a type atomically. Dispatching reads the
+ * current array without taking a lock, so slow listeners never block registration or the
+ * delivery of other messages.</p>
+ */
+final class ListenerRegistry {
+  private static final PluginListener[] NONE = new PluginListener[0];
+
+  private final AtomicReferenceArray<PluginListener[]> listeners =
+    new AtomicReferenceArray<>(MessageType.values().length);
+
+  ListenerRegistry() {
+    for (int i = 0; i < listeners.length(); i++) listeners.set(i, NONE);
+  }
+
+  /**
+   * <p>Adds a listener for a message type.</p>
+   *
+   * <p>A listener registered twice is notified twice.</p>
+   */
+  void register(MessageType type, PluginListener listener) {
+    int index = type.ordinal();
+    while (true) {
+      PluginListener[] current = listeners.get(index);
+      PluginListener[] updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = listener;
+      if (listeners.compareAndSet(index, current, updated)) return;
+    }
+  }
+
+  /**
+   * <p>Removes one registration of a listener for a message type.</p>
+   *
+   * @return true if the listener was registered
+   */
+  boolean deregister(MessageType type, PluginListener listener) {
+    int index = type.ordinal();
+    while (true) {
+      PluginListener[] current = listeners.get(index);
+      int position = indexOf(current, listener);
+      if (position < 0) return false;
+      PluginListener[] updated =
+        current.length == 1 ? NONE : new PluginListener[current.length - 1];
+      System.arraycopy(current, 0, updated, 0, position);
+      System.arraycopy(current, position + 1, updated, position, current.length - position - 1);
+      if (listeners.compareAndSet(index, current, updated)) return true;
+    }
+  }
+
+  /**
+   * <p>Returns the listeners of a message type.</p>
+   *
+   * <p>The array is never modified and must not be modified by the caller.</p>
+   *
+   * @param type the message type
+   * @return the listeners at the time of the call
+   */
+  PluginListener[] get(MessageType type) {
+    return listeners.get(type.ordinal());
+  }
+
+  /**
+   * @return true if the listener is registered for any message type
+   */
+  boolean isRegistered(PluginListener listener) {
+    for (int i = 0; i < listeners.length(); i++)
+      if (indexOf(listeners.get(i), listener) >= 0) return true;
+    return false;
+  }
+
+  private static int indexOf(PluginListener[] array, PluginListener listener) {
+    for (int i = 0; i < array.length; i++)
+      if (array[i].equals(listener)) return i;
+    return -1;
+  }
+}
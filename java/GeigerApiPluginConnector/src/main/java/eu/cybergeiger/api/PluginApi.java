@@ -1,6 +1,13 @@
 package eu.cybergeiger.api;
 
+import eu.cybergeiger.api.communication.Capability;
+import eu.cybergeiger.api.communication.CommunicationOptions;
 import eu.cybergeiger.api.communication.GeigerCommunicator;
+import eu.cybergeiger.api.communication.MessageTransport;
+import eu.cybergeiger.api.communication.PendingRequests;
+import eu.cybergeiger.api.communication.ProtocolNegotiation;
+import eu.cybergeiger.api.communication.SharedMemoryTransport;
+import eu.cybergeiger.api.communication.Timeouts;
 import eu.cybergeiger.api.exceptions.CommunicationException;
 import eu.cybergeiger.api.message.GeigerUrl;
 import eu.cybergeiger.api.message.Message;
@@ -9,8 +16,10 @@ import eu.cybergeiger.api.plugin.*;
 import eu.cybergeiger.api.storage.PassthroughController;
 import eu.cybergeiger.api.utils.Platform;
 import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.serialization.WireFormat;
 import eu.cybergeiger.storage.StorageController;
 import eu.cybergeiger.storage.StorageException;
+import eu.cybergeiger.storage.utils.Futures;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.crypto.KeyAgreement;
@@ -22,10 +31,14 @@ import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
 import static eu.cybergeiger.api.communication.CommunicationHelper.sendAndWait;
+import static eu.cybergeiger.api.communication.CommunicationHelper.sendAsync;
 
 
 /**
@@ -51,11 +64,16 @@ public class PluginApi implements GeigerApi {
   private final PassthroughController storage;
   private String stateSaveDirectory = INITIAL_STATE_SAVE_DIRECTORY;
   private final boolean ignoreMessageSignature;
-  private PluginInformation masterInfo;
+  private volatile PluginInformation masterInfo;
 
-  private final Map<MessageType, List<PluginListener>> listeners = Collections.synchronizedMap(new HashMap<>());
+  private final ListenerRegistry listeners = new ListenerRegistry();
+  private final DispatchTracer tracer;
+  private final ListenerDispatcher dispatcher;
+  private final PendingRequests pendingRequests = new PendingRequests();
 
+  private final CommunicationOptions options;
   private final GeigerCommunicator communicator;
+  private volatile SharedMemoryTransport sharedMemory;
 
   /**
    * <p>Constructor called by LocalApiFactory.</p>
@@ -81,10 +99,41 @@ public class PluginApi implements GeigerApi {
   public PluginApi(String executor, String id, Declaration declaration,
                    String masterExecutor, boolean ignoreMessageSignature,
                    boolean skipInitialStateRestore) throws IOException {
+    this(executor, id, declaration, masterExecutor, ignoreMessageSignature,
+      skipInitialStateRestore, CommunicationOptions.DEFAULT);
+  }
+
+  /**
+   * <p>Constructor called by LocalApiFactory.</p>
+   *
+   * @param executor       the executor string of the plugin
+   * @param id             the id of the plugin
+   * @param declaration    declaration of data sharing
+   * @param masterExecutor Alternative master executor string.
+   * @param options        Tuning options for the communication with the master.
+   * @throws StorageException if the StorageController could not be initialized
+   */
+  public PluginApi(String executor, String id, Declaration declaration,
+                   String masterExecutor, boolean ignoreMessageSignature,
+                   boolean skipInitialStateRestore,
+                   CommunicationOptions options) throws IOException {
     this.executor = executor;
     this.id = id;
     this.declaration = declaration;
     this.ignoreMessageSignature = ignoreMessageSignature;
+    this.options = options;
+    tracer = new DispatchTracer(
+      options.getDispatchTraceCapacity(), options.getDispatchTraceSampleRate()
+    );
+    if (options.isAsyncListenerDispatch()) {
+      dispatcher = new ListenerDispatcher(
+        options.getExecutorStrategy().createExecutor(),
+        tracer,
+        options.getListenerQueueCapacity()
+      );
+    } else {
+      dispatcher = null;
+    }
     masterInfo = new PluginInformation(
       GeigerApi.MASTER_ID,
       masterExecutor,
@@ -94,13 +143,13 @@ public class PluginApi implements GeigerApi {
 
     if (!skipInitialStateRestore)
       restoreState();
-    communicator = new GeigerCommunicator(this);
+    communicator = new GeigerCommunicator(this, options);
     communicator.start();
-    if (masterInfo.getSecret().getBytes().length == 0)
+    if (masterInfo.getSecret().isEmpty())
       registerPlugin(); // Only register if not already.
     activatePlugin();
 
-    storage = new PassthroughController(this);
+    storage = new PassthroughController(this, options);
     registerListener(new MessageType[]{MessageType.STORAGE_EVENT}, storage);
   }
 
@@ -117,6 +166,39 @@ public class PluginApi implements GeigerApi {
     return declaration;
   }
 
+  /**
+   * <p>Returns the format payloads for the master are serialized in.</p>
+   *
+   * @return {@link WireFormat#V2} if the master confirmed the compact encoding
+   */
+  public WireFormat getWireFormat() {
+    return ProtocolNegotiation.getWireFormat(masterInfo);
+  }
+
+  /**
+   * @return the secret shared with the master, used to authenticate sessions with it
+   */
+  public CommunicationSecret getMasterSecret() {
+    return masterInfo.getSecret();
+  }
+
+  /**
+   * <p>Checks whether the master confirmed a capability during the last activation.</p>
+   *
+   * @param capability the capability to check
+   * @return true if the capability may be used
+   */
+  public boolean masterSupports(Capability capability) {
+    return masterInfo.supports(capability);
+  }
+
+  /**
+   * @return the maximum number of value bytes sent or requested in one chunk
+   */
+  public int getTransferChunkSize() {
+    return options.getTransferChunkSize();
+  }
+
   /**
    * <p>Obtain controller to access the storage.</p>
    *
@@ -132,33 +214,28 @@ public class PluginApi implements GeigerApi {
       MessageType.AUTH_ERROR
     };
 
-    private final Object receivedResponse = new Object();
-    private Message result;
+    private final CompletableFuture<Message> result = new CompletableFuture<>();
     private final GeigerApi api;
 
-    RegisterResultWaiter(GeigerApi api) {
+    RegisterResultWaiter(GeigerApi api, long timeoutMillis) {
       this.api = api;
       api.registerListener(TYPES, this);
+      Timeouts.within(result, timeoutMillis, "Did not receive register result in time.");
     }
 
     @Override
     public void pluginEvent(Message msg) {
-      synchronized (receivedResponse) {
-        if (result != null ||
-          msg.getAction() == null ||
-          !msg.getAction().getPath().equals("registerPlugin")) return;
-        result = msg;
-        receivedResponse.notifyAll();
-      }
+      if (msg.getAction() == null ||
+        !msg.getAction().getPath().equals("registerPlugin")) return;
+      result.complete(msg);
     }
 
     boolean waitForResult() throws InterruptedException, TimeoutException {
-      synchronized (receivedResponse) {
-        receivedResponse.wait(30000);
+      try {
+        return result.get().getType() == MessageType.AUTH_SUCCESS;
+      } catch (ExecutionException e) {
+        throw (TimeoutException) e.getCause();
       }
-      if (result == null)
-        throw new TimeoutException("Did not receive register result in time.");
-      return result.getType() == MessageType.AUTH_SUCCESS;
     }
 
     @Override
@@ -182,7 +259,9 @@ public class PluginApi implements GeigerApi {
 
       // Register result waiter before sending registration request in case
       // result is sent immediately.
-      try (RegisterResultWaiter resultWaiter = new RegisterResultWaiter(this)) {
+      try (RegisterResultWaiter resultWaiter = new RegisterResultWaiter(
+        this, getResponseTimeoutMillis(MessageType.REGISTER_PLUGIN)
+      )) {
         PluginInformation ownPluginInfo = new PluginInformation(
           id,
           executor,
@@ -232,51 +311,134 @@ public class PluginApi implements GeigerApi {
 
   @Override
   public void activatePlugin() throws CommunicationException {
+    Set<Capability> offered = EnumSet.noneOf(Capability.class);
+    offered.addAll(communicator.getCapabilities());
+    // Capabilities of a previous activation may not be supported by the current master.
+    masterInfo = masterInfo.withCapabilities(EnumSet.noneOf(Capability.class));
+    SharedMemoryTransport sharedMemory = recreateSharedMemoryTransport();
+    if (sharedMemory != null) offered.add(Capability.SHARED_MEMORY);
+    PluginInformation self = new PluginInformation(
+      id, executor, communicator.getPort(), declaration
+    ).withCapabilities(offered)
+      .withUnixSocketPath(communicator.getUnixSocketPath())
+      .withSharedMemoryPath(sharedMemory == null ? null : sharedMemory.getPath());
     try {
-      sendAndWait(
+      Message response = sendAndWait(
         this,
         new Message(
           id,
           MASTER_ID,
           MessageType.ACTIVATE_PLUGIN,
           new GeigerUrl(MASTER_ID, "activatePlugin"),
-          SerializerHelper.intToByteArray(communicator.getPort())
+          ProtocolNegotiation.toActivationPayload(self)
         )
       );
+      if (response.getType() == MessageType.COMAPI_SUCCESS) {
+        masterInfo = ProtocolNegotiation.readConfirmation(
+          response.getPayload(), masterInfo, offered
+        );
+      }
     } catch (TimeoutException | InterruptedException | IOException e) {
       throw new CommunicationException("Failed to activate plugin.", e);
     }
   }
 
-  @Override
-  public void deactivatePlugin() throws CommunicationException {
+  /**
+   * <p>Replaces the shared memory rings of a previous activation by empty ones.</p>
+   *
+   * @return the new transport or null if shared memory is not used
+   */
+  private synchronized SharedMemoryTransport recreateSharedMemoryTransport() {
+    if (sharedMemory != null) {
+      try {
+        sharedMemory.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to close shared memory transport.", e);
+      }
+      sharedMemory = null;
+    }
+    if (!options.isSharedMemory()) return null;
     try {
-      sendAndWait(this,
-        new Message(
-          id,
-          MASTER_ID,
-          MessageType.DEACTIVATE_PLUGIN,
-          null
-        )
+      sharedMemory = communicator.createSharedMemoryTransport(
+        Paths.get(stateSaveDirectory, "GeigerApi." + id).toString()
       );
-    } catch (TimeoutException | InterruptedException | IOException e) {
-      throw new CommunicationException("Failed to deactivate plugin.", e);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to create shared memory transport.", e);
     }
+    return sharedMemory;
+  }
+
+  private MessageTransport getTransport(PluginInformation info) {
+    SharedMemoryTransport sharedMemory = this.sharedMemory;
+    if (sharedMemory != null && info.supports(Capability.SHARED_MEMORY))
+      return sharedMemory;
+    return communicator;
+  }
+
+  @Override
+  public void deactivatePlugin() throws CommunicationException {
+    await(deactivatePluginAsync(), "Failed to deactivate plugin.");
+  }
+
+  @Override
+  public CompletableFuture<Void> deactivatePluginAsync() {
+    return request(
+      new Message(
+        id,
+        MASTER_ID,
+        MessageType.DEACTIVATE_PLUGIN,
+        null
+      ),
+      "Failed to deactivate plugin."
+    );
   }
 
   @Override
   public void deregisterPlugin() throws CommunicationException {
+    await(deregisterPluginAsync(), "Failed to deregister plugin.");
+  }
+
+  @Override
+  public CompletableFuture<Void> deregisterPluginAsync() {
+    return request(
+      new Message(
+        id,
+        MASTER_ID,
+        MessageType.DEREGISTER_PLUGIN,
+        new GeigerUrl(MASTER_ID, "deregisterPlugin")
+      ),
+      "Failed to deregister plugin."
+    );
+  }
+
+  /**
+   * <p>Sends a request to the master without waiting for the response.</p>
+   *
+   * @param message      the request
+   * @param errorMessage message of the exception the future fails with
+   * @return future completed once the master responded
+   */
+  private CompletableFuture<Void> request(Message message, String errorMessage) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    sendAsync(this, message).whenComplete((response, error) -> {
+      if (error == null) result.complete(null);
+      else result.completeExceptionally(new CommunicationException(errorMessage, error));
+    });
+    return result;
+  }
+
+  private static void await(CompletableFuture<Void> future, String errorMessage)
+    throws CommunicationException {
     try {
-      sendAndWait(this,
-        new Message(
-          id,
-          MASTER_ID,
-          MessageType.DEREGISTER_PLUGIN,
-          new GeigerUrl(MASTER_ID, "deregisterPlugin")
-        )
-      );
-    } catch (TimeoutException | InterruptedException | IOException e) {
-      throw new CommunicationException("Failed to deregister plugin.", e);
+      future.get();
+    } catch (InterruptedException e) {
+      future.cancel(false);
+      Thread.currentThread().interrupt();
+      throw new CommunicationException(errorMessage, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof CommunicationException)
+        throw (CommunicationException) e.getCause();
+      throw new CommunicationException(errorMessage, e.getCause());
     }
   }
 
@@ -360,13 +522,8 @@ public class PluginApi implements GeigerApi {
    */
   @Override
   public void registerListener(MessageType[] types, PluginListener listener) {
-    for (MessageType type : types) {
-      synchronized (listeners) {
-        listeners
-          .computeIfAbsent(type, k -> new Vector<>())
-          .add(listener);
-      }
-    }
+    for (MessageType type : types)
+      listeners.register(type, listener);
   }
 
   /**
@@ -379,13 +536,10 @@ public class PluginApi implements GeigerApi {
   public void deregisterListener(MessageType[] events, PluginListener listener) {
     if (events == null)
       events = MessageType.values();
-    for (MessageType e : events) {
-      synchronized (listeners) {
-        List<PluginListener> l = listeners.get(e);
-        if (l == null) continue;
-        l.remove(listener);
-      }
-    }
+    for (MessageType e : events)
+      listeners.deregister(e, listener);
+    if (dispatcher != null && !listeners.isRegistered(listener))
+      dispatcher.remove(listener);
   }
 
   @Override
@@ -400,12 +554,15 @@ public class PluginApi implements GeigerApi {
     int tries = 1;
     while (true) {
       try {
-        communicator.sendMessage(masterInfo, message);
+        PluginInformation masterInfo = this.masterInfo;
+        getTransport(masterInfo).sendMessage(masterInfo, message);
         break;
       } catch (IOException e) {
         if (tries == MAX_SEND_TRIES || !(e instanceof ConnectException))
           throw new CommunicationException("Failed to send message.", e);
         tries++;
+        // A restarted master has to negotiate its capabilities again.
+        masterInfo = masterInfo.withCapabilities(EnumSet.noneOf(Capability.class));
 
         PluginStarter.startPlugin(masterInfo, inBackground);
         try {
@@ -417,11 +574,53 @@ public class PluginApi implements GeigerApi {
     }
   }
 
+  @Override
+  public CompletableFuture<Void> sendMessageAsync(Message message) {
+    if (!message.getTargetId().equals(GeigerApi.MASTER_ID) ||
+      message.getType() == MessageType.RETURNING_CONTROL)
+      return GeigerApi.super.sendMessageAsync(message);
+    PluginInformation masterInfo = this.masterInfo;
+    CompletableFuture<Void> sent = getTransport(masterInfo).sendMessageAsync(masterInfo, message);
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    sent.whenComplete((ignored, error) -> {
+      if (error instanceof CompletionException && error.getCause() != null)
+        error = error.getCause();
+      if (error == null) {
+        result.complete(null);
+      } else if (error instanceof ConnectException) {
+        // The master is not running. Connecting fails right away, so starting the master and
+        // retrying happens in the calling thread.
+        try {
+          sendMessage(message);
+          result.complete(null);
+        } catch (CommunicationException e) {
+          result.completeExceptionally(e);
+        }
+      } else {
+        result.completeExceptionally(new CommunicationException("Failed to send message.", error));
+      }
+    });
+    return result;
+  }
+
   public void receivedMessage(Message message) throws CommunicationException {
+    receivedMessage(message, false);
+  }
+
+  /**
+   * <p>Processes a message received from the master.</p>
+   *
+   * @param message       the received message
+   * @param authenticated true if the message was received over an authenticated session, so its
+   *                      hash is not checked
+   * @throws CommunicationException if a response could not be sent
+   */
+  public void receivedMessage(Message message, boolean authenticated)
+    throws CommunicationException {
     if (!message.getSourceId().equals(GeigerApi.MASTER_ID)) return;
-    if (!ignoreMessageSignature &&
+    if (!ignoreMessageSignature && !authenticated &&
       !Arrays.asList(NO_AUTH_MESSAGE_TYPES).contains(message.getType()) &&
-      !(masterInfo.getSecret().getBytes().length == 0 &&
+      !(masterInfo.getSecret().isEmpty() &&
         Arrays.asList(TEMP_NO_AUTH_MESSAGE_TYPES).contains(message.getType())) &&
       !message.isHashValid(masterInfo.getSecret())) {
       sendMessage(new Message(
@@ -449,81 +648,131 @@ public class PluginApi implements GeigerApi {
       }
     }
 
+    pendingRequests.complete(message);
     notifyListener(message.getType(), message);
     if (message.getType().getId() < MessageType.ALL_EVENTS.getId())
       notifyListener(MessageType.ALL_EVENTS, message);
   }
 
   private void notifyListener(MessageType type, Message message) {
-    synchronized (listeners) {
-      List<PluginListener> listeners = this.listeners.get(type);
-      if (listeners == null) return;
-      for (PluginListener listener : listeners) {
-        logger.info(
-          "## notifying PluginListener " + listener +
-            "for msg " + message.getType() + " " + message.getAction()
-        );
-        listener.pluginEvent(message);
-        logger.info("## PluginEvent fired");
-      }
+    for (PluginListener listener : listeners.get(type)) {
+      if (dispatcher == null)
+        tracer.deliver(listener, message);
+      else if (!dispatcher.dispatch(listener, message) && listener == storage)
+        storage.changeEventDropped();
     }
   }
 
+  /**
+   * <p>Formats a sample of the recent listener notifications.</p>
+   *
+   * <p>Notifications are only recorded while {@link GeigerApi#logger} logs level FINE.</p>
+   *
+   * @return one line per notification, oldest first
+   */
+  public String dumpDispatchTrace() {
+    return tracer.dump();
+  }
+
+  /**
+   * <p>Number of messages waiting for each listener.</p>
+   *
+   * @return the queue depths or an empty map if listeners are notified synchronously
+   */
+  public Map<PluginListener, Integer> getListenerQueueDepths() {
+    return dispatcher == null ? Collections.emptyMap() : dispatcher.getQueueDepths();
+  }
+
+  /**
+   * @return the number of messages dropped because the queue of their listener was full
+   */
+  public long getDroppedListenerMessageCount() {
+    return dispatcher == null ? 0 : dispatcher.getDroppedCount();
+  }
+
+  @Override
+  public CompletableFuture<Message> expectResponse(Message request, MessageType[] responseTypes,
+                                                   long timeoutMillis) {
+    return pendingRequests.register(request, responseTypes, timeoutMillis);
+  }
+
+  @Override
+  public long getResponseTimeoutMillis(MessageType requestType) {
+    return options.getResponseTimeoutMillis(requestType);
+  }
+
+  /**
+   * @return the number of requests to the master which did not receive a response in time
+   */
+  public long getTimedOutRequestCount() {
+    return pendingRequests.getTimedOutCount();
+  }
+
   @Override
   public void registerMenu(MenuItem menu) throws CommunicationException {
+    await(registerMenuAsync(menu), "Failed to register menu.");
+  }
+
+  @Override
+  public CompletableFuture<Void> registerMenuAsync(MenuItem menu) {
+    byte[] payload;
     try {
-      sendAndWait(this, new Message(
-        id, MASTER_ID,
-        MessageType.REGISTER_MENU,
-        new GeigerUrl(MASTER_ID, "registerMenu"),
-        menu.toByteArray()
-      ));
-    } catch (IOException | InterruptedException | TimeoutException e) {
-      throw new CommunicationException("Failed to register menu.", e);
+      payload = menu.toByteArray();
+    } catch (IOException e) {
+      return Futures.failed(new CommunicationException("Failed to register menu.", e));
     }
+    return request(new Message(
+      id, MASTER_ID,
+      MessageType.REGISTER_MENU,
+      new GeigerUrl(MASTER_ID, "registerMenu"),
+      payload
+    ), "Failed to register menu.");
   }
 
   @Override
   public void enableMenu(String menu) throws CommunicationException {
-    try {
-      sendAndWait(this, new Message(
-        id, MASTER_ID,
-        MessageType.ENABLE_MENU,
-        new GeigerUrl(MASTER_ID, "enableMenu"),
-        menu.getBytes(StandardCharsets.UTF_8)
-      ));
-    } catch (IOException | InterruptedException | TimeoutException e) {
-      throw new CommunicationException("Failed to enable menu.", e);
-    }
+    await(enableMenuAsync(menu), "Failed to enable menu.");
+  }
+
+  @Override
+  public CompletableFuture<Void> enableMenuAsync(String menu) {
+    return request(new Message(
+      id, MASTER_ID,
+      MessageType.ENABLE_MENU,
+      new GeigerUrl(MASTER_ID, "enableMenu"),
+      menu.getBytes(StandardCharsets.UTF_8)
+    ), "Failed to enable menu.");
   }
 
   @Override
   public void disableMenu(String menu) throws CommunicationException {
-    try {
-      Message message = new Message(
-        id, MASTER_ID,
-        MessageType.DISABLE_MENU,
-        new GeigerUrl(MASTER_ID, "disableMenu")
-      );
-      message.setPayloadString(menu);
-      sendAndWait(this, message);
-    } catch (IOException | InterruptedException | TimeoutException e) {
-      throw new CommunicationException("Failed to disable menu.", e);
-    }
+    await(disableMenuAsync(menu), "Failed to disable menu.");
+  }
+
+  @Override
+  public CompletableFuture<Void> disableMenuAsync(String menu) {
+    Message message = new Message(
+      id, MASTER_ID,
+      MessageType.DISABLE_MENU,
+      new GeigerUrl(MASTER_ID, "disableMenu")
+    );
+    message.setPayloadString(menu);
+    return request(message, "Failed to disable menu.");
   }
 
   @Override
   public void deregisterMenu(String menu) throws CommunicationException {
-    try {
-      sendAndWait(this, new Message(
-        id, MASTER_ID,
-        MessageType.DEREGISTER_MENU,
-        new GeigerUrl(MASTER_ID, "deregisterMenu"),
-        menu.getBytes(StandardCharsets.UTF_8)
-      ));
-    } catch (IOException | InterruptedException | TimeoutException e) {
-      throw new CommunicationException("Failed to deregister menu.", e);
-    }
+    await(deregisterMenuAsync(menu), "Failed to deregister menu.");
+  }
+
+  @Override
+  public CompletableFuture<Void> deregisterMenuAsync(String menu) {
+    return request(new Message(
+      id, MASTER_ID,
+      MessageType.DEREGISTER_MENU,
+      new GeigerUrl(MASTER_ID, "deregisterMenu"),
+      menu.getBytes(StandardCharsets.UTF_8)
+    ), "Failed to deregister menu.");
   }
 
   /**
@@ -536,6 +785,16 @@ public class PluginApi implements GeigerApi {
 
   @Override
   public void close() throws IOException {
+    try {
+      storage.flushBufferedWrites();
+    } catch (StorageException e) {
+      logger.log(Level.WARNING, "Failed to send buffered storage writes.", e);
+    }
+    pendingRequests.failAll(new CommunicationException("PluginApi was closed."));
+    synchronized (this) {
+      if (sharedMemory != null) sharedMemory.close();
+    }
     communicator.close();
+    if (dispatcher != null) dispatcher.close();
   }
 }
@@ -0,0 +1,97 @@
+package eu.cybergeiger.api.communication;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * <p>Optional protocol features negotiated between a plugin and the master.</p>
+ *
+ * <p>A plugin offers features when it is activated and only uses those confirmed by the master.
+ * Masters not knowing about capabilities confirm none, so the legacy protocol is used.</p>
+ */
+public enum Capability {
+  /**
+   * <p>Length-prefixed frames carrying many outstanding messages over one connection.</p>
+   */
+  FRAMED_PROTOCOL(1),
+  /**
+   * <p>Unix domain socket the peer can be reached on besides its TCP port.</p>
+   *
+   * <p>Messages sent over it always use the framed protocol.</p>
+   */
+  UNIX_DOMAIN_SOCKET(2),
+  /**
+   * <p>Rings in memory mapped files created by the plugin.</p>
+   *
+   * @see SharedMemoryTransport
+   */
+  SHARED_MEMORY(4),
+  /**
+   * <p>Compact {@link eu.cybergeiger.serialization.WireFormat#V2 wire format} for messages sent
+   * over framed transports and for storage payloads.</p>
+   */
+  COMPACT_ENCODING(8),
+  /**
+   * <p>Storage values and search results transferred in bounded chunks instead of one
+   * message.</p>
+   */
+  CHUNKED_TRANSFER(16),
+  /**
+   * <p>Messages authenticated by HMACs keyed with the communication secret.</p>
+   *
+   * @see eu.cybergeiger.api.utils.HashType#isKeyed()
+   */
+  KEYED_INTEGRITY(32),
+  /**
+   * <p>Framed connections authenticated once by a challenge-response handshake. Messages sent
+   * over them are not hashed individually.</p>
+   *
+   * @see SessionAuthentication
+   */
+  SESSION_AUTHENTICATION(64),
+  /**
+   * <p>Storage calls reading or writing many nodes or values in one message.</p>
+   *
+   * @see eu.cybergeiger.storage.BatchResult
+   */
+  BATCH_OPERATIONS(128);
+
+  private final int flag;
+
+  Capability(int flag) {
+    this.flag = flag;
+  }
+
+  public int getFlag() {
+    return flag;
+  }
+
+  /**
+   * <p>Combines capabilities to a bit mask.</p>
+   *
+   * @param capabilities the capabilities to combine
+   * @return the bit mask
+   */
+  public static int toMask(Set<Capability> capabilities) {
+    int mask = 0;
+    for (Capability capability : capabilities)
+      mask |= capability.flag;
+    return mask;
+  }
+
+  /**
+   * <p>Gets the capabilities contained in a bit mask. Unknown bits are ignored.</p>
+   *
+   * @param mask the bit mask
+   * @return unmodifiable set of the known capabilities
+   */
+  public static Set<Capability> fromMask(int mask) {
+    Set<Capability> capabilities = EnumSet.noneOf(Capability.class);
+    for (Capability capability : values()) {
+      if ((mask & capability.flag) != 0)
+        capabilities.add(capability);
+    }
+    return Collections.unmodifiableSet(capabilities);
+  }
+}
@@ -7,58 +7,52 @@ import eu.cybergeiger.api.plugin.PluginListener;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
 /**
  * A helper class for sending and waiting on Messages.
  */
 public class CommunicationHelper {
+  private static final MessageType[] DEFAULT_RESPONSE_TYPES = new MessageType[]{
+    MessageType.COMAPI_SUCCESS,
+    MessageType.COMAPI_ERROR,
+    MessageType.AUTH_ERROR
+  };
+  static final String TIMEOUT_MESSAGE = "Timeout reached while waiting for reply.";
+
   private static class Listener implements PluginListener {
     private final GeigerApi api;
     private final Message requestMessage;
     private final MessageType[] responseTypes;
-    private Message responseMessage = null;
-    private final Object receivedResponse = new Object();
-
+    private final CompletableFuture<Message> response;
 
-    public Listener(GeigerApi api, Message requestMessage, MessageType[] responseTypes) {
+    public Listener(GeigerApi api, Message requestMessage, MessageType[] responseTypes,
+                    CompletableFuture<Message> response) {
       this.api = api;
       this.requestMessage = requestMessage;
       this.responseTypes = responseTypes;
+      this.response = response;
       this.api.registerListener(responseTypes, this);
     }
 
     @Override
     public void pluginEvent(Message message) {
-      synchronized (receivedResponse) {
-        if (responseMessage != null ||
-          !Objects.equals(requestMessage.getRequestId(), message.getRequestId()) ||
-          !Objects.equals(requestMessage.getTargetId(), message.getSourceId()) ||
-          !Objects.equals(requestMessage.getSourceId(), message.getTargetId()))
-          return;
-        responseMessage = message;
-        receivedResponse.notifyAll();
-      }
+      if (response.isDone() ||
+        !Objects.equals(requestMessage.getRequestId(), message.getRequestId()) ||
+        !Objects.equals(requestMessage.getTargetId(), message.getSourceId()) ||
+        !Objects.equals(requestMessage.getSourceId(), message.getTargetId()))
+        return;
+      response.complete(message);
     }
 
     public void dispose() {
       api.deregisterListener(responseTypes, this);
     }
-
-    public Message waitForResult(long timeoutMillis) throws TimeoutException, InterruptedException {
-      if (responseMessage == null) {
-        synchronized (receivedResponse) {
-          receivedResponse.wait(timeoutMillis);
-        }
-      }
-      if (responseMessage == null) {
-        throw new TimeoutException("Timeout reached while waiting for reply.");
-      }
-      return responseMessage;
-    }
   }
 
-
   /**
    * <p>Sends a message and waits for the first
    * returning message of a specific type with the same requestId.</p>
@@ -69,17 +63,15 @@ public class CommunicationHelper {
    */
   public static Message sendAndWait(GeigerApi api, Message message)
     throws InterruptedException, TimeoutException, IOException {
-    return sendAndWait(api, message, new MessageType[]{
-      MessageType.COMAPI_SUCCESS,
-      MessageType.COMAPI_ERROR,
-      MessageType.AUTH_ERROR
-    });
+    return sendAndWait(api, message, DEFAULT_RESPONSE_TYPES);
   }
 
   /**
    * <p>Sends a message and waits for the first
    * returning message of a specific type with the same requestId.</p>
    *
+   * <p>Waits as long as the API allows for responses to the type of the message.</p>
+   *
    * @param api           GeigerAPI to communicate over.
    * @param message       Message to send.
    * @param responseTypes Possible message types of response message.
@@ -87,7 +79,9 @@ public class CommunicationHelper {
    */
   public static Message sendAndWait(GeigerApi api, Message message, MessageType[] responseTypes)
     throws InterruptedException, TimeoutException, IOException {
-    return sendAndWait(api, message, responseTypes, 30000);
+    return sendAndWait(
+      api, message, responseTypes, api.getResponseTimeoutMillis(message.getType())
+    );
   }
 
   /**
@@ -103,10 +97,98 @@ public class CommunicationHelper {
   public static Message sendAndWait(GeigerApi api, Message message,
                                     MessageType[] responseTypes, long timeoutMillis)
     throws InterruptedException, TimeoutException, IOException {
-    Listener listener = new Listener(api, message, responseTypes);
-    api.sendMessage(message);
-    Message result = listener.waitForResult(timeoutMillis);
-    listener.dispose();
-    return result;
+    CompletableFuture<Message> response = sendAsync(api, message, responseTypes, timeoutMillis);
+    try {
+      return response.get();
+    } catch (InterruptedException e) {
+      response.cancel(false);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof TimeoutException) throw (TimeoutException) cause;
+      if (cause instanceof IOException) throw (IOException) cause;
+      throw new IOException("Failed to send message.", cause);
+    }
+  }
+
+  /**
+   * <p>Sends a message without blocking until the response arrives.</p>
+   *
+   * <p>Waits for the same response types as {@link #sendAndWait(GeigerApi, Message)}.</p>
+   *
+   * @param api     GeigerAPI to communicate over.
+   * @param message Message to send.
+   * @return Future completed with the response Message.
+   */
+  public static CompletableFuture<Message> sendAsync(GeigerApi api, Message message) {
+    return sendAsync(api, message, DEFAULT_RESPONSE_TYPES);
+  }
+
+  /**
+   * <p>Sends a message without blocking until the response arrives.</p>
+   *
+   * <p>Waits as long as the API allows for responses to the type of the message.</p>
+   *
+   * @param api           GeigerAPI to communicate over.
+   * @param message       Message to send.
+   * @param responseTypes Possible message types of response message.
+   * @return Future completed with the response Message.
+   */
+  public static CompletableFuture<Message> sendAsync(GeigerApi api, Message message,
+                                                     MessageType[] responseTypes) {
+    return sendAsync(api, message, responseTypes, api.getResponseTimeoutMillis(message.getType()));
+  }
+
+  /**
+   * <p>Sends a message without blocking until the response arrives.</p>
+   *
+   * <p>The future is completed with the first message of one of the response types carrying the
+   * same requestId. It fails with a {@link TimeoutException} if no response arrived in time and
+   * with an {@link IOException} if the message could not be sent. Dependent actions run on the
+   * thread receiving the response and must not block.</p>
+   *
+   * @param api           GeigerAPI to communicate over.
+   * @param message       Message to send.
+   * @param responseTypes Possible message types of response message.
+   * @param timeoutMillis Timeout in milliseconds.
+   * @return Future completed with the response Message.
+   */
+  public static CompletableFuture<Message> sendAsync(GeigerApi api, Message message,
+                                                     MessageType[] responseTypes,
+                                                     long timeoutMillis) {
+    // Register before sending in case the response arrives immediately.
+    CompletableFuture<Message> response = api.expectResponse(message, responseTypes, timeoutMillis);
+    api.sendMessageAsync(message).whenComplete((result, error) -> {
+      if (error != null) response.completeExceptionally(unwrap(error));
+    });
+    return response;
+  }
+
+  /**
+   * <p>Waits for the response to a request by listening for all messages of the response
+   * types.</p>
+   *
+   * <p>Every response is compared to every request waiting this way. Used by APIs not offering
+   * a faster way to match responses to requests.</p>
+   *
+   * @param api           GeigerAPI to listen on.
+   * @param request       Message to wait for the response of.
+   * @param responseTypes Possible message types of response message.
+   * @param timeoutMillis Timeout in milliseconds.
+   * @return Future completed with the response Message.
+   */
+  public static CompletableFuture<Message> listenForResponse(GeigerApi api, Message request,
+                                                             MessageType[] responseTypes,
+                                                             long timeoutMillis) {
+    CompletableFuture<Message> response = new CompletableFuture<>();
+    Listener listener = new Listener(api, request, responseTypes, response);
+    response.whenComplete((result, error) -> listener.dispose());
+    return Timeouts.within(response, timeoutMillis, TIMEOUT_MESSAGE);
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null)
+      return error.getCause();
+    return error;
   }
 }
@@ -0,0 +1,570 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.utils.HashType;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * <p>Tuning options for the communication between a plugin and the master.</p>
+ *
+ * <p>Instances are immutable. Use the {@code with...} methods to derive modified options.</p>
+ */
+public class CommunicationOptions {
+  public static final CommunicationOptions DEFAULT = new CommunicationOptions();
+
+  private boolean connectionPooling = false;
+  private int maxIdleConnections = 4;
+  private long connectionIdleTimeoutMillis = 30000;
+  private long acknowledgeTimeoutMillis = 20000;
+  private boolean nonBlockingServer = false;
+  private int eventLoopThreads = 1;
+  private ExecutorStrategy executorStrategy = ExecutorStrategy.fixedThreadPool();
+  private boolean framedProtocol = false;
+  private boolean compactEncoding = false;
+  private boolean chunkedTransfer = false;
+  private boolean batchOperations = false;
+  private int transferChunkSize = 256 * 1024;
+  private HashType integrityHashType = HashType.SHA512;
+  private boolean sessionAuthentication = false;
+  private boolean unixDomainSockets = false;
+  private boolean sharedMemory = false;
+  private int sharedMemoryCapacity = 1 << 20;
+  private long responseTimeoutMillis = 30000;
+  private Map<MessageType, Long> responseTimeoutsMillis = new EnumMap<>(MessageType.class);
+  private boolean asyncListenerDispatch = false;
+  private int listenerQueueCapacity = 1024;
+  private int dispatchTraceCapacity = 1024;
+  private int dispatchTraceSampleRate = 64;
+  private int nodeCacheCapacity = 0;
+  private long nodeCacheTtlMillis = 10000;
+  private long writeBehindDelayMillis = 0;
+  private int writeBehindMaxPendingWrites = 256;
+
+  private CommunicationOptions() {
+  }
+
+  private CommunicationOptions(CommunicationOptions other) {
+    connectionPooling = other.connectionPooling;
+    maxIdleConnections = other.maxIdleConnections;
+    connectionIdleTimeoutMillis = other.connectionIdleTimeoutMillis;
+    acknowledgeTimeoutMillis = other.acknowledgeTimeoutMillis;
+    nonBlockingServer = other.nonBlockingServer;
+    eventLoopThreads = other.eventLoopThreads;
+    executorStrategy = other.executorStrategy;
+    framedProtocol = other.framedProtocol;
+    compactEncoding = other.compactEncoding;
+    chunkedTransfer = other.chunkedTransfer;
+    batchOperations = other.batchOperations;
+    transferChunkSize = other.transferChunkSize;
+    integrityHashType = other.integrityHashType;
+    sessionAuthentication = other.sessionAuthentication;
+    unixDomainSockets = other.unixDomainSockets;
+    sharedMemory = other.sharedMemory;
+    sharedMemoryCapacity = other.sharedMemoryCapacity;
+    responseTimeoutMillis = other.responseTimeoutMillis;
+    responseTimeoutsMillis = new EnumMap<>(other.responseTimeoutsMillis);
+    asyncListenerDispatch = other.asyncListenerDispatch;
+    listenerQueueCapacity = other.listenerQueueCapacity;
+    dispatchTraceCapacity = other.dispatchTraceCapacity;
+    dispatchTraceSampleRate = other.dispatchTraceSampleRate;
+    nodeCacheCapacity = other.nodeCacheCapacity;
+    nodeCacheTtlMillis = other.nodeCacheTtlMillis;
+    writeBehindDelayMillis = other.writeBehindDelayMillis;
+    writeBehindMaxPendingWrites = other.writeBehindMaxPendingWrites;
+  }
+
+  /**
+   * <p>Whether outgoing connections are kept open and reused for later messages.</p>
+   *
+   * <p>Only enable this if the peers keep connections open after acknowledging a message. The
+   * Dart master closes every connection after one message, so it cannot reuse them.</p>
+   *
+   * @return true if connections are pooled
+   */
+  public boolean isConnectionPooling() {
+    return connectionPooling;
+  }
+
+  public CommunicationOptions withConnectionPooling(boolean connectionPooling) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.connectionPooling = connectionPooling;
+    return options;
+  }
+
+  /**
+   * <p>Maximum number of idle connections kept open per target port.</p>
+   *
+   * @return the maximum number of idle connections
+   */
+  public int getMaxIdleConnections() {
+    return maxIdleConnections;
+  }
+
+  public CommunicationOptions withMaxIdleConnections(int maxIdleConnections) {
+    if (maxIdleConnections < 0)
+      throw new IllegalArgumentException("\"maxIdleConnections\" cannot be negative.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.maxIdleConnections = maxIdleConnections;
+    return options;
+  }
+
+  /**
+   * <p>Time after which an unused connection is closed.</p>
+   *
+   * <p>Applies to incoming connections waiting for their next message. Pooled outgoing
+   * connections are closed after half of it, so they are not reused while the peer closes
+   * them.</p>
+   *
+   * @return the idle timeout in milliseconds
+   */
+  public long getConnectionIdleTimeoutMillis() {
+    return connectionIdleTimeoutMillis;
+  }
+
+  public CommunicationOptions withConnectionIdleTimeoutMillis(long connectionIdleTimeoutMillis) {
+    if (connectionIdleTimeoutMillis <= 0)
+      throw new IllegalArgumentException("\"connectionIdleTimeoutMillis\" must be positive.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.connectionIdleTimeoutMillis = connectionIdleTimeoutMillis;
+    return options;
+  }
+
+  /**
+   * <p>Time to wait for the receiver to acknowledge a message before the connection is dropped.</p>
+   *
+   * @return the acknowledge timeout in milliseconds
+   */
+  public long getAcknowledgeTimeoutMillis() {
+    return acknowledgeTimeoutMillis;
+  }
+
+  public CommunicationOptions withAcknowledgeTimeoutMillis(long acknowledgeTimeoutMillis) {
+    if (acknowledgeTimeoutMillis <= 0)
+      throw new IllegalArgumentException("\"acknowledgeTimeoutMillis\" must be positive.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.acknowledgeTimeoutMillis = acknowledgeTimeoutMillis;
+    return options;
+  }
+
+  /**
+   * <p>Whether incoming messages are received by non-blocking event loops instead of one
+   * blocking thread per connection.</p>
+   *
+   * @return true if the selector based server is used
+   */
+  public boolean isNonBlockingServer() {
+    return nonBlockingServer;
+  }
+
+  public CommunicationOptions withNonBlockingServer(boolean nonBlockingServer) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.nonBlockingServer = nonBlockingServer;
+    return options;
+  }
+
+  /**
+   * <p>Number of event loop threads used by the non-blocking server.</p>
+   *
+   * @return the number of event loop threads
+   */
+  public int getEventLoopThreads() {
+    return eventLoopThreads;
+  }
+
+  public CommunicationOptions withEventLoopThreads(int eventLoopThreads) {
+    if (eventLoopThreads < 1)
+      throw new IllegalArgumentException("\"eventLoopThreads\" must be at least 1.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.eventLoopThreads = eventLoopThreads;
+    return options;
+  }
+
+  /**
+   * <p>Strategy creating the executor incoming messages are processed on.</p>
+   *
+   * @return the executor strategy
+   */
+  public ExecutorStrategy getExecutorStrategy() {
+    return executorStrategy;
+  }
+
+  public CommunicationOptions withExecutorStrategy(ExecutorStrategy executorStrategy) {
+    if (executorStrategy == null)
+      throw new IllegalArgumentException("\"executorStrategy\" cannot be null.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.executorStrategy = executorStrategy;
+    return options;
+  }
+
+  /**
+   * <p>Whether the framed protocol is offered to the master.</p>
+   *
+   * <p>It is only used if the master confirms it during activation.</p>
+   *
+   * @return true if the framed protocol is offered
+   */
+  public boolean isFramedProtocol() {
+    return framedProtocol;
+  }
+
+  public CommunicationOptions withFramedProtocol(boolean framedProtocol) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.framedProtocol = framedProtocol;
+    return options;
+  }
+
+  /**
+   * <p>Whether the compact {@link eu.cybergeiger.serialization.WireFormat#V2 wire format} is
+   * offered to the master.</p>
+   *
+   * <p>Messages over framed transports and storage payloads only use it once the master confirmed
+   * it. Incoming messages are accepted in either format.</p>
+   *
+   * @return true if the compact wire format is offered
+   */
+  public boolean isCompactEncoding() {
+    return compactEncoding;
+  }
+
+  public CommunicationOptions withCompactEncoding(boolean compactEncoding) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.compactEncoding = compactEncoding;
+    return options;
+  }
+
+  /**
+   * <p>Whether chunked transfer of storage values and search results is offered to the
+   * master.</p>
+   *
+   * <p>Value streams and search pages fall back to whole values and results if the master did
+   * not confirm it.</p>
+   *
+   * @return true if chunked transfer is offered
+   */
+  public boolean isChunkedTransfer() {
+    return chunkedTransfer;
+  }
+
+  public CommunicationOptions withChunkedTransfer(boolean chunkedTransfer) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.chunkedTransfer = chunkedTransfer;
+    return options;
+  }
+
+  /**
+   * <p>Whether storage calls on many nodes or values at once are offered to the master.</p>
+   *
+   * <p>Batch operations fall back to one call per item if the master did not confirm it.</p>
+   *
+   * @return true if batch operations are offered
+   */
+  public boolean isBatchOperations() {
+    return batchOperations;
+  }
+
+  public CommunicationOptions withBatchOperations(boolean batchOperations) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.batchOperations = batchOperations;
+    return options;
+  }
+
+  /**
+   * <p>Maximum number of value bytes carried by one message of a chunked transfer.</p>
+   *
+   * @return the chunk size in bytes
+   */
+  public int getTransferChunkSize() {
+    return transferChunkSize;
+  }
+
+  public CommunicationOptions withTransferChunkSize(int transferChunkSize) {
+    if (transferChunkSize <= 0)
+      throw new IllegalArgumentException("\"transferChunkSize\" must be positive.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.transferChunkSize = transferChunkSize;
+    return options;
+  }
+
+  /**
+   * <p>Type of the hash authenticating sent messages.</p>
+   *
+   * <p>Keyed types are offered to the master and only used once it confirmed them. Until then
+   * messages are hashed with {@link HashType#SHA512}.</p>
+   *
+   * @return the hash type
+   */
+  public HashType getIntegrityHashType() {
+    return integrityHashType;
+  }
+
+  public CommunicationOptions withIntegrityHashType(HashType integrityHashType) {
+    if (integrityHashType == null)
+      throw new IllegalArgumentException("\"integrityHashType\" cannot be null.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.integrityHashType = integrityHashType;
+    return options;
+  }
+
+  /**
+   * <p>Whether framed connections are authenticated once instead of hashing every message.</p>
+   *
+   * <p>It is only used if the master confirms it during activation. Messages sent over other
+   * transports are still hashed individually.</p>
+   *
+   * @return true if session authentication is offered
+   */
+  public boolean isSessionAuthentication() {
+    return sessionAuthentication;
+  }
+
+  public CommunicationOptions withSessionAuthentication(boolean sessionAuthentication) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.sessionAuthentication = sessionAuthentication;
+    return options;
+  }
+
+  /**
+   * <p>Whether the plugin additionally listens on a Unix domain socket and offers it to the
+   * master.</p>
+   *
+   * <p>Ignored if the runtime does not support Unix domain sockets. Messages sent over them use
+   * the framed protocol.</p>
+   *
+   * @return true if Unix domain sockets are used where possible
+   */
+  public boolean isUnixDomainSockets() {
+    return unixDomainSockets;
+  }
+
+  public CommunicationOptions withUnixDomainSockets(boolean unixDomainSockets) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.unixDomainSockets = unixDomainSockets;
+    return options;
+  }
+
+  /**
+   * <p>Whether shared memory rings in the state directory are offered to the master.</p>
+   *
+   * <p>Messages not fitting into a ring are still sent over a socket.</p>
+   *
+   * @return true if shared memory is offered
+   */
+  public boolean isSharedMemory() {
+    return sharedMemory;
+  }
+
+  public CommunicationOptions withSharedMemory(boolean sharedMemory) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.sharedMemory = sharedMemory;
+    return options;
+  }
+
+  /**
+   * <p>Size in bytes of each of the two shared memory rings.</p>
+   *
+   * @return the ring capacity
+   */
+  public int getSharedMemoryCapacity() {
+    return sharedMemoryCapacity;
+  }
+
+  public CommunicationOptions withSharedMemoryCapacity(int sharedMemoryCapacity) {
+    if (sharedMemoryCapacity < 1024)
+      throw new IllegalArgumentException("\"sharedMemoryCapacity\" must be at least 1024.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.sharedMemoryCapacity = sharedMemoryCapacity;
+    return options;
+  }
+
+  /**
+   * <p>Time to wait for the response to a request of the given type.</p>
+   *
+   * @param requestType the type of the request
+   * @return the timeout in milliseconds
+   */
+  public long getResponseTimeoutMillis(MessageType requestType) {
+    Long timeout = responseTimeoutsMillis.get(requestType);
+    return timeout == null ? responseTimeoutMillis : timeout;
+  }
+
+  /**
+   * <p>Sets the response timeout of all request types without a timeout of their own.</p>
+   */
+  public CommunicationOptions withResponseTimeoutMillis(long responseTimeoutMillis) {
+    if (responseTimeoutMillis <= 0)
+      throw new IllegalArgumentException("\"responseTimeoutMillis\" must be positive.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.responseTimeoutMillis = responseTimeoutMillis;
+    return options;
+  }
+
+  /**
+   * <p>Sets the response timeout of one request type.</p>
+   */
+  public CommunicationOptions withResponseTimeoutMillis(MessageType requestType,
+                                                        long responseTimeoutMillis) {
+    if (responseTimeoutMillis <= 0)
+      throw new IllegalArgumentException("\"responseTimeoutMillis\" must be positive.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.responseTimeoutsMillis.put(requestType, responseTimeoutMillis);
+    return options;
+  }
+
+  /**
+   * <p>Whether listeners are notified on separate threads instead of the thread receiving the
+   * message.</p>
+   *
+   * <p>Each listener still receives messages in order. A slow listener delays neither the
+   * acknowledgement of the message nor other listeners.</p>
+   *
+   * @return true if listeners are notified asynchronously
+   */
+  public boolean isAsyncListenerDispatch() {
+    return asyncListenerDispatch;
+  }
+
+  public CommunicationOptions withAsyncListenerDispatch(boolean asyncListenerDispatch) {
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.asyncListenerDispatch = asyncListenerDispatch;
+    return options;
+  }
+
+  /**
+   * <p>Maximum number of messages waiting for a listener if listeners are notified
+   * asynchronously.</p>
+   *
+   * <p>Further messages for that listener are dropped until it caught up.</p>
+   *
+   * @return the queue capacity per listener
+   */
+  public int getListenerQueueCapacity() {
+    return listenerQueueCapacity;
+  }
+
+  public CommunicationOptions withListenerQueueCapacity(int listenerQueueCapacity) {
+    if (listenerQueueCapacity < 1)
+      throw new IllegalArgumentException("\"listenerQueueCapacity\" must be at least 1.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.listenerQueueCapacity = listenerQueueCapacity;
+    return options;
+  }
+
+  /**
+   * <p>Number of listener notifications kept for tracing.</p>
+   *
+   * <p>Notifications are only traced while the GeigerApi logger logs level FINE.</p>
+   *
+   * @return the number of traced notifications kept
+   */
+  public int getDispatchTraceCapacity() {
+    return dispatchTraceCapacity;
+  }
+
+  public CommunicationOptions withDispatchTraceCapacity(int dispatchTraceCapacity) {
+    if (dispatchTraceCapacity < 1)
+      throw new IllegalArgumentException("\"dispatchTraceCapacity\" must be at least 1.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.dispatchTraceCapacity = dispatchTraceCapacity;
+    return options;
+  }
+
+  /**
+   * <p>On average one in this many listener notifications is traced.</p>
+   *
+   * @return the sample rate
+   */
+  public int getDispatchTraceSampleRate() {
+    return dispatchTraceSampleRate;
+  }
+
+  public CommunicationOptions withDispatchTraceSampleRate(int dispatchTraceSampleRate) {
+    if (dispatchTraceSampleRate < 1)
+      throw new IllegalArgumentException("\"dispatchTraceSampleRate\" must be at least 1.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.dispatchTraceSampleRate = dispatchTraceSampleRate;
+    return options;
+  }
+
+  /**
+   * <p>Maximum number of nodes whose values the storage keeps in memory after reading them from
+   * the master, or 0 to always read from the master.</p>
+   *
+   * <p>Cached nodes are dropped as soon as the master reports a change to them.</p>
+   *
+   * @return the capacity of the node cache
+   */
+  public int getNodeCacheCapacity() {
+    return nodeCacheCapacity;
+  }
+
+  public CommunicationOptions withNodeCacheCapacity(int nodeCacheCapacity) {
+    if (nodeCacheCapacity < 0)
+      throw new IllegalArgumentException("\"nodeCacheCapacity\" cannot be negative.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.nodeCacheCapacity = nodeCacheCapacity;
+    return options;
+  }
+
+  /**
+   * <p>Time after which cached nodes are read from the master again, even if no change was
+   * reported.</p>
+   *
+   * @return the time to live in milliseconds
+   */
+  public long getNodeCacheTtlMillis() {
+    return nodeCacheTtlMillis;
+  }
+
+  public CommunicationOptions withNodeCacheTtlMillis(long nodeCacheTtlMillis) {
+    if (nodeCacheTtlMillis <= 0)
+      throw new IllegalArgumentException("\"nodeCacheTtlMillis\" must be positive.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.nodeCacheTtlMillis = nodeCacheTtlMillis;
+    return options;
+  }
+
+  /**
+   * <p>Time the storage buffers node and value writes before sending them to the master, or 0
+   * to send each write immediately.</p>
+   *
+   * <p>Buffered writes to the same node or value are combined. {@code addOrUpdate} and
+   * {@code addOrUpdateValue} then return before the write reached the master. Whether they added
+   * something is unknown at that point, so they always report false. Use {@code add},
+   * {@code update}, {@code addValue} or {@code updateValue} where it matters, as these are sent
+   * immediately. Failed writes are reported by the next {@code flush} or {@code close} of the
+   * storage.</p>
+   *
+   * @return the write-behind delay in milliseconds
+   */
+  public long getWriteBehindDelayMillis() {
+    return writeBehindDelayMillis;
+  }
+
+  public CommunicationOptions withWriteBehindDelayMillis(long writeBehindDelayMillis) {
+    if (writeBehindDelayMillis < 0)
+      throw new IllegalArgumentException("\"writeBehindDelayMillis\" cannot be negative.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.writeBehindDelayMillis = writeBehindDelayMillis;
+    return options;
+  }
+
+  /**
+   * <p>Number of buffered writes after which they are sent without waiting for the write-behind
+   * delay.</p>
+   *
+   * @return the maximum number of pending writes
+   */
+  public int getWriteBehindMaxPendingWrites() {
+    return writeBehindMaxPendingWrites;
+  }
+
+  public CommunicationOptions withWriteBehindMaxPendingWrites(int writeBehindMaxPendingWrites) {
+    if (writeBehindMaxPendingWrites < 1)
+      throw new IllegalArgumentException("\"writeBehindMaxPendingWrites\" must be at least 1.");
+    CommunicationOptions options = new CommunicationOptions(this);
+    options.writeBehindMaxPendingWrites = writeBehindMaxPendingWrites;
+    return options;
+  }
+}
@@ -0,0 +1,212 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * <p>Keeps connections to other plugins open so consecutive messages can reuse them.</p>
+ *
+ * <p>Idle connections are kept per target port. Before an idle connection is handed out again it
+ * is checked for having been closed by the peer. Connections idle for longer than half the
+ * configured timeout are closed in the background, well before the peer closes them after the
+ * full timeout.</p>
+ */
+class ConnectionPool implements Closeable {
+  private static final String HOST = "localhost";
+
+  /**
+   * <p>A single connection to a plugin.</p>
+   */
+  static class Connection implements Closeable {
+    private final int port;
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private final ByteBuffer probe = ByteBuffer.allocate(1);
+    private boolean reused = false;
+    private long lastUsed = System.currentTimeMillis();
+
+    private Connection(int port, SocketChannel channel) throws IOException {
+      this.port = port;
+      this.channel = channel;
+      Socket socket = channel.socket();
+      socket.setKeepAlive(true);
+      socket.setTcpNoDelay(true);
+      in = new BufferedInputStream(socket.getInputStream());
+      out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public Socket getSocket() {
+      return channel.socket();
+    }
+
+    public InputStream getInputStream() {
+      return in;
+    }
+
+    public OutputStream getOutputStream() {
+      return out;
+    }
+
+    /**
+     * <p>Whether this connection was already used for an earlier message.</p>
+     *
+     * <p>A failure on a reused connection usually means the peer closed it while it was idle.</p>
+     *
+     * @return true if the connection was taken from the pool
+     */
+    public boolean isReused() {
+      return reused;
+    }
+
+    /**
+     * <p>Checks without blocking whether the peer closed the connection or sent unexpected data.</p>
+     */
+    private boolean isHealthy() {
+      if (!channel.isOpen() || !channel.isConnected()) return false;
+      try {
+        probe.clear();
+        channel.configureBlocking(false);
+        int read;
+        try {
+          read = channel.read(probe);
+        } finally {
+          channel.configureBlocking(true);
+        }
+        return read == 0;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.FINE, "Failed to close pooled connection.", e);
+      }
+    }
+  }
+
+  private final int maxIdleConnections;
+  private final long idleTimeoutMillis;
+  private final Map<Integer, Deque<Connection>> idleConnections = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService evictor;
+  private volatile boolean closed = false;
+
+  ConnectionPool(CommunicationOptions options) {
+    maxIdleConnections = options.getMaxIdleConnections();
+    idleTimeoutMillis = Math.max(options.getConnectionIdleTimeoutMillis() / 2, 1);
+    evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "GeigerConnectionEvictor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(idleTimeoutMillis / 2, 1);
+    evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * <p>Returns an idle connection to the port or opens a new one.</p>
+   *
+   * @param port the port to connect to
+   * @return a connection exclusively owned by the caller until it is released or discarded
+   * @throws IOException if a new connection could not be opened
+   */
+  Connection acquire(int port) throws IOException {
+    if (closed) throw new IOException("Connection pool is closed.");
+    Deque<Connection> idle = idleConnections.get(port);
+    if (idle != null) {
+      Connection connection;
+      while ((connection = idle.pollFirst()) != null) {
+        if (isExpired(connection, System.currentTimeMillis()) || !connection.isHealthy()) {
+          connection.close();
+          continue;
+        }
+        connection.reused = true;
+        return connection;
+      }
+    }
+    SocketChannel channel = SocketChannel.open(new InetSocketAddress(HOST, port));
+    try {
+      return new Connection(port, channel);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * <p>Returns a connection to the pool after a message was successfully exchanged.</p>
+   *
+   * @param connection the connection to return
+   */
+  void release(Connection connection) {
+    connection.lastUsed = System.currentTimeMillis();
+    Deque<Connection> idle = idleConnections.computeIfAbsent(
+      connection.port, k -> new ConcurrentLinkedDeque<>()
+    );
+    if (closed || idle.size() >= maxIdleConnections) {
+      connection.close();
+      return;
+    }
+    idle.offerFirst(connection);
+    if (closed && idle.remove(connection))
+      connection.close();
+  }
+
+  /**
+   * <p>Closes a connection which is in an unknown state.</p>
+   *
+   * @param connection the connection to drop
+   */
+  void discard(Connection connection) {
+    connection.close();
+  }
+
+  private boolean isExpired(Connection connection, long now) {
+    return now - connection.lastUsed >= idleTimeoutMillis;
+  }
+
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    for (Deque<Connection> idle : idleConnections.values()) {
+      Iterator<Connection> iterator = idle.descendingIterator();
+      while (iterator.hasNext()) {
+        Connection connection = iterator.next();
+        if (isExpired(connection, now) && idle.remove(connection))
+          connection.close();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    evictor.shutdownNow();
+    for (Deque<Connection> idle : idleConnections.values()) {
+      Connection connection;
+      while ((connection = idle.pollFirst()) != null)
+        connection.close();
+    }
+  }
+}
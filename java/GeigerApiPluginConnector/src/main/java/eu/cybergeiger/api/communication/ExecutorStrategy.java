@@ -0,0 +1,55 @@
+package eu.cybergeiger.api.communication;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Creates the executor incoming messages are processed on.</p>
+ */
+public interface ExecutorStrategy {
+  /**
+   * <p>Creates a new executor. It is shut down when the communicator is closed.</p>
+   *
+   * @return the executor to process messages on
+   */
+  ExecutorService createExecutor();
+
+  /**
+   * <p>Processes messages on a fixed pool with one thread per available processor.</p>
+   *
+   * @return the strategy
+   */
+  static ExecutorStrategy fixedThreadPool() {
+    return fixedThreadPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * <p>Processes messages on a fixed pool of threads.</p>
+   *
+   * <p>At most {@code threads} messages are processed at the same time. Listeners blocking on
+   * further messages may therefore stall until their requests time out.</p>
+   *
+   * @param threads the number of threads
+   * @return the strategy
+   */
+  static ExecutorStrategy fixedThreadPool(int threads) {
+    if (threads < 1)
+      throw new IllegalArgumentException("\"threads\" must be at least 1.");
+    return () -> Executors.newFixedThreadPool(threads);
+  }
+
+  /**
+   * <p>Processes every message on its own virtual thread.</p>
+   *
+   * <p>Falls back to {@link #fixedThreadPool()} if the runtime does not support virtual threads,
+   * e.g. on Java 8 or Android.</p>
+   *
+   * @return the strategy
+   */
+  static ExecutorStrategy virtualThreads() {
+    return () -> {
+      ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+      return executor == null ? fixedThreadPool().createExecutor() : executor;
+    };
+  }
+}
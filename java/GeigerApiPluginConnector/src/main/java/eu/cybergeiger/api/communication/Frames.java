@@ -0,0 +1,52 @@
+package eu.cybergeiger.api.communication;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>Constants and helpers of the framed protocol.</p>
+ *
+ * <p>A framed connection starts with {@link #PREFACE}, which can never be the start of a legacy
+ * message. Afterwards both sides exchange frames consisting of the payload length, the stream id,
+ * the frame type and the payload. A {@link #MESSAGE} frame carries one serialized message and is
+ * answered by an {@link #ACK} frame with the same stream id once the message was processed.
+ * Messages are processed concurrently, so acknowledgements may arrive in any order.</p>
+ *
+ * <p>{@link #AUTH} frames are only exchanged right after the preface if the connecting side
+ * authenticates the session.</p>
+ *
+ * @see SessionAuthentication
+ */
+final class Frames {
+  static final long PREFACE = 0x4745494745524631L; // "GEIGERF1"
+  static final int HEADER_SIZE = Integer.BYTES * 2 + 1;
+  static final byte MESSAGE = 0;
+  static final byte ACK = 1;
+  static final byte AUTH = 2;
+  /**
+   * <p>Maximum number of messages of one connection processed at the same time.</p>
+   */
+  static final int MAX_IN_FLIGHT = 256;
+
+  private Frames() {
+  }
+
+  static void writeFrame(DataOutputStream out, int streamId, byte type, byte[] payload)
+    throws IOException {
+    out.writeInt(payload.length);
+    out.writeInt(streamId);
+    out.writeByte(type);
+    out.write(payload);
+  }
+
+  static void writeAck(DataOutputStream out, int streamId) throws IOException {
+    out.writeInt(0);
+    out.writeInt(streamId);
+    out.writeByte(ACK);
+  }
+
+  static void checkLength(int length) throws IOException {
+    if (length < 0)
+      throw new IOException("Found invalid frame length " + length + ".");
+  }
+}
@@ -3,53 +3,133 @@ package eu.cybergeiger.api.communication;
 import eu.cybergeiger.api.GeigerApi;
 import eu.cybergeiger.api.PluginApi;
 import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.plugin.CommunicationSecret;
 import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.api.utils.HashType;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.storage.utils.Futures;
 
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 /**
  * Abstract class to define common methods for GeigerCommunicators.
  */
-public class GeigerCommunicator {
+public class GeigerCommunicator implements MessageTransport {
   public static final int MASTER_PORT = 12348;
   static final long RESPONSE_UID = 5643142302L;
 
   private final PluginApi api;
+  private final CommunicationOptions options;
 
   private ServerSocket serverSocket;
-  private final Executor executor;
+  private SelectorServer selectorServer;
+  private SelectorServer unixServer;
+  private String unixSocketPath;
+  private final ExecutorService executor;
+  private final ExecutorService connectionExecutor;
+  private final ConnectionPool connectionPool;
+  private final Map<SocketAddress, MultiplexedConnection> multiplexedConnections = new ConcurrentHashMap<>();
 
 
   public GeigerCommunicator(PluginApi api) {
+    this(api, CommunicationOptions.DEFAULT);
+  }
+
+  public GeigerCommunicator(PluginApi api, CommunicationOptions options) {
     this.api = api;
-    this.executor = Executors.newFixedThreadPool(
-      Runtime.getRuntime().availableProcessors()
-    );
+    this.options = options;
+    this.executor = options.getExecutorStrategy().createExecutor();
+    // Connections may stay open between messages. Keep them off the bounded message executor
+    // so idle connections cannot block the processing of other messages.
+    this.connectionExecutor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "GeigerConnection");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.connectionPool = options.isConnectionPooling() ? new ConnectionPool(options) : null;
   }
 
   public boolean isActive() {
-    return serverSocket != null;
+    return serverSocket != null || selectorServer != null;
   }
 
   public int getPort() {
+    if (selectorServer != null)
+      return selectorServer.getPort();
     if (serverSocket == null)
       return 0;
     return serverSocket.getLocalPort();
   }
 
+  /**
+   * <p>Capabilities this communicator offers to its peer.</p>
+   *
+   * @return the offered capabilities
+   */
+  public Set<Capability> getCapabilities() {
+    Set<Capability> capabilities = EnumSet.noneOf(Capability.class);
+    if (options.isFramedProtocol()) capabilities.add(Capability.FRAMED_PROTOCOL);
+    if (options.isCompactEncoding()) capabilities.add(Capability.COMPACT_ENCODING);
+    if (options.isChunkedTransfer()) capabilities.add(Capability.CHUNKED_TRANSFER);
+    if (options.getIntegrityHashType().isKeyed()) capabilities.add(Capability.KEYED_INTEGRITY);
+    if (options.isSessionAuthentication()) capabilities.add(Capability.SESSION_AUTHENTICATION);
+    if (options.isBatchOperations()) capabilities.add(Capability.BATCH_OPERATIONS);
+    if (unixServer != null) {
+      capabilities.add(Capability.FRAMED_PROTOCOL);
+      capabilities.add(Capability.UNIX_DOMAIN_SOCKET);
+    }
+    return Collections.unmodifiableSet(capabilities);
+  }
+
+  /**
+   * <p>Path of the Unix domain socket this communicator listens on.</p>
+   *
+   * @return the socket path or null if not listening on a Unix domain socket
+   */
+  public String getUnixSocketPath() {
+    return unixServer == null ? null : unixSocketPath;
+  }
+
   public void start() throws IOException {
     if (isActive()) return;
+    if (options.isUnixDomainSockets() && UnixDomainSockets.isSupported())
+      startUnixServer();
+    if (options.isNonBlockingServer()) {
+      SelectorServer server = new SelectorServer(api, executor, options);
+      server.start();
+      selectorServer = server;
+      return;
+    }
     serverSocket = new ServerSocket(0);
     Thread client = new Thread(() -> {
       while (true) {
         try {
-          executor.execute(new MessageHandler(serverSocket.accept(), api));
+          connectionExecutor.execute(new MessageHandler(
+            serverSocket.accept(), api, executor,
+            options.getConnectionIdleTimeoutMillis()
+          ));
         } catch (IOException e) {
           if (e instanceof SocketException)
             return; // If serverSocket was closed. Exit thread.
@@ -61,16 +141,257 @@ public class GeigerCommunicator {
     client.start();
   }
 
+  /**
+   * <p>Additionally listens on a Unix domain socket in the temporary directory.</p>
+   *
+   * <p>Failing to do so is not fatal, as the plugin is still reachable over TCP.</p>
+   */
+  private void startUnixServer() {
+    String path = Paths.get(
+      System.getProperty("java.io.tmpdir"),
+      "geiger-" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".sock"
+    ).toString();
+    try {
+      SelectorServer server = new SelectorServer(api, executor, options);
+      server.start(UnixDomainSockets.bind(path));
+      unixSocketPath = path;
+      unixServer = server;
+    } catch (IOException e) {
+      GeigerApi.logger.log(Level.WARNING, "Failed to listen on Unix domain socket.", e);
+    }
+  }
+
+  /**
+   * <p>Creates shared memory rings for exchanging messages with the master.</p>
+   *
+   * <p>Incoming messages are processed like the ones received over sockets. Messages the rings
+   * cannot carry are sent by this communicator instead.</p>
+   *
+   * @param path base path of the ring files
+   * @return the new transport
+   * @throws IOException if the files cannot be created
+   */
+  public SharedMemoryTransport createSharedMemoryTransport(String path) throws IOException {
+    return SharedMemoryTransport.create(path, options, api::receivedMessage, executor, this);
+  }
+
+  @Override
   public void sendMessage(PluginInformation info, Message message) throws IOException {
-    try (Socket socket = new Socket("localhost", info.getPort())) {
-      message.toByteArrayStream(socket.getOutputStream(), info.getSecret());
-      socket.getOutputStream().flush();
+    if (info.supports(Capability.FRAMED_PROTOCOL) ||
+      info.supports(Capability.UNIX_DOMAIN_SOCKET)) {
+      sendFramed(info, message);
+      return;
+    }
+    if (connectionPool == null) {
+      try (Socket socket = new Socket("localhost", info.getPort())) {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        message.toByteArrayStream(out, info.getSecret(), getIntegrityHashType(info));
+        out.flush();
+      }
+      return;
+    }
+    while (true) {
+      ConnectionPool.Connection connection = connectionPool.acquire(info.getPort());
+      try {
+        message.toByteArrayStream(
+          connection.getOutputStream(), info.getSecret(), getIntegrityHashType(info)
+        );
+        connection.getOutputStream().flush();
+      } catch (IOException e) {
+        connectionPool.discard(connection);
+        // The peer most likely closed the idle connection. Retry on a fresh one.
+        if (connection.isReused()) continue;
+        throw e;
+      }
+      boolean acknowledging = false;
+      try {
+        connection.getSocket().setSoTimeout(
+          (int) Math.min(options.getAcknowledgeTimeoutMillis(), Integer.MAX_VALUE)
+        );
+        InputStream in = connection.getInputStream();
+        in.mark(1);
+        if (in.read() == -1)
+          throw new EOFException("Connection was closed before acknowledgement.");
+        in.reset();
+        acknowledging = true;
+        long uid = SerializerHelper.readLong(in);
+        if (uid != RESPONSE_UID)
+          throw new IOException("Received invalid response UID " + uid + ".");
+      } catch (SocketTimeoutException e) {
+        // The message was delivered but the receiver is slow to acknowledge it.
+        connectionPool.discard(connection);
+        GeigerApi.logger.log(Level.WARNING, "Did not receive response UID in time.", e);
+        return;
+      } catch (IOException e) {
+        connectionPool.discard(connection);
+        // Receivers acknowledge every message they read, even if processing it failed. A reused
+        // connection closed before any acknowledgement was closed by the idle peer instead.
+        if (!acknowledging && connection.isReused()) continue;
+        throw e;
+      } catch (ClassCastException e) {
+        connectionPool.discard(connection);
+        throw new IOException("Received invalid response UID.", e);
+      }
+      connectionPool.release(connection);
+      return;
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> sendMessageAsync(PluginInformation info, Message message) {
+    if (!info.supports(Capability.FRAMED_PROTOCOL) &&
+      !info.supports(Capability.UNIX_DOMAIN_SOCKET))
+      return MessageTransport.super.sendMessageAsync(info, message);
+    byte[] bytes;
+    try {
+      bytes = serialize(info, message);
+    } catch (IOException e) {
+      return Futures.failed(e);
+    }
+    return sendFramedAsync(info, bytes, true);
+  }
+
+  private void sendFramed(PluginInformation info, Message message) throws IOException {
+    try {
+      sendFramedAsync(info, serialize(info, message), true).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException("Failed to send message.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for acknowledgement.");
+    }
+  }
+
+  /**
+   * <p>Serializes a message to be sent framed.</p>
+   *
+   * <p>Messages for authenticated sessions are not hashed.</p>
+   */
+  private byte[] serialize(PluginInformation info, Message message) throws IOException {
+    ByteArrayWriter serialized = new ByteArrayWriter(ProtocolNegotiation.getWireFormat(info));
+    HashType hashType = ProtocolNegotiation.usesSessionAuthentication(info)
+      ? HashType.NONE : getIntegrityHashType(info);
+    message.toByteArrayStream(serialized, info.getSecret(), hashType);
+    return serialized.toByteArray();
+  }
+
+  private HashType getIntegrityHashType(PluginInformation info) {
+    return ProtocolNegotiation.getIntegrityHashType(info, options.getIntegrityHashType());
+  }
+
+  /**
+   * <p>Sends a serialized message over a multiplexed connection.</p>
+   *
+   * <p>The returned future fails if the message could not be sent or the connection was closed
+   * before it was acknowledged. An acknowledgement not arriving in time is only logged, as the
+   * message was delivered and may still be processed.</p>
+   */
+  private CompletableFuture<Void> sendFramedAsync(PluginInformation info, byte[] bytes,
+                                                  boolean retry) {
+    MultiplexedConnection connection = null;
+    CompletableFuture<Void> acknowledged;
+    try {
+      connection = getMultiplexedConnection(info);
+      acknowledged = connection.send(bytes);
+    } catch (IOException e) {
+      // The peer most likely closed the idle connection. Retry on a fresh one.
+      if (retry && connection != null && connection.isReused())
+        return sendFramedAsync(info, bytes, false);
+      return Futures.failed(e);
+    }
+    Timeouts.within(
+      acknowledged, options.getAcknowledgeTimeoutMillis(),
+      "Did not receive acknowledgement in time."
+    );
+    MultiplexedConnection sent = connection;
+    return acknowledged.handle((result, error) -> {
+      if (error == null) return CompletableFuture.<Void>completedFuture(null);
+      if (error instanceof TimeoutException) {
+        GeigerApi.logger.log(Level.WARNING, "Did not receive acknowledgement in time.", error);
+        return CompletableFuture.<Void>completedFuture(null);
+      }
+      // A reused connection closed before any acknowledgement was closed by the idle peer, which
+      // did not read the frame. Otherwise the frame may have been processed and is not resent.
+      if (retry && error instanceof EOFException && sent.isReused())
+        return sendFramedAsync(info, bytes, false);
+      return Futures.<Void>failed(error);
+    }).thenCompose(Function.identity());
+  }
+
+  private MultiplexedConnection getMultiplexedConnection(PluginInformation info)
+    throws IOException {
+    CommunicationSecret secret =
+      ProtocolNegotiation.usesSessionAuthentication(info) ? info.getSecret() : null;
+    if (info.supports(Capability.UNIX_DOMAIN_SOCKET) && UnixDomainSockets.isSupported()) {
+      try {
+        String path = info.getUnixSocketPath();
+        return getMultiplexedConnection(
+          UnixDomainSockets.address(path), () -> UnixDomainSockets.connect(path), secret
+        );
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.FINE, "Falling back to TCP after Unix domain socket failed.", e);
+      }
+    }
+    InetSocketAddress address = new InetSocketAddress("localhost", info.getPort());
+    return getMultiplexedConnection(
+      address, () -> MultiplexedConnection.openTcpChannel(address), secret
+    );
+  }
 
-      // TODO: check for response UID
+  private MultiplexedConnection getMultiplexedConnection(SocketAddress address,
+                                                         ChannelOpener opener,
+                                                         CommunicationSecret secret)
+    throws IOException {
+    boolean authenticated = secret != null;
+    // Replace idle connections before the receiver closes them on its own.
+    long maxIdleMillis = options.getConnectionIdleTimeoutMillis() / 2;
+    MultiplexedConnection connection = multiplexedConnections.get(address);
+    if (connection != null && isUsable(connection, maxIdleMillis, authenticated))
+      return connection;
+    synchronized (multiplexedConnections) {
+      connection = multiplexedConnections.get(address);
+      if (connection != null) {
+        if (isUsable(connection, maxIdleMillis, authenticated))
+          return connection;
+        connection.close();
+      }
+      connection = new MultiplexedConnection(
+        opener.open(), secret, options.getAcknowledgeTimeoutMillis()
+      );
+      multiplexedConnections.put(address, connection);
+      return connection;
     }
   }
 
+  private static boolean isUsable(MultiplexedConnection connection, long maxIdleMillis,
+                                  boolean authenticated) {
+    return connection.isOpen() && !connection.isIdleFor(maxIdleMillis) &&
+      connection.isAuthenticated() == authenticated;
+  }
+
+  private interface ChannelOpener {
+    SocketChannel open() throws IOException;
+  }
+
+  @Override
   public void close() throws IOException {
-    serverSocket.close();
+    if (unixServer != null) {
+      unixServer.close();
+      unixServer = null;
+      Files.deleteIfExists(Paths.get(unixSocketPath));
+    }
+    if (selectorServer != null)
+      selectorServer.close();
+    if (serverSocket != null)
+      serverSocket.close();
+    if (connectionPool != null)
+      connectionPool.close();
+    for (MultiplexedConnection connection : multiplexedConnections.values())
+      connection.close();
+    multiplexedConnections.clear();
+    connectionExecutor.shutdown();
+    executor.shutdown();
   }
 }
@@ -0,0 +1,211 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * <p>Timer for large numbers of timeouts which rarely expire.</p>
+ *
+ * <p>Timeouts are hashed into the buckets of a wheel by their deadline. A single thread advances
+ * the wheel once per tick and expires all timeouts of the current bucket at once. Scheduling and
+ * cancelling take constant time. Timeouts expire up to one tick late.</p>
+ */
+final class HashedWheelTimer implements Closeable {
+  /**
+   * <p>Handle of a scheduled task.</p>
+   */
+  interface Timeout {
+    /**
+     * <p>Prevents the task from running.</p>
+     *
+     * @return false if the task already ran or was cancelled before
+     */
+    boolean cancel();
+  }
+
+  private static final int PENDING = 0;
+  private static final int CANCELLED = 1;
+  private static final int EXPIRED = 2;
+
+  private static final class Entry implements Timeout {
+    // Avoids allocating an atomic per timeout.
+    private static final AtomicIntegerFieldUpdater<Entry> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+    private final HashedWheelTimer timer;
+    private final Runnable task;
+    private final long deadline;
+    private long remainingRounds;
+    private Entry previous;
+    private Entry next;
+    private Bucket bucket;
+    private volatile int state = PENDING;
+
+    Entry(HashedWheelTimer timer, Runnable task, long deadline) {
+      this.timer = timer;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public boolean cancel() {
+      if (!STATE.compareAndSet(this, PENDING, CANCELLED)) return false;
+      timer.cancelled.add(this);
+      return true;
+    }
+
+    void expire() {
+      if (!STATE.compareAndSet(this, PENDING, EXPIRED)) return;
+      try {
+        task.run();
+      } catch (Throwable e) {
+        GeigerApi.logger.log(Level.WARNING, "Timeout task threw exception.", e);
+      }
+    }
+  }
+
+  private static final class Bucket {
+    private Entry head;
+    private Entry tail;
+
+    void add(Entry entry) {
+      entry.bucket = this;
+      if (head == null) {
+        head = tail = entry;
+      } else {
+        tail.next = entry;
+        entry.previous = tail;
+        tail = entry;
+      }
+    }
+
+    Entry remove(Entry entry) {
+      Entry next = entry.next;
+      if (entry.previous != null) entry.previous.next = next;
+      if (next != null) next.previous = entry.previous;
+      if (entry == head) head = next;
+      if (entry == tail) tail = entry.previous;
+      entry.previous = entry.next = null;
+      entry.bucket = null;
+      return next;
+    }
+
+    void expire(long deadline) {
+      Entry entry = head;
+      while (entry != null) {
+        if (entry.remainingRounds <= 0 && entry.deadline <= deadline) {
+          Entry next = remove(entry);
+          entry.expire();
+          entry = next;
+        } else {
+          if (entry.remainingRounds > 0) entry.remainingRounds--;
+          entry = entry.next;
+        }
+      }
+    }
+  }
+
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+  private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+  private final long startTime = System.nanoTime();
+  private final Thread worker;
+  private volatile boolean closed = false;
+  private long tick = 0;
+
+  /**
+   * @param tickDuration  duration of one tick
+   * @param unit          unit of the tick duration
+   * @param ticksPerWheel number of buckets, rounded up to a power of two
+   */
+  HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+    if (tickDuration <= 0)
+      throw new IllegalArgumentException("\"tickDuration\" must be positive.");
+    if (ticksPerWheel <= 0)
+      throw new IllegalArgumentException("\"ticksPerWheel\" must be positive.");
+    tickNanos = unit.toNanos(tickDuration);
+    int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+    wheel = new Bucket[Math.max(size, 1)];
+    for (int i = 0; i < wheel.length; i++) wheel[i] = new Bucket();
+    mask = wheel.length - 1;
+    worker = new Thread(this::run, "GeigerTimer");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * <p>Runs the task on the timer thread once the delay elapsed.</p>
+   *
+   * <p>Tasks must not block, as they delay all other timeouts.</p>
+   *
+   * @param task  the task to run
+   * @param delay the delay
+   * @param unit  unit of the delay
+   * @return handle for cancelling the task
+   */
+  Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if (closed) throw new IllegalStateException("Timer was closed.");
+    Entry entry = new Entry(this, task, System.nanoTime() - startTime + unit.toNanos(delay));
+    added.add(entry);
+    return entry;
+  }
+
+  private void run() {
+    while (!closed) {
+      long deadline = waitForNextTick();
+      if (deadline < 0) continue;
+      removeCancelled();
+      transferAdded();
+      wheel[(int) (tick & mask)].expire(deadline);
+      tick++;
+    }
+  }
+
+  /**
+   * @return the time of the tick relative to the start or -1 if the timer was closed
+   */
+  private long waitForNextTick() {
+    long deadline = tickNanos * (tick + 1);
+    while (true) {
+      long remaining = deadline - (System.nanoTime() - startTime);
+      if (remaining <= 0) return deadline;
+      if (closed) return -1;
+      LockSupport.parkNanos(this, remaining);
+    }
+  }
+
+  private void removeCancelled() {
+    Entry entry;
+    while ((entry = cancelled.poll()) != null) {
+      if (entry.bucket != null) entry.bucket.remove(entry);
+    }
+  }
+
+  private void transferAdded() {
+    // Bound the work per tick so a burst of new timeouts cannot stall expiry.
+    for (int i = 0; i < 100000; i++) {
+      Entry entry = added.poll();
+      if (entry == null) return;
+      if (entry.state != PENDING) continue;
+      long expiryTick = entry.deadline / tickNanos;
+      entry.remainingRounds = (expiryTick - tick) / wheel.length;
+      // Timeouts already due expire in the current tick.
+      wheel[(int) (Math.max(expiryTick, tick) & mask)].add(entry);
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(worker);
+  }
+}
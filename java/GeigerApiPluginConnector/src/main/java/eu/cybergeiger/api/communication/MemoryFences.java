@@ -0,0 +1,69 @@
+package eu.cybergeiger.api.communication;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * <p>Memory fences ordering accesses to memory shared with other processes.</p>
+ *
+ * <p>Uses the fences of {@code VarHandle} if available, the ones of {@code sun.misc.Unsafe} on
+ * Java 8 and a volatile access as last resort.</p>
+ */
+final class MemoryFences {
+  private static final MethodHandle ACQUIRE = findFence("acquireFence", "loadFence");
+  private static final MethodHandle RELEASE = findFence("releaseFence", "storeFence");
+  private static volatile int fallback;
+
+  private MemoryFences() {
+  }
+
+  private static MethodHandle findFence(String varHandleFence, String unsafeFence) {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodType type = MethodType.methodType(void.class);
+    try {
+      return lookup.findStatic(Class.forName("java.lang.invoke.VarHandle"), varHandleFence, type);
+    } catch (ReflectiveOperationException ignored) {
+      // Not available before Java 9.
+    }
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return lookup.findVirtual(unsafeClass, unsafeFence, type).bindTo(field.get(null));
+    } catch (ReflectiveOperationException | RuntimeException ignored) {
+      return null;
+    }
+  }
+
+  /**
+   * <p>Prevents loads before the fence from being reordered with loads and stores after it.</p>
+   */
+  static void acquire() {
+    if (ACQUIRE == null) {
+      int ignored = fallback;
+      return;
+    }
+    try {
+      ACQUIRE.invokeExact();
+    } catch (Throwable e) {
+      throw new IllegalStateException("Failed to apply memory fence.", e);
+    }
+  }
+
+  /**
+   * <p>Prevents loads and stores before the fence from being reordered with stores after it.</p>
+   */
+  static void release() {
+    if (RELEASE == null) {
+      fallback = 0;
+      return;
+    }
+    try {
+      RELEASE.invokeExact();
+    } catch (Throwable e) {
+      throw new IllegalStateException("Failed to apply memory fence.", e);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.utils.HashType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Finds the boundaries of serialized messages in a partially received byte buffer.</p>
+ *
+ * <p>Messages do not carry their total length. Instead the length is derived by walking the
+ * layout written by {@link eu.cybergeiger.api.message.Message#toByteArrayStream}, skipping over
+ * variable length fields using their length prefixes. The content itself is not validated.</p>
+ */
+final class MessageFramer {
+  static final int INCOMPLETE = -1;
+
+  private static final int UID_SIZE = Long.BYTES;
+  private static final int LONG_FIELD_SIZE = UID_SIZE + Long.BYTES;
+  private static final int INT_FIELD_SIZE = UID_SIZE + Integer.BYTES;
+
+  private MessageFramer() {
+  }
+
+  /**
+   * <p>Determines the length of the message starting at the position of the buffer.</p>
+   *
+   * <p>Neither position nor limit of the buffer are changed.</p>
+   *
+   * @param buffer buffer containing the received bytes between position and limit
+   * @return the total length of the message or {@link #INCOMPLETE} if more bytes are needed
+   * @throws ClassCastException if the bytes cannot be the start of a message
+   */
+  static int frameLength(ByteBuffer buffer) {
+    int limit = buffer.limit();
+    int p = buffer.position();
+    p = skip(p, LONG_FIELD_SIZE, limit); // start marker
+    p = skipString(buffer, p, limit); // source id
+    p = skipString(buffer, p, limit); // target id
+    p = skip(p, INT_FIELD_SIZE, limit); // type
+    if (p == INCOMPLETE || p + INT_FIELD_SIZE > limit) return INCOMPLETE;
+    boolean hasAction = buffer.getInt(p + UID_SIZE) == 1;
+    p += INT_FIELD_SIZE;
+    if (hasAction) {
+      p = skip(p, LONG_FIELD_SIZE, limit); // url start marker
+      p = skipString(buffer, p, limit); // protocol
+      p = skipString(buffer, p, limit); // plugin id
+      p = skipString(buffer, p, limit); // path
+      p = skip(p, LONG_FIELD_SIZE, limit); // url end marker
+    }
+    p = skipString(buffer, p, limit); // request id
+    p = skipString(buffer, p, limit); // payload
+    p = skip(p, LONG_FIELD_SIZE, limit); // hash start marker
+    if (p == INCOMPLETE || p + INT_FIELD_SIZE > limit) return INCOMPLETE;
+    int nameLength = buffer.getInt(p + UID_SIZE);
+    if (nameLength < 0)
+      throw new ClassCastException("Found unknown hash type.");
+    p += INT_FIELD_SIZE;
+    if ((long) p + nameLength > limit) return INCOMPLETE;
+    byte[] name = new byte[nameLength];
+    for (int i = 0; i < nameLength; i++) name[i] = buffer.get(p + i);
+    HashType hashType = HashType.fromStandardName(new String(name, StandardCharsets.UTF_8))
+      .orElseThrow(() -> new ClassCastException("Found unknown hash type."));
+    p = skip(p + nameLength, hashType.getDigestLength(), limit); // digest
+    p = skip(p, LONG_FIELD_SIZE, limit); // hash end marker
+    p = skip(p, LONG_FIELD_SIZE, limit); // end marker
+    return p == INCOMPLETE ? INCOMPLETE : p - buffer.position();
+  }
+
+  private static int skip(int p, int length, int limit) {
+    if (p == INCOMPLETE || (long) p + length > limit) return INCOMPLETE;
+    return p + length;
+  }
+
+  private static int skipString(ByteBuffer buffer, int p, int limit) {
+    if (p == INCOMPLETE || p + INT_FIELD_SIZE > limit) return INCOMPLETE;
+    int length = checkStringLength(buffer.getInt(p + UID_SIZE));
+    return skip(p + INT_FIELD_SIZE, Math.max(length, 0), limit);
+  }
+
+  private static int checkStringLength(int length) {
+    if (length < -1)
+      throw new ClassCastException("Found invalid string length " + length + ".");
+    return length;
+  }
+}
@@ -3,51 +3,254 @@ package eu.cybergeiger.api.communication;
 import eu.cybergeiger.api.GeigerApi;
 import eu.cybergeiger.api.PluginApi;
 import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.serialization.ByteArrayReader;
 import eu.cybergeiger.serialization.SerializerHelper;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
- * Class to handle incoming messages.
+ * <p>Class to handle incoming messages.</p>
+ *
+ * <p>Every message is acknowledged with the response UID. The connection is kept open for further
+ * messages until the peer closes it or it stays idle for longer than the idle timeout.</p>
+ *
+ * <p>If an executor is given, messages are processed on it while the handler waits for the
+ * result. Otherwise they are processed on the thread running the handler.</p>
+ *
+ * <p>Connections starting with the preface of the {@link Frames framed protocol} are served
+ * differently: every message is handed to the executor as soon as it is received and acknowledged
+ * once processed, regardless of the messages before it. Messages received after the
+ * {@link SessionAuthentication session was authenticated} are trusted without checking their
+ * hashes.</p>
  */
 public class MessageHandler implements Runnable {
   private final Socket socket;
   private final PluginApi pluginApi;
+  private final Executor executor;
+  private final long idleTimeoutMillis;
 
   public MessageHandler(Socket socket, PluginApi api) {
+    this(socket, api, null, CommunicationOptions.DEFAULT.getConnectionIdleTimeoutMillis());
+  }
+
+  public MessageHandler(Socket socket, PluginApi api, Executor executor, long idleTimeoutMillis) {
     this.socket = socket;
     this.pluginApi = api;
+    this.executor = executor;
+    this.idleTimeoutMillis = idleTimeoutMillis;
   }
 
   @Override
   public void run() {
-    Message message;
     try {
-      message = Message.fromByteArrayStream(socket.getInputStream());
+      socket.setSoTimeout((int) Math.min(idleTimeoutMillis, Integer.MAX_VALUE));
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+      if (!hasNextMessage(in)) return;
+      if (readPreface(in)) {
+        handleFrames(new DataInputStream(in), new DataOutputStream(out));
+        return;
+      }
+      while (hasNextMessage(in)) {
+        if (!handleMessage(in, out)) break;
+      }
     } catch (IOException e) {
-      GeigerApi.logger.log(Level.WARNING, "Encountered exception while deserializing message.", e);
-      return;
+      GeigerApi.logger.log(Level.WARNING, "Failed to set up connection.", e);
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.WARNING, "Failed to close socket.", e);
+      }
+    }
+  }
+
+  /**
+   * <p>Waits until the next message starts arriving.</p>
+   *
+   * @return false if the peer closed the connection or it timed out
+   */
+  private static boolean hasNextMessage(InputStream in) {
+    try {
+      in.mark(1);
+      if (in.read() == -1) return false;
+      in.reset();
+      return true;
+    } catch (IOException e) {
+      // Peer is gone or idle timeout was reached. Either way the connection is done.
+      GeigerApi.logger.log(Level.FINE, "Closing idle connection.", e);
+      return false;
+    }
+  }
+
+  /**
+   * <p>Consumes the preface of the framed protocol if the connection starts with it.</p>
+   *
+   * @return true if the connection uses the framed protocol
+   */
+  private static boolean readPreface(InputStream in) throws IOException {
+    byte[] preface = new byte[Long.BYTES];
+    in.mark(preface.length);
+    int read = 0;
+    while (read < preface.length) {
+      int count = in.read(preface, read, preface.length - read);
+      if (count == -1) break;
+      read += count;
+    }
+    if (read == preface.length && ByteBuffer.wrap(preface).getLong() == Frames.PREFACE)
+      return true;
+    in.reset();
+    return false;
+  }
+
+  private void handleFrames(DataInputStream in, DataOutputStream out) {
+    Semaphore inFlight = new Semaphore(Frames.MAX_IN_FLIGHT);
+    SessionAuthentication.Responder authentication =
+      new SessionAuthentication.Responder(pluginApi.getMasterSecret());
+    try {
+      while (hasNextFrame(in, inFlight)) {
+        int length = in.readInt();
+        Frames.checkLength(length);
+        int streamId = in.readInt();
+        byte type = in.readByte();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        if (type == Frames.AUTH) {
+          byte[] response;
+          try {
+            response = authentication.respond(payload);
+          } catch (IOException e) {
+            GeigerApi.logger.log(Level.WARNING, "Rejected framed connection.", e);
+            return;
+          }
+          synchronized (out) {
+            Frames.writeFrame(out, streamId, Frames.AUTH, response);
+            out.flush();
+          }
+          continue;
+        }
+        if (type != Frames.MESSAGE) continue;
+        Message message;
+        try {
+          message = Message.fromByteArrayStream(new ByteArrayReader(payload));
+        } catch (IOException | ClassCastException e) {
+          GeigerApi.logger.log(Level.WARNING, "Encountered exception while deserializing message.", e);
+          return;
+        }
+        inFlight.acquire();
+        boolean authenticated = authentication.isAuthenticated();
+        Runnable task = () -> {
+          try {
+            process(message, authenticated);
+          } finally {
+            acknowledge(out, streamId);
+            inFlight.release();
+          }
+        };
+        if (executor == null) {
+          task.run();
+        } else {
+          try {
+            executor.execute(task);
+          } catch (RejectedExecutionException e) {
+            inFlight.release();
+            return; // Communicator is shutting down.
+          }
+        }
+      }
+    } catch (IOException e) {
+      GeigerApi.logger.log(Level.FINE, "Closing framed connection after read failure.", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // Let pending messages send their acknowledgements before the socket is closed.
+      try {
+        if (inFlight.tryAcquire(Frames.MAX_IN_FLIGHT, idleTimeoutMillis, TimeUnit.MILLISECONDS))
+          inFlight.release(Frames.MAX_IN_FLIGHT);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
     }
+  }
+
+  /**
+   * <p>Waits until the next frame starts arriving.</p>
+   *
+   * <p>Idle timeouts are ignored while messages of the connection are still processed.</p>
+   *
+   * @return false if the peer closed the connection or it timed out
+   */
+  private static boolean hasNextFrame(InputStream in, Semaphore inFlight) {
+    while (true) {
+      try {
+        in.mark(1);
+        if (in.read() == -1) return false;
+        in.reset();
+        return true;
+      } catch (SocketTimeoutException e) {
+        if (inFlight.availablePermits() == Frames.MAX_IN_FLIGHT) return false;
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.FINE, "Closing framed connection.", e);
+        return false;
+      }
+    }
+  }
+
+  private static void acknowledge(DataOutputStream out, int streamId) {
     try {
-      pluginApi.receivedMessage(message);
+      synchronized (out) {
+        Frames.writeAck(out, streamId);
+        out.flush();
+      }
     } catch (IOException e) {
+      GeigerApi.logger.log(Level.WARNING, "Failed to send back acknowledgement.", e);
+    }
+  }
+
+  /**
+   * @return false if the connection cannot be used for further messages
+   */
+  private boolean handleMessage(InputStream in, OutputStream out) {
+    Message message;
+    try {
+      message = Message.fromByteArrayStream(in);
+    } catch (IOException | ClassCastException e) {
+      GeigerApi.logger.log(Level.WARNING, "Encountered exception while deserializing message.", e);
+      return false;
+    }
+    try {
+      if (executor == null)
+        process(message, false);
+      else
+        CompletableFuture.runAsync(() -> process(message, false), executor).join();
+    } catch (RuntimeException e) {
+      // Still acknowledge the message, as the sender would otherwise deliver it again.
       GeigerApi.logger.log(Level.WARNING, "Encountered exception while processing message.", e);
     }
-    try{
-      SerializerHelper.writeLong(
-        socket.getOutputStream(),
-        GeigerCommunicator.RESPONSE_UID
-      );
-      socket.getOutputStream().flush();
+    try {
+      SerializerHelper.writeLong(out, GeigerCommunicator.RESPONSE_UID);
+      out.flush();
     } catch (IOException e) {
       GeigerApi.logger.log(Level.WARNING, "Failed to send back response UID.", e);
+      return false;
     }
+    return true;
+  }
+
+  private void process(Message message, boolean authenticated) {
     try {
-      socket.close();
+      pluginApi.receivedMessage(message, authenticated);
     } catch (IOException e) {
-      GeigerApi.logger.log(Level.WARNING, "Failed to close socket.", e);
+      GeigerApi.logger.log(Level.WARNING, "Encountered exception while processing message.", e);
     }
   }
 }
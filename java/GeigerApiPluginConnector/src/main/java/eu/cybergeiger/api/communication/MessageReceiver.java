@@ -0,0 +1,12 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.message.Message;
+
+import java.io.IOException;
+
+/**
+ * <p>Processes messages received by a transport.</p>
+ */
+public interface MessageReceiver {
+  void receivedMessage(Message message) throws IOException;
+}
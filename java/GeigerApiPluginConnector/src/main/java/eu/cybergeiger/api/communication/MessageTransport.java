@@ -0,0 +1,36 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.storage.utils.Futures;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>Means of delivering messages to another plugin or the master.</p>
+ */
+public interface MessageTransport extends Closeable {
+  /**
+   * <p>Sends a message.</p>
+   *
+   * @param info    the receiver of the message
+   * @param message the message to send
+   * @throws IOException if the message could not be delivered
+   */
+  void sendMessage(PluginInformation info, Message message) throws IOException;
+
+  /**
+   * <p>Sends a message without waiting for it to be delivered.</p>
+   *
+   * <p>The default implementation sends the message synchronously.</p>
+   *
+   * @param info    the receiver of the message
+   * @param message the message to send
+   * @return future completed once the message was delivered
+   */
+  default CompletableFuture<Void> sendMessageAsync(PluginInformation info, Message message) {
+    return Futures.run(() -> sendMessage(info, message));
+  }
+}
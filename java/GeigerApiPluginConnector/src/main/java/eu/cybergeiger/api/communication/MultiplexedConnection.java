@@ -0,0 +1,250 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.plugin.CommunicationSecret;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * <p>Outgoing connection using the framed protocol.</p>
+ *
+ * <p>Any number of threads may send over the connection at the same time. Each message gets its
+ * own stream id and the acknowledgements are matched by a reader thread.</p>
+ *
+ * <p>The connection works on any blocking socket channel, which may be a TCP or a Unix domain
+ * socket channel.</p>
+ *
+ * <p>If a secret is given, the session is {@link SessionAuthentication authenticated} before the
+ * connection is used.</p>
+ */
+class MultiplexedConnection implements Closeable {
+  private final SocketChannel channel;
+  private final DataOutputStream out;
+  private final DataInputStream in;
+  private final Map<Integer, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+  private final AtomicInteger nextStreamId = new AtomicInteger();
+  private final boolean authenticated;
+  private volatile boolean closed = false;
+  private volatile boolean reused = false;
+  private volatile long lastActivity = System.currentTimeMillis();
+
+  MultiplexedConnection(int port) throws IOException {
+    this(openTcpChannel(new InetSocketAddress("localhost", port)));
+  }
+
+  MultiplexedConnection(SocketChannel channel) throws IOException {
+    this(channel, null, 0);
+  }
+
+  /**
+   * @param channel       the connected channel
+   * @param secret        the secret to authenticate the session with, null to not authenticate
+   * @param timeoutMillis time to wait for the peer during authentication
+   * @throws IOException if the connection could not be set up or authenticated
+   */
+  MultiplexedConnection(SocketChannel channel, CommunicationSecret secret, long timeoutMillis)
+    throws IOException {
+    this.channel = channel;
+    try {
+      // The channel is read and written by different threads. Streams from Channels would
+      // serialize both directions on the blocking lock of the channel.
+      out = new DataOutputStream(new BufferedOutputStream(new ChannelOutputStream(channel)));
+      in = new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel)));
+      out.writeLong(Frames.PREFACE);
+      if (secret != null) {
+        // Closing the channel unblocks the handshake if the peer does not answer.
+        CompletableFuture<Void> handshake = Timeouts.within(
+          new CompletableFuture<>(), timeoutMillis,
+          "Session authentication timed out.", this::closeChannel
+        );
+        try {
+          SessionAuthentication.authenticate(in, out, secret);
+        } finally {
+          handshake.complete(null);
+        }
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    authenticated = secret != null;
+    Thread reader = new Thread(this::readAcknowledgements, "GeigerFrameReader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  static SocketChannel openTcpChannel(SocketAddress address) throws IOException {
+    SocketChannel channel = SocketChannel.open(address);
+    try {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  /**
+   * <p>Sends a serialized message.</p>
+   *
+   * @param message the serialized message
+   * @return future completed once the receiver acknowledged the message
+   * @throws IOException if the message could not be written
+   */
+  CompletableFuture<Void> send(byte[] message) throws IOException {
+    int streamId = nextStreamId.getAndIncrement();
+    CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+    pending.put(streamId, acknowledged);
+    try {
+      if (closed) throw new IOException("Connection is closed.");
+      synchronized (out) {
+        Frames.writeFrame(out, streamId, Frames.MESSAGE, message);
+        out.flush();
+      }
+    } catch (IOException e) {
+      pending.remove(streamId);
+      close();
+      throw e;
+    }
+    lastActivity = System.currentTimeMillis();
+    // Forget the stream if the sender gives up waiting for its acknowledgement.
+    acknowledged.whenComplete((result, error) -> pending.remove(streamId, acknowledged));
+    return acknowledged;
+  }
+
+  /**
+   * @return true if the session was authenticated
+   */
+  boolean isAuthenticated() {
+    return authenticated;
+  }
+
+  /**
+   * @return true if a message was already acknowledged on this connection
+   */
+  boolean isReused() {
+    return reused;
+  }
+
+  boolean isOpen() {
+    return !closed;
+  }
+
+  /**
+   * @return true if nothing was sent or received for the given time and no message is pending
+   */
+  boolean isIdleFor(long millis) {
+    return pending.isEmpty() && System.currentTimeMillis() - lastActivity >= millis;
+  }
+
+  private void readAcknowledgements() {
+    IOException failure = null;
+    try {
+      while (true) {
+        int length = in.readInt();
+        Frames.checkLength(length);
+        int streamId = in.readInt();
+        byte type = in.readByte();
+        if (length > 0) in.readFully(new byte[length]);
+        if (type != Frames.ACK) continue;
+        lastActivity = System.currentTimeMillis();
+        reused = true;
+        CompletableFuture<Void> acknowledged = pending.remove(streamId);
+        if (acknowledged != null) acknowledged.complete(null);
+      }
+    } catch (EOFException e) {
+      // Peer closed the connection.
+      failure = e;
+    } catch (IOException e) {
+      if (!closed)
+        GeigerApi.logger.log(Level.FINE, "Closing framed connection after read failure.", e);
+      failure = e;
+    } finally {
+      if (closed || failure == null) {
+        close();
+      } else {
+        // Peers acknowledge every message they read, so the pending ones were not read.
+        EOFException closedByPeer =
+          new EOFException("Connection was closed by the peer before acknowledgement.");
+        closedByPeer.initCause(failure);
+        close(closedByPeer);
+      }
+    }
+  }
+
+  private void closeChannel() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      GeigerApi.logger.log(Level.WARNING, "Failed to close socket.", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    close(new IOException("Connection was closed before acknowledgement."));
+  }
+
+  /**
+   * @param cause the error pending messages fail with, an {@link EOFException} if the peer
+   *              closed the connection
+   */
+  private void close(IOException cause) {
+    closed = true;
+    closeChannel();
+    for (Integer streamId : pending.keySet()) {
+      CompletableFuture<Void> acknowledged = pending.remove(streamId);
+      if (acknowledged != null) acknowledged.completeExceptionally(cause);
+    }
+  }
+
+  private static class ChannelInputStream extends InputStream {
+    private final SocketChannel channel;
+
+    ChannelInputStream(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) return 0;
+      return channel.read(ByteBuffer.wrap(bytes, offset, length));
+    }
+  }
+
+  private static class ChannelOutputStream extends OutputStream {
+    private final SocketChannel channel;
+
+    ChannelOutputStream(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+      while (buffer.hasRemaining()) channel.write(buffer);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.storage.utils.Futures;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Requests waiting for their response, indexed by request id.</p>
+ *
+ * <p>Finding the request a response belongs to takes constant time regardless of the number of
+ * outstanding requests.</p>
+ */
+public class PendingRequests {
+  private static class Pending {
+    final Message request;
+    final Set<MessageType> responseTypes;
+    final CompletableFuture<Message> response = new CompletableFuture<>();
+
+    Pending(Message request, MessageType[] responseTypes) {
+      this.request = request;
+      this.responseTypes = EnumSet.noneOf(MessageType.class);
+      this.responseTypes.addAll(Arrays.asList(responseTypes));
+    }
+
+    boolean matches(Message response) {
+      return responseTypes.contains(response.getType()) &&
+        Objects.equals(request.getTargetId(), response.getSourceId()) &&
+        Objects.equals(request.getSourceId(), response.getTargetId());
+    }
+  }
+
+  private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+  private final AtomicLong timedOut = new AtomicLong();
+
+  /**
+   * <p>Registers a request before it is sent.</p>
+   *
+   * <p>The request is forgotten as soon as the returned future completes, no matter whether by
+   * a response, a timeout or a cancellation.</p>
+   *
+   * @param request       the request
+   * @param responseTypes possible message types of the response
+   * @param timeoutMillis time after which the future fails with a TimeoutException
+   * @return future completed with the response
+   */
+  public CompletableFuture<Message> register(Message request, MessageType[] responseTypes,
+                                             long timeoutMillis) {
+    String requestId = request.getRequestId();
+    Pending entry = new Pending(request, responseTypes);
+    if (pending.putIfAbsent(requestId, entry) != null)
+      return Futures.failed(new IllegalStateException(
+        "Request \"" + requestId + "\" is already pending."
+      ));
+    entry.response.whenComplete((result, error) -> pending.remove(requestId, entry));
+    return Timeouts.within(
+      entry.response, timeoutMillis, CommunicationHelper.TIMEOUT_MESSAGE, timedOut::incrementAndGet
+    );
+  }
+
+  /**
+   * <p>Completes the request the message responds to.</p>
+   *
+   * @param message a received message
+   * @return true if the message was the response to a pending request
+   */
+  public boolean complete(Message message) {
+    String requestId = message.getRequestId();
+    if (requestId == null) return false;
+    Pending entry = pending.get(requestId);
+    if (entry == null || !entry.matches(message)) return false;
+    return entry.response.complete(message);
+  }
+
+  /**
+   * @return the number of requests waiting for a response
+   */
+  public int size() {
+    return pending.size();
+  }
+
+  /**
+   * @return the number of requests which did not receive a response in time
+   */
+  public long getTimedOutCount() {
+    return timedOut.get();
+  }
+
+  /**
+   * <p>Fails all pending requests.</p>
+   *
+   * @param error the error to fail them with
+   */
+  public void failAll(Throwable error) {
+    for (Pending entry : pending.values())
+      entry.response.completeExceptionally(error);
+  }
+}
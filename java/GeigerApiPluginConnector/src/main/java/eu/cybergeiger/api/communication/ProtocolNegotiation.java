@@ -0,0 +1,193 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.api.utils.HashType;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.serialization.WireFormat;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * <p>Encodes the capabilities exchanged when activating a plugin.</p>
+ *
+ * <p>The activation payload starts with the port of the plugin. If the plugin offers any
+ * capabilities, their bit mask follows together with the parameters of the capabilities. The
+ * master confirms the capabilities it supports with a bit mask and its own parameters as payload
+ * of its success message. Legacy masters only read the port and reply without payload.</p>
+ *
+ * <p>Parameters follow the bit mask in the order of the capabilities:</p>
+ * <ul>
+ *   <li>{@link Capability#UNIX_DOMAIN_SOCKET}: the socket path as string</li>
+ *   <li>{@link Capability#SHARED_MEMORY}: the base path of the rings as string, only sent by
+ *   the plugin</li>
+ * </ul>
+ */
+public final class ProtocolNegotiation {
+  private ProtocolNegotiation() {
+  }
+
+  /**
+   * <p>Format to serialize messages and payloads for a peer in.</p>
+   *
+   * @param peer the receiving peer
+   * @return {@link WireFormat#V2} if the peer supports it
+   */
+  public static WireFormat getWireFormat(PluginInformation peer) {
+    return peer.supports(Capability.COMPACT_ENCODING) ? WireFormat.V2 : WireFormat.V1;
+  }
+
+  /**
+   * <p>Type of the hash authenticating messages for a peer.</p>
+   *
+   * @param peer      the receiving peer
+   * @param preferred the configured hash type
+   * @return the preferred type unless it is keyed and the peer does not support keyed hashes
+   */
+  public static HashType getIntegrityHashType(PluginInformation peer, HashType preferred) {
+    if (preferred.isKeyed() && !peer.supports(Capability.KEYED_INTEGRITY))
+      return HashType.SHA512;
+    return preferred;
+  }
+
+  /**
+   * <p>Checks whether framed connections to a peer are authenticated per session.</p>
+   *
+   * @param peer the receiving peer
+   * @return true if the peer supports it and a secret is shared with it
+   */
+  public static boolean usesSessionAuthentication(PluginInformation peer) {
+    return peer.supports(Capability.SESSION_AUTHENTICATION) && !peer.getSecret().isEmpty();
+  }
+
+  /**
+   * <p>Creates the payload of an activation request.</p>
+   *
+   * @param plugin the plugin to activate with its port, offered capabilities and their parameters
+   * @return the payload
+   */
+  public static byte[] toActivationPayload(PluginInformation plugin) {
+    if (plugin.getCapabilities().isEmpty())
+      return SerializerHelper.intToByteArray(plugin.getPort());
+    try {
+      ByteArrayWriter out = new ByteArrayWriter();
+      out.writeRawInt(plugin.getPort());
+      writeCapabilities(
+        out, plugin.getCapabilities(), plugin.getUnixSocketPath(), plugin.getSharedMemoryPath(),
+        true
+      );
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException("Got unexpected IO exception.", e);
+    }
+  }
+
+  /**
+   * <p>Applies an activation request to the information about the plugin.</p>
+   *
+   * @param payload the payload of the activation request
+   * @param plugin  the registered information about the plugin
+   * @return the plugin information with the new port and the offered capabilities
+   * @throws IOException if the payload is malformed
+   */
+  public static PluginInformation readActivation(byte[] payload, PluginInformation plugin)
+    throws IOException {
+    int port = ByteBuffer.wrap(payload).getInt();
+    if (payload.length == Integer.BYTES) {
+      return plugin.withPort(port)
+        .withCapabilities(EnumSet.noneOf(Capability.class))
+        .withUnixSocketPath(null)
+        .withSharedMemoryPath(null);
+    }
+    InputStream in = new ByteArrayReader(
+      payload, Integer.BYTES, payload.length - Integer.BYTES
+    );
+    return readCapabilities(in, plugin.withPort(port), EnumSet.allOf(Capability.class), true);
+  }
+
+  /**
+   * <p>Creates the payload confirming capabilities.</p>
+   *
+   * @param confirmed      the capabilities to use
+   * @param unixSocketPath the path of the Unix domain socket of the master or null
+   * @return the payload
+   */
+  public static byte[] toConfirmationPayload(Set<Capability> confirmed, String unixSocketPath) {
+    try {
+      ByteArrayWriter out = new ByteArrayWriter();
+      writeCapabilities(out, confirmed, unixSocketPath, null, false);
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException("Got unexpected IO exception.", e);
+    }
+  }
+
+  /**
+   * <p>Applies the capabilities confirmed by the master.</p>
+   *
+   * @param payload the payload of the success message, may be null or empty
+   * @param master  the information about the master
+   * @param offered the capabilities offered by the plugin
+   * @return the master information with the confirmed capabilities which were also offered
+   * @throws IOException if the payload is malformed
+   */
+  public static PluginInformation readConfirmation(byte[] payload, PluginInformation master,
+                                                   Set<Capability> offered) throws IOException {
+    if (payload == null || payload.length < Integer.BYTES) {
+      return master.withCapabilities(EnumSet.noneOf(Capability.class))
+        .withUnixSocketPath(null);
+    }
+    return readCapabilities(new ByteArrayReader(payload), master, offered, false);
+  }
+
+  /**
+   * @param activation whether the parameters only sent by the plugin are included
+   */
+  private static void writeCapabilities(OutputStream out, Set<Capability> capabilities,
+                                        String unixSocketPath, String sharedMemoryPath,
+                                        boolean activation) throws IOException {
+    Set<Capability> written = EnumSet.noneOf(Capability.class);
+    written.addAll(capabilities);
+    if (unixSocketPath == null) written.remove(Capability.UNIX_DOMAIN_SOCKET);
+    if (activation && sharedMemoryPath == null) written.remove(Capability.SHARED_MEMORY);
+    out.write(SerializerHelper.intToByteArray(Capability.toMask(written)));
+    if (written.contains(Capability.UNIX_DOMAIN_SOCKET))
+      SerializerHelper.writeString(out, unixSocketPath);
+    if (activation && written.contains(Capability.SHARED_MEMORY))
+      SerializerHelper.writeString(out, sharedMemoryPath);
+  }
+
+  /**
+   * @param activation whether the parameters only sent by the plugin are included
+   */
+  private static PluginInformation readCapabilities(InputStream in, PluginInformation info,
+                                                    Set<Capability> accepted, boolean activation)
+    throws IOException {
+    try {
+      Set<Capability> capabilities = EnumSet.noneOf(Capability.class);
+      capabilities.addAll(Capability.fromMask(SerializerHelper.readRawInt(in)));
+      String unixSocketPath = null;
+      if (capabilities.contains(Capability.UNIX_DOMAIN_SOCKET))
+        unixSocketPath = SerializerHelper.readString(in);
+      String sharedMemoryPath = null;
+      if (activation && capabilities.contains(Capability.SHARED_MEMORY))
+        sharedMemoryPath = SerializerHelper.readString(in);
+      capabilities.retainAll(accepted);
+      if (unixSocketPath == null || !capabilities.contains(Capability.UNIX_DOMAIN_SOCKET)) {
+        capabilities.remove(Capability.UNIX_DOMAIN_SOCKET);
+        unixSocketPath = null;
+      }
+      if (activation && sharedMemoryPath == null)
+        capabilities.remove(Capability.SHARED_MEMORY);
+      PluginInformation result = info.withCapabilities(capabilities)
+        .withUnixSocketPath(unixSocketPath);
+      return activation ? result.withSharedMemoryPath(sharedMemoryPath) : result;
+    } catch (ClassCastException e) {
+      throw new IOException("Found malformed capability parameters.", e);
+    }
+  }
+}
@@ -0,0 +1,443 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.PluginApi;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.SerializerHelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+/**
+ * <p>Non-blocking server accepting and decoding messages on a few event loop threads.</p>
+ *
+ * <p>Only fully received messages are handed to the worker executor. Messages of one connection
+ * are processed one after another and acknowledged in order, exactly like {@link MessageHandler}
+ * does. While a message is processed no further bytes are read from its connection.</p>
+ *
+ * <p>Connections using the {@link Frames framed protocol} instead hand every received message to
+ * the workers right away and acknowledge each one as soon as it was processed.</p>
+ */
+class SelectorServer implements Closeable {
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+  private static final byte[] RESPONSE_UID_BYTES = responseUidBytes();
+
+  private final PluginApi api;
+  private final Executor workers;
+  private final long idleTimeoutMillis;
+  private final EventLoop[] loops;
+  private ServerSocketChannel serverChannel;
+  private int nextLoop = 0;
+
+  SelectorServer(PluginApi api, Executor workers, CommunicationOptions options) {
+    this.api = api;
+    this.workers = workers;
+    this.idleTimeoutMillis = options.getConnectionIdleTimeoutMillis();
+    this.loops = new EventLoop[options.getEventLoopThreads()];
+  }
+
+  private static byte[] responseUidBytes() {
+    try {
+      ByteArrayWriter out = new ByteArrayWriter(Long.BYTES * 2);
+      SerializerHelper.writeLong(out, GeigerCommunicator.RESPONSE_UID);
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException("Got unexpected IO exception.", e);
+    }
+  }
+
+  /**
+   * <p>Starts listening on a random TCP port.</p>
+   */
+  void start() throws IOException {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    try {
+      channel.bind(new InetSocketAddress(0));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    start(channel);
+  }
+
+  /**
+   * <p>Starts accepting connections on an already bound server channel.</p>
+   *
+   * @param serverChannel the server channel, closed together with the server
+   */
+  void start(ServerSocketChannel serverChannel) throws IOException {
+    this.serverChannel = serverChannel;
+    try {
+      serverChannel.configureBlocking(false);
+      for (int i = 0; i < loops.length; i++) {
+        loops[i] = new EventLoop(Selector.open());
+        Thread thread = new Thread(loops[i], "GeigerEventLoop-" + i);
+        thread.setDaemon(true);
+        thread.start();
+      }
+      loops[0].execute(() -> loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, null));
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (EventLoop loop : loops)
+      if (loop != null) loop.shutdown();
+    if (serverChannel != null)
+      serverChannel.close();
+  }
+
+  private void accept() {
+    SocketChannel channel;
+    try {
+      while ((channel = serverChannel.accept()) != null) {
+        channel.configureBlocking(false);
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY))
+          channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        EventLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        loop.execute(new Connection(loop, channel)::register);
+      }
+    } catch (IOException e) {
+      if (serverChannel.isOpen())
+        GeigerApi.logger.log(Level.WARNING, "Encountered exception while listening for messages.", e);
+    }
+  }
+
+  /**
+   * <p>Single threaded selector loop serving a subset of all connections.</p>
+   */
+  private class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    EventLoop(Selector selector) {
+      this.selector = selector;
+    }
+
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    SelectionKey register(SelectableChannel channel, int ops, Connection connection) {
+      try {
+        return channel.register(selector, ops, connection);
+      } catch (ClosedChannelException e) {
+        return null;
+      }
+    }
+
+    void shutdown() {
+      running = false;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          selector.select(Math.max(idleTimeoutMillis / 2, 1));
+          Runnable task;
+          while ((task = tasks.poll()) != null) task.run();
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) continue;
+            if (key.isAcceptable()) {
+              accept();
+              continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) connection.read();
+            if (key.isValid() && key.isWritable()) connection.write();
+          }
+          closeIdleConnections();
+        }
+      } catch (IOException | ClosedSelectorException e) {
+        GeigerApi.logger.log(Level.WARNING, "Event loop terminated unexpectedly.", e);
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          if (key.attachment() != null)
+            ((Connection) key.attachment()).close();
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          GeigerApi.logger.log(Level.WARNING, "Failed to close selector.", e);
+        }
+      }
+    }
+
+    private void closeIdleConnections() {
+      long now = System.currentTimeMillis();
+      for (SelectionKey key : selector.keys()) {
+        Connection connection = (Connection) key.attachment();
+        if (connection != null && !connection.isBusy() &&
+          now - connection.lastActivity >= idleTimeoutMillis)
+          connection.close();
+      }
+    }
+  }
+
+  /**
+   * <p>State of a single accepted connection. Only accessed from its event loop.</p>
+   */
+  private class Connection {
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final ByteArrayReader reader = new ByteArrayReader();
+    private final Queue<ByteBuffer> out = new ArrayDeque<>();
+    private boolean processing = false;
+    private boolean inputClosed = false;
+    private Boolean framed = null;
+    private SessionAuthentication.Responder authentication;
+    private int inFlight = 0;
+    private long lastActivity = System.currentTimeMillis();
+
+    Connection(EventLoop loop, SocketChannel channel) {
+      this.loop = loop;
+      this.channel = channel;
+    }
+
+    void register() {
+      key = loop.register(channel, SelectionKey.OP_READ, this);
+    }
+
+    void read() {
+      try {
+        if (!in.hasRemaining())
+          in = grow(in, in.capacity() * 2);
+        if (channel.read(in) == -1)
+          inputClosed = true;
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.FINE, "Closing connection after read failure.", e);
+        close();
+        return;
+      }
+      lastActivity = System.currentTimeMillis();
+      dispatchNext();
+    }
+
+    void write() {
+      try {
+        while (!out.isEmpty()) {
+          ByteBuffer buffer = out.peek();
+          channel.write(buffer);
+          if (buffer.hasRemaining()) {
+            updateInterest();
+            return;
+          }
+          out.poll();
+        }
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.WARNING, "Failed to send back response UID.", e);
+        close();
+        return;
+      }
+      if (inputClosed) dispatchNext();
+      else updateInterest();
+    }
+
+    /**
+     * <p>Hands the next complete message to a worker if none is processed currently.</p>
+     */
+    private void dispatchNext() {
+      if (processing || key == null || !key.isValid()) return;
+      if (framed == null && !detectProtocol()) return;
+      if (framed) {
+        dispatchFrames();
+        return;
+      }
+      in.flip();
+      Message message = null;
+      try {
+        int length = MessageFramer.frameLength(in);
+        if (length != MessageFramer.INCOMPLETE) {
+          reader.reset(in.array(), in.arrayOffset() + in.position(), length);
+          message = Message.fromByteArrayStream(reader);
+          in.position(in.position() + length);
+        }
+      } catch (IOException | ClassCastException e) {
+        GeigerApi.logger.log(Level.WARNING, "Encountered exception while deserializing message.", e);
+        close();
+        return;
+      } finally {
+        if (channel.isOpen()) in.compact();
+      }
+      if (message == null) {
+        if (inputClosed && out.isEmpty()) close();
+        else updateInterest();
+        return;
+      }
+      processing = true;
+      updateInterest();
+      Message received = message;
+      workers.execute(() -> {
+        try {
+          api.receivedMessage(received);
+        } catch (IOException e) {
+          GeigerApi.logger.log(Level.WARNING, "Encountered exception while processing message.", e);
+        } finally {
+          loop.execute(this::acknowledge);
+        }
+      });
+    }
+
+    /**
+     * <p>Checks whether the connection starts with the preface of the framed protocol.</p>
+     *
+     * @return false if not enough bytes were received yet
+     */
+    private boolean detectProtocol() {
+      if (in.position() < Long.BYTES) {
+        if (inputClosed && out.isEmpty()) close();
+        else updateInterest();
+        return false;
+      }
+      framed = in.getLong(0) == Frames.PREFACE;
+      if (framed) {
+        authentication = new SessionAuthentication.Responder(api.getMasterSecret());
+        in.flip();
+        in.position(Long.BYTES);
+        in.compact();
+      }
+      return true;
+    }
+
+    /**
+     * <p>Hands all completely received frames to the workers.</p>
+     */
+    private void dispatchFrames() {
+      in.flip();
+      try {
+        while (inFlight < Frames.MAX_IN_FLIGHT && in.remaining() >= Frames.HEADER_SIZE) {
+          int start = in.position();
+          int length = in.getInt(start);
+          Frames.checkLength(length);
+          if (in.remaining() - Frames.HEADER_SIZE < length) break;
+          int streamId = in.getInt(start + Integer.BYTES);
+          byte type = in.get(start + Integer.BYTES * 2);
+          in.position(start + Frames.HEADER_SIZE + length);
+          if (type == Frames.AUTH) {
+            byte[] payload = new byte[length];
+            System.arraycopy(
+              in.array(), in.arrayOffset() + start + Frames.HEADER_SIZE, payload, 0, length
+            );
+            try {
+              queueFrame(streamId, Frames.AUTH, authentication.respond(payload));
+            } catch (IOException e) {
+              GeigerApi.logger.log(Level.WARNING, "Rejected framed connection.", e);
+              close();
+              return;
+            }
+            continue;
+          }
+          if (type != Frames.MESSAGE) continue;
+          reader.reset(in.array(), in.arrayOffset() + start + Frames.HEADER_SIZE, length);
+          Message message = Message.fromByteArrayStream(reader);
+          boolean authenticated = authentication.isAuthenticated();
+          inFlight++;
+          workers.execute(() -> {
+            try {
+              api.receivedMessage(message, authenticated);
+            } catch (IOException e) {
+              GeigerApi.logger.log(Level.WARNING, "Encountered exception while processing message.", e);
+            } finally {
+              loop.execute(() -> acknowledgeFrame(streamId));
+            }
+          });
+        }
+      } catch (IOException | ClassCastException e) {
+        GeigerApi.logger.log(Level.WARNING, "Encountered exception while deserializing message.", e);
+        close();
+        return;
+      } finally {
+        if (channel.isOpen()) in.compact();
+      }
+      if (inputClosed && inFlight == 0 && out.isEmpty()) close();
+      else updateInterest();
+    }
+
+    /**
+     * <p>Queues a frame to be written once the channel is writable.</p>
+     */
+    private void queueFrame(int streamId, byte type, byte[] payload) {
+      ByteBuffer frame = ByteBuffer.allocate(Frames.HEADER_SIZE + payload.length);
+      frame.putInt(payload.length).putInt(streamId).put(type).put(payload).flip();
+      out.add(frame);
+    }
+
+    private void acknowledgeFrame(int streamId) {
+      inFlight--;
+      lastActivity = System.currentTimeMillis();
+      if (!channel.isOpen()) return;
+      ByteBuffer ack = ByteBuffer.allocate(Frames.HEADER_SIZE);
+      ack.putInt(0).putInt(streamId).put(Frames.ACK).flip();
+      out.add(ack);
+      write();
+      if (!inputClosed) dispatchNext();
+    }
+
+    private boolean isBusy() {
+      return processing || inFlight > 0;
+    }
+
+    private void acknowledge() {
+      processing = false;
+      lastActivity = System.currentTimeMillis();
+      if (!channel.isOpen()) return;
+      out.add(ByteBuffer.wrap(RESPONSE_UID_BYTES));
+      write();
+      if (!inputClosed) dispatchNext();
+    }
+
+    private void updateInterest() {
+      if (key == null || !key.isValid()) return;
+      int ops = 0;
+      if (!processing && !inputClosed && inFlight < Frames.MAX_IN_FLIGHT)
+        ops |= SelectionKey.OP_READ;
+      if (!out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+      key.interestOps(ops);
+    }
+
+    void close() {
+      if (key != null) key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.WARNING, "Failed to close socket.", e);
+      }
+    }
+  }
+
+  private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+    ByteBuffer grown = ByteBuffer.allocate(capacity);
+    buffer.flip();
+    grown.put(buffer);
+    return grown;
+  }
+}
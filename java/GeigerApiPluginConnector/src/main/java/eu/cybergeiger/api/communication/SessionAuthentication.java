@@ -0,0 +1,138 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.plugin.CommunicationSecret;
+import eu.cybergeiger.api.utils.HashType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * <p>Challenge-response authentication of framed connections.</p>
+ *
+ * <p>Right after the preface the connecting side sends an {@link Frames#AUTH} frame with a random
+ * nonce. The accepting side answers with a nonce of its own and a proof over both nonces. The
+ * connecting side checks the proof and sends its own proof, which the accepting side confirms
+ * with an empty {@link Frames#AUTH} frame. Proofs are HMACs keyed with the communication secret,
+ * so neither side reveals the secret.</p>
+ *
+ * <p>Messages received on an authenticated connection are trusted without checking their hashes.
+ * Senders therefore hash them with {@link HashType#NONE}.</p>
+ */
+final class SessionAuthentication {
+  static final int NONCE_SIZE = 32;
+  private static final HashType PROOF_TYPE = HashType.HMAC_SHA256;
+  private static final int MAX_FRAME_SIZE = 1024;
+  private static final byte[] CLIENT = "geiger-session-client".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SERVER = "geiger-session-server".getBytes(StandardCharsets.US_ASCII);
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private SessionAuthentication() {
+  }
+
+  private static byte[] nonce() {
+    byte[] nonce = new byte[NONCE_SIZE];
+    RANDOM.nextBytes(nonce);
+    return nonce;
+  }
+
+  static byte[] proof(CommunicationSecret secret, byte[] role, byte[] clientNonce,
+                      byte[] serverNonce) {
+    return secret.hasher(PROOF_TYPE)
+      .update(role)
+      .update(clientNonce)
+      .update(serverNonce)
+      .finish()
+      .getBytes();
+  }
+
+  /**
+   * <p>Authenticates the session as connecting side.</p>
+   *
+   * <p>Must be called right after the preface was written and before any other frame.</p>
+   *
+   * @throws IOException if the peer could not be authenticated or rejected the session
+   */
+  static void authenticate(DataInputStream in, DataOutputStream out, CommunicationSecret secret)
+    throws IOException {
+    byte[] clientNonce = nonce();
+    Frames.writeFrame(out, 0, Frames.AUTH, clientNonce);
+    out.flush();
+
+    byte[] challenge = readAuthFrame(in);
+    if (challenge.length != NONCE_SIZE + PROOF_TYPE.getDigestLength())
+      throw new IOException("Received invalid session challenge.");
+    byte[] serverNonce = Arrays.copyOf(challenge, NONCE_SIZE);
+    byte[] serverProof = Arrays.copyOfRange(challenge, NONCE_SIZE, challenge.length);
+    if (!MessageDigest.isEqual(proof(secret, SERVER, clientNonce, serverNonce), serverProof))
+      throw new IOException("Peer failed session authentication.");
+
+    Frames.writeFrame(out, 0, Frames.AUTH, proof(secret, CLIENT, clientNonce, serverNonce));
+    out.flush();
+    if (readAuthFrame(in).length != 0)
+      throw new IOException("Received invalid session confirmation.");
+  }
+
+  private static byte[] readAuthFrame(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    Frames.checkLength(length);
+    in.readInt(); // stream id
+    byte type = in.readByte();
+    if (type != Frames.AUTH || length > MAX_FRAME_SIZE)
+      throw new IOException("Expected session authentication frame.");
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    return payload;
+  }
+
+  /**
+   * <p>Authentication state of an accepted connection.</p>
+   *
+   * <p>Not thread safe. Frames of a connection must be passed in the order they were received.</p>
+   */
+  static final class Responder {
+    private final CommunicationSecret secret;
+    private byte[] clientNonce;
+    private byte[] serverNonce;
+    private boolean authenticated = false;
+
+    Responder(CommunicationSecret secret) {
+      this.secret = secret;
+    }
+
+    /**
+     * <p>Processes a received {@link Frames#AUTH} frame.</p>
+     *
+     * @param payload the payload of the frame
+     * @return the payload of the {@link Frames#AUTH} frame to answer with
+     * @throws IOException if the peer failed authentication, the connection must be closed then
+     */
+    byte[] respond(byte[] payload) throws IOException {
+      if (secret.isEmpty())
+        throw new IOException("Cannot authenticate session without secret.");
+      if (clientNonce == null) {
+        if (payload.length != NONCE_SIZE)
+          throw new IOException("Received invalid session nonce.");
+        clientNonce = payload;
+        serverNonce = nonce();
+        byte[] proof = proof(secret, SERVER, clientNonce, serverNonce);
+        byte[] challenge = Arrays.copyOf(serverNonce, NONCE_SIZE + proof.length);
+        System.arraycopy(proof, 0, challenge, NONCE_SIZE, proof.length);
+        return challenge;
+      }
+      if (authenticated ||
+        !MessageDigest.isEqual(proof(secret, CLIENT, clientNonce, serverNonce), payload))
+        throw new IOException("Peer failed session authentication.");
+      authenticated = true;
+      return new byte[0];
+    }
+
+    boolean isAuthenticated() {
+      return authenticated;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package eu.cybergeiger.api.communication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Single producer, single consumer queue of byte records in a memory mapped file.</p>
+ *
+ * <p>The file starts with a header holding the capacity, a closed flag and the write and read
+ * positions, each on its own cache line. The positions only ever grow. Records consist of their
+ * length followed by their bytes and wrap around at the end of the data area. The producer
+ * publishes a record by advancing the write position after writing it. The consumer frees it by
+ * advancing the read position after reading it.</p>
+ *
+ * <p>Either side of the queue may live in another process. One side must only be used by a
+ * single thread at a time.</p>
+ */
+class SharedMemoryRing implements Closeable {
+  private static final long MAGIC = 0x4745494745525231L; // "GEIGERR1"
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int CLOSED_OFFSET = 12;
+  private static final int WRITE_POSITION_OFFSET = 64;
+  private static final int READ_POSITION_OFFSET = 128;
+  private static final int DATA_OFFSET = 192;
+  private static final int RECORD_HEADER_SIZE = Integer.BYTES;
+
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+
+  private SharedMemoryRing(MappedByteBuffer buffer, int capacity) {
+    this.buffer = buffer;
+    this.capacity = capacity;
+  }
+
+  /**
+   * <p>Creates a new empty ring, replacing any existing file.</p>
+   *
+   * @param path     the file to map
+   * @param capacity the number of bytes available for records
+   * @return the ring
+   * @throws IOException if the file cannot be created
+   */
+  static SharedMemoryRing create(Path path, int capacity) throws IOException {
+    if (capacity <= RECORD_HEADER_SIZE)
+      throw new IllegalArgumentException("\"capacity\" is too small.");
+    MappedByteBuffer buffer = map(path, DATA_OFFSET + capacity, true);
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    buffer.putInt(CLOSED_OFFSET, 0);
+    buffer.putLong(WRITE_POSITION_OFFSET, 0);
+    buffer.putLong(READ_POSITION_OFFSET, 0);
+    MemoryFences.release();
+    buffer.putLong(0, MAGIC);
+    return new SharedMemoryRing(buffer, capacity);
+  }
+
+  /**
+   * <p>Opens a ring created by another process.</p>
+   *
+   * @param path the file to map
+   * @return the ring
+   * @throws IOException if the file does not contain a ring
+   */
+  static SharedMemoryRing open(Path path) throws IOException {
+    MappedByteBuffer header = map(path, DATA_OFFSET, false);
+    if (header.getLong(0) != MAGIC)
+      throw new IOException("File \"" + path + "\" does not contain a shared memory ring.");
+    MemoryFences.acquire();
+    int capacity = header.getInt(CAPACITY_OFFSET);
+    return new SharedMemoryRing(map(path, DATA_OFFSET + capacity, false), capacity);
+  }
+
+  private static MappedByteBuffer map(Path path, int size, boolean create) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      if (create) {
+        file.setLength(0);
+        file.setLength(size);
+      } else if (file.length() < size) {
+        throw new IOException("File \"" + path + "\" is too short for a shared memory ring.");
+      }
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  /**
+   * @return the size of the largest record fitting into the ring
+   */
+  int getMaxRecordSize() {
+    return capacity - RECORD_HEADER_SIZE;
+  }
+
+  /**
+   * <p>Appends a record, waiting for the consumer to make room if necessary.</p>
+   *
+   * @param record        the record to append
+   * @param timeoutMillis maximum time to wait for room
+   * @throws IOException if the ring was closed or the consumer did not make room in time
+   */
+  void offer(byte[] record, long timeoutMillis) throws IOException {
+    if (record.length > getMaxRecordSize())
+      throw new IllegalArgumentException("Record does not fit into the ring.");
+    long needed = RECORD_HEADER_SIZE + record.length;
+    long writePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    IdleStrategy idle = new IdleStrategy();
+    while (true) {
+      if (isClosed())
+        throw new IOException("Shared memory ring was closed.");
+      long readPosition = buffer.getLong(READ_POSITION_OFFSET);
+      MemoryFences.acquire();
+      if (capacity - (writePosition - readPosition) >= needed) break;
+      if (System.nanoTime() - deadline >= 0)
+        throw new IOException("Consumer did not make room in the shared memory ring in time.");
+      idle.idle();
+    }
+    write(writePosition, ByteBuffer.allocate(RECORD_HEADER_SIZE).putInt(record.length).array());
+    write(writePosition + RECORD_HEADER_SIZE, record);
+    MemoryFences.release();
+    buffer.putLong(WRITE_POSITION_OFFSET, writePosition + needed);
+  }
+
+  /**
+   * <p>Removes the next record without waiting.</p>
+   *
+   * @return the record or null if the ring is empty
+   * @throws IOException if the ring contains a corrupt record
+   */
+  byte[] poll() throws IOException {
+    long readPosition = buffer.getLong(READ_POSITION_OFFSET);
+    long writePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+    MemoryFences.acquire();
+    if (readPosition == writePosition) return null;
+    byte[] length = new byte[RECORD_HEADER_SIZE];
+    read(readPosition, length);
+    int size = ByteBuffer.wrap(length).getInt();
+    if (size < 0 || size > getMaxRecordSize())
+      throw new IOException("Found corrupt record of length " + size + ".");
+    byte[] record = new byte[size];
+    read(readPosition + RECORD_HEADER_SIZE, record);
+    MemoryFences.release();
+    buffer.putLong(READ_POSITION_OFFSET, readPosition + RECORD_HEADER_SIZE + record.length);
+    return record;
+  }
+
+  private void write(long position, byte[] bytes) {
+    int index = (int) (position % capacity);
+    int first = Math.min(bytes.length, capacity - index);
+    ByteBuffer data = buffer.duplicate();
+    data.position(DATA_OFFSET + index);
+    data.put(bytes, 0, first);
+    data.position(DATA_OFFSET);
+    data.put(bytes, first, bytes.length - first);
+  }
+
+  private void read(long position, byte[] bytes) {
+    int index = (int) (position % capacity);
+    int first = Math.min(bytes.length, capacity - index);
+    ByteBuffer data = buffer.duplicate();
+    data.position(DATA_OFFSET + index);
+    data.get(bytes, 0, first);
+    data.position(DATA_OFFSET);
+    data.get(bytes, first, bytes.length - first);
+  }
+
+  boolean isClosed() {
+    return buffer.getInt(CLOSED_OFFSET) != 0;
+  }
+
+  /**
+   * <p>Marks the ring as closed for both sides.</p>
+   */
+  @Override
+  public void close() {
+    buffer.putInt(CLOSED_OFFSET, 1);
+    MemoryFences.release();
+  }
+
+  /**
+   * <p>Waits for the other side by spinning first, then yielding and finally parking for
+   * increasing amounts of time.</p>
+   */
+  static class IdleStrategy {
+    private static final int SPINS = 1000;
+    private static final int YIELDS = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private int idleCount = 0;
+    private long parkNanos = MIN_PARK_NANOS;
+
+    void idle() {
+      if (idleCount < SPINS) {
+        idleCount++;
+      } else if (idleCount < SPINS + YIELDS) {
+        idleCount++;
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(parkNanos);
+        parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+      }
+    }
+
+    void reset() {
+      idleCount = 0;
+      parkNanos = MIN_PARK_NANOS;
+    }
+  }
+}
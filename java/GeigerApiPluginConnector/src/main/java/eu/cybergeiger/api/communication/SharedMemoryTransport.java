@@ -0,0 +1,207 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.api.utils.HashType;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.storage.utils.Futures;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+/**
+ * <p>Transport exchanging messages through two rings in memory mapped files.</p>
+ *
+ * <p>The side creating the transport, usually a plugin, writes to the file with the suffix
+ * {@link #UPSTREAM_SUFFIX} and reads from the one with the suffix {@link #DOWNSTREAM_SUFFIX}. Its
+ * peer attaches to both files with the roles swapped. Messages are not acknowledged, as a message
+ * written to the ring cannot get lost while the peer is alive.</p>
+ *
+ * <p>Messages too large for the ring or sent after the peer closed the transport are handed to
+ * the fallback transport.</p>
+ */
+public class SharedMemoryTransport implements MessageTransport {
+  public static final String UPSTREAM_SUFFIX = ".up.ring";
+  public static final String DOWNSTREAM_SUFFIX = ".down.ring";
+
+  private final String path;
+  private final boolean owner;
+  private final SharedMemoryRing outbound;
+  private final SharedMemoryRing inbound;
+  private final MessageReceiver receiver;
+  private final Executor executor;
+  private final MessageTransport fallback;
+  private final long sendTimeoutMillis;
+  private final HashType integrityHashType;
+  private volatile boolean closed = false;
+
+  private SharedMemoryTransport(String path, boolean owner,
+                                SharedMemoryRing outbound, SharedMemoryRing inbound,
+                                MessageReceiver receiver, Executor executor,
+                                MessageTransport fallback, CommunicationOptions options) {
+    this.path = path;
+    this.owner = owner;
+    this.outbound = outbound;
+    this.inbound = inbound;
+    this.receiver = receiver;
+    this.executor = executor;
+    this.fallback = fallback;
+    this.sendTimeoutMillis = options.getAcknowledgeTimeoutMillis();
+    this.integrityHashType = options.getIntegrityHashType();
+    Thread reader = new Thread(this::readMessages, "GeigerRingReader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * <p>Creates the files of a new transport.</p>
+   *
+   * @param path     base path of the files
+   * @param options  options providing the ring capacity and the send timeout
+   * @param receiver receiver of incoming messages
+   * @param executor executor incoming messages are processed on
+   * @param fallback transport used for messages not fitting into the ring
+   * @return the transport
+   * @throws IOException if the files cannot be created
+   */
+  public static SharedMemoryTransport create(String path, CommunicationOptions options,
+                                             MessageReceiver receiver, Executor executor,
+                                             MessageTransport fallback) throws IOException {
+    int capacity = options.getSharedMemoryCapacity();
+    SharedMemoryRing outbound = SharedMemoryRing.create(Paths.get(path + UPSTREAM_SUFFIX), capacity);
+    SharedMemoryRing inbound = SharedMemoryRing.create(Paths.get(path + DOWNSTREAM_SUFFIX), capacity);
+    return new SharedMemoryTransport(
+      path, true, outbound, inbound, receiver, executor, fallback, options
+    );
+  }
+
+  /**
+   * <p>Attaches to the files of a transport created by the peer.</p>
+   *
+   * @param path     base path of the files
+   * @param options  options providing the send timeout
+   * @param receiver receiver of incoming messages
+   * @param executor executor incoming messages are processed on
+   * @param fallback transport used for messages not fitting into the ring
+   * @return the transport
+   * @throws IOException if the files do not contain rings
+   */
+  public static SharedMemoryTransport attach(String path, CommunicationOptions options,
+                                             MessageReceiver receiver, Executor executor,
+                                             MessageTransport fallback) throws IOException {
+    SharedMemoryRing outbound = SharedMemoryRing.open(Paths.get(path + DOWNSTREAM_SUFFIX));
+    SharedMemoryRing inbound = SharedMemoryRing.open(Paths.get(path + UPSTREAM_SUFFIX));
+    return new SharedMemoryTransport(
+      path, false, outbound, inbound, receiver, executor, fallback, options
+    );
+  }
+
+  /**
+   * @return base path of the files of the transport
+   */
+  public String getPath() {
+    return path;
+  }
+
+  public boolean isOpen() {
+    return !closed && !outbound.isClosed();
+  }
+
+  @Override
+  public void sendMessage(PluginInformation info, Message message) throws IOException {
+    byte[] bytes = serialize(info, message);
+    if (!fits(bytes)) {
+      fallback.sendMessage(info, message);
+      return;
+    }
+    offer(bytes);
+  }
+
+  @Override
+  public CompletableFuture<Void> sendMessageAsync(PluginInformation info, Message message) {
+    byte[] bytes;
+    try {
+      bytes = serialize(info, message);
+    } catch (IOException e) {
+      return Futures.failed(e);
+    }
+    if (!fits(bytes)) return fallback.sendMessageAsync(info, message);
+    return Futures.run(() -> offer(bytes));
+  }
+
+  private byte[] serialize(PluginInformation info, Message message) throws IOException {
+    ByteArrayWriter serialized = new ByteArrayWriter(ProtocolNegotiation.getWireFormat(info));
+    message.toByteArrayStream(serialized, info.getSecret(),
+      ProtocolNegotiation.getIntegrityHashType(info, integrityHashType));
+    return serialized.toByteArray();
+  }
+
+  private boolean fits(byte[] bytes) {
+    return isOpen() && bytes.length <= outbound.getMaxRecordSize();
+  }
+
+  private void offer(byte[] bytes) throws IOException {
+    synchronized (outbound) {
+      outbound.offer(bytes, sendTimeoutMillis);
+    }
+  }
+
+  private void readMessages() {
+    SharedMemoryRing.IdleStrategy idle = new SharedMemoryRing.IdleStrategy();
+    ByteArrayReader reader = new ByteArrayReader();
+    while (!closed) {
+      byte[] record;
+      try {
+        record = inbound.poll();
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.WARNING, "Stopped reading from corrupt shared memory ring.", e);
+        return;
+      }
+      if (record == null) {
+        if (inbound.isClosed()) return;
+        idle.idle();
+        continue;
+      }
+      idle.reset();
+      Message message;
+      try {
+        reader.reset(record, 0, record.length);
+        message = Message.fromByteArrayStream(reader);
+      } catch (IOException | ClassCastException e) {
+        GeigerApi.logger.log(Level.WARNING, "Encountered exception while deserializing message.", e);
+        continue;
+      }
+      try {
+        executor.execute(() -> process(message));
+      } catch (RejectedExecutionException e) {
+        return; // Executor was shut down.
+      }
+    }
+  }
+
+  private void process(Message message) {
+    try {
+      receiver.receivedMessage(message);
+    } catch (IOException e) {
+      GeigerApi.logger.log(Level.WARNING, "Encountered exception while processing message.", e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    outbound.close();
+    inbound.close();
+    if (owner) {
+      Files.deleteIfExists(Paths.get(path + UPSTREAM_SUFFIX));
+      Files.deleteIfExists(Paths.get(path + DOWNSTREAM_SUFFIX));
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package eu.cybergeiger.api.communication;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Completes futures exceptionally if they do not complete in time.</p>
+ *
+ * <p>All timeouts share one {@link HashedWheelTimer} with a resolution of 10 milliseconds.</p>
+ */
+public final class Timeouts {
+  private static final HashedWheelTimer TIMER =
+    new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 512);
+
+  private Timeouts() {
+  }
+
+  /**
+   * <p>Fails the future with a {@link TimeoutException} if not completed in time.</p>
+   *
+   * @param future        the future to watch
+   * @param timeoutMillis the timeout in milliseconds
+   * @param message       message of the timeout exception
+   * @return the given future
+   */
+  public static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeoutMillis,
+                                                String message) {
+    return within(future, timeoutMillis, message, null);
+  }
+
+  /**
+   * <p>Fails the future with a {@link TimeoutException} if not completed in time.</p>
+   *
+   * @param future        the future to watch
+   * @param timeoutMillis the timeout in milliseconds
+   * @param message       message of the timeout exception
+   * @param onTimeout     called on the timer thread if the future timed out, may be null
+   * @return the given future
+   */
+  public static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeoutMillis,
+                                                String message, Runnable onTimeout) {
+    if (future.isDone()) return future;
+    HashedWheelTimer.Timeout timeout = TIMER.schedule(() -> {
+      if (future.completeExceptionally(new TimeoutException(message)) && onTimeout != null)
+        onTimeout.run();
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+    future.whenComplete((result, error) -> timeout.cancel());
+    return future;
+  }
+}
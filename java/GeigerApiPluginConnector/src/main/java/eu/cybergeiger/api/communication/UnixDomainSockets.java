@@ -0,0 +1,98 @@
+package eu.cybergeiger.api.communication;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * <p>Access to Unix domain socket channels without requiring a runtime supporting them.</p>
+ */
+final class UnixDomainSockets {
+  private static final ProtocolFamily UNIX = findUnixFamily();
+  private static final Method NEW_ADDRESS = findMethod(
+    "java.net.UnixDomainSocketAddress", "of", String.class
+  );
+  private static final Method OPEN_SERVER_CHANNEL = findMethod(
+    ServerSocketChannel.class.getName(), "open", ProtocolFamily.class
+  );
+  private static final Method OPEN_CHANNEL = findMethod(
+    SocketChannel.class.getName(), "open", ProtocolFamily.class
+  );
+
+  private UnixDomainSockets() {
+  }
+
+  private static ProtocolFamily findUnixFamily() {
+    try {
+      return StandardProtocolFamily.valueOf("UNIX");
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static Method findMethod(String className, String name, Class<?> parameter) {
+    try {
+      return Class.forName(className).getMethod(name, parameter);
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  static boolean isSupported() {
+    return UNIX != null && NEW_ADDRESS != null &&
+      OPEN_SERVER_CHANNEL != null && OPEN_CHANNEL != null;
+  }
+
+  static SocketAddress address(String path) throws IOException {
+    return (SocketAddress) invoke(NEW_ADDRESS, path);
+  }
+
+  /**
+   * <p>Opens a server channel listening on the given path.</p>
+   *
+   * <p>A file left over at the path, e.g. by a crashed process, is replaced.</p>
+   */
+  static ServerSocketChannel bind(String path) throws IOException {
+    Files.deleteIfExists(Paths.get(path));
+    ServerSocketChannel channel = (ServerSocketChannel) invoke(OPEN_SERVER_CHANNEL, UNIX);
+    try {
+      channel.bind(address(path));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  static SocketChannel connect(String path) throws IOException {
+    SocketChannel channel = (SocketChannel) invoke(OPEN_CHANNEL, UNIX);
+    try {
+      channel.connect(address(path));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  private static Object invoke(Method method, Object argument) throws IOException {
+    if (!isSupported())
+      throw new IOException("Unix domain sockets are not supported by this runtime.");
+    try {
+      return method.invoke(null, argument);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException("Failed to use Unix domain socket.", e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new IOException("Failed to use Unix domain socket.", e);
+    }
+  }
+}
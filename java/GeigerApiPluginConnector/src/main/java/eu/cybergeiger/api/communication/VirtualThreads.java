@@ -0,0 +1,40 @@
+package eu.cybergeiger.api.communication;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Access to virtual threads without requiring a runtime supporting them.</p>
+ */
+final class VirtualThreads {
+  private static final Method NEW_EXECUTOR = findNewExecutor();
+
+  private VirtualThreads() {
+  }
+
+  private static Method findNewExecutor() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  static boolean isSupported() {
+    return NEW_EXECUTOR != null;
+  }
+
+  /**
+   * @return an executor starting a new virtual thread per task or null if not supported
+   */
+  static ExecutorService newThreadPerTaskExecutor() {
+    if (NEW_EXECUTOR == null) return null;
+    try {
+      return (ExecutorService) NEW_EXECUTOR.invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      // E.g. if virtual threads are a disabled preview feature.
+      return null;
+    }
+  }
+}
@@ -37,7 +37,7 @@ public class CommunicationException extends IOException implements Serializable
 
     @Override
     public void toByteArrayStream(OutputStream out) throws IOException {
-      SerializerHelper.writeLong(out, serialVersionUID);
+      SerializerHelper.writeMarker(out, serialVersionUID);
       SerializerHelper.writeString(out, exceptionName);
       SerializerHelper.writeString(out, message);
       SerializerHelper.writeStackTraces(out, this);
@@ -51,12 +51,12 @@ public class CommunicationException extends IOException implements Serializable
       } else {
         SerializerHelper.writeInt(out, 0);
       }
-      SerializerHelper.writeLong(out, serialVersionUID);
+      SerializerHelper.writeMarker(out, serialVersionUID);
     }
 
     public static SerializedException fromByteArrayStream(InputStream in)
       throws IOException {
-      if (SerializerHelper.readLong(in) != serialVersionUID) {
+      if (!SerializerHelper.readMarker(in, serialVersionUID)) {
         throw new IOException("failed to parse StorageException (bad stream?)");
       }
 
@@ -76,7 +76,7 @@ public class CommunicationException extends IOException implements Serializable
       }
 
       // read object end tag (identifier)
-      if (SerializerHelper.readLong(in) != serialVersionUID) {
+      if (!SerializerHelper.readMarker(in, serialVersionUID)) {
         throw new IOException("failed to parse NodeImpl (bad stream end?)");
       }
       return new CommunicationException.SerializedException(name, message, ste, cause);
@@ -113,7 +113,7 @@ public class CommunicationException extends IOException implements Serializable
 
   @Override
   public void toByteArrayStream(OutputStream out) throws IOException {
-    SerializerHelper.writeLong(out, serialVersionUID);
+    SerializerHelper.writeMarker(out, serialVersionUID);
     SerializerHelper.writeString(out, getMessage());
 
     // serialize stack trace
@@ -135,7 +135,7 @@ public class CommunicationException extends IOException implements Serializable
       SerializerHelper.writeInt(out, 0);
     }
 
-    SerializerHelper.writeLong(out, serialVersionUID);
+    SerializerHelper.writeMarker(out, serialVersionUID);
   }
 
   /**
@@ -149,7 +149,7 @@ public class CommunicationException extends IOException implements Serializable
    */
   public static CommunicationException fromByteArrayStream(InputStream in)
     throws IOException {
-    if (SerializerHelper.readLong(in) != serialVersionUID) {
+    if (!SerializerHelper.readMarker(in, serialVersionUID)) {
       throw new IOException("failed to parse StorageException (bad stream?)");
     }
 
@@ -168,7 +168,7 @@ public class CommunicationException extends IOException implements Serializable
     }
 
     // read object end tag (identifier)
-    if (SerializerHelper.readLong(in) != serialVersionUID) {
+    if (!SerializerHelper.readMarker(in, serialVersionUID)) {
       throw new IOException("failed to parse NodeImpl (bad stream end?)");
     }
     return new CommunicationException(txt, t, ste);
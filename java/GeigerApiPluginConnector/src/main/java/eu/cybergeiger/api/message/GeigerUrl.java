@@ -119,11 +119,11 @@ public class GeigerUrl implements Serializable {
 
   @Override
   public void toByteArrayStream(OutputStream out) throws IOException {
-    SerializerHelper.writeLong(out, serialVersionUID);
+    SerializerHelper.writeMarker(out, serialVersionUID);
     SerializerHelper.writeString(out, protocol);
     SerializerHelper.writeString(out, pluginId);
     SerializerHelper.writeString(out, path);
-    SerializerHelper.writeLong(out, serialVersionUID);
+    SerializerHelper.writeMarker(out, serialVersionUID);
   }
 
   /**
@@ -134,14 +134,14 @@ public class GeigerUrl implements Serializable {
    * @throws IOException if GeigerUrl cannot be read
    */
   public static GeigerUrl fromByteArrayStream(InputStream in) throws IOException {
-    if (SerializerHelper.readLong(in) != serialVersionUID)
+    if (!SerializerHelper.readMarker(in, serialVersionUID))
       throw new ClassCastException();
     GeigerUrl url = new GeigerUrl(
       Objects.requireNonNull(SerializerHelper.readString(in)),
       Objects.requireNonNull(SerializerHelper.readString(in)),
       Objects.requireNonNull(SerializerHelper.readString(in))
     );
-    if (SerializerHelper.readLong(in) != serialVersionUID)
+    if (!SerializerHelper.readMarker(in, serialVersionUID))
       throw new ClassCastException();
     return url;
   }
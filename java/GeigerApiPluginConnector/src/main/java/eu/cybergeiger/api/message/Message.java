@@ -5,12 +5,13 @@ import eu.cybergeiger.api.utils.Hash;
 import eu.cybergeiger.api.utils.HashType;
 import eu.cybergeiger.serialization.Serializable;
 import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.serialization.WireFormat;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Base64;
 import java.util.Objects;
 import java.util.UUID;
@@ -23,13 +24,25 @@ public class Message implements Serializable {
 
   private static final long serialVersionUID = 143287432L;
 
+  private static final byte[] NO_PAYLOAD = new byte[0];
+  private static final CommunicationSecret NO_SECRET = new CommunicationSecret();
+
   private final String sourceId;
   private final String targetId;
   private final MessageType type;
   private final String requestId;
   private final GeigerUrl action;
-  private Hash hash;
-  private String payloadString = "";
+  /*
+   * Hash received with the message. Messages created locally are hashed with an empty secret on
+   * first access.
+   */
+  private volatile Hash hash;
+  /*
+   * The payload is kept as given or as received. The other representation is derived on first
+   * access and cached. If both are null, the payload is null.
+   */
+  private volatile byte[] payload;
+  private volatile String payloadString = "";
 
   /**
    * <p>A message object transported through the local communication api.</p>
@@ -89,7 +102,6 @@ public class Message implements Serializable {
     this.action = action;
     if (payload != null)
       setPayload(payload);
-    hash = integrityHash(new CommunicationSecret());
   }
 
   /**
@@ -136,49 +148,80 @@ public class Message implements Serializable {
   }
 
   public Hash getHash() {
+    Hash hash = this.hash;
+    if (hash == null) {
+      hash = integrityHash(NO_SECRET, HASH_TYPE);
+      this.hash = hash;
+    }
     return hash;
   }
 
+  /**
+   * <p>Checks the hash against the one computed with a secret.</p>
+   *
+   * <p>The hash is computed with the type of the present hash, so keyed and unkeyed hashes are
+   * both accepted. {@link HashType#NONE} hashes are never valid.</p>
+   *
+   * @param secret the secret shared with the sender
+   * @return true if the hashes match
+   */
   public boolean isHashValid(CommunicationSecret secret) {
-    return integrityHash(secret).equals(hash);
+    Hash hash = getHash();
+    if (hash.getType() == HashType.NONE) return false;
+    return MessageDigest.isEqual(
+      integrityHash(secret, hash.getType()).getBytes(), hash.getBytes()
+    );
   }
 
-  private Hash integrityHash(CommunicationSecret secret) {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    try {
-      out.write(
-        (sourceId +
-          (targetId == null ? "null" : targetId) +
-          type.getId() +
-          (action == null ? "null" : action.toString()) +
-          requestId)
-          .getBytes(StandardCharsets.UTF_8)
-      );
-      out.write(getPayload());
-      out.write(secret.getBytes());
-    } catch (IOException e) {
-      throw new RuntimeException("Got unexpected IO exception.", e);
-    }
-    return HASH_TYPE.digest(out.toByteArray());
+  private Hash integrityHash(CommunicationSecret secret, HashType hashType) {
+    if (hashType == HashType.NONE) return hashType.hasher().finish();
+    return secret.hasher(hashType)
+      .update(sourceId)
+      .update(targetId)
+      .update(Integer.toString(type.getId()))
+      .update(action == null ? null : action.toString())
+      .update(requestId)
+      .update(getPayload())
+      .finish();
   }
 
   /**
    * <p>Returns the payload as array of bytes.</p>
    *
+   * <p>The payload is decoded once and the same array is returned on every call. It must not be
+   * modified.</p>
+   *
    * @return a byte array representing the payload
    */
   public byte[] getPayload() {
-    return payloadString == null ? new byte[0] :
-      Base64.getDecoder().decode(payloadString);
+    byte[] payload = this.payload;
+    if (payload != null) return payload;
+    String payloadString = this.payloadString;
+    if (payloadString == null) return NO_PAYLOAD;
+    payload = Base64.getDecoder().decode(payloadString);
+    this.payload = payload;
+    return payload;
+  }
+
+  /**
+   * <p>Returns a read-only view of the payload without copying it.</p>
+   *
+   * @return the payload
+   */
+  public ByteBuffer getPayloadBuffer() {
+    return ByteBuffer.wrap(getPayload()).asReadOnlyBuffer();
   }
 
   /**
    * <p>sets payload as byte array.</p>
    *
+   * <p>The array is not copied and must not be modified afterwards.</p>
+   *
    * @param payload the payload to be set
    */
   public void setPayload(byte[] payload) {
-    this.payloadString = payload == null ? null : Base64.getEncoder().encodeToString(payload);
+    this.payload = payload;
+    this.payloadString = null;
   }
 
 
@@ -188,7 +231,13 @@ public class Message implements Serializable {
    * @return a string representing the payload
    */
   public String getPayloadString() {
-    return this.payloadString;
+    String payloadString = this.payloadString;
+    if (payloadString != null) return payloadString;
+    byte[] payload = this.payload;
+    if (payload == null) return null;
+    payloadString = Base64.getEncoder().encodeToString(payload);
+    this.payloadString = payloadString;
+    return payloadString;
   }
 
   /**
@@ -198,6 +247,11 @@ public class Message implements Serializable {
    */
   public void setPayloadString(String value) {
     this.payloadString = value;
+    this.payload = null;
+  }
+
+  private boolean hasPayload() {
+    return payload != null || payloadString != null;
   }
 
   @Override
@@ -206,6 +260,20 @@ public class Message implements Serializable {
   }
 
   public void toByteArrayStream(OutputStream out, CommunicationSecret secret) throws IOException {
+    toByteArrayStream(out, secret, HASH_TYPE);
+  }
+
+  /**
+   * <p>Serializes the message with a hash computed with a secret.</p>
+   *
+   * @param out      the stream to write to
+   * @param secret   the secret shared with the receiver, may be null
+   * @param hashType the type of the hash, keyed types must be supported by the receiver
+   * @throws IOException if the stream cannot be written
+   */
+  public void toByteArrayStream(OutputStream out, CommunicationSecret secret, HashType hashType)
+    throws IOException {
+    SerializerHelper.writeFormatHeader(out);
     SerializerHelper.writeMarker(out, serialVersionUID);
     SerializerHelper.writeString(out, sourceId);
     SerializerHelper.writeString(out, targetId);
@@ -217,8 +285,11 @@ public class Message implements Serializable {
       action.toByteArrayStream(out);
     }
     SerializerHelper.writeString(out, requestId);
-    SerializerHelper.writeString(out, payloadString);
-    integrityHash(secret == null ? new CommunicationSecret() : secret).toByteArrayStream(out);
+    if (SerializerHelper.getFormat(out) == WireFormat.V2)
+      SerializerHelper.writeByteArray(out, hasPayload() ? getPayload() : null);
+    else
+      SerializerHelper.writeString(out, getPayloadString());
+    integrityHash(secret == null ? NO_SECRET : secret, hashType).toByteArrayStream(out);
     SerializerHelper.writeMarker(out, serialVersionUID);
   }
 
@@ -230,6 +301,7 @@ public class Message implements Serializable {
    * @throws IOException if bytes cannot be read
    */
   public static Message fromByteArrayStream(InputStream in) throws IOException {
+    SerializerHelper.readFormatHeader(in);
     SerializerHelper.testMarker(in, serialVersionUID);
     Message m = new Message(
       SerializerHelper.readString(in),
@@ -238,7 +310,10 @@ public class Message implements Serializable {
       SerializerHelper.readInt(in) == 1 ? GeigerUrl.fromByteArrayStream(in) : null,
       SerializerHelper.readString(in)
     );
-    m.setPayloadString(SerializerHelper.readString(in));
+    if (SerializerHelper.getFormat(in) == WireFormat.V2)
+      m.setPayload(SerializerHelper.readByteArray(in));
+    else
+      m.setPayloadString(SerializerHelper.readString(in));
     m.hash = Hash.fromByteArrayStream(in);
     SerializerHelper.testMarker(in, serialVersionUID);
     return m;
@@ -258,13 +333,13 @@ public class Message implements Serializable {
       && type == message.type
       && Objects.equals(action, message.action)
       && Objects.equals(requestId, message.requestId)
-      && Objects.equals(hash, message.hash)
-      && Objects.equals(payloadString, message.payloadString);
+      && Objects.equals(getHash(), message.getHash())
+      && Objects.equals(getPayloadString(), message.getPayloadString());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(sourceId, targetId, type, action, hash, payloadString);
+    return Objects.hash(sourceId, targetId, type, action, getHash(), getPayloadString());
   }
 
   @Override
@@ -1,5 +1,8 @@
 package eu.cybergeiger.api.plugin;
 
+import eu.cybergeiger.api.utils.HashType;
+import eu.cybergeiger.api.utils.Hasher;
+import eu.cybergeiger.api.utils.HasherPool;
 import eu.cybergeiger.serialization.Serializable;
 import eu.cybergeiger.serialization.SerializerHelper;
 
@@ -8,6 +11,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -16,7 +21,8 @@ import java.util.Base64;
 public class CommunicationSecret implements Serializable {
   private static final long serialVersionUID = 8901230L;
 
-  private byte[] bytes;
+  private volatile byte[] bytes;
+  private volatile Map<HashType, HasherPool> hasherPools = new ConcurrentHashMap<>();
 
   /**
    * Creates a zero length secret.
@@ -38,6 +44,27 @@ public class CommunicationSecret implements Serializable {
 
   public void setBytes(byte[] bytes) {
     this.bytes = Arrays.copyOf(bytes, bytes.length);
+    hasherPools = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @return true if the secret has zero length
+   */
+  public boolean isEmpty() {
+    return bytes.length == 0;
+  }
+
+  /**
+   * <p>Returns a hasher authenticating data with this secret.</p>
+   *
+   * <p>Keyed types use the secret as HMAC key. Other types hash the secret after all other data.
+   * Hashers are kept per type and reused once finished, so MACs are initialized only once.</p>
+   *
+   * @param type the type of the hash
+   * @return an empty hasher to be finished by the calling thread
+   */
+  public Hasher hasher(HashType type) {
+    return hasherPools.computeIfAbsent(type, t -> new HasherPool(t, bytes)).acquire();
   }
 
   @Override
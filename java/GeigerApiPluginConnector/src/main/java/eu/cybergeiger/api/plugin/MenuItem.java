@@ -1,6 +1,8 @@
 package eu.cybergeiger.api.plugin;
 
 import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
 import eu.cybergeiger.serialization.Serializable;
 import eu.cybergeiger.serialization.SerializerHelper;
 import eu.cybergeiger.storage.StorageException;
@@ -166,7 +168,7 @@ public class MenuItem implements Serializable {
    * @return the serializer object as byte array
    */
   public byte[] toByteArray() throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayWriter out = new ByteArrayWriter();
     toByteArrayStream(out);
     return out.toByteArray();
   }
@@ -178,7 +180,7 @@ public class MenuItem implements Serializable {
    * @return the deserialized object
    */
   public static MenuItem fromByteArray(byte[] buf) throws IOException {
-    return fromByteArrayStream(new ByteArrayInputStream(buf));
+    return fromByteArrayStream(new ByteArrayReader(buf));
   }
 
   public MenuItem clone() {
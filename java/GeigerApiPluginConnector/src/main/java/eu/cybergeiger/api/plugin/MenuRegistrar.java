@@ -2,6 +2,9 @@ package eu.cybergeiger.api.plugin;
 
 import eu.cybergeiger.api.exceptions.CommunicationException;
 import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.storage.utils.Futures;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>Registrar interface for Menus.</p>
@@ -41,4 +44,43 @@ public interface MenuRegistrar {
    */
   void deregisterMenu(String menu) throws CommunicationException;
 
+  /**
+   * <p>Asynchronous variant of {@link #registerMenu(MenuItem)}.</p>
+   *
+   * <p>The default implementation completes before returning. Failures complete the future
+   * with the {@link CommunicationException} the synchronous variant would have thrown.</p>
+   *
+   * @return future completed once the master confirmed the operation
+   */
+  default CompletableFuture<Void> registerMenuAsync(MenuItem menu) {
+    return Futures.run(() -> registerMenu(menu));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #enableMenu(String)}.</p>
+   *
+   * @return future completed once the master confirmed the operation
+   */
+  default CompletableFuture<Void> enableMenuAsync(String menu) {
+    return Futures.run(() -> enableMenu(menu));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #disableMenu(String)}.</p>
+   *
+   * @return future completed once the master confirmed the operation
+   */
+  default CompletableFuture<Void> disableMenuAsync(String menu) {
+    return Futures.run(() -> disableMenu(menu));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #deregisterMenu(String)}.</p>
+   *
+   * @return future completed once the master confirmed the operation
+   */
+  default CompletableFuture<Void> deregisterMenuAsync(String menu) {
+    return Futures.run(() -> deregisterMenu(menu));
+  }
+
 }
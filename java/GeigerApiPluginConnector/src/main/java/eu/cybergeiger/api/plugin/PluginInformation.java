@@ -1,10 +1,16 @@
 package eu.cybergeiger.api.plugin;
 
+import eu.cybergeiger.api.communication.Capability;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
 import eu.cybergeiger.serialization.Serializable;
 import eu.cybergeiger.serialization.SerializerHelper;
 
 import java.io.*;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * <p>Object for storing vital plugin information.</p>
@@ -17,6 +23,9 @@ public class PluginInformation implements Serializable {
   private final int port;
   private final Declaration declaration;
   private final CommunicationSecret secret;
+  private final Set<Capability> capabilities;
+  private final String unixSocketPath;
+  private final String sharedMemoryPath;
 
   /**
    * <p>Constructor for plugin information.</p>
@@ -40,11 +49,22 @@ public class PluginInformation implements Serializable {
    * @param secret      the secret required for communicating (if null a new secret is generated)
    */
   public PluginInformation(String id, String executable, int port, Declaration declaration, CommunicationSecret secret) {
+    this(id, executable, port, declaration, secret, EnumSet.noneOf(Capability.class), null, null);
+  }
+
+  private PluginInformation(String id, String executable, int port, Declaration declaration,
+                            CommunicationSecret secret, Set<Capability> capabilities,
+                            String unixSocketPath, String sharedMemoryPath) {
     this.id = id;
     this.executable = executable;
     this.port = port;
     this.declaration = declaration;
     this.secret = secret == null ? new CommunicationSecret() : secret;
+    this.capabilities = capabilities.isEmpty()
+      ? Collections.unmodifiableSet(EnumSet.noneOf(Capability.class))
+      : Collections.unmodifiableSet(EnumSet.copyOf(capabilities));
+    this.unixSocketPath = unixSocketPath;
+    this.sharedMemoryPath = sharedMemoryPath;
   }
 
   public String getId() {
@@ -83,18 +103,90 @@ public class PluginInformation implements Serializable {
   }
 
   public PluginInformation withSecret(CommunicationSecret secret) {
-    return new PluginInformation(id, executable, port, declaration, secret);
+    return new PluginInformation(
+      id, executable, port, declaration, secret, capabilities, unixSocketPath, sharedMemoryPath
+    );
+  }
+
+  /**
+   * <p>The protocol capabilities negotiated with the plugin.</p>
+   *
+   * <p>Capabilities are only valid while the plugin is active and are therefore not
+   * serialized.</p>
+   *
+   * @return unmodifiable set of the capabilities
+   */
+  public Set<Capability> getCapabilities() {
+    return capabilities;
+  }
+
+  public boolean supports(Capability capability) {
+    return capabilities.contains(capability);
+  }
+
+  public PluginInformation withCapabilities(Set<Capability> capabilities) {
+    return new PluginInformation(
+      id, executable, port, declaration, secret, capabilities, unixSocketPath, sharedMemoryPath
+    );
+  }
+
+  /**
+   * <p>Path of the Unix domain socket the plugin can be reached on.</p>
+   *
+   * <p>Only used if {@link Capability#UNIX_DOMAIN_SOCKET} was negotiated. Like the capabilities
+   * the path is not serialized.</p>
+   *
+   * @return the socket path or null if not available
+   */
+  public String getUnixSocketPath() {
+    return unixSocketPath;
+  }
+
+  public PluginInformation withUnixSocketPath(String unixSocketPath) {
+    return new PluginInformation(
+      id, executable, port, declaration, secret, capabilities, unixSocketPath, sharedMemoryPath
+    );
+  }
+
+  /**
+   * <p>Base path of the shared memory rings created by the plugin.</p>
+   *
+   * <p>Only used if {@link Capability#SHARED_MEMORY} was negotiated. Like the capabilities the
+   * path is not serialized.</p>
+   *
+   * @return the base path or null if not available
+   */
+  public String getSharedMemoryPath() {
+    return sharedMemoryPath;
+  }
+
+  public PluginInformation withSharedMemoryPath(String sharedMemoryPath) {
+    return new PluginInformation(
+      id, executable, port, declaration, secret, capabilities, unixSocketPath, sharedMemoryPath
+    );
+  }
+
+  /**
+   * <p>Creates a copy reachable on another port.</p>
+   *
+   * @param port the new port
+   * @return the updated plugin information
+   */
+  public PluginInformation withPort(int port) {
+    return new PluginInformation(
+      id, executable, port, declaration, secret, capabilities, unixSocketPath, sharedMemoryPath
+    );
   }
 
   @Override
   public void toByteArrayStream(OutputStream out) throws IOException {
-    SerializerHelper.writeLong(out, serialVersionUID);
+    SerializerHelper.writeMarker(out, serialVersionUID);
     SerializerHelper.writeString(out, id);
     SerializerHelper.writeString(out, executable);
     SerializerHelper.writeInt(out, port);
     SerializerHelper.writeInt(out, declaration.equals(Declaration.DO_NOT_SHARE_DATA) ? 0 : 1);
     secret.toByteArrayStream(out);
-    SerializerHelper.writeLong(out, serialVersionUID);
+    SerializerHelper.writeMarker(out, serialVersionUID);
   }
 
   /**
@@ -124,7 +216,7 @@ public class PluginInformation implements Serializable {
    */
   public byte[] toByteArray() {
     try {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayWriter out = new ByteArrayWriter();
       toByteArrayStream(out);
       return out.toByteArray();
     } catch (IOException e) {
@@ -140,7 +232,7 @@ public class PluginInformation implements Serializable {
    */
   public static PluginInformation fromByteArray(byte[] buf) {
     try {
-      return fromByteArrayStream(new ByteArrayInputStream(buf));
+      return fromByteArrayStream(new ByteArrayReader(buf));
     } catch (IOException ioe) {
       ioe.printStackTrace();
       return null;
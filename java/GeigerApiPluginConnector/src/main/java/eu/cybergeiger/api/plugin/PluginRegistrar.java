@@ -1,6 +1,9 @@
 package eu.cybergeiger.api.plugin;
 
 import eu.cybergeiger.api.exceptions.CommunicationException;
+import eu.cybergeiger.storage.utils.Futures;
+
+import java.util.concurrent.CompletableFuture;
 
 public interface PluginRegistrar {
   /***
@@ -29,4 +32,24 @@ public interface PluginRegistrar {
    */
   void deregisterPlugin() throws CommunicationException;
 
-}
\ No newline at end of file
+  /**
+   * <p>Asynchronous variant of {@link #deactivatePlugin()}.</p>
+   *
+   * <p>The default implementation completes before returning. Failures complete the future
+   * with the {@link CommunicationException} the synchronous variant would have thrown.</p>
+   *
+   * @return future completed once the master confirmed the operation
+   */
+  default CompletableFuture<Void> deactivatePluginAsync() {
+    return Futures.run(() -> deactivatePlugin());
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #deregisterPlugin()}.</p>
+   *
+   * @return future completed once the master confirmed the operation
+   */
+  default CompletableFuture<Void> deregisterPluginAsync() {
+    return Futures.run(() -> deregisterPlugin());
+  }
+}
@@ -0,0 +1,92 @@
+package eu.cybergeiger.api.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>Stream reading a value chunk by chunk.</p>
+ *
+ * <p>While a chunk is read, the next one is already requested. A chunk shorter than the chunk
+ * size marks the end of the value.</p>
+ */
+class ChunkedInputStream extends InputStream {
+  /**
+   * <p>Requests a chunk of the value.</p>
+   */
+  interface ChunkSource {
+    /**
+     * @param offset the offset of the chunk in the value
+     * @param length the chunk size
+     * @return future completed with at most length bytes
+     */
+    CompletableFuture<byte[]> fetch(long offset, int length);
+  }
+
+  private final ChunkSource source;
+  private final int chunkSize;
+
+  private byte[] chunk;
+  private int position;
+  private long nextOffset;
+  private CompletableFuture<byte[]> next;
+
+  /**
+   * @param source    the source of the chunks
+   * @param chunkSize the size of every chunk but the last
+   * @param first     the first chunk which was already fetched
+   */
+  ChunkedInputStream(ChunkSource source, int chunkSize, byte[] first) {
+    this.source = source;
+    this.chunkSize = chunkSize;
+    chunk = first;
+    nextOffset = first.length;
+    prefetch();
+  }
+
+  private void prefetch() {
+    next = chunk.length < chunkSize ? null : source.fetch(nextOffset, chunkSize);
+  }
+
+  private boolean ensureAvailable() throws IOException {
+    while (position == chunk.length) {
+      if (next == null) return false;
+      chunk = PassthroughController.await(next);
+      position = 0;
+      nextOffset += chunk.length;
+      prefetch();
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureAvailable()) return -1;
+    return chunk[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off)
+      throw new IndexOutOfBoundsException();
+    if (len == 0) return 0;
+    if (!ensureAvailable()) return -1;
+    int n = Math.min(len, chunk.length - position);
+    System.arraycopy(chunk, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return chunk.length - position;
+  }
+
+  @Override
+  public void close() {
+    if (next != null) next.cancel(false);
+    next = null;
+    chunk = new byte[0];
+    position = 0;
+  }
+}
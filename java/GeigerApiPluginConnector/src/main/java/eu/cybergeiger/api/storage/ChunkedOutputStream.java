@@ -0,0 +1,95 @@
+package eu.cybergeiger.api.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>Stream sending a value chunk by chunk.</p>
+ *
+ * <p>Written bytes are collected until a chunk is full. At most one chunk is in flight while the
+ * next one is collected. Closing the stream sends the last, possibly empty, chunk and waits until
+ * it was stored.</p>
+ */
+class ChunkedOutputStream extends OutputStream {
+  /**
+   * <p>Sends a chunk of the value.</p>
+   */
+  interface ChunkSink {
+    /**
+     * <p>The buffer is only read before this method returns.</p>
+     *
+     * @param offset the offset of the chunk in the value
+     * @param buffer the buffer holding the chunk
+     * @param length the length of the chunk
+     * @param last   whether this is the last chunk of the value
+     * @return future completed once the chunk was received
+     */
+    CompletableFuture<Void> send(long offset, byte[] buffer, int length, boolean last);
+  }
+
+  private final ChunkSink sink;
+  private final byte[] buffer;
+
+  private int count;
+  private long offset;
+  private CompletableFuture<Void> inFlight;
+  private boolean closed;
+
+  /**
+   * @param sink      the receiver of the chunks
+   * @param chunkSize the size of every chunk but the last
+   */
+  ChunkedOutputStream(ChunkSink sink, int chunkSize) {
+    this.sink = sink;
+    buffer = new byte[chunkSize];
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) throw new IOException("Stream closed.");
+  }
+
+  private void sendChunk(boolean last) throws IOException {
+    awaitInFlight();
+    inFlight = sink.send(offset, buffer, count, last);
+    offset += count;
+    count = 0;
+  }
+
+  private void awaitInFlight() throws IOException {
+    if (inFlight == null) return;
+    CompletableFuture<Void> sent = inFlight;
+    inFlight = null;
+    PassthroughController.await(sent);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    buffer[count++] = (byte) b;
+    if (count == buffer.length) sendChunk(false);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off)
+      throw new IndexOutOfBoundsException();
+    ensureOpen();
+    while (len > 0) {
+      int n = Math.min(len, buffer.length - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == buffer.length) sendChunk(false);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    sendChunk(true);
+    awaitInFlight();
+  }
+}
@@ -0,0 +1,146 @@
+package eu.cybergeiger.api.storage;
+
+import eu.cybergeiger.storage.StorageController;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>Responses of the master to read calls, indexed by node path.</p>
+ *
+ * <p>Responses are kept as received, so each hit is deserialized into fresh objects that callers
+ * may change freely. At most {@code capacity} paths are kept; the least recently used path is
+ * evicted first. Responses expire after the time to live.</p>
+ *
+ * <p>Every invalidation advances a generation. Responses requested before an invalidation are
+ * not cached, as they may already be outdated.</p>
+ */
+class NodeCache {
+  private static class Entry {
+    final byte[] payload;
+    final long expiresAt;
+
+    Entry(byte[] payload, long expiresAt) {
+      this.payload = payload;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final int capacity;
+  private final long ttlNanos;
+  private final LongSupplier clock;
+  private final LinkedHashMap<String, Map<String, Entry>> paths =
+    new LinkedHashMap<>(16, 0.75f, true);
+  private long generation;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  NodeCache(int capacity, long ttlMillis) {
+    this(capacity, ttlMillis, System::nanoTime);
+  }
+
+  /**
+   * @param capacity  maximum number of paths kept
+   * @param ttlMillis time after which responses expire
+   * @param clock     source of the current time in nanoseconds
+   */
+  NodeCache(int capacity, long ttlMillis, LongSupplier clock) {
+    this.capacity = capacity;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.clock = clock;
+  }
+
+  private static String getParent(String path) {
+    int index = path.lastIndexOf(StorageController.PATH_DELIMITER);
+    return index <= 0 ? null : path.substring(0, index);
+  }
+
+  /**
+   * @return the current generation, to be passed to {@link #put}
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * @param path    the path the call refers to
+   * @param request the call and its arguments apart from the path
+   * @return the cached response payload or null
+   */
+  synchronized byte[] get(String path, String request) {
+    Map<String, Entry> requests = paths.get(path);
+    Entry entry = requests == null ? null : requests.get(request);
+    if (entry != null && entry.expiresAt - clock.getAsLong() <= 0) {
+      requests.remove(request);
+      if (requests.isEmpty()) paths.remove(path);
+      evictions++;
+      entry = null;
+    }
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.payload;
+  }
+
+  /**
+   * <p>Caches a response unless the cache was invalidated since it was requested.</p>
+   *
+   * @param path       the path the call refers to
+   * @param request    the call and its arguments apart from the path
+   * @param payload    the response payload
+   * @param generation the generation when the call was sent
+   */
+  synchronized void put(String path, String request, byte[] payload, long generation) {
+    if (generation != this.generation) return;
+    paths.computeIfAbsent(path, ignored -> new HashMap<>())
+      .put(request, new Entry(payload, clock.getAsLong() + ttlNanos));
+    Iterator<Map<String, Entry>> eldest = paths.values().iterator();
+    while (paths.size() > capacity) {
+      evictions += eldest.next().size();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * <p>Drops all responses about a node and its parent, whose children may have changed.</p>
+   *
+   * @param path    the path of the changed node
+   * @param subtree whether responses about descendants are dropped as well
+   */
+  synchronized void invalidate(String path, boolean subtree) {
+    generation++;
+    paths.remove(path);
+    String parent = getParent(path);
+    if (parent != null) paths.remove(parent);
+    if (!subtree) return;
+    String prefix = path + StorageController.PATH_DELIMITER;
+    paths.keySet().removeIf(candidate -> candidate.startsWith(prefix));
+  }
+
+  synchronized void invalidateAll() {
+    generation++;
+    paths.clear();
+  }
+
+  synchronized long getHitCount() {
+    return hits;
+  }
+
+  synchronized long getMissCount() {
+    return misses;
+  }
+
+  /**
+   * @return number of responses dropped due to the capacity or time to live
+   */
+  synchronized long getEvictionCount() {
+    return evictions;
+  }
+}
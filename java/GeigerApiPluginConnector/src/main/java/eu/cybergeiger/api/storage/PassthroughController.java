@@ -2,21 +2,33 @@ package eu.cybergeiger.api.storage;
 
 import eu.cybergeiger.api.GeigerApi;
 import eu.cybergeiger.api.PluginApi;
+import eu.cybergeiger.api.communication.Capability;
 import eu.cybergeiger.api.communication.CommunicationHelper;
+import eu.cybergeiger.api.communication.CommunicationOptions;
 import eu.cybergeiger.api.message.GeigerUrl;
 import eu.cybergeiger.api.message.Message;
 import eu.cybergeiger.api.message.MessageType;
 import eu.cybergeiger.api.plugin.PluginListener;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
 import eu.cybergeiger.serialization.SerializerHelper;
 import eu.cybergeiger.storage.*;
 import eu.cybergeiger.storage.node.DefaultNode;
 import eu.cybergeiger.storage.node.Node;
 import eu.cybergeiger.storage.node.value.DefaultNodeValue;
 import eu.cybergeiger.storage.node.value.NodeValue;
+import eu.cybergeiger.storage.utils.Futures;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -29,10 +41,21 @@ public class PassthroughController implements StorageController, PluginListener,
   }
 
   private final PluginApi api;
+  private final NodeCache cache;
+  private CompletableFuture<String> cacheSubscription;
+  private final WriteBehindBuffer writeBehind;
+  private final long writeBehindDelayMillis;
+  private final int writeBehindMaxPendingWrites;
+  private final ScheduledThreadPoolExecutor flusher;
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final Object flushLock = new Object();
+  private CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+  private StorageException writeBehindError;
 
-  private final Map<String, StorageListener> idToListener = new HashMap<>();
-  private final Map<SearchCriteria, String> listenerCriteriaToId = new HashMap<>();
-  private final Map<String, SearchCriteria> idToListenerCriteria = new HashMap<>();
+  // Change events are processed on listener threads while listeners are (de)registered.
+  private final Map<String, StorageListener> idToListener = new ConcurrentHashMap<>();
+  private final Map<SearchCriteria, String> listenerCriteriaToId = new ConcurrentHashMap<>();
+  private final Map<String, SearchCriteria> idToListenerCriteria = new ConcurrentHashMap<>();
 
   /**
    * <p>Constructor for PasstroughController.</p>
@@ -40,7 +63,36 @@ public class PassthroughController implements StorageController, PluginListener,
    * @param api the LocalApi it belongs to
    */
   public PassthroughController(PluginApi api) {
+    this(api, CommunicationOptions.DEFAULT);
+  }
+
+  /**
+   * <p>Constructor for PasstroughController.</p>
+   *
+   * @param api     the LocalApi it belongs to
+   * @param options options configuring the node cache and write-behind
+   */
+  public PassthroughController(PluginApi api, CommunicationOptions options) {
     this.api = api;
+    cache = options.getNodeCacheCapacity() == 0 ? null : new NodeCache(
+      options.getNodeCacheCapacity(), options.getNodeCacheTtlMillis()
+    );
+    writeBehindDelayMillis = options.getWriteBehindDelayMillis();
+    writeBehindMaxPendingWrites = options.getWriteBehindMaxPendingWrites();
+    if (writeBehindDelayMillis == 0) {
+      writeBehind = null;
+      flusher = null;
+    } else {
+      writeBehind = new WriteBehindBuffer();
+      flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "GeigerWriteBehind");
+        thread.setDaemon(true);
+        return thread;
+      });
+      // Flushes only start sending, so the thread is idle most of the time and may end.
+      flusher.setKeepAliveTime(1, TimeUnit.SECONDS);
+      flusher.allowCoreThreadTimeOut(true);
+    }
   }
 
   @Override
@@ -55,12 +107,9 @@ public class PassthroughController implements StorageController, PluginListener,
   }
 
   private void processChangeEvent(Message message) throws IOException {
-    InputStream in = new ByteArrayInputStream(message.getPayload());
+    InputStream in = new ByteArrayReader(message.getPayload());
+    SerializerHelper.readFormatHeader(in);
     String id = Objects.requireNonNull(SerializerHelper.readString(in));
-    StorageListener listener = idToListener.get(id);
-    if (listener == null)
-      throw new StorageException("Listener \"" + id + "\" for change event not found.");
-
     String typeString = Objects.requireNonNull(SerializerHelper.readString(in));
     ChangeType type = ChangeType.valueOfStandard(typeString);
 
@@ -68,6 +117,13 @@ public class PassthroughController implements StorageController, PluginListener,
     Node oldNode = (nodeAvailability & 1) == 0 ? null : DefaultNode.fromByteArrayStream(in, this);
     Node newNode = (nodeAvailability & 2) == 0 ? null : DefaultNode.fromByteArrayStream(in, this);
 
+    if (cache != null) {
+      invalidateCache(type, oldNode, newNode);
+      if (isCacheEvent(id)) return;
+    }
+    StorageListener listener = idToListener.get(id);
+    if (listener == null)
+      throw new StorageException("Listener \"" + id + "\" for change event not found.");
     try {
       listener.gotStorageChange(type, oldNode, newNode);
     } catch (StorageException e) {
@@ -75,185 +131,850 @@ public class PassthroughController implements StorageController, PluginListener,
     }
   }
 
+  /**
+   * <p>Called instead of {@link #pluginEvent(Message)} if a storage event was dropped because
+   * too many were waiting. The node cache no longer learns of all changes then, so it is
+   * cleared.</p>
+   */
+  public void changeEventDropped() {
+    if (cache != null) cache.invalidateAll();
+  }
+
+  private void invalidateCache(ChangeType type, Node oldNode, Node newNode) {
+    if (oldNode == null && newNode == null) {
+      cache.invalidateAll();
+      return;
+    }
+    boolean subtree = type == ChangeType.DELETE || type == ChangeType.RENAME;
+    if (oldNode != null) cache.invalidate(oldNode.getPath(), subtree);
+    if (newNode != null) cache.invalidate(newNode.getPath(), subtree);
+  }
+
+  /**
+   * <p>Checks if a change event is meant for the node cache.</p>
+   *
+   * <p>The master may send events before the id of the cache registration arrived. These are
+   * attributed to the cache unless they belong to another listener.</p>
+   */
+  private synchronized boolean isCacheEvent(String id) {
+    if (cacheSubscription == null || cacheSubscription.isCompletedExceptionally()) return false;
+    if (!cacheSubscription.isDone()) return !idToListener.containsKey(id);
+    return id.equals(cacheSubscription.getNow(null));
+  }
+
+  /**
+   * <p>Registers for changes of all nodes, so cached nodes can be dropped once they change.</p>
+   *
+   * @return true if the registration was confirmed and responses may be cached
+   */
+  private synchronized boolean isCacheSubscribed() {
+    if (cacheSubscription == null) {
+      CompletableFuture<String> subscription = callRemoteAsync(
+        "registerChangeListener", new SearchCriteria()::toByteArrayStream,
+        "Failed to deserialize criteria id.", SerializerHelper::readString
+      );
+      cacheSubscription = subscription;
+      subscription.whenComplete((id, error) -> {
+        if (error == null) return;
+        GeigerApi.logger.log(Level.WARNING, "Failed to register node cache for changes.", error);
+        synchronized (this) {
+          if (cacheSubscription == subscription) cacheSubscription = null;
+        }
+      });
+    }
+    return cacheSubscription != null && cacheSubscription.isDone() &&
+      !cacheSubscription.isCompletedExceptionally();
+  }
+
+  /**
+   * <p>Number of reads answered from the node cache.</p>
+   *
+   * @return the hit count, 0 if the cache is disabled
+   */
+  public long getCacheHitCount() {
+    return cache == null ? 0 : cache.getHitCount();
+  }
+
+  /**
+   * <p>Number of reads sent to the master although the node cache is enabled.</p>
+   *
+   * @return the miss count, 0 if the cache is disabled
+   */
+  public long getCacheMissCount() {
+    return cache == null ? 0 : cache.getMissCount();
+  }
+
+  /**
+   * <p>Number of cached reads dropped to make room or because they expired.</p>
+   *
+   * @return the eviction count, 0 if the cache is disabled
+   */
+  public long getCacheEvictionCount() {
+    return cache == null ? 0 : cache.getEvictionCount();
+  }
+
+  private interface ResultParser<T> {
+    T parse(ByteArrayInputStream in) throws IOException;
+  }
+
   private ByteArrayInputStream callRemote(String name) throws StorageException {
     return callRemote(name, null);
   }
 
   private ByteArrayInputStream callRemote(String name, PayloadSerializer serializer) throws StorageException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    return await(callRemoteAsync(name, serializer));
+  }
+
+  private CompletableFuture<ByteArrayInputStream> callRemoteAsync(String name,
+                                                                  PayloadSerializer serializer) {
+    return callRemotePayloadAsync(name, serializer).thenApply(payload -> {
+      ByteArrayInputStream in = new ByteArrayReader(payload);
+      SerializerHelper.readFormatHeader(in);
+      return in;
+    });
+  }
+
+  /**
+   * <p>Sends a call once all buffered writes were processed. The arguments are serialized before
+   * this method returns, so the caller may change them afterwards.</p>
+   *
+   * @return future completed with the payload of the result including its format header
+   */
+  private CompletableFuture<byte[]> callRemotePayloadAsync(String name,
+                                                           PayloadSerializer serializer) {
+    byte[] arguments;
+    try {
+      arguments = serialize(serializer);
+    } catch (StorageException e) {
+      return Futures.failed(e);
+    }
+    return afterBufferedWrites(null, () -> sendRemotePayloadAsync(name, arguments));
+  }
+
+  private byte[] serialize(PayloadSerializer serializer) throws StorageException {
+    ByteArrayWriter out = new ByteArrayWriter(api.getWireFormat());
     if (serializer != null) {
       try {
+        SerializerHelper.writeFormatHeader(out);
         serializer.serialize(out);
       } catch (IOException e) {
         throw new StorageException("Serialization failed.", e);
       }
     }
-    Message response;
+    return out.toByteArray();
+  }
+
+  /**
+   * <p>Sends a call without waiting for buffered writes.</p>
+   *
+   * @return future completed with the payload of the result including its format header
+   */
+  private CompletableFuture<byte[]> sendRemotePayloadAsync(String name,
+                                                           PayloadSerializer serializer) {
     try {
-      response = CommunicationHelper.sendAndWait(
-        api,
-        new Message(
-          api.getId(), GeigerApi.MASTER_ID,
-          MessageType.STORAGE_EVENT,
-          new GeigerUrl(GeigerApi.MASTER_ID, name),
-          out.toByteArray()
-        ),
-        new MessageType[]{
-          MessageType.STORAGE_SUCCESS,
-          MessageType.STORAGE_ERROR
-        }
-      );
-    } catch (InterruptedException | TimeoutException | IOException e) {
-      throw new StorageException("Remote call failed.", e);
+      return sendRemotePayloadAsync(name, serialize(serializer));
+    } catch (StorageException e) {
+      return Futures.failed(e);
     }
-    ByteArrayInputStream in = new ByteArrayInputStream(response.getPayload());
-    if (response.getType() == MessageType.STORAGE_ERROR) {
-      StorageException exception;
+  }
+
+  private CompletableFuture<byte[]> sendRemotePayloadAsync(String name, byte[] arguments) {
+    CompletableFuture<byte[]> result = new CompletableFuture<>();
+    CommunicationHelper.sendAsync(
+      api,
+      new Message(
+        api.getId(), GeigerApi.MASTER_ID,
+        MessageType.STORAGE_EVENT,
+        new GeigerUrl(GeigerApi.MASTER_ID, name),
+        arguments
+      ),
+      new MessageType[]{
+        MessageType.STORAGE_SUCCESS,
+        MessageType.STORAGE_ERROR
+      }
+    ).whenComplete((response, error) -> {
+      if (error != null) {
+        result.completeExceptionally(new StorageException("Remote call failed.", error));
+        return;
+      }
+      if (response.getType() == MessageType.STORAGE_ERROR) {
+        ByteArrayInputStream in = new ByteArrayReader(response.getPayload());
+        SerializerHelper.readFormatHeader(in);
+        StorageException exception;
+        try {
+          exception = StorageException.fromByteArrayStream(in);
+        } catch (IOException e) {
+          result.completeExceptionally(new StorageException("Failed to deserialize error.", e));
+          return;
+        }
+        result.completeExceptionally(
+          new StorageException("Received exception from master.", exception)
+        );
+        return;
+      }
+      result.complete(response.getPayload());
+    });
+    return result;
+  }
+
+  private <T> CompletableFuture<T> callRemoteAsync(String name, PayloadSerializer serializer,
+                                                   String parseError, ResultParser<T> parser) {
+    return callRemoteAsync(name, serializer).thenApply(in -> {
       try {
-        exception = StorageException.fromByteArrayStream(in);
+        return parser.parse(in);
       } catch (IOException e) {
-        throw new StorageException("Failed to deserialize error.", e);
+        throw new CompletionException(new StorageException(parseError, e));
+      }
+    });
+  }
+
+  /**
+   * <p>Like {@link #callRemoteAsync(String, PayloadSerializer, String, ResultParser)}, but
+   * answers from the node cache if possible and only waits for buffered writes to the node or
+   * its descendants.</p>
+   *
+   * @param path    path of the node the call reads
+   * @param request the call and its arguments apart from the path
+   */
+  private <T> CompletableFuture<T> callRemoteCachedAsync(String name, String path,
+                                                         String request,
+                                                         PayloadSerializer serializer,
+                                                         String parseError,
+                                                         ResultParser<T> parser) {
+    byte[] arguments;
+    try {
+      arguments = serialize(serializer);
+    } catch (StorageException e) {
+      return Futures.failed(e);
+    }
+    if (cache == null)
+      return afterBufferedWrites(path, () -> sendRemotePayloadAsync(name, arguments))
+        .thenApply(payload -> parse(payload, parseError, parser));
+    byte[] cached = cache.get(path, request);
+    if (cached != null) {
+      try {
+        return CompletableFuture.completedFuture(parse(cached, parseError, parser));
+      } catch (CompletionException e) {
+        return Futures.failed(e.getCause());
       }
-      throw new StorageException("Received exception from master.", exception);
     }
-    return in;
+    boolean subscribed = isCacheSubscribed();
+    long generation = cache.getGeneration();
+    return afterBufferedWrites(path, () -> sendRemotePayloadAsync(name, arguments))
+      .thenApply(payload -> {
+        T result = parse(payload, parseError, parser);
+        if (subscribed) cache.put(path, request, payload, generation);
+        return result;
+      });
+  }
+
+  /**
+   * <p>Runs a call once the buffered writes it may depend on were processed by the master.</p>
+   *
+   * @param path the path of the node the call reads, or null if it depends on all writes
+   * @param call the call to run
+   */
+  private <T> CompletableFuture<T> afterBufferedWrites(String path,
+                                                       Supplier<CompletableFuture<T>> call) {
+    if (writeBehind == null) return call.get();
+    CompletableFuture<Void> flushed;
+    synchronized (flushLock) {
+      boolean pending = path == null ? !writeBehind.isEmpty() : writeBehind.touches(path);
+      flushed = pending ? sendBufferedWrites() : lastFlush;
+    }
+    if (flushed.isDone()) return call.get();
+    return flushed.thenCompose(ignored -> call.get());
   }
 
-  private Node callRemoteReturnNode(String name, String path) throws StorageException {
-    InputStream in = callRemote(name, out -> SerializerHelper.writeString(out, path));
+  /**
+   * <p>Schedules sending the buffered writes, immediately if too many are pending.</p>
+   */
+  private void scheduleFlush(int pending) {
+    if (pending >= writeBehindMaxPendingWrites) {
+      flusher.execute(this::sendBufferedWrites);
+    } else if (flushScheduled.compareAndSet(false, true)) {
+      flusher.schedule(() -> {
+        flushScheduled.set(false);
+        sendBufferedWrites();
+      }, writeBehindDelayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * <p>Completes a write that was buffered instead of sent.</p>
+   */
+  private CompletableFuture<Boolean> buffered(int pending, String path, boolean subtree) {
+    if (cache != null) cache.invalidate(path, subtree);
+    scheduleFlush(pending);
+    return CompletableFuture.completedFuture(false);
+  }
+
+  /**
+   * <p>Sends the buffered writes after the writes sent before.</p>
+   *
+   * @return future completed once all writes sent so far were processed, never exceptionally
+   */
+  private CompletableFuture<Void> sendBufferedWrites() {
+    synchronized (flushLock) {
+      if (!writeBehind.isEmpty()) {
+        List<WriteBehindBuffer.Write> writes = writeBehind.drain();
+        lastFlush = lastFlush.thenCompose(ignored -> sendWrites(writes));
+      }
+      return lastFlush;
+    }
+  }
+
+  /**
+   * <p>Sends writes one group after the other. With batch operations, consecutive node writes
+   * and consecutive value writes to the same node form one group.</p>
+   */
+  private CompletableFuture<Void> sendWrites(List<WriteBehindBuffer.Write> writes) {
+    boolean batch = api.masterSupports(Capability.BATCH_OPERATIONS);
+    CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+    int start = 0;
+    while (start < writes.size()) {
+      WriteBehindBuffer.Write first = writes.get(start);
+      int end = start + 1;
+      while (batch && end < writes.size() && (first.isNodeWrite()
+        ? writes.get(end).isNodeWrite()
+        : !writes.get(end).isNodeWrite() && writes.get(end).getPath().equals(first.getPath())))
+        end++;
+      List<WriteBehindBuffer.Write> group = writes.subList(start, end);
+      sent = sent.thenCompose(ignored -> sendWriteGroup(group, batch));
+      start = end;
+    }
+    return sent;
+  }
+
+  private CompletableFuture<Void> sendWriteGroup(List<WriteBehindBuffer.Write> group,
+                                                 boolean batch) {
+    WriteBehindBuffer.Write first = group.get(0);
+    String name;
+    PayloadSerializer serializer;
+    if (first.isNodeWrite()) {
+      name = batch ? "addOrUpdateNodes" : "addOrUpdateNode";
+      serializer = out -> {
+        if (batch) SerializerHelper.writeInt(out, group.size());
+        for (WriteBehindBuffer.Write write : group) write.getNode(this).toByteArrayStream(out);
+      };
+    } else {
+      name = batch ? "addOrUpdateValues" : "addOrUpdateValue";
+      serializer = out -> {
+        SerializerHelper.writeString(out, first.getPath());
+        if (batch) SerializerHelper.writeInt(out, group.size());
+        for (WriteBehindBuffer.Write write : group) write.getValue().toByteArrayStream(out);
+      };
+    }
+    List<String> paths = group.stream()
+      .map(WriteBehindBuffer.Write::getPath)
+      .collect(Collectors.toList());
+    return invalidateAfter(sendRemotePayloadAsync(name, serializer), paths)
+      .handle((payload, error) -> {
+        if (error != null) {
+          recordWriteError(error);
+          return null;
+        }
+        if (!batch) return null;
+        try {
+          List<BatchResult<Boolean>> results = parse(
+            payload, "Failed to deserialize batch result.",
+            in -> readBatchResults(in, PassthroughController::readBoolean)
+          );
+          for (BatchResult<Boolean> result : results)
+            if (!result.isSuccess()) recordWriteError(result.getError());
+        } catch (CompletionException e) {
+          recordWriteError(e);
+        }
+        return null;
+      });
+  }
+
+  private void recordWriteError(Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null)
+      error = error.getCause();
+    GeigerApi.logger.log(Level.WARNING, "Buffered write failed.", error);
+    synchronized (flushLock) {
+      if (writeBehindError == null)
+        writeBehindError = new StorageException("Buffered writes failed.", error);
+      else
+        writeBehindError.addSuppressed(error);
+    }
+  }
+
+  /**
+   * @return the failure of buffered writes since the last call, or null
+   */
+  private StorageException takeWriteError() {
+    synchronized (flushLock) {
+      StorageException error = writeBehindError;
+      writeBehindError = null;
+      return error;
+    }
+  }
+
+  /**
+   * <p>Sends all buffered writes and waits until the master processed them.</p>
+   *
+   * <p>Does nothing unless write-behind is enabled.</p>
+   *
+   * @throws StorageException if buffered writes failed since the last flush
+   */
+  public void flushBufferedWrites() throws StorageException {
+    if (writeBehind == null) return;
+    await(sendBufferedWrites());
+    StorageException error = takeWriteError();
+    if (error != null) throw error;
+  }
+
+  private static <T> T parse(byte[] payload, String parseError, ResultParser<T> parser) {
+    ByteArrayInputStream in = new ByteArrayReader(payload);
+    SerializerHelper.readFormatHeader(in);
     try {
-      return DefaultNode.fromByteArrayStream(in, this);
+      return parser.parse(in);
     } catch (IOException e) {
-      throw new StorageException("Failed to deserialize Node.", e);
+      throw new CompletionException(new StorageException(parseError, e));
+    }
+  }
+
+  /**
+   * <p>Drops cached reads of a node once a call changing it completed.</p>
+   */
+  private <T> CompletableFuture<T> invalidateAfter(CompletableFuture<T> call, String path,
+                                                   boolean subtree) {
+    if (cache == null) return call;
+    return call.whenComplete((result, error) -> {
+      if (path == null) cache.invalidateAll();
+      else cache.invalidate(path, subtree);
+    });
+  }
+
+  private <T> CompletableFuture<T> invalidateAfter(CompletableFuture<T> call,
+                                                   Collection<String> paths) {
+    if (cache == null) return call;
+    return call.whenComplete((result, error) -> {
+      for (String path : paths) cache.invalidate(path, true);
+    });
+  }
+
+  static <T> T await(CompletableFuture<T> future) throws StorageException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("Remote call failed.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof StorageException)
+        throw (StorageException) e.getCause();
+      throw new StorageException("Remote call failed.", e.getCause());
     }
   }
 
+  private CompletableFuture<Node> callRemoteReturnNode(String name, String path) {
+    return callRemoteAsync(
+      name, out -> SerializerHelper.writeString(out, path),
+      "Failed to deserialize Node.", in -> DefaultNode.fromByteArrayStream(in, this)
+    );
+  }
+
+  private CompletableFuture<Node> callRemoteCachedReturnNode(String name, String path) {
+    return callRemoteCachedAsync(
+      name, path, name, out -> SerializerHelper.writeString(out, path),
+      "Failed to deserialize Node.", in -> DefaultNode.fromByteArrayStream(in, this)
+    );
+  }
+
+  private static boolean readBoolean(ByteArrayInputStream in) throws IOException {
+    return SerializerHelper.readInt(in) == 1;
+  }
+
   @Override
   public Node get(String path) throws StorageException {
-    return callRemoteReturnNode("getNode", path);
+    return await(getAsync(path));
+  }
+
+  @Override
+  public CompletableFuture<Node> getAsync(String path) {
+    return callRemoteCachedReturnNode("getNode", path);
   }
 
   @Override
   public Node getNodeOrTombstone(String path) throws StorageException {
-    return callRemoteReturnNode("getNodeOrTombstone", path);
+    return await(getNodeOrTombstoneAsync(path));
+  }
+
+  @Override
+  public CompletableFuture<Node> getNodeOrTombstoneAsync(String path) {
+    return callRemoteCachedReturnNode("getNodeOrTombstone", path);
   }
 
   @Override
   public void add(Node node) throws StorageException {
-    callRemote("addNode", node::toByteArrayStream);
+    await(addAsync(node));
+  }
+
+  @Override
+  public CompletableFuture<Void> addAsync(Node node) {
+    return invalidateAfter(
+      callRemoteAsync("addNode", node::toByteArrayStream), node.getPath(), false
+    ).thenApply(in -> null);
   }
 
   @Override
   public void update(Node node) throws StorageException {
-    callRemote("updateNode", node::toByteArrayStream);
+    await(updateAsync(node));
   }
 
+  @Override
+  public CompletableFuture<Void> updateAsync(Node node) {
+    return invalidateAfter(
+      callRemoteAsync("updateNode", node::toByteArrayStream), node.getPath(), false
+    ).thenApply(in -> null);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>With write-behind enabled, the node is only buffered. Whether it is added is not known
+   * yet, so false is returned.</p>
+   *
+   * @return true if at least one node was added, always false with write-behind enabled
+   */
   @Override
   public boolean addOrUpdate(Node node) throws StorageException {
-    ByteArrayInputStream in = callRemote("addOrUpdateNode", node::toByteArrayStream);
-    try {
-      return SerializerHelper.readInt(in) == 1;
-    } catch (IOException e) {
-      throw new StorageException("Failed to deserialize result.", e);
+    return await(addOrUpdateAsync(node));
+  }
+
+  @Override
+  public CompletableFuture<Boolean> addOrUpdateAsync(Node node) {
+    if (writeBehind != null) {
+      try {
+        return buffered(writeBehind.addNode(node), node.getPath(), true);
+      } catch (StorageException e) {
+        return Futures.failed(e);
+      }
     }
+    return invalidateAfter(callRemoteAsync(
+      "addOrUpdateNode", node::toByteArrayStream,
+      "Failed to deserialize result.", PassthroughController::readBoolean
+    ), node.getPath(), true);
   }
 
   @Override
   public Node delete(String path) throws StorageException {
-    return callRemoteReturnNode("deleteNode", path);
+    return await(deleteAsync(path));
+  }
+
+  @Override
+  public CompletableFuture<Node> deleteAsync(String path) {
+    return invalidateAfter(callRemoteReturnNode("deleteNode", path), path, true);
   }
 
   @Override
   public NodeValue getValue(String path, String key) throws StorageException {
-    ByteArrayInputStream in = callRemote("getValue", out -> {
+    return await(getValueAsync(path, key));
+  }
+
+  @Override
+  public CompletableFuture<NodeValue> getValueAsync(String path, String key) {
+    NodeValue buffered = writeBehind == null ? null : writeBehind.getValue(path, key);
+    if (buffered != null) return CompletableFuture.completedFuture(buffered);
+    return callRemoteCachedAsync("getValue", path, "getValue:" + key, out -> {
       SerializerHelper.writeString(out, path);
       SerializerHelper.writeString(out, key);
-    });
-    if (in.available() == 0) return null;
-    try {
+    }, "Failed to deserialize NodeValue.", in -> {
+      if (in.available() == 0) return null;
       return DefaultNodeValue.fromByteArrayStream(in);
-    } catch (IOException e) {
-      throw new StorageException("Failed to deserialize NodeValue.", e);
-    }
+    });
   }
 
   @Override
   public void addValue(String path, NodeValue value) throws StorageException {
-    callRemote("addValue", out -> {
+    await(addValueAsync(path, value));
+  }
+
+  @Override
+  public CompletableFuture<Void> addValueAsync(String path, NodeValue value) {
+    return invalidateAfter(callRemoteAsync("addValue", out -> {
       SerializerHelper.writeString(out, path);
       value.toByteArrayStream(out);
-    });
+    }), path, false).thenApply(in -> null);
   }
 
   @Override
   public void updateValue(String path, NodeValue value) throws StorageException {
-    callRemote("updateValue", out -> {
+    await(updateValueAsync(path, value));
+  }
+
+  @Override
+  public CompletableFuture<Void> updateValueAsync(String path, NodeValue value) {
+    return invalidateAfter(callRemoteAsync("updateValue", out -> {
       SerializerHelper.writeString(out, path);
       value.toByteArrayStream(out);
-    });
+    }), path, false).thenApply(in -> null);
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>With write-behind enabled, the value is only buffered. Whether it is added is not known
+   * yet, so false is returned.</p>
+   *
+   * @return true if the value did not exist yet, always false with write-behind enabled
+   */
   @Override
   public boolean addOrUpdateValue(String path, NodeValue value) throws StorageException {
-    ByteArrayInputStream in = callRemote("addOrUpdateValue", out -> {
+    return await(addOrUpdateValueAsync(path, value));
+  }
+
+  @Override
+  public CompletableFuture<Boolean> addOrUpdateValueAsync(String path, NodeValue value) {
+    if (writeBehind != null) return buffered(writeBehind.addValue(path, value), path, false);
+    return invalidateAfter(callRemoteAsync("addOrUpdateValue", out -> {
       SerializerHelper.writeString(out, path);
       value.toByteArrayStream(out);
-    });
-    try {
-      return SerializerHelper.readInt(in) == 1;
-    } catch (IOException e) {
-      throw new StorageException("Failed to deserialize result.", e);
-    }
+    }, "Failed to deserialize result.", PassthroughController::readBoolean), path, false);
   }
 
   @Override
   public NodeValue deleteValue(String path, String key) throws StorageException {
-    ByteArrayInputStream in = callRemote("deleteValue", out -> {
+    return await(deleteValueAsync(path, key));
+  }
+
+  @Override
+  public CompletableFuture<NodeValue> deleteValueAsync(String path, String key) {
+    return invalidateAfter(callRemoteAsync("deleteValue", out -> {
       SerializerHelper.writeString(out, path);
       SerializerHelper.writeString(out, key);
-    });
-    try {
-      return DefaultNodeValue.fromByteArrayStream(in);
-    } catch (IOException e) {
-      throw new StorageException("Failed to deserialize NodeValue.", e);
-    }
+    }, "Failed to deserialize NodeValue.", DefaultNodeValue::fromByteArrayStream), path, false);
   }
 
   @Override
   public void rename(String oldPath, String newPathOrName) throws StorageException {
-    callRemote("renameNode", out -> {
+    await(renameAsync(oldPath, newPathOrName));
+  }
+
+  @Override
+  public CompletableFuture<Void> renameAsync(String oldPath, String newPathOrName) {
+    // The new path may be given as a name only, so all cached nodes are dropped.
+    return invalidateAfter(callRemoteAsync("renameNode", out -> {
       SerializerHelper.writeString(out, oldPath);
       SerializerHelper.writeString(out, newPathOrName);
-    });
+    }), null, true).thenApply(in -> null);
+  }
+
+  @Override
+  public InputStream openValueInputStream(String path, String key) throws StorageException {
+    if (!api.masterSupports(Capability.CHUNKED_TRANSFER))
+      return StorageController.super.openValueInputStream(path, key);
+    ChunkedInputStream.ChunkSource source = (offset, length) -> callRemoteAsync(
+      "getValueChunk", out -> {
+        SerializerHelper.writeString(out, path);
+        SerializerHelper.writeString(out, key);
+        SerializerHelper.writeLong(out, offset);
+        SerializerHelper.writeInt(out, length);
+      }, "Failed to deserialize value chunk.", in -> {
+        byte[] chunk = SerializerHelper.readByteArray(in);
+        if (chunk == null)
+          throw new StorageException("Value \"" + key + "\" of node \"" + path + "\" not found.");
+        return chunk;
+      }
+    );
+    int chunkSize = api.getTransferChunkSize();
+    return new ChunkedInputStream(source, chunkSize, await(source.fetch(0, chunkSize)));
+  }
+
+  @Override
+  public OutputStream openValueOutputStream(String path, String key) throws StorageException {
+    if (!api.masterSupports(Capability.CHUNKED_TRANSFER))
+      return StorageController.super.openValueOutputStream(path, key);
+    String transferId = UUID.randomUUID().toString();
+    return new ChunkedOutputStream((offset, buffer, length, last) -> invalidateAfter(
+      callRemoteAsync("setValueChunk", out -> {
+        SerializerHelper.writeString(out, transferId);
+        SerializerHelper.writeString(out, path);
+        SerializerHelper.writeString(out, key);
+        SerializerHelper.writeLong(out, offset);
+        SerializerHelper.writeByteArray(out, buffer, 0, length);
+        SerializerHelper.writeInt(out, last ? 1 : 0);
+      }), path, false).thenApply(in -> null), api.getTransferChunkSize());
   }
 
   @Override
   public List<Node> search(SearchCriteria criteria) throws StorageException {
-    ByteArrayInputStream in = callRemote("searchNodes", criteria::toByteArrayStream);
-    try {
-      Node[] nodes = new Node[SerializerHelper.readInt(in)];
-      for (int i = 0; i < nodes.length; i++) {
-        nodes[i] = DefaultNode.fromByteArrayStream(in, this);
+    return await(searchAsync(criteria));
+  }
+
+  @Override
+  public CompletableFuture<List<Node>> searchAsync(SearchCriteria criteria) {
+    return callRemoteAsync(
+      "searchNodes", criteria::toByteArrayStream,
+      "Failed to deserialize search result.", this::readNodes
+    );
+  }
+
+  @Override
+  public List<Node> searchPage(SearchCriteria criteria, int offset, int limit)
+    throws StorageException {
+    if (!api.masterSupports(Capability.CHUNKED_TRANSFER))
+      return StorageController.super.searchPage(criteria, offset, limit);
+    if (offset < 0)
+      throw new IllegalArgumentException("\"offset\" cannot be negative.");
+    if (limit <= 0)
+      throw new IllegalArgumentException("\"limit\" must be positive.");
+    return await(callRemoteAsync(
+      "searchNodesPage", out -> {
+        criteria.toByteArrayStream(out);
+        SerializerHelper.writeInt(out, offset);
+        SerializerHelper.writeInt(out, limit);
+      }, "Failed to deserialize search result.", this::readNodes
+    ));
+  }
+
+  @Override
+  public List<BatchResult<Node>> getAll(List<String> paths) throws StorageException {
+    return await(getAllAsync(paths));
+  }
+
+  @Override
+  public CompletableFuture<List<BatchResult<Node>>> getAllAsync(List<String> paths) {
+    if (!api.masterSupports(Capability.BATCH_OPERATIONS))
+      return collect(paths.stream().map(this::getAsync).collect(Collectors.toList()));
+    return callRemoteAsync("getNodes", out -> {
+      SerializerHelper.writeInt(out, paths.size());
+      for (String path : paths) SerializerHelper.writeString(out, path);
+    }, "Failed to deserialize batch result.", in -> readBatchResults(
+      in, item -> DefaultNode.fromByteArrayStream(item, this)
+    ));
+  }
+
+  @Override
+  public List<BatchResult<Boolean>> addOrUpdateAll(List<Node> nodes) throws StorageException {
+    return await(addOrUpdateAllAsync(nodes));
+  }
+
+  @Override
+  public CompletableFuture<List<BatchResult<Boolean>>> addOrUpdateAllAsync(List<Node> nodes) {
+    if (!api.masterSupports(Capability.BATCH_OPERATIONS))
+      return collect(nodes.stream().map(this::addOrUpdateAsync).collect(Collectors.toList()));
+    return invalidateAfter(callRemoteAsync("addOrUpdateNodes", out -> {
+      SerializerHelper.writeInt(out, nodes.size());
+      for (Node node : nodes) node.toByteArrayStream(out);
+    }, "Failed to deserialize batch result.", in -> readBatchResults(
+      in, PassthroughController::readBoolean
+    )), nodes.stream().map(Node::getPath).collect(Collectors.toList()));
+  }
+
+  @Override
+  public List<BatchResult<Node>> deleteAll(List<String> paths) throws StorageException {
+    return await(deleteAllAsync(paths));
+  }
+
+  @Override
+  public CompletableFuture<List<BatchResult<Node>>> deleteAllAsync(List<String> paths) {
+    if (!api.masterSupports(Capability.BATCH_OPERATIONS))
+      return collect(paths.stream().map(this::deleteAsync).collect(Collectors.toList()));
+    return invalidateAfter(callRemoteAsync("deleteNodes", out -> {
+      SerializerHelper.writeInt(out, paths.size());
+      for (String path : paths) SerializerHelper.writeString(out, path);
+    }, "Failed to deserialize batch result.", in -> readBatchResults(
+      in, item -> DefaultNode.fromByteArrayStream(item, this)
+    )), paths);
+  }
+
+  @Override
+  public List<BatchResult<Boolean>> addOrUpdateValues(String path, List<NodeValue> values)
+    throws StorageException {
+    return await(addOrUpdateValuesAsync(path, values));
+  }
+
+  @Override
+  public CompletableFuture<List<BatchResult<Boolean>>> addOrUpdateValuesAsync(
+    String path, List<NodeValue> values) {
+    if (!api.masterSupports(Capability.BATCH_OPERATIONS))
+      return collect(values.stream()
+        .map(value -> addOrUpdateValueAsync(path, value))
+        .collect(Collectors.toList()));
+    return invalidateAfter(callRemoteAsync("addOrUpdateValues", out -> {
+      SerializerHelper.writeString(out, path);
+      SerializerHelper.writeInt(out, values.size());
+      for (NodeValue value : values) value.toByteArrayStream(out);
+    }, "Failed to deserialize batch result.", in -> readBatchResults(
+      in, PassthroughController::readBoolean
+    )), path, false);
+  }
+
+  /**
+   * <p>Reads the result of each item of a batch call, which is either the result of the item or
+   * the exception the master raised for it.</p>
+   */
+  private static <T> List<BatchResult<T>> readBatchResults(ByteArrayInputStream in,
+                                                           ResultParser<T> parser)
+    throws IOException {
+    int count = SerializerHelper.readInt(in);
+    List<BatchResult<T>> results = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      if (readBoolean(in)) {
+        results.add(BatchResult.success(parser.parse(in)));
+      } else {
+        results.add(BatchResult.failure(new StorageException(
+          "Received exception from master.", StorageException.fromByteArrayStream(in)
+        )));
       }
-      return new ArrayList<>(Arrays.asList(nodes));
-    } catch (IOException e) {
-      throw new StorageException("Failed to deserialize search result.", e);
     }
+    return results;
+  }
+
+  /**
+   * <p>Combines single calls, sent without waiting for each other, to the results of a
+   * batch.</p>
+   */
+  private static <T> CompletableFuture<List<BatchResult<T>>> collect(
+    List<CompletableFuture<T>> calls) {
+    return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0]))
+      .handle((ignored, error) -> {
+        List<BatchResult<T>> results = new ArrayList<>(calls.size());
+        for (CompletableFuture<T> call : calls) results.add(BatchResult.of(() -> await(call)));
+        return results;
+      });
+  }
+
+  private List<Node> readNodes(ByteArrayInputStream in) throws IOException {
+    Node[] nodes = new Node[SerializerHelper.readInt(in)];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = DefaultNode.fromByteArrayStream(in, this);
+    }
+    return new ArrayList<>(Arrays.asList(nodes));
   }
 
   @Override
   public void close() throws StorageException {
     callRemote("close");
+    StorageException error = writeBehind == null ? null : takeWriteError();
+    if (error != null) throw error;
   }
 
   @Override
   public void flush() throws StorageException {
-    callRemote("flush");
+    await(flushAsync());
+  }
+
+  @Override
+  public CompletableFuture<Void> flushAsync() {
+    return callRemoteAsync("flush", null).thenApply(in -> {
+      StorageException error = writeBehind == null ? null : takeWriteError();
+      if (error != null) throw new CompletionException(error);
+      return null;
+    });
   }
 
   @Override
   public void zap() throws StorageException {
-    callRemote("zap");
+    await(zapAsync());
+  }
+
+  @Override
+  public CompletableFuture<Void> zapAsync() {
+    return invalidateAfter(callRemoteAsync("zap", null), null, true).thenApply(in -> null);
   }
 
   @Override
@@ -0,0 +1,207 @@
+package eu.cybergeiger.api.storage;
+
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.storage.StorageController;
+import eu.cybergeiger.storage.StorageException;
+import eu.cybergeiger.storage.node.DefaultNode;
+import eu.cybergeiger.storage.node.Node;
+import eu.cybergeiger.storage.node.value.NodeValue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Writes of nodes and values waiting to be sent to the master, in the order they were
+ * made.</p>
+ *
+ * <p>A write replaces the pending write of the same node or value, keeping its place, unless
+ * that would move it before a later write it depends on. Values of an earlier node write are
+ * for example not overwritten by a later value write, as the node write may remove the value.
+ * Node writes also write the children they contain, so a node write to an ancestor is such a
+ * barrier as well, and a node write is not moved before later writes to its descendants.</p>
+ *
+ * <p>Nodes are kept serialized, so later changes by the caller are not written and skeleton
+ * children are not materialized.</p>
+ */
+class WriteBehindBuffer {
+  /**
+   * <p>A pending write of either a node or a value.</p>
+   */
+  static final class Write {
+    private final long sequence;
+    private final String path;
+    private final String key;
+    private byte[] node;
+    private NodeValue value;
+
+    private Write(long sequence, String path, String key) {
+      this.sequence = sequence;
+      this.path = path;
+      this.key = key;
+    }
+
+    String getPath() {
+      return path;
+    }
+
+    boolean isNodeWrite() {
+      return key == null;
+    }
+
+    /**
+     * @param controller the controller skeleton children are fetched from
+     * @return the written node
+     * @throws IOException if the node could not be deserialized
+     */
+    Node getNode(StorageController controller) throws IOException {
+      return DefaultNode.fromByteArrayStream(new ByteArrayReader(node), controller);
+    }
+
+    NodeValue getValue() {
+      return value;
+    }
+  }
+
+  private final Map<Long, Write> writes = new LinkedHashMap<>();
+  private final Map<String, Write> latestByTarget = new HashMap<>();
+  private final TreeMap<String, Long> lastSequenceByPath = new TreeMap<>();
+  private final Map<String, Long> lastNodeSequenceByPath = new HashMap<>();
+  private long nextSequence;
+
+  private static String getTarget(String path, String key) {
+    return key == null ? path : path + StorageController.PATH_DELIMITER + '\0' + key;
+  }
+
+  /**
+   * <p>Buffers a node write.</p>
+   *
+   * @param node the node to add or update
+   * @return the number of pending writes
+   * @throws StorageException if the node could not be serialized
+   */
+  synchronized int addNode(Node node) throws StorageException {
+    ByteArrayWriter out = new ByteArrayWriter();
+    try {
+      node.toByteArrayStream(out);
+    } catch (IOException e) {
+      throw new StorageException("Failed to serialize node.", e);
+    }
+    String path = node.getPath();
+    Write write = latestByTarget.get(path);
+    if (write == null || lastSequenceByPath.get(path) != write.sequence
+      || getLastNodeSequence(path) > write.sequence
+      || getLastDescendantSequence(path) > write.sequence)
+      write = append(path, null);
+    write.node = out.toByteArray();
+    return writes.size();
+  }
+
+  /**
+   * <p>Buffers a value write.</p>
+   *
+   * @param path  the path of the node holding the value
+   * @param value the value to add or update
+   * @return the number of pending writes
+   */
+  synchronized int addValue(String path, NodeValue value) {
+    Write write = latestByTarget.get(getTarget(path, value.getKey()));
+    if (write == null || getLastNodeSequence(path) > write.sequence)
+      write = append(path, value.getKey());
+    write.value = value.deepClone();
+    return writes.size();
+  }
+
+  private Write append(String path, String key) {
+    Write write = new Write(nextSequence++, path, key);
+    writes.put(write.sequence, write);
+    latestByTarget.put(getTarget(path, key), write);
+    lastSequenceByPath.put(path, write.sequence);
+    if (key == null) lastNodeSequenceByPath.put(path, write.sequence);
+    return write;
+  }
+
+  /**
+   * @param path the path of a node
+   * @return the sequence of the last node write to the node or its ancestors or -1
+   */
+  private long getLastNodeSequence(String path) {
+    long last = lastNodeSequenceByPath.getOrDefault(path, -1L);
+    for (int index = path.lastIndexOf(StorageController.PATH_DELIMITER); index > 0;
+         index = path.lastIndexOf(StorageController.PATH_DELIMITER, index - 1)) {
+      last = Math.max(last, lastNodeSequenceByPath.getOrDefault(path.substring(0, index), -1L));
+    }
+    return last;
+  }
+
+  /**
+   * @param path the path of a node
+   * @return the sequence of the last write to the descendants of the node or -1
+   */
+  private long getLastDescendantSequence(String path) {
+    String prefix = path + StorageController.PATH_DELIMITER;
+    long last = -1;
+    for (Map.Entry<String, Long> entry : lastSequenceByPath.tailMap(prefix).entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) break;
+      last = Math.max(last, entry.getValue());
+    }
+    return last;
+  }
+
+  /**
+   * <p>Gets a buffered value, if no later node write to its node or an ancestor may have changed
+   * it.</p>
+   *
+   * @param path the path of the node holding the value
+   * @param key  the key of the value
+   * @return a copy of the buffered value or null
+   */
+  synchronized NodeValue getValue(String path, String key) {
+    Write write = latestByTarget.get(getTarget(path, key));
+    if (write == null || getLastNodeSequence(path) > write.sequence) return null;
+    return write.value.deepClone();
+  }
+
+  /**
+   * <p>Checks if a read of a node may depend on pending writes. Node writes of ancestors are
+   * included, as they contain the children they write.</p>
+   *
+   * @param path the path of a node
+   * @return true if writes to the node, its descendants or node writes to its ancestors are
+   *   pending
+   */
+  synchronized boolean touches(String path) {
+    if (lastSequenceByPath.containsKey(path)) return true;
+    String prefix = path + StorageController.PATH_DELIMITER;
+    String next = lastSequenceByPath.ceilingKey(prefix);
+    if (next != null && next.startsWith(prefix)) return true;
+    for (int index = path.lastIndexOf(StorageController.PATH_DELIMITER); index > 0;
+         index = path.lastIndexOf(StorageController.PATH_DELIMITER, index - 1)) {
+      if (lastNodeSequenceByPath.containsKey(path.substring(0, index))) return true;
+    }
+    return false;
+  }
+
+  synchronized boolean isEmpty() {
+    return writes.isEmpty();
+  }
+
+  /**
+   * <p>Removes all pending writes.</p>
+   *
+   * @return the writes in the order they are to be sent
+   */
+  synchronized List<Write> drain() {
+    List<Write> drained = new ArrayList<>(writes.values());
+    writes.clear();
+    latestByTarget.clear();
+    lastSequenceByPath.clear();
+    lastNodeSequenceByPath.clear();
+    return drained;
+  }
+}
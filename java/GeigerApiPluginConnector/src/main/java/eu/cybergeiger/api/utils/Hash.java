@@ -46,7 +46,7 @@ public class Hash implements Serializable {
     ).orElseThrow(() -> new ClassCastException("Found unknown hash type."));
 
     byte[] bytes = new byte[type.getDigestLength()];
-    in.read(bytes);
+    SerializerHelper.readFully(in, bytes);
 
     SerializerHelper.testMarker(in, serialVersionUID);
 
@@ -1,24 +1,48 @@
 package eu.cybergeiger.api.utils;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Optional;
 
+/**
+ * <p>Hash algorithms used for message integrity.</p>
+ *
+ * <p>Every thread hashes with digests of its own, so hashing scales without locks. Keyed types
+ * are HMACs and can only be computed through a {@link HasherPool} providing the key.</p>
+ */
 public enum HashType {
-  SHA512("sha512", "SHA-512"),
-  SHA1("sha1", "SHA-1");
+  SHA512("sha512", "SHA-512", false),
+  SHA1("sha1", "SHA-1", false),
+  HMAC_SHA256("hmac-sha256", "HmacSHA256", true),
+  HMAC_SHA512("hmac-sha512", "HmacSHA512", true),
+  /**
+   * <p>Empty hash of messages sent over an authenticated session.</p>
+   *
+   * <p>It never validates on its own.</p>
+   */
+  NONE("none", null, false);
 
   private final String standardName;
-  private final MessageDigest digest;
+  private final String javaName;
+  private final boolean keyed;
+  private final int digestLength;
+  private final ThreadLocal<Hasher> hashers;
 
-  HashType(String standardName, String javaName) {
+  HashType(String standardName, String javaName, boolean keyed) {
     this.standardName = standardName;
+    this.javaName = javaName;
+    this.keyed = keyed;
     try {
-      this.digest = MessageDigest.getInstance(javaName);
-    } catch (NoSuchAlgorithmException e) {
+      if (javaName == null) this.digestLength = 0;
+      else if (keyed) this.digestLength = Mac.getInstance(javaName).getMacLength();
+      else this.digestLength = MessageDigest.getInstance(javaName).getDigestLength();
+    } catch (GeneralSecurityException e) {
       throw new RuntimeException("Was not able to find hash algorithm.", e);
     }
+    this.hashers = ThreadLocal.withInitial(this::newHasher);
   }
 
   public String getStandardName() {
@@ -32,13 +56,68 @@ public enum HashType {
   }
 
   public int getDigestLength() {
-    return digest.getDigestLength();
+    return digestLength;
+  }
+
+  /**
+   * @return true if hashes of this type are HMACs requiring a key
+   */
+  public boolean isKeyed() {
+    return keyed;
+  }
+
+  private void checkUnkeyed() {
+    if (keyed)
+      throw new IllegalStateException("\"" + standardName + "\" requires a key.");
+  }
+
+  /**
+   * <p>Creates a hasher computing hashes of this type incrementally.</p>
+   *
+   * @return a new hasher to be used by one thread
+   * @throws IllegalStateException if this type is keyed
+   */
+  public Hasher newHasher() {
+    checkUnkeyed();
+    return newHasher(null, null);
+  }
+
+  /**
+   * <p>Creates a hasher bound to a key.</p>
+   *
+   * <p>Keyed types use the key as HMAC key. An empty key is replaced by a single zero byte, which
+   * yields the same HMAC. Other types hash the key after all other data.</p>
+   */
+  Hasher newHasher(byte[] key, HasherPool pool) {
+    if (javaName == null)
+      return new Hasher(this, null, null, null, pool);
+    try {
+      if (!keyed)
+        return new Hasher(this, MessageDigest.getInstance(javaName), null, key, pool);
+      Mac mac = Mac.getInstance(javaName);
+      mac.init(new SecretKeySpec(key.length == 0 ? new byte[1] : key, javaName));
+      return new Hasher(this, null, mac, null, pool);
+    } catch (GeneralSecurityException e) {
+      throw new RuntimeException("Was not able to find hash algorithm.", e);
+    }
+  }
+
+  /**
+   * <p>Returns the hasher of the calling thread.</p>
+   *
+   * <p>The hasher is reused by later calls once {@link Hasher#finish()} was called. If the
+   * thread's hasher is still in use, a new one is returned.</p>
+   *
+   * @return an empty hasher to be used by the calling thread only
+   * @throws IllegalStateException if this type is keyed
+   */
+  public Hasher hasher() {
+    checkUnkeyed();
+    Hasher hasher = hashers.get();
+    return hasher.acquire() ? hasher : newHasher();
   }
 
   public Hash digest(byte[] bytes) {
-    return new Hash(
-      this,
-      digest.digest(bytes)
-    );
+    return hasher().update(bytes).finish();
   }
 }
@@ -0,0 +1,137 @@
+package eu.cybergeiger.api.utils;
+
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * <p>Computes a {@link Hash} over data given piece by piece.</p>
+ *
+ * <p>Strings are hashed as their UTF-8 encoding without creating intermediate arrays. Instances
+ * are not thread safe.</p>
+ */
+public final class Hasher {
+  private final HashType type;
+  private final MessageDigest digest;
+  private final Mac mac;
+  private final byte[] suffix;
+  private final HasherPool pool;
+  private final byte[] scratch = new byte[64];
+  private boolean inUse;
+
+  /**
+   * @param digest the digest of unkeyed types, null for {@link HashType#NONE}
+   * @param mac    the initialized MAC of keyed types
+   * @param suffix data hashed after all other data, may be null
+   * @param pool   the pool to return to once finished, may be null
+   */
+  Hasher(HashType type, MessageDigest digest, Mac mac, byte[] suffix, HasherPool pool) {
+    this.type = type;
+    this.digest = digest;
+    this.mac = mac;
+    this.suffix = suffix;
+    this.pool = pool;
+  }
+
+  /**
+   * <p>Marks a reused hasher as in use and discards any data given before.</p>
+   *
+   * @return false if the hasher is already in use
+   */
+  boolean acquire() {
+    if (inUse) return false;
+    inUse = true;
+    if (mac != null) mac.reset();
+    else if (digest != null) digest.reset();
+    return true;
+  }
+
+  public HashType getType() {
+    return type;
+  }
+
+  public Hasher update(byte[] bytes) {
+    return update(bytes, 0, bytes.length);
+  }
+
+  public Hasher update(byte[] bytes, int offset, int length) {
+    if (mac != null) mac.update(bytes, offset, length);
+    else if (digest != null) digest.update(bytes, offset, length);
+    return this;
+  }
+
+  public Hasher update(ByteBuffer bytes) {
+    if (mac != null) mac.update(bytes);
+    else if (digest != null) digest.update(bytes);
+    else bytes.position(bytes.limit());
+    return this;
+  }
+
+  /**
+   * <p>Hashes the UTF-8 encoding of a string.</p>
+   *
+   * <p>Like string concatenation, null is hashed as {@code "null"} and unpaired surrogates as
+   * {@code '?'}. Hashing strings one by one therefore gives the same hash as hashing their
+   * concatenation.</p>
+   *
+   * @param value the string to hash
+   * @return this hasher
+   */
+  public Hasher update(String value) {
+    if (value == null) value = "null";
+    int length = value.length();
+    int count = 0;
+    for (int i = 0; i < length; i++) {
+      if (count > scratch.length - 4) {
+        update(scratch, 0, count);
+        count = 0;
+      }
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        scratch[count++] = (byte) c;
+      } else if (c < 0x800) {
+        scratch[count++] = (byte) (0xc0 | c >> 6);
+        scratch[count++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isSurrogate(c)) {
+        int codePoint = Character.isHighSurrogate(c) && i + 1 < length &&
+          Character.isLowSurrogate(value.charAt(i + 1))
+          ? Character.toCodePoint(c, value.charAt(++i)) : -1;
+        if (codePoint < 0) {
+          scratch[count++] = '?';
+        } else {
+          scratch[count++] = (byte) (0xf0 | codePoint >> 18);
+          scratch[count++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+          scratch[count++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+          scratch[count++] = (byte) (0x80 | codePoint & 0x3f);
+        }
+      } else {
+        scratch[count++] = (byte) (0xe0 | c >> 12);
+        scratch[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+        scratch[count++] = (byte) (0x80 | c & 0x3f);
+      }
+    }
+    return update(scratch, 0, count);
+  }
+
+  /**
+   * <p>Completes the hash. Afterwards the hasher starts over.</p>
+   *
+   * <p>Hashers taken from a {@link HasherPool} return to it and must not be used anymore.</p>
+   *
+   * @return the hash of all data given since the last call
+   */
+  public Hash finish() {
+    byte[] bytes;
+    if (mac != null) {
+      bytes = mac.doFinal();
+    } else if (digest == null) {
+      bytes = new byte[0];
+    } else {
+      if (suffix != null) digest.update(suffix);
+      bytes = digest.digest();
+    }
+    inUse = false;
+    if (pool != null) pool.release(this);
+    return new Hash(type, bytes);
+  }
+}
@@ -0,0 +1,49 @@
+package eu.cybergeiger.api.utils;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p>Reusable hashers of one type bound to a key.</p>
+ *
+ * <p>Keyed types use the key as HMAC key, so the key schedule is only computed once per hasher.
+ * Other types hash the key after all other data. Hashers are handed to one thread at a time and
+ * return to the pool once finished.</p>
+ */
+public final class HasherPool {
+  private final HashType type;
+  private final byte[] key;
+  private final Queue<Hasher> idle = new ConcurrentLinkedQueue<>();
+
+  /**
+   * @param type the type of the hashes
+   * @param key  the key, which is copied
+   */
+  public HasherPool(HashType type, byte[] key) {
+    this.type = type;
+    this.key = Arrays.copyOf(key, key.length);
+  }
+
+  public HashType getType() {
+    return type;
+  }
+
+  /**
+   * <p>Takes an idle hasher or creates a new one.</p>
+   *
+   * <p>The hasher must not be used after {@link Hasher#finish()} was called.</p>
+   *
+   * @return an empty hasher bound to the key
+   */
+  public Hasher acquire() {
+    Hasher hasher = idle.poll();
+    if (hasher == null) hasher = type.newHasher(key, this);
+    hasher.acquire();
+    return hasher;
+  }
+
+  void release(Hasher hasher) {
+    idle.offer(hasher);
+  }
+}
@@ -0,0 +1,188 @@
+package eu.cybergeiger.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Unsynchronized input stream over a byte array.</p>
+ *
+ * <p>{@link SerializerHelper} decodes primitives and strings directly from the underlying array
+ * when reading from this stream, so decoding allocates nothing but the resulting values. A reader
+ * can be pointed at new data with {@link #reset(byte[], int, int)} and reused.</p>
+ */
+public class ByteArrayReader extends ByteArrayInputStream {
+  private static final byte[] EMPTY = new byte[0];
+
+  private WireFormat format = WireFormat.V1;
+
+  public ByteArrayReader() {
+    super(EMPTY);
+  }
+
+  public ByteArrayReader(byte[] buf) {
+    super(buf);
+  }
+
+  public ByteArrayReader(byte[] buf, int offset, int length) {
+    super(buf, offset, length);
+  }
+
+  /**
+   * <p>Creates a reader over the remaining bytes of a buffer.</p>
+   *
+   * <p>Heap buffers are read in place. The position of the buffer is not changed.</p>
+   *
+   * @param buffer the buffer to read
+   * @return the reader
+   */
+  public static ByteArrayReader of(ByteBuffer buffer) {
+    if (buffer.hasArray())
+      return new ByteArrayReader(
+        buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()
+      );
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return new ByteArrayReader(bytes);
+  }
+
+  public WireFormat getFormat() {
+    return format;
+  }
+
+  public void setFormat(WireFormat format) {
+    this.format = format;
+  }
+
+  /**
+   * <p>Points the reader at new data.</p>
+   *
+   * @param buf    the array to read
+   * @param offset index of the first byte to read
+   * @param length number of bytes to read
+   */
+  public void reset(byte[] buf, int offset, int length) {
+    this.buf = buf;
+    this.pos = offset;
+    this.count = Math.min(offset + length, buf.length);
+    this.mark = offset;
+  }
+
+  /**
+   * @return the next byte without consuming it or -1 at the end of the data
+   */
+  public int peek() {
+    return pos < count ? buf[pos] & 0xFF : -1;
+  }
+
+  @Override
+  public int read() {
+    return pos < count ? buf[pos++] & 0xFF : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    if (len == 0) return 0;
+    if (pos >= count) return -1;
+    int read = Math.min(len, count - pos);
+    System.arraycopy(buf, pos, b, off, read);
+    pos += read;
+    return read;
+  }
+
+  @Override
+  public long skip(long n) {
+    long skipped = Math.max(0, Math.min(n, count - pos));
+    pos += (int) skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return count - pos;
+  }
+
+  @Override
+  public void reset() {
+    pos = mark;
+  }
+
+  /**
+   * <p>Copies the next bytes into a new array.</p>
+   *
+   * @param length number of bytes to read
+   * @return the bytes
+   * @throws IOException if fewer bytes are available
+   */
+  public byte[] readBytes(int length) throws IOException {
+    require(length);
+    byte[] bytes = new byte[length];
+    System.arraycopy(buf, pos, bytes, 0, length);
+    pos += length;
+    return bytes;
+  }
+
+  /**
+   * @return the next four bytes as big endian int
+   * @throws IOException if fewer bytes are available
+   */
+  public int readRawInt() throws IOException {
+    require(Integer.BYTES);
+    int value = (buf[pos] & 0xFF) << 24 |
+      (buf[pos + 1] & 0xFF) << 16 |
+      (buf[pos + 2] & 0xFF) << 8 |
+      buf[pos + 3] & 0xFF;
+    pos += Integer.BYTES;
+    return value;
+  }
+
+  /**
+   * @return the next eight bytes as big endian long
+   * @throws IOException if fewer bytes are available
+   */
+  public long readRawLong() throws IOException {
+    long high = readRawInt() & 0xFFFFFFFFL;
+    long low = readRawInt() & 0xFFFFFFFFL;
+    return high << 32 | low;
+  }
+
+  /**
+   * <p>Reads an unsigned variable length integer of up to ten bytes.</p>
+   *
+   * <p>Each byte carries seven bits, least significant group first. The highest bit is set in all
+   * but the last byte.</p>
+   *
+   * @return the value
+   * @throws IOException if the data ends early or the value does not fit into a long
+   */
+  public long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      if (pos >= count) throw new IOException("Insufficient data for deserialization.");
+      byte b = buf[pos++];
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) return value;
+    }
+    throw new IOException("Malformed variable length integer.");
+  }
+
+  /**
+   * <p>Decodes the next bytes as UTF-8 string without copying them first.</p>
+   *
+   * @param length number of bytes to decode
+   * @return the string
+   * @throws IOException if fewer bytes are available
+   */
+  public String readUtf8(int length) throws IOException {
+    require(length);
+    String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+    pos += length;
+    return value;
+  }
+
+  private void require(int length) throws IOException {
+    if (length < 0 || count - pos < length)
+      throw new IOException("Insufficient data for deserialization.");
+  }
+}
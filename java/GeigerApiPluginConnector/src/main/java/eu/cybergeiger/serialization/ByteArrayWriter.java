@@ -0,0 +1,112 @@
+package eu.cybergeiger.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * <p>Unsynchronized, growable output stream backed by a byte array.</p>
+ *
+ * <p>{@link SerializerHelper} encodes primitives directly into the underlying array when writing
+ * to this stream. After {@link #reset()} the array is reused for the next object.</p>
+ */
+public class ByteArrayWriter extends ByteArrayOutputStream {
+  private final WireFormat format;
+
+  public ByteArrayWriter() {
+    this(256);
+  }
+
+  public ByteArrayWriter(int initialCapacity) {
+    this(initialCapacity, WireFormat.V1);
+  }
+
+  public ByteArrayWriter(WireFormat format) {
+    this(256, format);
+  }
+
+  public ByteArrayWriter(int initialCapacity, WireFormat format) {
+    super(initialCapacity);
+    this.format = format;
+  }
+
+  public WireFormat getFormat() {
+    return format;
+  }
+
+  private void ensureCapacity(int additional) {
+    int required = count + additional;
+    if (required < 0) throw new OutOfMemoryError("Serialized object is too large.");
+    if (required > buf.length)
+      buf = Arrays.copyOf(buf, Math.max(required, buf.length << 1));
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(1);
+    buf[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureCapacity(len);
+    System.arraycopy(b, off, buf, count, len);
+    count += len;
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buf, 0, count);
+  }
+
+  @Override
+  public void reset() {
+    count = 0;
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, count);
+  }
+
+  /**
+   * @param value the int to append in big endian order
+   */
+  public void writeRawInt(int value) {
+    ensureCapacity(Integer.BYTES);
+    buf[count] = (byte) (value >>> 24);
+    buf[count + 1] = (byte) (value >>> 16);
+    buf[count + 2] = (byte) (value >>> 8);
+    buf[count + 3] = (byte) value;
+    count += Integer.BYTES;
+  }
+
+  /**
+   * <p>Appends an unsigned variable length integer.</p>
+   *
+   * @param value the value, negative values take ten bytes
+   * @see ByteArrayReader#readVarLong()
+   */
+  public void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      buf[count++] = (byte) (value & 0x7F | 0x80);
+      value >>>= 7;
+    }
+    buf[count++] = (byte) value;
+  }
+
+  /**
+   * @param value the long to append in big endian order
+   */
+  public void writeRawLong(long value) {
+    writeRawInt((int) (value >>> 32));
+    writeRawInt((int) value);
+  }
+}
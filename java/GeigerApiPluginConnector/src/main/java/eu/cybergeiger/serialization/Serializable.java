@@ -36,7 +36,7 @@ public interface Serializable {
    */
   static byte[] toByteArray(Serializable obj) {
     try {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayWriter out = new ByteArrayWriter();
       obj.toByteArrayStream(out);
       return out.toByteArray();
     } catch (IOException ioe) {
@@ -52,7 +52,7 @@ public interface Serializable {
    */
   static Serializable fromByteArray(byte[] buf) {
     try {
-      return fromByteArrayStream(new ByteArrayInputStream(buf));
+      return fromByteArrayStream(new ByteArrayReader(buf));
     } catch (IOException ioe) {
       ioe.printStackTrace();
       return null;
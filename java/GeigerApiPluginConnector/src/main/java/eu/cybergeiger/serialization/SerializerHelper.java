@@ -3,46 +3,145 @@ package eu.cybergeiger.serialization;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 
 /**
  * <p>Helper class for serialization serializes important java primitives.</p>
+ *
+ * <p>Primitives are read from {@link ByteArrayReader} and written to {@link ByteArrayWriter}
+ * without intermediate buffers. Other streams go through a small per-thread scratch array and
+ * should be buffered by the caller.</p>
+ *
+ * <p>Readers and writers in {@link WireFormat#V2} use the compact encoding. A top level object
+ * announces it with {@link #writeFormatHeader(OutputStream)}.</p>
  */
 public class SerializerHelper {
-  private static final int BUFFER_SIZE = 4096;
   private static final long STRING_UID = 123798371293L;
   private static final long LONG_UID = 1221312393L;
   private static final long INT_UID = 122134568793L;
   private static final long STACKTRACES_UID = 9012350123956L;
 
+  private static final int LONG_TAG = 1;
+  private static final int INT_TAG = 2;
+  private static final int STRING_TAG = 3;
+  private static final int STACKTRACES_TAG = 4;
+  private static final int BYTES_TAG = 5;
+
+  /**
+   * <p>First byte of top level objects in {@link WireFormat#V2}.</p>
+   *
+   * <p>Objects in {@link WireFormat#V1} always start with a zero byte.</p>
+   */
+  private static final int V2_HEADER = 0xC2;
+
+  /**
+   * <p>Upper bound of the buffer allocated up front by {@link #readBytes(InputStream, int)}.</p>
+   *
+   * <p>Larger arrays are only allocated as the data arrives, so a corrupt length cannot
+   * exhaust the heap.</p>
+   */
+  private static final int MAX_INITIAL_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * <p>Scratch space for primitives read from or written to streams other than
+   * {@link ByteArrayReader} and {@link ByteArrayWriter}.</p>
+   */
+  private static final ThreadLocal<byte[]> SCRATCH =
+    ThreadLocal.withInitial(() -> new byte[Long.BYTES]);
+
   public static byte[] readBytes(InputStream in, int amount) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream(amount);
-    byte[] buffer = new byte[BUFFER_SIZE];
-    int bytesRead;
-    while ((bytesRead = in.read(
-      buffer,
-      0,
-      Math.min(amount - out.size(), buffer.length)
-    )) > 0)
-      out.write(buffer, 0, bytesRead);
-    if (out.size() != amount)
-      throw new IOException("Insufficient data for deserialization.");
-    return out.toByteArray();
+    if (in instanceof ByteArrayReader) return ((ByteArrayReader) in).readBytes(amount);
+    if (amount < 0) throw new IOException("Insufficient data for deserialization.");
+    byte[] bytes = new byte[Math.min(amount, MAX_INITIAL_BUFFER_SIZE)];
+    int read = 0;
+    while (read < amount) {
+      if (read == bytes.length)
+        bytes = Arrays.copyOf(bytes, (int) Math.min(amount, 2L * bytes.length));
+      int count = in.read(bytes, read, bytes.length - read);
+      if (count == -1) throw new IOException("Insufficient data for deserialization.");
+      read += count;
+    }
+    return bytes;
+  }
+
+  /**
+   * <p>Fills the array completely from the stream.</p>
+   *
+   * @param in    the stream to be read
+   * @param bytes the array to fill
+   * @throws IOException if the stream ends before the array is full
+   */
+  public static void readFully(InputStream in, byte[] bytes) throws IOException {
+    readFully(in, bytes, bytes.length);
+  }
+
+  private static void readFully(InputStream in, byte[] bytes, int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      int count = in.read(bytes, read, length - read);
+      if (count == -1) throw new IOException("Insufficient data for deserialization.");
+      read += count;
+    }
+  }
+
+  public static void writeRawLong(OutputStream out, long l) throws IOException {
+    if (out instanceof ByteArrayWriter) {
+      ((ByteArrayWriter) out).writeRawLong(l);
+      return;
+    }
+    byte[] scratch = SCRATCH.get();
+    putLong(scratch, l);
+    out.write(scratch, 0, Long.BYTES);
+  }
+
+  public static long readRawLong(InputStream in) throws IOException {
+    if (in instanceof ByteArrayReader) return ((ByteArrayReader) in).readRawLong();
+    byte[] scratch = SCRATCH.get();
+    readFully(in, scratch, Long.BYTES);
+    return getLong(scratch);
+  }
+
+  public static void writeRawInt(OutputStream out, int l) throws IOException {
+    if (out instanceof ByteArrayWriter) {
+      ((ByteArrayWriter) out).writeRawInt(l);
+      return;
+    }
+    byte[] scratch = SCRATCH.get();
+    putInt(scratch, l);
+    out.write(scratch, 0, Integer.BYTES);
   }
 
-  public static void writeRawLong(OutputStream out, Long l) throws IOException {
-    out.write(longToByteArray(l));
+  public static int readRawInt(InputStream in) throws IOException {
+    if (in instanceof ByteArrayReader) return ((ByteArrayReader) in).readRawInt();
+    byte[] scratch = SCRATCH.get();
+    readFully(in, scratch, Integer.BYTES);
+    return getInt(scratch);
   }
 
-  public static Long readRawLong(InputStream in) throws IOException {
-    return byteArrayToLong(readBytes(in, Long.BYTES));
+  private static long getLong(byte[] bytes) {
+    return (getInt(bytes) & 0xFFFFFFFFL) << 32 |
+      ((bytes[4] & 0xFFL) << 24 | (bytes[5] & 0xFF) << 16 | (bytes[6] & 0xFF) << 8 |
+        bytes[7] & 0xFF);
   }
 
-  public static void writeRawInt(OutputStream out, Integer l) throws IOException {
-    out.write(intToByteArray(l));
+  private static int getInt(byte[] bytes) {
+    return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 |
+      bytes[3] & 0xFF;
   }
 
-  public static Integer readRawInt(InputStream in) throws IOException {
-    return byteArrayToInt(readBytes(in, Integer.BYTES));
+  private static void putLong(byte[] bytes, long value) {
+    for (int i = Long.BYTES - 1; i >= 0; i--) {
+      bytes[i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static void putInt(byte[] bytes, int value) {
+    for (int i = Integer.BYTES - 1; i >= 0; i--) {
+      bytes[i] = (byte) value;
+      value >>>= 8;
+    }
   }
 
   /**
@@ -52,7 +151,7 @@ public class SerializerHelper {
    * @return long denoting the given bytes
    */
   public static long byteArrayToLong(byte[] bytes) {
-    return ByteBuffer.wrap(bytes).getLong();
+    return getLong(bytes);
   }
 
   /**
@@ -62,9 +161,9 @@ public class SerializerHelper {
    * @return bytearray representing the int
    */
   public static byte[] longToByteArray(long value) {
-    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-    buffer.putLong(value);
-    return buffer.array();
+    byte[] bytes = new byte[Long.BYTES];
+    putLong(bytes, value);
+    return bytes;
   }
 
 
@@ -75,7 +174,7 @@ public class SerializerHelper {
    * @return int denoting the given bytes
    */
   public static int byteArrayToInt(byte[] bytes) {
-    return ByteBuffer.wrap(bytes).getInt();
+    return getInt(bytes);
   }
 
   /**
@@ -85,9 +184,9 @@ public class SerializerHelper {
    * @return bytearray representing the int
    */
   public static byte[] intToByteArray(int value) {
-    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-    buffer.putInt(value);
-    return buffer.array();
+    byte[] bytes = new byte[Integer.BYTES];
+    putInt(bytes, value);
+    return bytes;
   }
 
   /**
@@ -97,7 +196,12 @@ public class SerializerHelper {
    * @param l   the value to be deserialized
    * @throws IOException if an exception occurs while writing to the stream
    */
-  public static void writeLong(OutputStream out, Long l) throws IOException {
+  public static void writeLong(OutputStream out, long l) throws IOException {
+    if (isCompact(out)) {
+      writeTag(out, LONG_TAG);
+      ((ByteArrayWriter) out).writeVarLong(l << 1 ^ l >> 63);
+      return;
+    }
     writeRawLong(out, LONG_UID);
     writeRawLong(out, l);
   }
@@ -109,7 +213,12 @@ public class SerializerHelper {
    * @return the deserialized long value
    * @throws IOException if an exception occurs while writing to the stream
    */
-  public static Long readLong(InputStream in) throws IOException, ClassCastException {
+  public static long readLong(InputStream in) throws IOException, ClassCastException {
+    if (isCompact(in)) {
+      testTag(in, LONG_TAG);
+      long zigZag = ((ByteArrayReader) in).readVarLong();
+      return zigZag >>> 1 ^ -(zigZag & 1);
+    }
     long raw = readRawLong(in);
     if (raw != LONG_UID) throw new ClassCastException();
     return readRawLong(in);
@@ -122,7 +231,12 @@ public class SerializerHelper {
    * @param i   the value to be deserialized
    * @throws IOException if an exception occurs while writing to the stream
    */
-  public static void writeInt(OutputStream out, Integer i) throws IOException {
+  public static void writeInt(OutputStream out, int i) throws IOException {
+    if (isCompact(out)) {
+      writeTag(out, INT_TAG);
+      ((ByteArrayWriter) out).writeVarLong((i << 1 ^ i >> 31) & 0xFFFFFFFFL);
+      return;
+    }
     writeRawLong(out, INT_UID);
     writeRawInt(out, i);
   }
@@ -134,7 +248,13 @@ public class SerializerHelper {
    * @return the deserialized integer value
    * @throws IOException if an exception occurs while writing to the stream
    */
-  public static Integer readInt(InputStream in) throws IOException, ClassCastException {
+  public static int readInt(InputStream in) throws IOException, ClassCastException {
+    if (isCompact(in)) {
+      testTag(in, INT_TAG);
+      long zigZag = ((ByteArrayReader) in).readVarLong();
+      if ((zigZag & ~0xFFFFFFFFL) != 0) throw new IOException("Int value out of range.");
+      return (int) (zigZag >>> 1 ^ -(zigZag & 1));
+    }
     long marker = readRawLong(in);
     if (marker != INT_UID) throw new ClassCastException();
     return readRawInt(in);
@@ -148,6 +268,18 @@ public class SerializerHelper {
    * @throws IOException if an exception occurs while writing to the stream
    */
   public static void writeString(OutputStream out, String value) throws IOException {
+    if (isCompact(out)) {
+      writeTag(out, STRING_TAG);
+      ByteArrayWriter writer = (ByteArrayWriter) out;
+      if (value == null) {
+        writer.writeVarLong(0);
+        return;
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writer.writeVarLong(bytes.length + 1L);
+      writer.write(bytes, 0, bytes.length);
+      return;
+    }
     writeRawLong(out, STRING_UID);
     if (value == null) {
       writeRawInt(out, -1);
@@ -166,12 +298,93 @@ public class SerializerHelper {
    * @throws IOException if an exception occurs while writing to the stream
    */
   public static String readString(InputStream in) throws IOException, ClassCastException {
+    if (isCompact(in)) {
+      testTag(in, STRING_TAG);
+      ByteArrayReader reader = (ByteArrayReader) in;
+      long length = reader.readVarLong();
+      if (length == 0) return null;
+      if (length - 1 > Integer.MAX_VALUE) throw new IOException("String is too long.");
+      return reader.readUtf8((int) (length - 1));
+    }
     if (readRawLong(in) != STRING_UID) throw new ClassCastException();
     int length = readRawInt(in);
     if (length == -1) return null;
+    if (in instanceof ByteArrayReader) return ((ByteArrayReader) in).readUtf8(length);
     return new String(readBytes(in, length), StandardCharsets.UTF_8);
   }
 
+  /**
+   * <p>Serialize a byte array.</p>
+   *
+   * <p>The bytes are written as they are in {@link WireFormat#V2} and as Base64 string in
+   * {@link WireFormat#V1}.</p>
+   *
+   * @param out   the stream to be written
+   * @param value the value to be serialized, may be null
+   * @throws IOException if an exception occurs while writing to the stream
+   */
+  public static void writeByteArray(OutputStream out, byte[] value) throws IOException {
+    if (value == null) {
+      if (!isCompact(out)) {
+        writeString(out, null);
+        return;
+      }
+      writeTag(out, BYTES_TAG);
+      ((ByteArrayWriter) out).writeVarLong(0);
+      return;
+    }
+    writeByteArray(out, value, 0, value.length);
+  }
+
+  /**
+   * <p>Serialize a part of a byte array.</p>
+   *
+   * @param out    the stream to be written
+   * @param value  the array holding the bytes to be serialized
+   * @param offset the index of the first byte
+   * @param length the number of bytes
+   * @throws IOException if an exception occurs while writing to the stream
+   * @see #writeByteArray(OutputStream, byte[])
+   */
+  public static void writeByteArray(OutputStream out, byte[] value, int offset, int length)
+    throws IOException {
+    if (!isCompact(out)) {
+      ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(value, offset, length));
+      writeString(out, new String(
+        encoded.array(), encoded.arrayOffset(), encoded.remaining(), StandardCharsets.ISO_8859_1
+      ));
+      return;
+    }
+    writeTag(out, BYTES_TAG);
+    ByteArrayWriter writer = (ByteArrayWriter) out;
+    writer.writeVarLong(length + 1L);
+    writer.write(value, offset, length);
+  }
+
+  /**
+   * <p>Deserialize a byte array.</p>
+   *
+   * @param in the stream to be read
+   * @return the deserialized bytes or null
+   * @throws IOException if an exception occurs while reading from the stream
+   */
+  public static byte[] readByteArray(InputStream in) throws IOException, ClassCastException {
+    if (!isCompact(in)) {
+      String value = readString(in);
+      try {
+        return value == null ? null : Base64.getDecoder().decode(value);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Byte array is not Base64 encoded.", e);
+      }
+    }
+    testTag(in, BYTES_TAG);
+    ByteArrayReader reader = (ByteArrayReader) in;
+    long length = reader.readVarLong();
+    if (length == 0) return null;
+    if (length - 1 > Integer.MAX_VALUE) throw new IOException("Byte array is too long.");
+    return reader.readBytes((int) (length - 1));
+  }
+
   /**
    * <p>Serialize a stack trace of the provided throwable.</p>
    *
@@ -195,7 +408,10 @@ public class SerializerHelper {
    */
   public static void writeStackTraces(OutputStream out, String stackTrace)
     throws IOException {
-    writeRawLong(out, STACKTRACES_UID);
+    if (isCompact(out))
+      writeTag(out, STACKTRACES_TAG);
+    else
+      writeRawLong(out, STACKTRACES_UID);
     writeString(out, stackTrace);
   }
 
@@ -207,7 +423,10 @@ public class SerializerHelper {
    * @throws IOException if an exception occurs while writing to the stream
    */
   public static String readStackTraces(InputStream in) throws IOException, ClassCastException {
-    if (readRawLong(in) != STACKTRACES_UID) throw new ClassCastException();
+    if (isCompact(in))
+      testTag(in, STACKTRACES_TAG);
+    else if (readRawLong(in) != STACKTRACES_UID)
+      throw new ClassCastException();
     return readString(in);
   }
 
@@ -226,15 +445,101 @@ public class SerializerHelper {
     };
   }
 
+  /**
+   * <p>Writes a marker delimiting an object.</p>
+   *
+   * <p>Markers are omitted in {@link WireFormat#V2}.</p>
+   *
+   * @param out    the stream to write to
+   * @param marker the marker, usually the serialVersionUID of the object
+   * @throws IOException if an exception occurs while writing to the stream
+   */
   public static void writeMarker(OutputStream out, long marker) throws IOException {
+    if (isCompact(out)) return;
     writeLong(out, marker);
   }
 
+  /**
+   * <p>Reads a marker written by {@link #writeMarker(OutputStream, long)}.</p>
+   *
+   * @param in     the stream to be read
+   * @param marker the expected marker
+   * @return false if the stream contains a different marker
+   * @throws IOException if an exception occurs while reading from the stream
+   */
+  public static boolean readMarker(InputStream in, long marker) throws IOException {
+    return isCompact(in) || readLong(in) == marker;
+  }
+
   public static void testMarker(InputStream in, long marker) throws IOException, ClassCastException {
+    if (isCompact(in)) return;
     long actual = readLong(in);
     if (marker != actual)
       throw new ClassCastException(
         "Actual marker value " + actual + " does not match expected value " + marker + "."
       );
   }
+
+  /**
+   * <p>Announces the format of a top level object.</p>
+   *
+   * <p>Nothing is written in {@link WireFormat#V1}, so the output stays readable by peers not
+   * knowing about formats.</p>
+   *
+   * @param out the stream to write to
+   * @throws IOException if an exception occurs while writing to the stream
+   */
+  public static void writeFormatHeader(OutputStream out) throws IOException {
+    if (isCompact(out)) out.write(V2_HEADER);
+  }
+
+  /**
+   * <p>Detects the format of a top level object and switches the reader to it.</p>
+   *
+   * <p>Streams other than {@link ByteArrayReader} are always read in {@link WireFormat#V1}.</p>
+   *
+   * @param in the stream to be read
+   */
+  public static void readFormatHeader(InputStream in) {
+    if (!(in instanceof ByteArrayReader)) return;
+    ByteArrayReader reader = (ByteArrayReader) in;
+    if (reader.peek() == V2_HEADER) {
+      reader.read();
+      reader.setFormat(WireFormat.V2);
+    } else {
+      reader.setFormat(WireFormat.V1);
+    }
+  }
+
+  /**
+   * @param out the stream to be written
+   * @return the format values are written to the stream in
+   */
+  public static WireFormat getFormat(OutputStream out) {
+    return out instanceof ByteArrayWriter ? ((ByteArrayWriter) out).getFormat() : WireFormat.V1;
+  }
+
+  /**
+   * @param in the stream to be read
+   * @return the format values are read from the stream in
+   */
+  public static WireFormat getFormat(InputStream in) {
+    return in instanceof ByteArrayReader ? ((ByteArrayReader) in).getFormat() : WireFormat.V1;
+  }
+
+  private static boolean isCompact(OutputStream out) {
+    return getFormat(out) == WireFormat.V2;
+  }
+
+  private static boolean isCompact(InputStream in) {
+    return getFormat(in) == WireFormat.V2;
+  }
+
+  private static void writeTag(OutputStream out, int tag) {
+    ((ByteArrayWriter) out).write(tag);
+  }
+
+  private static void testTag(InputStream in, int tag) {
+    if (((ByteArrayReader) in).read() != tag) throw new ClassCastException();
+  }
 }
@@ -0,0 +1,26 @@
+package eu.cybergeiger.serialization;
+
+/**
+ * <p>Encodings supported by {@link SerializerHelper}.</p>
+ *
+ * <p>Only {@link ByteArrayReader} and {@link ByteArrayWriter} carry a format. All other streams
+ * are read and written in {@link #V1}.</p>
+ */
+public enum WireFormat {
+  /**
+   * <p>Original encoding understood by every master.</p>
+   *
+   * <p>Every value is preceded by an 8-byte type UID, ints and longs have a fixed size and objects
+   * are enclosed in 16-byte markers.</p>
+   */
+  V1,
+  /**
+   * <p>Compact encoding used once both sides support it.</p>
+   *
+   * <p>Every value is preceded by a single tag byte, ints, longs and string lengths are written as
+   * variable length integers and object markers are omitted. Byte arrays such as message payloads
+   * are written as they are instead of Base64 encoded. Top level objects start with a header byte,
+   * so readers detect the format themselves.</p>
+   */
+  V2
+}
@@ -0,0 +1,76 @@
+package eu.cybergeiger.storage;
+
+/**
+ * <p>Result of one item of a batch operation.</p>
+ *
+ * <p>Items of a batch succeed or fail independently. A failed item holds the exception the
+ * corresponding single operation would have thrown.</p>
+ *
+ * @param <T> the type of the result
+ */
+public final class BatchResult<T> {
+  /**
+   * <p>An operation on a single item.</p>
+   */
+  @FunctionalInterface
+  public interface Operation<T> {
+    T run() throws StorageException;
+  }
+
+  private final T value;
+  private final StorageException error;
+
+  private BatchResult(T value, StorageException error) {
+    this.value = value;
+    this.error = error;
+  }
+
+  public static <T> BatchResult<T> success(T value) {
+    return new BatchResult<>(value, null);
+  }
+
+  public static <T> BatchResult<T> failure(StorageException error) {
+    if (error == null)
+      throw new IllegalArgumentException("\"error\" cannot be null.");
+    return new BatchResult<>(null, error);
+  }
+
+  /**
+   * <p>Runs the operation of one item.</p>
+   *
+   * @param operation the operation to run
+   * @return the result of the operation or the exception it threw
+   */
+  public static <T> BatchResult<T> of(Operation<T> operation) {
+    try {
+      return success(operation.run());
+    } catch (StorageException e) {
+      return failure(e);
+    }
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /**
+   * @return the result of the item
+   * @throws StorageException if the item failed
+   */
+  public T get() throws StorageException {
+    if (error != null) throw error;
+    return value;
+  }
+
+  /**
+   * @return the exception of a failed item or null
+   */
+  public StorageException getError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return isSuccess() ? "success(" + value + ")" : "failure(" + error.getMessage() + ")";
+  }
+}
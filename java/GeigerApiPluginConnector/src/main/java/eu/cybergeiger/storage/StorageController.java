@@ -1,9 +1,18 @@
 package eu.cybergeiger.storage;
 
 import eu.cybergeiger.storage.node.Node;
+import eu.cybergeiger.storage.node.value.DefaultNodeValue;
 import eu.cybergeiger.storage.node.value.NodeValue;
+import eu.cybergeiger.storage.utils.Futures;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>Generic implementation of a convenient storage controller providing persistence to a
@@ -147,6 +156,139 @@ public interface StorageController extends ChangeRegistrar {
    */
   List<Node> search(SearchCriteria criteria) throws StorageException;
 
+  /**
+   * <p>Search for nodes that meet the criteria and returns a part of the result.</p>
+   *
+   * <p>The default implementation searches all nodes. Implementations backed by a remote storage
+   * may only transfer the requested part.</p>
+   *
+   * @param criteria a list of SearchCriteria
+   * @param offset   the number of matching nodes to skip
+   * @param limit    the maximum number of nodes to return
+   * @return List of StorageNodes, shorter than limit if no more nodes match
+   * @throws StorageException if the storage backend encounters a problem
+   */
+  default List<Node> searchPage(SearchCriteria criteria, int offset, int limit)
+    throws StorageException {
+    if (offset < 0)
+      throw new IllegalArgumentException("\"offset\" cannot be negative.");
+    if (limit <= 0)
+      throw new IllegalArgumentException("\"limit\" must be positive.");
+    List<Node> nodes = search(criteria);
+    int from = Math.min(offset, nodes.size());
+    return nodes.subList(from, (int) Math.min((long) from + limit, nodes.size()));
+  }
+
+  /**
+   * <p>Opens a stream reading the UTF-8 encoded value of a node.</p>
+   *
+   * <p>The default implementation fetches the whole value. Implementations backed by a remote
+   * storage may fetch it in chunks while it is read.</p>
+   *
+   * @param path the path of the node holding the value
+   * @param key  the key of the value to be read
+   * @return a stream of the value
+   * @throws StorageException if the node or the value does not exist or
+   *                          the storage backend encounters an error
+   */
+  default InputStream openValueInputStream(String path, String key) throws StorageException {
+    NodeValue value = getValue(path, key);
+    if (value == null)
+      throw new StorageException("Value \"" + key + "\" of node \"" + path + "\" not found.");
+    return new ByteArrayInputStream(value.getValue().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * <p>Opens a stream replacing the value of a node with the UTF-8 decoded bytes written to
+   * it.</p>
+   *
+   * <p>The value is added or updated once the stream is closed. Other fields of an existing value
+   * are kept. The default implementation collects the whole value before storing it.
+   * Implementations backed by a remote storage may send it in chunks while it is written.</p>
+   *
+   * @param path the path of the node holding the value
+   * @param key  the key of the value to be written
+   * @return a stream to write the value to
+   * @throws StorageException if the storage backend encounters a problem
+   */
+  default OutputStream openValueOutputStream(String path, String key) throws StorageException {
+    return new ByteArrayOutputStream() {
+      private boolean closed;
+
+      @Override
+      public void close() throws StorageException {
+        if (closed) return;
+        closed = true;
+        String content = new String(buf, 0, count, StandardCharsets.UTF_8);
+        NodeValue value = getValue(path, key);
+        if (value == null) {
+          value = new DefaultNodeValue(key, content);
+        } else {
+          value.setValue(content);
+        }
+        addOrUpdateValue(path, value);
+      }
+    };
+  }
+
+  /**
+   * <p>Fetches many nodes at once.</p>
+   *
+   * <p>The default implementation fetches the nodes one by one. Implementations backed by a
+   * remote storage may fetch them in one round trip.</p>
+   *
+   * @param paths the paths of the nodes to be fetched
+   * @return the result for each path in the same order
+   * @throws StorageException if the batch as a whole failed
+   */
+  default List<BatchResult<Node>> getAll(List<String> paths) throws StorageException {
+    List<BatchResult<Node>> results = new ArrayList<>(paths.size());
+    for (String path : paths) results.add(BatchResult.of(() -> get(path)));
+    return results;
+  }
+
+  /**
+   * <p>Adds or updates many nodes at once, like {@link #addOrUpdate(Node)} does for each.</p>
+   *
+   * @param nodes the nodes to be written
+   * @return for each node in the same order, whether a node was added
+   * @throws StorageException if the batch as a whole failed
+   */
+  default List<BatchResult<Boolean>> addOrUpdateAll(List<Node> nodes) throws StorageException {
+    List<BatchResult<Boolean>> results = new ArrayList<>(nodes.size());
+    for (Node node : nodes) results.add(BatchResult.of(() -> addOrUpdate(node)));
+    return results;
+  }
+
+  /**
+   * <p>Removes many nodes at once, like {@link #delete(String)} does for each.</p>
+   *
+   * @param paths the paths of the nodes to be removed
+   * @return the removed node for each path in the same order
+   * @throws StorageException if the batch as a whole failed
+   */
+  default List<BatchResult<Node>> deleteAll(List<String> paths) throws StorageException {
+    List<BatchResult<Node>> results = new ArrayList<>(paths.size());
+    for (String path : paths) results.add(BatchResult.of(() -> delete(path)));
+    return results;
+  }
+
+  /**
+   * <p>Adds or updates many values of a node at once, like
+   * {@link #addOrUpdateValue(String, NodeValue)} does for each.</p>
+   *
+   * @param path   the path of the node holding the values
+   * @param values the values to be written
+   * @return for each value in the same order, whether it did not exist yet
+   * @throws StorageException if the batch as a whole failed
+   */
+  default List<BatchResult<Boolean>> addOrUpdateValues(String path, List<NodeValue> values)
+    throws StorageException {
+    List<BatchResult<Boolean>> results = new ArrayList<>(values.size());
+    for (NodeValue value : values) results.add(BatchResult.of(() -> addOrUpdateValue(path, value)));
+    return results;
+  }
+
   /**
    * <p>Closes all database connections and flushes the content.</p>
    *
@@ -170,6 +312,182 @@ public interface StorageController extends ChangeRegistrar {
    */
   void zap() throws StorageException;
 
+  /**
+   * <p>Asynchronous variant of {@link #get(String)}.</p>
+   *
+   * <p>The default implementation completes before returning. Implementations talking to a
+   * remote storage complete the future once the result arrives. Failures complete it with the
+   * {@link StorageException} the synchronous variant would have thrown.</p>
+   *
+   * @return future completed with the result
+   */
+  default CompletableFuture<Node> getAsync(String path) {
+    return Futures.call(() -> get(path));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #getNodeOrTombstone(String)}.</p>
+   *
+   * @return future completed with the result
+   */
+  default CompletableFuture<Node> getNodeOrTombstoneAsync(String path) {
+    return Futures.call(() -> getNodeOrTombstone(path));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #add(Node)}.</p>
+   *
+   * @return future completed once the operation finished
+   */
+  default CompletableFuture<Void> addAsync(Node node) {
+    return Futures.run(() -> add(node));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #update(Node)}.</p>
+   *
+   * @return future completed once the operation finished
+   */
+  default CompletableFuture<Void> updateAsync(Node node) {
+    return Futures.run(() -> update(node));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #delete(String)}.</p>
+   *
+   * @return future completed with the result
+   */
+  default CompletableFuture<Node> deleteAsync(String path) {
+    return Futures.call(() -> delete(path));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #addOrUpdate(Node)}.</p>
+   *
+   * @return future completed with the result
+   */
+  default CompletableFuture<Boolean> addOrUpdateAsync(Node node) {
+    return Futures.call(() -> addOrUpdate(node));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #rename(String, String)}.</p>
+   *
+   * @return future completed once the operation finished
+   */
+  default CompletableFuture<Void> renameAsync(String oldPath, String newName) {
+    return Futures.run(() -> rename(oldPath, newName));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #getValue(String, String)}.</p>
+   *
+   * @return future completed with the result
+   */
+  default CompletableFuture<NodeValue> getValueAsync(String path, String key) {
+    return Futures.call(() -> getValue(path, key));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #addValue(String, NodeValue)}.</p>
+   *
+   * @return future completed once the operation finished
+   */
+  default CompletableFuture<Void> addValueAsync(String path, NodeValue value) {
+    return Futures.run(() -> addValue(path, value));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #addOrUpdateValue(String, NodeValue)}.</p>
+   *
+   * @return future completed with the result
+   */
+  default CompletableFuture<Boolean> addOrUpdateValueAsync(String path, NodeValue value) {
+    return Futures.call(() -> addOrUpdateValue(path, value));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #updateValue(String, NodeValue)}.</p>
+   *
+   * @return future completed once the operation finished
+   */
+  default CompletableFuture<Void> updateValueAsync(String path, NodeValue value) {
+    return Futures.run(() -> updateValue(path, value));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #deleteValue(String, String)}.</p>
+   *
+   * @return future completed with the result
+   */
+  default CompletableFuture<NodeValue> deleteValueAsync(String path, String key) {
+    return Futures.call(() -> deleteValue(path, key));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #search(SearchCriteria)}.</p>
+   *
+   * @return future completed with the result
+   */
+  default CompletableFuture<List<Node>> searchAsync(SearchCriteria criteria) {
+    return Futures.call(() -> search(criteria));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #getAll(List)}.</p>
+   *
+   * @return future completed with the results
+   */
+  default CompletableFuture<List<BatchResult<Node>>> getAllAsync(List<String> paths) {
+    return Futures.call(() -> getAll(paths));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #addOrUpdateAll(List)}.</p>
+   *
+   * @return future completed with the results
+   */
+  default CompletableFuture<List<BatchResult<Boolean>>> addOrUpdateAllAsync(List<Node> nodes) {
+    return Futures.call(() -> addOrUpdateAll(nodes));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #deleteAll(List)}.</p>
+   *
+   * @return future completed with the results
+   */
+  default CompletableFuture<List<BatchResult<Node>>> deleteAllAsync(List<String> paths) {
+    return Futures.call(() -> deleteAll(paths));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #addOrUpdateValues(String, List)}.</p>
+   *
+   * @return future completed with the results
+   */
+  default CompletableFuture<List<BatchResult<Boolean>>> addOrUpdateValuesAsync(
+    String path, List<NodeValue> values) {
+    return Futures.call(() -> addOrUpdateValues(path, values));
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #flush()}.</p>
+   *
+   * @return future completed once the operation finished
+   */
+  default CompletableFuture<Void> flushAsync() {
+    return Futures.run(() -> flush());
+  }
+
+  /**
+   * <p>Asynchronous variant of {@link #zap()}.</p>
+   *
+   * @return future completed once the operation finished
+   */
+  default CompletableFuture<Void> zapAsync() {
+    return Futures.run(() -> zap());
+  }
+
   /**
    * @return A dump of the whole storage as string representation.
    */
@@ -51,14 +51,15 @@ public class DefaultNode implements Node {
    * @param controller the controller to fetch the full node
    */
   public DefaultNode(String path, String owner, StorageController controller) throws StorageException {
-    skeleton.set(true);
     setOwner(owner);
     try {
       set(Field.PATH, path);
     } catch (StorageException e) {
       throw new RuntimeException("Oops.... this should not happen... contact developer", e);
     }
+    // Setting fields materializes skeletons, so the node becomes one only afterwards.
     this.controller = controller;
+    skeleton.set(true);
   }
 
   private DefaultNode(Node node) throws StorageException {
@@ -286,7 +286,7 @@ public class DefaultNodeValue implements NodeValue {
         SerializerHelper.writeString(out, e.getValue());
       }
     }
-    SerializerHelper.writeLong(out, serialVersionUID);
+    SerializerHelper.writeMarker(out, serialVersionUID);
   }
 
   /**
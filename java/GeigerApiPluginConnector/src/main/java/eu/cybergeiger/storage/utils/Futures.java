@@ -0,0 +1,64 @@
+package eu.cybergeiger.storage.utils;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>Helpers for offering synchronous operations as futures.</p>
+ */
+public final class Futures {
+  /**
+   * <p>An operation returning a result.</p>
+   */
+  @FunctionalInterface
+  public interface Call<T> {
+    T call() throws Exception;
+  }
+
+  /**
+   * <p>An operation without result.</p>
+   */
+  @FunctionalInterface
+  public interface Action {
+    void run() throws Exception;
+  }
+
+  private Futures() {
+  }
+
+  /**
+   * <p>Runs the operation in the calling thread.</p>
+   *
+   * @param call the operation to run
+   * @return a future completed with the result or the exception thrown by the operation
+   */
+  public static <T> CompletableFuture<T> call(Call<T> call) {
+    try {
+      return CompletableFuture.completedFuture(call.call());
+    } catch (Exception e) {
+      return failed(e);
+    }
+  }
+
+  /**
+   * <p>Runs the operation in the calling thread.</p>
+   *
+   * @param action the operation to run
+   * @return a future completed once the operation finished or with the exception it threw
+   */
+  public static CompletableFuture<Void> run(Action action) {
+    return call(() -> {
+      action.run();
+      return null;
+    });
+  }
+
+  /**
+   * @param error the error to complete the future with
+   * @return a future failed with the given error
+   */
+  public static <T> CompletableFuture<T> failed(Throwable error) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(error);
+    return future;
+  }
+}
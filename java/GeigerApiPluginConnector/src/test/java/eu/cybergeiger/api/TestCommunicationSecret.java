@@ -1,8 +1,14 @@
 package eu.cybergeiger.api;
 
 import eu.cybergeiger.api.plugin.CommunicationSecret;
+import eu.cybergeiger.api.utils.HashType;
+import eu.cybergeiger.api.utils.Hasher;
 import org.junit.jupiter.api.Test;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -36,4 +42,30 @@ public class TestCommunicationSecret {
       assertThat(secret.getBytes()).containsExactly(bytes);
     }
   }
+
+  @Test
+  public void testHasher() throws Exception {
+    byte[] bytes = new byte[]{1, 2, 3};
+    byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+    CommunicationSecret secret = new CommunicationSecret(bytes);
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(bytes, "HmacSHA256"));
+    Hasher hasher = secret.hasher(HashType.HMAC_SHA256);
+    assertThat(hasher.update(data).finish().getBytes()).containsExactly(mac.doFinal(data));
+    assertThat(secret.hasher(HashType.HMAC_SHA256)).isSameAs(hasher);
+    assertThat(hasher.update(data).finish().getBytes()).containsExactly(mac.doFinal(data));
+
+    MessageDigest digest = MessageDigest.getInstance("SHA-512");
+    digest.update(data);
+    digest.update(bytes);
+    assertThat(secret.hasher(HashType.SHA512).update(data).finish().getBytes())
+      .containsExactly(digest.digest());
+
+    secret.setBytes(new byte[0]);
+    assertThat(secret.isEmpty()).isTrue();
+    mac.init(new SecretKeySpec(new byte[1], "HmacSHA256"));
+    assertThat(secret.hasher(HashType.HMAC_SHA256).update(data).finish().getBytes())
+      .containsExactly(mac.doFinal(data));
+  }
 }
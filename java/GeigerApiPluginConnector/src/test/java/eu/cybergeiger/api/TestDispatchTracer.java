@@ -0,0 +1,67 @@
+package eu.cybergeiger.api;
+
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestDispatchTracer {
+  private Level level;
+
+  private static Message message(String requestId) {
+    return new Message(GeigerApi.MASTER_ID, "plugin", MessageType.PING, null, null, requestId);
+  }
+
+  @BeforeEach
+  public void setUp() {
+    level = GeigerApi.logger.getLevel();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    GeigerApi.logger.setLevel(level);
+  }
+
+  @Test
+  public void testRecordsNotifications() {
+    GeigerApi.logger.setLevel(Level.FINE);
+    DispatchTracer tracer = new DispatchTracer(8, 1);
+    AtomicInteger notified = new AtomicInteger();
+    tracer.deliver(msg -> notified.incrementAndGet(), message("request-1"));
+
+    assertThat(notified.get()).isEqualTo(1);
+    String dump = tracer.dump();
+    assertThat(dump).contains("PING");
+    assertThat(dump).contains("requestId=request-1");
+  }
+
+  @Test
+  public void testKeepsNewestRecords() {
+    GeigerApi.logger.setLevel(Level.FINE);
+    DispatchTracer tracer = new DispatchTracer(4, 1);
+    for (int i = 0; i < 10; i++) tracer.deliver(msg -> {
+    }, message("request-" + i));
+
+    String dump = tracer.dump();
+    assertThat(dump.split("\n").length).isEqualTo(4);
+    assertThat(dump).doesNotContain("requestId=request-5 ");
+    assertThat(dump.indexOf("requestId=request-6")).isLessThan(dump.indexOf("requestId=request-9"));
+  }
+
+  @Test
+  public void testInactiveBelowFine() {
+    GeigerApi.logger.setLevel(Level.INFO);
+    DispatchTracer tracer = new DispatchTracer(8, 1);
+    AtomicInteger notified = new AtomicInteger();
+    tracer.deliver(msg -> notified.incrementAndGet(), message("request-1"));
+
+    assertThat(notified.get()).isEqualTo(1);
+    assertThat(tracer.dump()).isEmpty();
+  }
+}
@@ -0,0 +1,135 @@
+package eu.cybergeiger.api;
+
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.PluginListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestListenerDispatcher {
+  private static final DispatchTracer TRACER = new DispatchTracer(16, 1);
+
+  private static Message message(int index) {
+    return new Message(GeigerApi.MASTER_ID, "plugin", MessageType.PING, null, null,
+      String.valueOf(index));
+  }
+
+  @Test
+  public void testKeepsOrderPerListener() throws InterruptedException {
+    ListenerDispatcher dispatcher =
+      new ListenerDispatcher(Executors.newFixedThreadPool(4), TRACER, 10000);
+    try {
+      List<String> received = new ArrayList<>();
+      CountDownLatch done = new CountDownLatch(1000);
+      PluginListener listener = msg -> {
+        received.add(msg.getRequestId());
+        done.countDown();
+      };
+      for (int i = 0; i < 1000; i++) dispatcher.dispatch(listener, message(i));
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+      for (int i = 0; i < 1000; i++)
+        assertThat(received.get(i)).isEqualTo(String.valueOf(i));
+    } finally {
+      dispatcher.close();
+    }
+  }
+
+  @Test
+  public void testSlowListenerDoesNotBlockOthers() throws InterruptedException {
+    ListenerDispatcher dispatcher =
+      new ListenerDispatcher(Executors.newFixedThreadPool(2), TRACER, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      PluginListener slow = msg -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      };
+      CountDownLatch fastDone = new CountDownLatch(1);
+      PluginListener fast = msg -> fastDone.countDown();
+      dispatcher.dispatch(slow, message(0));
+      dispatcher.dispatch(fast, message(0));
+      assertThat(fastDone.await(5, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      release.countDown();
+      dispatcher.close();
+    }
+  }
+
+  @Test
+  public void testDropsWhenQueueIsFull() throws InterruptedException {
+    ListenerDispatcher dispatcher =
+      new ListenerDispatcher(Executors.newFixedThreadPool(1), TRACER, 2);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      PluginListener listener = msg -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      };
+      dispatcher.dispatch(listener, message(0));
+      assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(dispatcher.dispatch(listener, message(1))).isTrue();
+      assertThat(dispatcher.dispatch(listener, message(2))).isTrue();
+      assertThat(dispatcher.dispatch(listener, message(3))).isFalse();
+      assertThat(dispatcher.dispatch(listener, message(4))).isFalse();
+      assertThat(dispatcher.getQueueDepths().get(listener)).isEqualTo(2);
+      assertThat(dispatcher.getDroppedCount()).isEqualTo(2);
+    } finally {
+      release.countDown();
+      dispatcher.close();
+    }
+  }
+
+  @Test
+  public void testRemovedListenerKeepsQueueUntilDrained() throws InterruptedException {
+    ListenerDispatcher dispatcher =
+      new ListenerDispatcher(Executors.newFixedThreadPool(2), TRACER, 10);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch secondDelivered = new CountDownLatch(1);
+    try {
+      List<String> received = Collections.synchronizedList(new ArrayList<>());
+      PluginListener listener = msg -> {
+        received.add(msg.getRequestId());
+        if (msg.getRequestId().equals("1")) {
+          secondDelivered.countDown();
+          return;
+        }
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      };
+      dispatcher.dispatch(listener, message(0));
+      assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+      dispatcher.remove(listener);
+      dispatcher.dispatch(listener, message(1));
+
+      assertThat(secondDelivered.await(200, TimeUnit.MILLISECONDS)).isFalse();
+      release.countDown();
+      assertThat(secondDelivered.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(received).containsExactly("0", "1");
+    } finally {
+      release.countDown();
+      dispatcher.close();
+    }
+  }
+}
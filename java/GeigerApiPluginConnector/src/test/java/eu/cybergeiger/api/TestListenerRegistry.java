@@ -0,0 +1,64 @@
+package eu.cybergeiger.api;
+
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.PluginListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestListenerRegistry {
+  @Test
+  public void testRegisterAndDeregister() {
+    ListenerRegistry registry = new ListenerRegistry();
+    PluginListener first = msg -> {
+    };
+    PluginListener second = msg -> {
+    };
+    registry.register(MessageType.PING, first);
+    registry.register(MessageType.PING, second);
+    registry.register(MessageType.PONG, first);
+    assertThat(registry.get(MessageType.PING)).containsExactly(first, second);
+    assertThat(registry.get(MessageType.PONG)).containsExactly(first);
+    assertThat(registry.get(MessageType.ALL_EVENTS)).isEmpty();
+
+    assertThat(registry.deregister(MessageType.PING, first)).isTrue();
+    assertThat(registry.deregister(MessageType.PING, first)).isFalse();
+    assertThat(registry.get(MessageType.PING)).containsExactly(second);
+    assertThat(registry.get(MessageType.PONG)).containsExactly(first);
+  }
+
+  @Test
+  public void testSnapshotIsNotAffectedByChanges() {
+    ListenerRegistry registry = new ListenerRegistry();
+    PluginListener listener = msg -> {
+    };
+    registry.register(MessageType.PING, listener);
+    PluginListener[] snapshot = registry.get(MessageType.PING);
+    registry.deregister(MessageType.PING, listener);
+    assertThat(snapshot).containsExactly(listener);
+    assertThat(registry.get(MessageType.PING)).isEmpty();
+  }
+
+  @Test
+  public void testConcurrentRegistration() throws InterruptedException {
+    ListenerRegistry registry = new ListenerRegistry();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          PluginListener listener = msg -> {
+          };
+          registry.register(MessageType.STORAGE_EVENT, listener);
+          if (i % 2 == 0) registry.deregister(MessageType.STORAGE_EVENT, listener);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) thread.join();
+    assertThat(registry.get(MessageType.STORAGE_EVENT).length).isEqualTo(8 * 500);
+  }
+}
@@ -4,11 +4,21 @@ package eu.cybergeiger.api;
 import eu.cybergeiger.api.message.GeigerUrl;
 import eu.cybergeiger.api.message.Message;
 import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.CommunicationSecret;
+import eu.cybergeiger.api.utils.HashType;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.WireFormat;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.Random;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -112,4 +122,80 @@ public class TestMessage {
       assertThat(blarr == null ? new byte[0] : blarr).containsExactly(m.getPayload());
     }
   }
+
+  @Test
+  public void payloadCacheTest() {
+    byte[] payload = new byte[]{1, 2, 3};
+    Message m = new Message("src", "target", MessageType.STORAGE_EVENT, null);
+    m.setPayloadString(Base64.getEncoder().encodeToString(payload));
+    assertThat(m.getPayload()).containsExactly(payload);
+    assertThat(m.getPayload()).isSameAs(m.getPayload());
+
+    ByteBuffer view = m.getPayloadBuffer();
+    assertThat(view.isReadOnly()).isTrue();
+    assertThat(view.remaining()).isEqualTo(payload.length);
+    assertThat(view.get(2)).isEqualTo((byte) 3);
+  }
+
+  @Test
+  public void rawPayloadSerializationTest() throws IOException {
+    byte[] payload = new byte[10000];
+    new Random(1).nextBytes(payload);
+    Message m = new Message("src", "target", MessageType.STORAGE_EVENT,
+      new GeigerUrl("id", "path"), payload);
+    ByteArrayWriter v1 = new ByteArrayWriter(WireFormat.V1);
+    m.toByteArrayStream(v1);
+    ByteArrayWriter v2 = new ByteArrayWriter(WireFormat.V2);
+    m.toByteArrayStream(v2);
+    assertThat(v1.size()).isGreaterThan(payload.length * 4 / 3);
+    assertThat(v2.size()).isLessThan(payload.length + 300);
+
+    for (ByteArrayWriter out : new ByteArrayWriter[]{v1, v2}) {
+      Message received = Message.fromByteArrayStream(new ByteArrayReader(out.toByteArray()));
+      assertThat(received).isEqualTo(m);
+      assertThat(received.getPayload()).containsExactly(payload);
+    }
+
+    m.setPayload(null);
+    ByteArrayWriter empty = new ByteArrayWriter(WireFormat.V2);
+    m.toByteArrayStream(empty);
+    assertThat(Message.fromByteArrayStream(new ByteArrayReader(empty.toByteArray()))
+      .getPayloadString()).isNull();
+  }
+
+  @Test
+  public void integrityHashTest() throws IOException, NoSuchAlgorithmException {
+    byte[] payload = new byte[]{1, 2, 3};
+    byte[] secretBytes = new byte[]{4, 5};
+    CommunicationSecret secret = new CommunicationSecret(secretBytes);
+    for (String sourceId : new String[]{"src", "sörce \uD83D\uDE00", "\uD800", null}) {
+      Message m = new Message(sourceId, null, MessageType.STORAGE_EVENT,
+        new GeigerUrl("id", "path"), payload, "request");
+      ByteArrayWriter out = new ByteArrayWriter();
+      m.toByteArrayStream(out, secret);
+      Message received = Message.fromByteArrayStream(new ByteArrayReader(out.toByteArray()));
+
+      MessageDigest digest = MessageDigest.getInstance("SHA-512");
+      digest.update((sourceId + "null" + MessageType.STORAGE_EVENT.getId() +
+        new GeigerUrl("id", "path") + "request").getBytes(StandardCharsets.UTF_8));
+      digest.update(payload);
+      digest.update(secretBytes);
+      assertThat(received.getHash().getBytes()).containsExactly(digest.digest());
+      assertThat(received.isHashValid(secret)).isTrue();
+      assertThat(received.isHashValid(new CommunicationSecret())).isFalse();
+    }
+  }
+
+  @Test
+  public void keyedIntegrityHashTest() throws IOException {
+    CommunicationSecret secret = new CommunicationSecret(new byte[]{4, 5});
+    Message m = new Message("src", "target", MessageType.STORAGE_EVENT,
+      new GeigerUrl("id", "path"), new byte[]{1, 2, 3});
+    ByteArrayWriter out = new ByteArrayWriter();
+    m.toByteArrayStream(out, secret, HashType.HMAC_SHA256);
+    Message received = Message.fromByteArrayStream(new ByteArrayReader(out.toByteArray()));
+    assertThat(received.getHash().getType()).isEqualTo(HashType.HMAC_SHA256);
+    assertThat(received.isHashValid(secret)).isTrue();
+    assertThat(received.isHashValid(new CommunicationSecret(new byte[]{4}))).isFalse();
+  }
 }
@@ -12,6 +12,10 @@ import eu.cybergeiger.api.plugin.CommunicationSecret;
 import eu.cybergeiger.api.plugin.Declaration;
 import eu.cybergeiger.api.plugin.MenuItem;
 import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.serialization.WireFormat;
 import eu.cybergeiger.storage.Visibility;
 import eu.cybergeiger.storage.node.DefaultNode;
 import eu.cybergeiger.storage.node.Node;
@@ -119,4 +123,55 @@ public class TestSerialization {
       assertThat(m).isEqualTo(m2);
     }
   }
+
+  /**
+   * <p>Tests that messages in the compact format are detected and smaller.</p>
+   */
+  @Test
+  public void compactMessageSerializationTest() throws IOException {
+    Message m = new Message("src", "target", MessageType.STORAGE_EVENT,
+      new GeigerUrl("id", "path"), new byte[]{1, 2, 3});
+    ByteArrayWriter v1 = new ByteArrayWriter(WireFormat.V1);
+    m.toByteArrayStream(v1);
+    ByteArrayWriter v2 = new ByteArrayWriter(WireFormat.V2);
+    m.toByteArrayStream(v2);
+    assertThat(v2.size()).isLessThan(v1.size() / 2);
+
+    ByteArrayReader reader = new ByteArrayReader();
+    for (ByteArrayWriter out : new ByteArrayWriter[]{v2, v1}) {
+      byte[] bytes = out.toByteArray();
+      reader.reset(bytes, 0, bytes.length);
+      assertThat(Message.fromByteArrayStream(reader)).isEqualTo(m);
+      assertThat(reader.getFormat()).isEqualTo(out.getFormat());
+      assertThat(reader.available()).isEqualTo(0);
+    }
+  }
+
+  /**
+   * <p>Tests the serialization of nodes in the compact format.</p>
+   */
+  @Test
+  public void compactNodeSerializationTest() throws IOException {
+    MenuItem p = new MenuItem(
+      new DefaultNode(
+        ":menu",
+        "plugin",
+        Visibility.RED,
+        new NodeValue[]{
+          new DefaultNodeValue(MenuItem.NAME_KEY, "test"),
+          new DefaultNodeValue(MenuItem.TOOLTIP_KEY, "test")
+        },
+        new Node[0]
+      ),
+      new GeigerUrl("plugin", "menu")
+    );
+    ByteArrayWriter out = new ByteArrayWriter(WireFormat.V2);
+    SerializerHelper.writeFormatHeader(out);
+    p.toByteArrayStream(out);
+    ByteArrayReader in = new ByteArrayReader(out.toByteArray());
+    SerializerHelper.readFormatHeader(in);
+    assertThat(in.getFormat()).isEqualTo(WireFormat.V2);
+    assertThat(MenuItem.fromByteArrayStream(in)).isEqualTo(p);
+    assertThat(in.available()).isEqualTo(0);
+  }
 }
@@ -1,13 +1,18 @@
 package eu.cybergeiger.api;
 
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
 import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.serialization.WireFormat;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class TestSerializer {
   @Test
@@ -57,5 +62,102 @@ public class TestSerializer {
     }
   }
 
+  @Test
+  public void testBufferedCodecMatchesStreams() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayWriter writer = new ByteArrayWriter(1);
+    for (OutputStream stream : new OutputStream[]{out, writer}) {
+      SerializerHelper.writeInt(stream, -2);
+      SerializerHelper.writeLong(stream, Long.MIN_VALUE);
+      SerializerHelper.writeString(stream, "testMessage öäü^");
+      SerializerHelper.writeString(stream, null);
+    }
+    assertThat(writer.toByteArray()).containsExactly(out.toByteArray());
+
+    ByteArrayReader reader = new ByteArrayReader(writer.toByteArray());
+    assertThat(SerializerHelper.readInt(reader)).isEqualTo(-2);
+    assertThat(SerializerHelper.readLong(reader)).isEqualTo(Long.MIN_VALUE);
+    assertThat(SerializerHelper.readString(reader)).isEqualTo("testMessage öäü^");
+    assertThat(SerializerHelper.readString(reader)).isNull();
+    assertThat(reader.available()).isEqualTo(0);
+  }
+
+  @Test
+  public void testReaderReuse() throws IOException {
+    ByteArrayWriter writer = new ByteArrayWriter();
+    ByteArrayReader reader = new ByteArrayReader();
+    for (int value = 0; value < 3; value++) {
+      writer.reset();
+      SerializerHelper.writeInt(writer, value);
+      byte[] bytes = writer.toByteArray();
+      reader.reset(bytes, 0, bytes.length);
+      assertThat(SerializerHelper.readInt(reader)).isEqualTo(value);
+    }
+  }
+
+  @Test
+  public void testInsufficientData() {
+    byte[] bytes = SerializerHelper.longToByteArray(42);
+    assertThatThrownBy(() -> SerializerHelper.readInt(new ByteArrayReader(bytes, 0, 6)))
+      .isInstanceOf(IOException.class);
+    assertThatThrownBy(() -> SerializerHelper.readRawLong(new ByteArrayInputStream(bytes, 0, 6)))
+      .isInstanceOf(IOException.class);
+  }
+
+  @Test
+  public void testCompactFormat() throws IOException {
+    ByteArrayWriter out = new ByteArrayWriter(WireFormat.V2);
+    SerializerHelper.writeMarker(out, 42);
+    SerializerHelper.writeInt(out, -1);
+    assertThat(out.size()).isEqualTo(2);
+    for (long value : new long[]{0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE})
+      SerializerHelper.writeLong(out, value);
+    for (int value : new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE})
+      SerializerHelper.writeInt(out, value);
+    SerializerHelper.writeString(out, "testMessage öäü^");
+    SerializerHelper.writeString(out, null);
+    SerializerHelper.writeStackTraces(out, "trace");
+
+    ByteArrayReader in = new ByteArrayReader(out.toByteArray());
+    in.setFormat(WireFormat.V2);
+    SerializerHelper.testMarker(in, 42);
+    assertThat(SerializerHelper.readInt(in)).isEqualTo(-1);
+    for (long value : new long[]{0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE})
+      assertThat(SerializerHelper.readLong(in)).isEqualTo(value);
+    for (int value : new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE})
+      assertThat(SerializerHelper.readInt(in)).isEqualTo(value);
+    assertThat(SerializerHelper.readString(in)).isEqualTo("testMessage öäü^");
+    assertThat(SerializerHelper.readString(in)).isNull();
+    assertThat(SerializerHelper.readStackTraces(in)).isEqualTo("trace");
+    assertThat(in.available()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCompactTypeMismatch() throws IOException {
+    ByteArrayWriter out = new ByteArrayWriter(WireFormat.V2);
+    SerializerHelper.writeInt(out, 1);
+    ByteArrayReader in = new ByteArrayReader(out.toByteArray());
+    in.setFormat(WireFormat.V2);
+    assertThatThrownBy(() -> SerializerHelper.readString(in))
+      .isInstanceOf(ClassCastException.class);
+  }
+
+  @Test
+  public void testByteArrayRange() throws IOException {
+    byte[] bytes = new byte[]{1, 2, 3, 4, 5};
+    for (WireFormat format : WireFormat.values()) {
+      ByteArrayWriter out = new ByteArrayWriter(format);
+      SerializerHelper.writeByteArray(out, bytes, 1, 3);
+      SerializerHelper.writeByteArray(out, bytes, 0, 0);
+      SerializerHelper.writeByteArray(out, null);
+      ByteArrayReader in = new ByteArrayReader(out.toByteArray());
+      in.setFormat(format);
+      assertThat(SerializerHelper.readByteArray(in)).containsExactly(2, 3, 4);
+      assertThat(SerializerHelper.readByteArray(in)).isEmpty();
+      assertThat(SerializerHelper.readByteArray(in)).isNull();
+      assertThat(in.available()).isEqualTo(0);
+    }
+  }
+
   // TODO: test exception serialization
 }
@@ -0,0 +1,364 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.CommunicationSecret;
+import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.storage.StorageController;
+import mocks.InMemoryStorage;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.crypto.KeyAgreement;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * <p>A master implemented in Java to test plugins without the Dart toolchain.</p>
+ *
+ * <p>It listens on {@link GeigerCommunicator#MASTER_PORT}, accepts every registration, exchanges
+ * keys like the real master and serves storage calls from a {@link StorageController}, by
+ * default an {@link InMemoryStorage}. Menus are acknowledged but not kept.</p>
+ *
+ * <p>Plugins may use the framed protocol, the compact encoding, chunked transfers, keyed
+ * integrity hashes and batch operations. Session authentication is not confirmed, as the master
+ * cannot tell which plugin opened a connection before it is authenticated.</p>
+ */
+public class JavaMaster implements Closeable {
+  private static final String KEY_EXCHANGE_ALGORITHM = "X25519";
+  private static final Set<Capability> SUPPORTED_CAPABILITIES = EnumSet.of(
+    Capability.FRAMED_PROTOCOL,
+    Capability.COMPACT_ENCODING,
+    Capability.CHUNKED_TRANSFER,
+    Capability.KEYED_INTEGRITY,
+    Capability.BATCH_OPERATIONS
+  );
+  private static final int MAX_AUTH_SUCCESS_TRIES = 10;
+  private static final long AUTH_SUCCESS_RETRY_DELAY_MILLIS = 50;
+
+  private final Provider provider = new BouncyCastleProvider();
+  private final ServerSocket serverSocket;
+  private final Thread acceptor;
+  private final ExecutorService connectionExecutor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "JavaMasterConnection");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final ExecutorService executor;
+  private final GeigerCommunicator communicator;
+  private final MasterStorageHandler storageHandler;
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+  private final Map<String, PluginInformation> plugins = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> authSuccessTries = new ConcurrentHashMap<>();
+  private final LongAdder receivedCount = new LongAdder();
+
+  public JavaMaster() throws IOException {
+    this(new InMemoryStorage(), CommunicationOptions.DEFAULT);
+  }
+
+  /**
+   * @param storage the storage serving the storage calls of plugins
+   * @param options options of the connections to the plugins
+   * @throws IOException if the master port cannot be bound
+   */
+  public JavaMaster(StorageController storage, CommunicationOptions options) throws IOException {
+    executor = options.getExecutorStrategy().createExecutor();
+    communicator = new GeigerCommunicator(null, options);
+    storageHandler = new MasterStorageHandler(this, storage);
+    serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(new InetSocketAddress(
+      InetAddress.getLoopbackAddress(), GeigerCommunicator.MASTER_PORT
+    ));
+    acceptor = new Thread(this::accept, "JavaMaster");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * @param id the id of the plugin
+   * @return the information about the registered plugin or null
+   */
+  public PluginInformation getPlugin(String id) {
+    return plugins.get(id);
+  }
+
+  /**
+   * @return the number of messages received from plugins
+   */
+  public long getReceivedCount() {
+    return receivedCount.sum();
+  }
+
+  private void accept() {
+    while (true) {
+      try {
+        Socket socket = serverSocket.accept();
+        connections.add(socket);
+        connectionExecutor.execute(() -> serve(socket));
+      } catch (SocketException | RejectedExecutionException e) {
+        return; // Master was closed.
+      } catch (IOException e) {
+        GeigerApi.logger.log(Level.WARNING, "Failed to accept connection.", e);
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (Socket connection = socket) {
+      InputStream in = new BufferedInputStream(connection.getInputStream());
+      OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+      in.mark(Long.BYTES);
+      DataInputStream data = new DataInputStream(in);
+      if (data.readLong() == Frames.PREFACE) {
+        serveFrames(data, new DataOutputStream(out));
+        return;
+      }
+      in.reset();
+      while (true) {
+        in.mark(1);
+        if (in.read() == -1) return;
+        in.reset();
+        Message message = Message.fromByteArrayStream(in);
+        // Acknowledged before processing, as responses may need further messages of the plugin.
+        executor.execute(() -> process(message));
+        SerializerHelper.writeLong(out, GeigerCommunicator.RESPONSE_UID);
+        out.flush();
+      }
+    } catch (IOException | ClassCastException | RejectedExecutionException e) {
+      GeigerApi.logger.log(Level.FINE, "Closing connection of plugin.", e);
+    } finally {
+      connections.remove(socket);
+    }
+  }
+
+  private void serveFrames(DataInputStream in, DataOutputStream out) throws IOException {
+    while (true) {
+      int length;
+      try {
+        length = in.readInt();
+      } catch (EOFException e) {
+        return;
+      }
+      Frames.checkLength(length);
+      int streamId = in.readInt();
+      byte type = in.readByte();
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      if (type == Frames.AUTH)
+        throw new IOException("Session authentication was not confirmed.");
+      if (type != Frames.MESSAGE) continue;
+      Message message = Message.fromByteArrayStream(new ByteArrayReader(payload));
+      executor.execute(() -> {
+        process(message);
+        try {
+          synchronized (out) {
+            Frames.writeAck(out, streamId);
+            out.flush();
+          }
+        } catch (IOException e) {
+          GeigerApi.logger.log(Level.FINE, "Failed to acknowledge message.", e);
+        }
+      });
+    }
+  }
+
+  private void process(Message message) {
+    receivedCount.increment();
+    try {
+      if (message.getType() == MessageType.REGISTER_PLUGIN) {
+        register(message);
+        return;
+      }
+      PluginInformation plugin = plugins.get(message.getSourceId());
+      if (plugin == null) {
+        GeigerApi.logger.log(Level.WARNING,
+          "Dropped message of unregistered plugin \"" + message.getSourceId() + "\".");
+        return;
+      }
+      if (message.getType() == MessageType.AUTH_ERROR) {
+        retryAuthSuccess(plugin, message.getRequestId());
+        return;
+      }
+      if (!message.isHashValid(plugin.getSecret())) {
+        send(plugin, new Message(
+          GeigerApi.MASTER_ID, plugin.getId(), MessageType.AUTH_ERROR,
+          null, null, message.getRequestId()
+        ));
+        return;
+      }
+      switch (message.getType()) {
+        case ACTIVATE_PLUGIN:
+          activate(plugin, message);
+          break;
+        case DEACTIVATE_PLUGIN:
+          confirm(plugin, message, "deactivatePlugin");
+          plugins.put(plugin.getId(), plugin.withPort(0));
+          break;
+        case DEREGISTER_PLUGIN:
+          confirm(plugin, message, "deregisterPlugin");
+          plugins.remove(plugin.getId());
+          break;
+        case REGISTER_MENU:
+          confirm(plugin, message, "registerMenu");
+          break;
+        case ENABLE_MENU:
+          confirm(plugin, message, "enableMenu");
+          break;
+        case DISABLE_MENU:
+          confirm(plugin, message, "disableMenu");
+          break;
+        case DEREGISTER_MENU:
+          confirm(plugin, message, "deregisterMenu");
+          break;
+        case PING:
+          send(plugin, new Message(
+            GeigerApi.MASTER_ID, plugin.getId(), MessageType.PONG,
+            new GeigerUrl(plugin.getId(), ""), message.getPayload(), message.getRequestId()
+          ));
+          break;
+        case STORAGE_EVENT:
+          storageHandler.handle(plugin, message);
+          break;
+        default:
+          break;
+      }
+    } catch (IOException e) {
+      GeigerApi.logger.log(Level.WARNING, "Failed to process message.", e);
+    }
+  }
+
+  private void confirm(PluginInformation plugin, Message request, String path)
+    throws IOException {
+    send(plugin, new Message(
+      GeigerApi.MASTER_ID, plugin.getId(), MessageType.COMAPI_SUCCESS,
+      new GeigerUrl(plugin.getId(), path), null, request.getRequestId()
+    ));
+  }
+
+  private void register(Message message) throws IOException {
+    PluginInformation plugin = PluginInformation.fromByteArray(message.getPayload());
+    byte[] ownPublicKey;
+    try {
+      KeyPair pair = KeyPairGenerator
+        .getInstance(KEY_EXCHANGE_ALGORITHM, provider)
+        .generateKeyPair();
+      byte[] encoded = pair.getPublic().getEncoded();
+      ownPublicKey = Arrays.copyOfRange(encoded, 12, 44);
+
+      ByteArrayOutputStream foreignKey = new ByteArrayOutputStream(44);
+      foreignKey.write(encoded, 0, 12);
+      foreignKey.write(plugin.getSecret().getBytes());
+      KeyAgreement agreement = KeyAgreement.getInstance(KEY_EXCHANGE_ALGORITHM, provider);
+      agreement.init(pair.getPrivate());
+      agreement.doPhase(
+        KeyFactory.getInstance(KEY_EXCHANGE_ALGORITHM, provider)
+          .generatePublic(new X509EncodedKeySpec(foreignKey.toByteArray())),
+        true
+      );
+      plugin = plugin.withSecret(new CommunicationSecret(agreement.generateSecret()));
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Key exchange failed.", e);
+    }
+    plugins.put(plugin.getId(), plugin);
+    send(plugin, new Message(
+      GeigerApi.MASTER_ID, plugin.getId(), MessageType.COMAPI_SUCCESS,
+      new GeigerUrl(plugin.getId(), "registerPlugin"), ownPublicKey, message.getRequestId()
+    ));
+    sendAuthSuccess(plugin, new AtomicInteger(1));
+  }
+
+  private void sendAuthSuccess(PluginInformation plugin, AtomicInteger tries)
+    throws IOException {
+    Message message = new Message(
+      GeigerApi.MASTER_ID, plugin.getId(), MessageType.AUTH_SUCCESS,
+      new GeigerUrl(plugin.getId(), "registerPlugin")
+    );
+    authSuccessTries.put(message.getRequestId(), tries);
+    send(plugin, message);
+  }
+
+  /**
+   * <p>Sends the registration result again if the plugin rejected it.</p>
+   *
+   * <p>The plugin derives the shared secret only after receiving the public key of the master,
+   * so it may reject the result if it arrives too early.</p>
+   */
+  private void retryAuthSuccess(PluginInformation plugin, String requestId) throws IOException {
+    AtomicInteger tries = authSuccessTries.remove(requestId);
+    if (tries == null || tries.incrementAndGet() > MAX_AUTH_SUCCESS_TRIES) return;
+    try {
+      Thread.sleep(AUTH_SUCCESS_RETRY_DELAY_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    sendAuthSuccess(plugin, tries);
+  }
+
+  private void activate(PluginInformation plugin, Message message) throws IOException {
+    PluginInformation activated = ProtocolNegotiation.readActivation(message.getPayload(), plugin);
+    Set<Capability> confirmed = EnumSet.noneOf(Capability.class);
+    confirmed.addAll(activated.getCapabilities());
+    confirmed.retainAll(SUPPORTED_CAPABILITIES);
+    activated = activated.withCapabilities(confirmed)
+      .withUnixSocketPath(null)
+      .withSharedMemoryPath(null);
+    plugins.put(activated.getId(), activated);
+    send(activated, new Message(
+      GeigerApi.MASTER_ID, activated.getId(), MessageType.COMAPI_SUCCESS,
+      new GeigerUrl(activated.getId(), "activatePlugin"),
+      ProtocolNegotiation.toConfirmationPayload(confirmed, null), message.getRequestId()
+    ));
+  }
+
+  void send(PluginInformation plugin, Message message) throws IOException {
+    communicator.sendMessage(plugin, message);
+  }
+
+  void sendAsync(PluginInformation plugin, Message message) {
+    communicator.sendMessageAsync(plugin, message).whenComplete((ignored, error) -> {
+      if (error != null)
+        GeigerApi.logger.log(Level.WARNING, "Failed to send message.", error);
+    });
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    try {
+      // The port is only released once the accepting thread left accept.
+      acceptor.join(5000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Socket socket : connections) socket.close();
+    connectionExecutor.shutdownNow();
+    executor.shutdownNow();
+    communicator.close();
+  }
+}
@@ -0,0 +1,337 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.serialization.ByteArrayReader;
+import eu.cybergeiger.serialization.ByteArrayWriter;
+import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.storage.BatchResult;
+import eu.cybergeiger.storage.ChangeType;
+import eu.cybergeiger.storage.SearchCriteria;
+import eu.cybergeiger.storage.StorageController;
+import eu.cybergeiger.storage.StorageException;
+import eu.cybergeiger.storage.StorageListener;
+import eu.cybergeiger.storage.node.DefaultNode;
+import eu.cybergeiger.storage.node.Node;
+import eu.cybergeiger.storage.node.value.DefaultNodeValue;
+import eu.cybergeiger.storage.node.value.NodeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * <p>Serves the storage calls of plugins like the storage event handler of the master does.</p>
+ */
+class MasterStorageHandler {
+  private interface ResultWriter {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private interface ItemReader<T> {
+    T read(InputStream in) throws IOException;
+  }
+
+  private interface ItemOperation<I, R> {
+    R run(I item) throws StorageException;
+  }
+
+  private interface ItemWriter<T> {
+    void write(OutputStream out, T result) throws IOException;
+  }
+
+  private interface CallProcessor {
+    ResultWriter process(PluginInformation plugin, InputStream in) throws IOException;
+  }
+
+  private static class Call {
+    final String errorMessage;
+    final CallProcessor processor;
+
+    Call(String errorMessage, CallProcessor processor) {
+      this.errorMessage = errorMessage;
+      this.processor = processor;
+    }
+  }
+
+  private final JavaMaster master;
+  private final StorageController storage;
+  private final Map<String, Call> calls = new HashMap<>();
+  private final Map<String, StorageListener> idToListener = new ConcurrentHashMap<>();
+  private final Map<String, ByteArrayOutputStream> transfers = new ConcurrentHashMap<>();
+
+  MasterStorageHandler(JavaMaster master, StorageController storage) {
+    this.master = master;
+    this.storage = storage;
+    calls.put("getNode", new Call("Could not get node", (plugin, in) ->
+      storage.get(SerializerHelper.readString(in))::toByteArrayStream
+    ));
+    calls.put("getNodeOrTombstone", new Call("Could not get node or tombstone", (plugin, in) ->
+      storage.getNodeOrTombstone(SerializerHelper.readString(in))::toByteArrayStream
+    ));
+    calls.put("addNode", new Call("Could not add node", (plugin, in) -> {
+      storage.add(DefaultNode.fromByteArrayStream(in, null));
+      return null;
+    }));
+    calls.put("updateNode", new Call("Could not update node", (plugin, in) -> {
+      storage.update(DefaultNode.fromByteArrayStream(in, null));
+      return null;
+    }));
+    calls.put("addOrUpdateNode", new Call("Could not add or update node", (plugin, in) ->
+      writeBoolean(storage.addOrUpdate(DefaultNode.fromByteArrayStream(in, null)))
+    ));
+    calls.put("deleteNode", new Call("Could not delete node", (plugin, in) ->
+      storage.delete(SerializerHelper.readString(in))::toByteArrayStream
+    ));
+    calls.put("getValue", new Call("Could not get node value", (plugin, in) -> {
+      NodeValue value = storage.getValue(
+        SerializerHelper.readString(in), SerializerHelper.readString(in)
+      );
+      return value == null ? null : value::toByteArrayStream;
+    }));
+    calls.put("addValue", new Call("Could not add node value", (plugin, in) -> {
+      storage.addValue(SerializerHelper.readString(in), DefaultNodeValue.fromByteArrayStream(in));
+      return null;
+    }));
+    calls.put("updateValue", new Call("Could not update node value", (plugin, in) -> {
+      storage.updateValue(
+        SerializerHelper.readString(in), DefaultNodeValue.fromByteArrayStream(in)
+      );
+      return null;
+    }));
+    calls.put("addOrUpdateValue", new Call("Could not add or update node value", (plugin, in) ->
+      writeBoolean(storage.addOrUpdateValue(
+        SerializerHelper.readString(in), DefaultNodeValue.fromByteArrayStream(in)
+      ))
+    ));
+    calls.put("deleteValue", new Call("Could not delete node value", (plugin, in) ->
+      storage.deleteValue(
+        SerializerHelper.readString(in), SerializerHelper.readString(in)
+      )::toByteArrayStream
+    ));
+    calls.put("renameNode", new Call("Could not rename node", (plugin, in) -> {
+      storage.rename(SerializerHelper.readString(in), SerializerHelper.readString(in));
+      return null;
+    }));
+    calls.put("searchNodes", new Call("Could not search nodes", (plugin, in) ->
+      writeNodes(storage.search(SearchCriteria.fromByteArrayStream(in)))
+    ));
+    calls.put("searchNodesPage", new Call("Could not search nodes", (plugin, in) ->
+      writeNodes(storage.searchPage(
+        SearchCriteria.fromByteArrayStream(in),
+        SerializerHelper.readInt(in),
+        SerializerHelper.readInt(in)
+      ))
+    ));
+    calls.put("getValueChunk", new Call("Could not get value chunk", (plugin, in) ->
+      getValueChunk(
+        SerializerHelper.readString(in), SerializerHelper.readString(in),
+        SerializerHelper.readLong(in), SerializerHelper.readInt(in)
+      )
+    ));
+    calls.put("setValueChunk", new Call("Could not set value chunk", (plugin, in) -> {
+      setValueChunk(
+        SerializerHelper.readString(in), SerializerHelper.readString(in),
+        SerializerHelper.readString(in), SerializerHelper.readLong(in),
+        SerializerHelper.readByteArray(in), SerializerHelper.readInt(in) == 1
+      );
+      return null;
+    }));
+    calls.put("getNodes", new Call("Could not get nodes", (plugin, in) -> processBatch(
+      in, SerializerHelper::readString, storage::get, (out, node) -> node.toByteArrayStream(out)
+    )));
+    calls.put("addOrUpdateNodes", new Call("Could not add or update nodes", (plugin, in) ->
+      processBatch(
+        in, item -> DefaultNode.fromByteArrayStream(item, null), storage::addOrUpdate,
+        MasterStorageHandler::writeBoolean
+      )
+    ));
+    calls.put("deleteNodes", new Call("Could not delete nodes", (plugin, in) -> processBatch(
+      in, SerializerHelper::readString, storage::delete, (out, node) -> node.toByteArrayStream(out)
+    )));
+    calls.put("addOrUpdateValues", new Call("Could not add or update node values",
+      (plugin, in) -> {
+        String path = SerializerHelper.readString(in);
+        return processBatch(
+          in, DefaultNodeValue::fromByteArrayStream,
+          value -> storage.addOrUpdateValue(path, value), MasterStorageHandler::writeBoolean
+        );
+      }
+    ));
+    calls.put("close", new Call("Could not close", (plugin, in) -> {
+      storage.close();
+      return null;
+    }));
+    calls.put("flush", new Call("Could not flush", (plugin, in) -> {
+      storage.flush();
+      return null;
+    }));
+    calls.put("zap", new Call("Could not zap", (plugin, in) -> {
+      storage.zap();
+      return null;
+    }));
+    calls.put("dump", new Call("Could not dump", (plugin, in) -> {
+      String dump = storage.dump(SerializerHelper.readString(in), SerializerHelper.readString(in));
+      return out -> SerializerHelper.writeString(out, dump);
+    }));
+    calls.put("registerChangeListener", new Call("Could not register listener", (plugin, in) ->
+      registerChangeListener(plugin.getId(), SearchCriteria.fromByteArrayStream(in))
+    ));
+    calls.put("deregisterChangeListeners", new Call("Could not deregister listeners",
+      (plugin, in) -> {
+        int count = SerializerHelper.readInt(in);
+        for (int i = 0; i < count; i++) {
+          StorageListener listener = idToListener.remove(SerializerHelper.readString(in));
+          if (listener != null) storage.deregisterChangeListener(listener);
+        }
+        return null;
+      }
+    ));
+  }
+
+  private static ResultWriter writeBoolean(boolean value) {
+    return out -> SerializerHelper.writeInt(out, value ? 1 : 0);
+  }
+
+  private static void writeBoolean(OutputStream out, boolean value) throws IOException {
+    SerializerHelper.writeInt(out, value ? 1 : 0);
+  }
+
+  /**
+   * <p>Processes each item of a batch call on its own, so failed items do not fail the
+   * others.</p>
+   */
+  private static <I, R> ResultWriter processBatch(InputStream in, ItemReader<I> reader,
+                                                  ItemOperation<I, R> operation,
+                                                  ItemWriter<R> writer) throws IOException {
+    int count = SerializerHelper.readInt(in);
+    List<I> items = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) items.add(reader.read(in));
+    List<BatchResult<R>> results = new ArrayList<>(count);
+    for (I item : items) results.add(BatchResult.of(() -> operation.run(item)));
+    return out -> {
+      SerializerHelper.writeInt(out, results.size());
+      for (BatchResult<R> result : results) {
+        writeBoolean(out, result.isSuccess());
+        if (result.isSuccess()) writer.write(out, result.get());
+        else result.getError().toByteArrayStream(out);
+      }
+    };
+  }
+
+  private static ResultWriter writeNodes(List<Node> nodes) {
+    return out -> {
+      SerializerHelper.writeInt(out, nodes.size());
+      for (Node node : nodes) node.toByteArrayStream(out);
+    };
+  }
+
+  private ResultWriter getValueChunk(String path, String key, long offset, int length)
+    throws StorageException {
+    NodeValue value = storage.getValue(path, key);
+    if (value == null) return out -> SerializerHelper.writeByteArray(out, null);
+    byte[] bytes = value.getValue().getBytes(StandardCharsets.UTF_8);
+    int from = (int) Math.min(offset, bytes.length);
+    int to = (int) Math.min(from + (long) length, bytes.length);
+    return out -> SerializerHelper.writeByteArray(out, bytes, from, to - from);
+  }
+
+  private void setValueChunk(String transferId, String path, String key, long offset,
+                             byte[] chunk, boolean last) throws StorageException {
+    ByteArrayOutputStream content = transfers.computeIfAbsent(
+      transferId, ignored -> new ByteArrayOutputStream()
+    );
+    if (offset != content.size()) {
+      transfers.remove(transferId);
+      throw new StorageException("Expected chunk at offset " + content.size() + ".");
+    }
+    content.write(chunk, 0, chunk.length);
+    if (!last) return;
+    transfers.remove(transferId);
+    String text = new String(content.toByteArray(), StandardCharsets.UTF_8);
+    NodeValue value = storage.getValue(path, key);
+    if (value == null) value = new DefaultNodeValue(key, text);
+    else value.setValue(text);
+    storage.addOrUpdateValue(path, value);
+  }
+
+  private ResultWriter registerChangeListener(String pluginId, SearchCriteria criteria)
+    throws StorageException {
+    String id = UUID.randomUUID().toString();
+    StorageListener listener = (type, oldNode, newNode) ->
+      sendChangeEvent(pluginId, id, type, oldNode, newNode);
+    idToListener.put(id, listener);
+    storage.registerChangeListener(listener, criteria);
+    return out -> SerializerHelper.writeString(out, id);
+  }
+
+  private void sendChangeEvent(String pluginId, String listenerId, ChangeType type,
+                               Node oldNode, Node newNode) {
+    PluginInformation plugin = master.getPlugin(pluginId);
+    if (plugin == null) return;
+    ByteArrayWriter out = new ByteArrayWriter(ProtocolNegotiation.getWireFormat(plugin));
+    try {
+      SerializerHelper.writeFormatHeader(out);
+      SerializerHelper.writeString(out, listenerId);
+      SerializerHelper.writeString(out, type.toStringStandard());
+      SerializerHelper.writeInt(out, (oldNode == null ? 0 : 1) + (newNode == null ? 0 : 2));
+      if (oldNode != null) oldNode.toByteArrayStream(out);
+      if (newNode != null) newNode.toByteArrayStream(out);
+    } catch (IOException e) {
+      GeigerApi.logger.log(Level.WARNING, "Failed to serialize change event.", e);
+      return;
+    }
+    // Sent asynchronously as the storage may still be locked by the change.
+    master.sendAsync(plugin, new Message(
+      GeigerApi.MASTER_ID, pluginId, MessageType.STORAGE_EVENT,
+      new GeigerUrl(pluginId, "changeEvent"), out.toByteArray()
+    ));
+  }
+
+  /**
+   * <p>Processes a storage call and sends back its result.</p>
+   *
+   * @param plugin  the calling plugin
+   * @param message the call
+   * @throws IOException if the result could not be sent
+   */
+  void handle(PluginInformation plugin, Message message) throws IOException {
+    String name = message.getAction() == null ? null : message.getAction().getPath();
+    Call call = calls.get(name);
+    ByteArrayWriter out = new ByteArrayWriter(ProtocolNegotiation.getWireFormat(plugin));
+    SerializerHelper.writeFormatHeader(out);
+    MessageType type = MessageType.STORAGE_SUCCESS;
+    if (call == null) {
+      type = MessageType.STORAGE_ERROR;
+      new StorageException("Could not find specified function.").toByteArrayStream(out);
+    } else {
+      try {
+        InputStream in = new ByteArrayReader(message.getPayload());
+        SerializerHelper.readFormatHeader(in);
+        ResultWriter result = call.processor.process(plugin, in);
+        if (result != null) result.write(out);
+      } catch (IOException | RuntimeException e) {
+        out.reset();
+        SerializerHelper.writeFormatHeader(out);
+        type = MessageType.STORAGE_ERROR;
+        new StorageException(call.errorMessage, e).toByteArrayStream(out);
+      }
+    }
+    master.send(plugin, new Message(
+      GeigerApi.MASTER_ID, plugin.getId(), type, null,
+      out.toByteArray(), message.getRequestId()
+    ));
+  }
+}
@@ -0,0 +1,172 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.Declaration;
+import eu.cybergeiger.api.plugin.MenuItem;
+import eu.cybergeiger.api.plugin.PluginListener;
+import eu.cybergeiger.storage.StorageController;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestCommunicationHelper {
+  /**
+   * Api recording sent messages and delivering replies to its listeners.
+   */
+  private static class FakeApi implements GeigerApi {
+    final List<Message> sent = new ArrayList<>();
+    final List<PluginListener> listeners = new CopyOnWriteArrayList<>();
+    IOException sendFailure;
+
+    void reply(Message message) {
+      for (PluginListener listener : listeners)
+        listener.pluginEvent(message);
+    }
+
+    @Override
+    public String getId() {
+      return "plugin";
+    }
+
+    @Override
+    public Declaration getDeclaration() {
+      return Declaration.DO_NOT_SHARE_DATA;
+    }
+
+    @Override
+    public StorageController getStorage() {
+      return null;
+    }
+
+    @Override
+    public void registerListener(MessageType[] types, PluginListener listener) {
+      listeners.add(listener);
+    }
+
+    @Override
+    public void deregisterListener(MessageType[] events, PluginListener listener) {
+      listeners.remove(listener);
+    }
+
+    @Override
+    public void sendMessage(Message msg) throws IOException {
+      if (sendFailure != null) throw sendFailure;
+      sent.add(msg);
+    }
+
+    @Override
+    public void zapState() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void registerPlugin() {
+    }
+
+    @Override
+    public void activatePlugin() {
+    }
+
+    @Override
+    public void deactivatePlugin() {
+    }
+
+    @Override
+    public void deregisterPlugin() {
+    }
+
+    @Override
+    public void registerMenu(MenuItem menu) {
+    }
+
+    @Override
+    public void enableMenu(String menu) {
+    }
+
+    @Override
+    public void disableMenu(String menu) {
+    }
+
+    @Override
+    public void deregisterMenu(String menu) {
+    }
+  }
+
+  private static Message request() {
+    return new Message("plugin", GeigerApi.MASTER_ID, MessageType.PING,
+      new GeigerUrl(GeigerApi.MASTER_ID, "ping"));
+  }
+
+  private static Message response(String requestId) {
+    return new Message(GeigerApi.MASTER_ID, "plugin", MessageType.COMAPI_SUCCESS,
+      null, null, requestId);
+  }
+
+  @Test
+  public void testSendAsync() throws Exception {
+    FakeApi api = new FakeApi();
+    Message request = request();
+    CompletableFuture<Message> response = CommunicationHelper.sendAsync(api, request);
+    assertThat(api.sent).containsExactly(request);
+    assertThat(response.isDone()).isFalse();
+
+    api.reply(response("other"));
+    assertThat(response.isDone()).isFalse();
+
+    Message reply = response(request.getRequestId());
+    api.reply(reply);
+    assertThat(response.get(1, TimeUnit.SECONDS)).isSameAs(reply);
+    assertThat(api.listeners).isEmpty();
+  }
+
+  @Test
+  public void testManyPendingRequests() throws Exception {
+    FakeApi api = new FakeApi();
+    List<CompletableFuture<Message>> responses = new ArrayList<>();
+    for (int i = 0; i < 100; i++)
+      responses.add(CommunicationHelper.sendAsync(api, request()));
+    // Reply in reverse order to show responses do not have to arrive in order.
+    for (int i = api.sent.size() - 1; i >= 0; i--)
+      api.reply(response(api.sent.get(i).getRequestId()));
+    for (int i = 0; i < responses.size(); i++)
+      assertThat(responses.get(i).get(1, TimeUnit.SECONDS).getRequestId())
+        .isEqualTo(api.sent.get(i).getRequestId());
+    assertThat(api.listeners).isEmpty();
+  }
+
+  @Test
+  public void testTimeout() {
+    FakeApi api = new FakeApi();
+    CompletableFuture<Message> response = CommunicationHelper.sendAsync(
+      api, request(), new MessageType[]{MessageType.COMAPI_SUCCESS}, 50
+    );
+    assertThatThrownBy(() -> response.get(5, TimeUnit.SECONDS))
+      .isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(TimeoutException.class);
+  }
+
+  @Test
+  public void testSendFailure() {
+    FakeApi api = new FakeApi();
+    api.sendFailure = new IOException("unreachable");
+    assertThatThrownBy(() -> CommunicationHelper.sendAndWait(api, request()))
+      .isSameAs(api.sendFailure);
+    assertThat(api.listeners).isEmpty();
+  }
+}
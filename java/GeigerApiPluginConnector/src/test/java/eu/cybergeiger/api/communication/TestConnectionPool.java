@@ -0,0 +1,108 @@
+package eu.cybergeiger.api.communication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestConnectionPool {
+  private ServerSocket server;
+  private final List<Socket> accepted = new ArrayList<>();
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = new ServerSocket(0);
+    Thread acceptor = new Thread(() -> {
+      try {
+        while (true) {
+          Socket socket = server.accept();
+          synchronized (accepted) {
+            accepted.add(socket);
+            accepted.notifyAll();
+          }
+        }
+      } catch (IOException ignored) {
+        // Server was closed.
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  @AfterEach
+  public void stopServer() throws IOException {
+    server.close();
+    synchronized (accepted) {
+      for (Socket socket : accepted) socket.close();
+    }
+  }
+
+  private Socket awaitAccepted(int count) throws InterruptedException {
+    synchronized (accepted) {
+      while (accepted.size() < count) accepted.wait(5000);
+      return accepted.get(count - 1);
+    }
+  }
+
+  @Test
+  public void testReusesReleasedConnection() throws IOException {
+    try (ConnectionPool pool = new ConnectionPool(CommunicationOptions.DEFAULT)) {
+      ConnectionPool.Connection first = pool.acquire(server.getLocalPort());
+      assertThat(first.isReused()).isFalse();
+      pool.release(first);
+
+      ConnectionPool.Connection second = pool.acquire(server.getLocalPort());
+      assertThat(second).isSameAs(first);
+      assertThat(second.isReused()).isTrue();
+    }
+  }
+
+  @Test
+  public void testDropsConnectionClosedByPeer() throws IOException, InterruptedException {
+    try (ConnectionPool pool = new ConnectionPool(CommunicationOptions.DEFAULT)) {
+      ConnectionPool.Connection first = pool.acquire(server.getLocalPort());
+      pool.release(first);
+      awaitAccepted(1).close();
+      Thread.sleep(100);
+
+      ConnectionPool.Connection second = pool.acquire(server.getLocalPort());
+      assertThat(second).isNotSameAs(first);
+      assertThat(second.isReused()).isFalse();
+    }
+  }
+
+  @Test
+  public void testEvictsIdleConnections() throws IOException, InterruptedException {
+    CommunicationOptions options = CommunicationOptions.DEFAULT
+      .withConnectionIdleTimeoutMillis(50);
+    try (ConnectionPool pool = new ConnectionPool(options)) {
+      ConnectionPool.Connection first = pool.acquire(server.getLocalPort());
+      pool.release(first);
+      Thread.sleep(200);
+
+      assertThat(first.getSocket().isClosed()).isTrue();
+      assertThat(pool.acquire(server.getLocalPort())).isNotSameAs(first);
+    }
+  }
+
+  @Test
+  public void testLimitsIdleConnections() throws IOException {
+    CommunicationOptions options = CommunicationOptions.DEFAULT.withMaxIdleConnections(1);
+    try (ConnectionPool pool = new ConnectionPool(options)) {
+      ConnectionPool.Connection first = pool.acquire(server.getLocalPort());
+      ConnectionPool.Connection second = pool.acquire(server.getLocalPort());
+      pool.release(first);
+      pool.release(second);
+
+      assertThat(second.getSocket().isClosed()).isTrue();
+      assertThat(pool.acquire(server.getLocalPort())).isSameAs(first);
+    }
+  }
+}
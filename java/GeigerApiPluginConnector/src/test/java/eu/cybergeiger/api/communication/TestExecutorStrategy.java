@@ -0,0 +1,60 @@
+package eu.cybergeiger.api.communication;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestExecutorStrategy {
+  @Test
+  public void testFixedThreadPool() throws InterruptedException {
+    ExecutorService executor = ExecutorStrategy.fixedThreadPool(2).createExecutor();
+    try {
+      assertThat(runBlockingTasks(executor, 2)).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testInvalidThreadCount() {
+    assertThatThrownBy(() -> ExecutorStrategy.fixedThreadPool(0))
+      .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testVirtualThreads() throws InterruptedException {
+    ExecutorService executor = ExecutorStrategy.virtualThreads().createExecutor();
+    try {
+      // Without virtual thread support this falls back to one thread per processor.
+      int tasks = VirtualThreads.isSupported() ? 1000 : Runtime.getRuntime().availableProcessors();
+      assertThat(runBlockingTasks(executor, tasks)).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * <p>Runs tasks which only complete once all of them are running at the same time.</p>
+   */
+  private static boolean runBlockingTasks(ExecutorService executor, int count)
+    throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(count);
+    CountDownLatch finished = new CountDownLatch(count);
+    for (int i = 0; i < count; i++) {
+      executor.execute(() -> {
+        started.countDown();
+        try {
+          if (started.await(5, TimeUnit.SECONDS)) finished.countDown();
+        } catch (InterruptedException ignored) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    return finished.await(10, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,182 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.CommunicationSecret;
+import eu.cybergeiger.api.plugin.Declaration;
+import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.serialization.SerializerHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestGeigerCommunicator {
+  private static final CommunicationOptions POOLING =
+    CommunicationOptions.DEFAULT.withConnectionPooling(true);
+
+  private ServerSocket server;
+  private PluginInformation info;
+  private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = new ServerSocket(0);
+    info = new PluginInformation(
+      "plugin", "", server.getLocalPort(), Declaration.DO_NOT_SHARE_DATA,
+      new CommunicationSecret()
+    );
+  }
+
+  @AfterEach
+  public void stopServer() throws IOException {
+    server.close();
+  }
+
+  private static Message message(String action) {
+    return new Message(
+      GeigerApi.MASTER_ID, "plugin", MessageType.CUSTOM_EVENT, new GeigerUrl("plugin", action)
+    );
+  }
+
+  private void serve(ServerAction action) {
+    Thread thread = new Thread(() -> {
+      try {
+        action.run();
+      } catch (IOException ignored) {
+        // Server was closed.
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private interface ServerAction {
+    void run() throws IOException;
+  }
+
+  private void receive(InputStream in, OutputStream out) throws IOException {
+    received.add(Message.fromByteArrayStream(in).getAction().getPath());
+    SerializerHelper.writeLong(out, GeigerCommunicator.RESPONSE_UID);
+    out.flush();
+  }
+
+  private void receiveFrame(DataInputStream in, DataOutputStream out) throws IOException {
+    int length = in.readInt();
+    int streamId = in.readInt();
+    assertThat(in.readByte()).isEqualTo(Frames.MESSAGE);
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    received.add(
+      Message.fromByteArrayStream(new ByteArrayInputStream(payload)).getAction().getPath()
+    );
+    Frames.writeAck(out, streamId);
+    out.flush();
+  }
+
+  @Test
+  public void testResendsOnReusedConnectionClosedBeforeAcknowledgement() throws IOException {
+    serve(() -> {
+      try (Socket first = server.accept()) {
+        InputStream in = new BufferedInputStream(first.getInputStream());
+        receive(in, first.getOutputStream());
+        // Close once the next message arrives, like a peer timing out meanwhile.
+        in.read();
+      }
+      try (Socket second = server.accept()) {
+        receive(new BufferedInputStream(second.getInputStream()), second.getOutputStream());
+      }
+    });
+    GeigerCommunicator communicator = new GeigerCommunicator(null, POOLING);
+    try {
+      communicator.sendMessage(info, message("first"));
+      communicator.sendMessage(info, message("second"));
+    } finally {
+      communicator.close();
+    }
+
+    assertThat(received).containsExactly("first", "second");
+  }
+
+  @Test
+  public void testFailsOnNewConnectionClosedBeforeAcknowledgement() throws IOException {
+    serve(() -> {
+      try (Socket socket = server.accept()) {
+        Message.fromByteArrayStream(new BufferedInputStream(socket.getInputStream()));
+      }
+    });
+    GeigerCommunicator communicator = new GeigerCommunicator(null, POOLING);
+    try {
+      assertThatThrownBy(() -> communicator.sendMessage(info, message("first")))
+        .isInstanceOf(IOException.class);
+    } finally {
+      communicator.close();
+    }
+  }
+
+  @Test
+  public void testResendsFrameOnReusedConnectionClosedBeforeAcknowledgement() throws IOException {
+    PluginInformation framed = info.withCapabilities(EnumSet.of(Capability.FRAMED_PROTOCOL));
+    serve(() -> {
+      try (Socket first = server.accept()) {
+        DataInputStream in = new DataInputStream(first.getInputStream());
+        DataOutputStream out = new DataOutputStream(first.getOutputStream());
+        assertThat(in.readLong()).isEqualTo(Frames.PREFACE);
+        receiveFrame(in, out);
+        // Close once the next frame arrives, like a peer timing out meanwhile.
+        in.readInt();
+      }
+      try (Socket second = server.accept()) {
+        DataInputStream in = new DataInputStream(second.getInputStream());
+        assertThat(in.readLong()).isEqualTo(Frames.PREFACE);
+        receiveFrame(in, new DataOutputStream(second.getOutputStream()));
+      }
+    });
+    GeigerCommunicator communicator = new GeigerCommunicator(null, CommunicationOptions.DEFAULT);
+    try {
+      communicator.sendMessage(framed, message("first"));
+      communicator.sendMessage(framed, message("second"));
+    } finally {
+      communicator.close();
+    }
+
+    assertThat(received).containsExactly("first", "second");
+  }
+
+  @Test
+  public void testFailsFrameOnNewConnectionClosedBeforeAcknowledgement() throws IOException {
+    PluginInformation framed = info.withCapabilities(EnumSet.of(Capability.FRAMED_PROTOCOL));
+    serve(() -> {
+      try (Socket socket = server.accept()) {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        in.readLong();
+        in.readInt();
+      }
+    });
+    GeigerCommunicator communicator = new GeigerCommunicator(null, CommunicationOptions.DEFAULT);
+    try {
+      assertThatThrownBy(() -> communicator.sendMessage(framed, message("first")))
+        .isInstanceOf(IOException.class);
+    } finally {
+      communicator.close();
+    }
+  }
+}
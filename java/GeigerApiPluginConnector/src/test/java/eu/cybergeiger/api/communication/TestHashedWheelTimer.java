@@ -0,0 +1,48 @@
+package eu.cybergeiger.api.communication;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestHashedWheelTimer {
+  @Test
+  public void testExpiresInBulk() throws InterruptedException {
+    try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 8)) {
+      CountDownLatch expired = new CountDownLatch(10000);
+      // Delays spanning several rotations of the wheel.
+      for (int i = 0; i < 10000; i++)
+        timer.schedule(expired::countDown, i % 50, TimeUnit.MILLISECONDS);
+      assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+  @Test
+  public void testDoesNotExpireEarly() throws InterruptedException {
+    try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 4)) {
+      CountDownLatch expired = new CountDownLatch(1);
+      long start = System.nanoTime();
+      timer.schedule(expired::countDown, 30, TimeUnit.MILLISECONDS);
+      assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30)).isTrue();
+    }
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    try (HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 8)) {
+      AtomicInteger runs = new AtomicInteger();
+      HashedWheelTimer.Timeout timeout =
+        timer.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+      assertThat(timeout.cancel()).isTrue();
+      assertThat(timeout.cancel()).isFalse();
+      CountDownLatch later = new CountDownLatch(1);
+      timer.schedule(later::countDown, 40, TimeUnit.MILLISECONDS);
+      assertThat(later.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(runs.get()).isEqualTo(0);
+    }
+  }
+}
@@ -0,0 +1,499 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.PluginApi;
+import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.Declaration;
+import eu.cybergeiger.api.storage.PassthroughController;
+import eu.cybergeiger.api.utils.HashType;
+import eu.cybergeiger.storage.BatchResult;
+import eu.cybergeiger.storage.ChangeType;
+import eu.cybergeiger.storage.SearchCriteria;
+import eu.cybergeiger.storage.StorageController;
+import eu.cybergeiger.storage.StorageException;
+import eu.cybergeiger.storage.StorageListener;
+import eu.cybergeiger.storage.node.DefaultNode;
+import eu.cybergeiger.storage.node.Node;
+import eu.cybergeiger.storage.node.value.DefaultNodeValue;
+import eu.cybergeiger.storage.node.value.NodeValue;
+import mocks.InMemoryStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestJavaMaster {
+  private static final String PLUGIN_ID = "javaMasterPlugin";
+  private static final String NODE_PATH = StorageController.PATH_DELIMITER + "test";
+  private static final CommunicationOptions ALL_FEATURES = CommunicationOptions.DEFAULT
+    .withFramedProtocol(true)
+    .withCompactEncoding(true)
+    .withChunkedTransfer(true)
+    .withTransferChunkSize(16)
+    .withIntegrityHashType(HashType.HMAC_SHA256);
+
+  private JavaMaster master;
+
+  @AfterEach
+  public void stopMaster() throws IOException {
+    if (master != null) master.close();
+  }
+
+  private static PluginApi createPlugin(CommunicationOptions options) throws IOException {
+    return new PluginApi(
+      "", PLUGIN_ID, Declaration.DO_NOT_SHARE_DATA,
+      GeigerApi.MASTER_EXECUTOR, false, true, options
+    );
+  }
+
+  private static void assertStorageRoundTrip(StorageController storage) throws StorageException {
+    storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+    storage.addValue(NODE_PATH, new DefaultNodeValue("key", "value"));
+
+    assertThat(storage.get(NODE_PATH).getOwner()).isEqualTo(PLUGIN_ID);
+    assertThat(storage.getValue(NODE_PATH, "key").getValue()).isEqualTo("value");
+    assertThat(storage.addOrUpdateValue(NODE_PATH, new DefaultNodeValue("key", "other")))
+      .isFalse();
+    assertThat(storage.getValue(NODE_PATH, "key").getValue()).isEqualTo("other");
+
+    SearchCriteria criteria = new SearchCriteria();
+    criteria.setNodePath(NODE_PATH);
+    assertThat(storage.search(criteria)).hasSize(1);
+
+    assertThat(storage.delete(NODE_PATH).getPath()).isEqualTo(NODE_PATH);
+    assertThatThrownBy(() -> storage.get(NODE_PATH)).isInstanceOf(StorageException.class);
+    assertThat(storage.getNodeOrTombstone(NODE_PATH).isTombstone()).isTrue();
+  }
+
+  private static void assertBatchOperations(StorageController storage) throws StorageException {
+    String otherPath = NODE_PATH + "Other";
+    String missingPath = NODE_PATH + "Missing";
+    storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+
+    List<BatchResult<Boolean>> written = storage.addOrUpdateAll(Arrays.asList(
+      new DefaultNode(NODE_PATH, PLUGIN_ID), new DefaultNode(otherPath, PLUGIN_ID),
+      new DefaultNode(missingPath + ":child", PLUGIN_ID)
+    ));
+    assertThat(written.get(0).get()).isFalse();
+    assertThat(written.get(1).get()).isTrue();
+    assertThat(written.get(2).isSuccess()).isFalse();
+
+    List<BatchResult<Boolean>> values = storage.addOrUpdateValues(NODE_PATH, Arrays.asList(
+      new DefaultNodeValue("a", "1"), new DefaultNodeValue("b", "2")
+    ));
+    assertThat(values.get(0).get()).isTrue();
+    assertThat(values.get(1).get()).isTrue();
+
+    List<BatchResult<Node>> nodes = storage.getAll(Arrays.asList(NODE_PATH, missingPath));
+    assertThat(nodes.get(0).get().getValue("b").getValue()).isEqualTo("2");
+    assertThat(nodes.get(1).getError()).isInstanceOf(StorageException.class);
+
+    List<BatchResult<Node>> deleted = storage.deleteAll(Arrays.asList(otherPath, missingPath));
+    assertThat(deleted.get(0).get().getPath()).isEqualTo(otherPath);
+    assertThat(deleted.get(1).isSuccess()).isFalse();
+    assertThat(storage.getNodeOrTombstone(otherPath).isTombstone()).isTrue();
+  }
+
+  @Test
+  public void testRegistrationAndActivation() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT)) {
+      assertThat(master.getPlugin(PLUGIN_ID)).isNotNull();
+      assertThat(master.getPlugin(PLUGIN_ID).getSecret())
+        .isEqualTo(plugin.getMasterSecret());
+      assertThat(master.getPlugin(PLUGIN_ID).getPort()).isPositive();
+    }
+  }
+
+  @Test
+  public void testNegotiatesSupportedCapabilities() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(ALL_FEATURES.withSharedMemory(true))) {
+      assertThat(plugin.masterSupports(Capability.FRAMED_PROTOCOL)).isTrue();
+      assertThat(plugin.masterSupports(Capability.COMPACT_ENCODING)).isTrue();
+      assertThat(plugin.masterSupports(Capability.CHUNKED_TRANSFER)).isTrue();
+      assertThat(plugin.masterSupports(Capability.KEYED_INTEGRITY)).isTrue();
+      assertThat(plugin.masterSupports(Capability.SHARED_MEMORY)).isFalse();
+    }
+  }
+
+  @Test
+  public void testThrowingListenerReceivesMessageOnce() throws IOException {
+    CommunicationOptions pooling = CommunicationOptions.DEFAULT.withConnectionPooling(true);
+    master = new JavaMaster(new InMemoryStorage(), pooling);
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT)) {
+      AtomicInteger received = new AtomicInteger();
+      plugin.registerListener(new MessageType[]{MessageType.CUSTOM_EVENT}, message -> {
+        if (received.incrementAndGet() > 1) throw new IllegalStateException("Listener failed.");
+      });
+
+      // The second message is sent over the pooled connection of the first.
+      for (int i = 0; i < 2; i++) {
+        master.send(master.getPlugin(PLUGIN_ID), new Message(
+          GeigerApi.MASTER_ID, PLUGIN_ID, MessageType.CUSTOM_EVENT,
+          new GeigerUrl(PLUGIN_ID, "event")
+        ));
+      }
+
+      assertThat(received.get()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void testStorage() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT)) {
+      assertStorageRoundTrip(plugin.getStorage());
+    }
+  }
+
+  @Test
+  public void testStorageWithAllFeatures() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(ALL_FEATURES)) {
+      assertStorageRoundTrip(plugin.getStorage());
+    }
+  }
+
+  @Test
+  public void testNodeWithChildren() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT)) {
+      StorageController storage = plugin.getStorage();
+      Node node = new DefaultNode(NODE_PATH, PLUGIN_ID);
+      node.addChild(new DefaultNode(NODE_PATH + ":child", PLUGIN_ID));
+
+      storage.add(node);
+
+      assertThat(storage.get(NODE_PATH).getChildNodesCsv()).isEqualTo("child");
+      assertThat(storage.get(NODE_PATH + ":child").getOwner()).isEqualTo(PLUGIN_ID);
+    }
+  }
+
+  @Test
+  public void testBatchOperations() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(ALL_FEATURES.withBatchOperations(true))) {
+      assertThat(plugin.masterSupports(Capability.BATCH_OPERATIONS)).isTrue();
+      long received = master.getReceivedCount();
+      assertBatchOperations(plugin.getStorage());
+      assertThat(master.getReceivedCount() - received).isLessThanOrEqualTo(6L);
+    }
+  }
+
+  @Test
+  public void testBatchOperationsFallBackToSingleCalls() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT)) {
+      assertThat(plugin.masterSupports(Capability.BATCH_OPERATIONS)).isFalse();
+      assertBatchOperations(plugin.getStorage());
+    }
+    assertBatchOperations(new InMemoryStorage());
+  }
+
+  @Test
+  public void testChunkedValue() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(ALL_FEATURES)) {
+      StorageController storage = plugin.getStorage();
+      storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+      char[] chars = new char[100];
+      Arrays.fill(chars, 'x');
+      byte[] value = new String(chars).getBytes(StandardCharsets.UTF_8);
+
+      try (OutputStream out = storage.openValueOutputStream(NODE_PATH, "key")) {
+        out.write(value);
+      }
+      byte[] read = new byte[value.length];
+      try (InputStream in = storage.openValueInputStream(NODE_PATH, "key")) {
+        int count = 0;
+        while (count < read.length) count += in.read(read, count, read.length - count);
+        assertThat(in.read()).isEqualTo(-1);
+      }
+
+      assertThat(read).containsExactly(value);
+    }
+  }
+
+  @Test
+  public void testChangeListener() throws Exception {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT)) {
+      CompletableFuture<ChangeType> change = new CompletableFuture<>();
+      SearchCriteria criteria = new SearchCriteria();
+      criteria.setNodePath(NODE_PATH);
+      plugin.getStorage().registerChangeListener(
+        (type, oldNode, newNode) -> change.complete(type), criteria
+      );
+
+      plugin.getStorage().add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+
+      assertThat(change.get(10, TimeUnit.SECONDS)).isEqualTo(ChangeType.CREATE);
+    }
+  }
+
+  @Test
+  public void testNodeCache() throws Exception {
+    InMemoryStorage masterStorage = new InMemoryStorage();
+    master = new JavaMaster(masterStorage, CommunicationOptions.DEFAULT);
+    try (PluginApi plugin = createPlugin(ALL_FEATURES.withNodeCacheCapacity(16))) {
+      PassthroughController storage = (PassthroughController) plugin.getStorage();
+      storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+      storage.addValue(NODE_PATH, new DefaultNodeValue("key", "value"));
+      storage.get(NODE_PATH); // Registers the cache for changes.
+      long received = master.getReceivedCount();
+
+      for (int i = 0; i < 10; i++) {
+        assertThat(storage.get(NODE_PATH).getValue("key").getValue()).isEqualTo("value");
+        assertThat(storage.getValue(NODE_PATH, "key").getValue()).isEqualTo("value");
+      }
+      assertThat(master.getReceivedCount() - received).isLessThanOrEqualTo(4L);
+      assertThat(storage.getCacheHitCount()).isGreaterThanOrEqualTo(16L);
+
+      masterStorage.updateValue(NODE_PATH, new DefaultNodeValue("key", "changed"));
+      long deadline = System.currentTimeMillis() + 10000;
+      while (!"changed".equals(storage.getValue(NODE_PATH, "key").getValue()))
+        assertThat(System.currentTimeMillis()).isLessThan(deadline);
+
+      storage.updateValue(NODE_PATH, new DefaultNodeValue("key", "own"));
+      assertThat(storage.get(NODE_PATH).getValue("key").getValue()).isEqualTo("own");
+    }
+  }
+
+  @Test
+  public void testNodeCacheClearedWhenChangeEventDropped() throws Exception {
+    InMemoryStorage masterStorage = new InMemoryStorage();
+    String blockerPath = NODE_PATH + "Blocker";
+    CountDownLatch blocking = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    master = new JavaMaster(masterStorage, CommunicationOptions.DEFAULT);
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT
+      .withNodeCacheCapacity(16)
+      .withAsyncListenerDispatch(true)
+      .withListenerQueueCapacity(2))) {
+      PassthroughController storage = (PassthroughController) plugin.getStorage();
+      storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+      storage.addValue(NODE_PATH, new DefaultNodeValue("key", "value"));
+      storage.add(new DefaultNode(blockerPath, PLUGIN_ID));
+      SearchCriteria criteria = new SearchCriteria();
+      criteria.setNodePath(blockerPath);
+      storage.registerChangeListener((type, oldNode, newNode) -> {
+        blocking.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }, criteria);
+      storage.getValue(NODE_PATH, "key"); // Registers the cache for changes.
+      long deadline = System.currentTimeMillis() + 10000;
+      while (storage.getCacheHitCount() == 0) {
+        assertThat(System.currentTimeMillis()).isLessThan(deadline);
+        storage.getValue(NODE_PATH, "key");
+      }
+
+      // Each update sends an event for the cache and one for the listener. One blocks the
+      // delivery of storage events, the others fill their queue.
+      masterStorage.update(new DefaultNode(blockerPath, PLUGIN_ID));
+      assertThat(blocking.await(10, TimeUnit.SECONDS)).isTrue();
+      masterStorage.update(new DefaultNode(blockerPath, PLUGIN_ID));
+      while (plugin.getListenerQueueDepths().getOrDefault(storage, 0) < 2)
+        assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      masterStorage.updateValue(NODE_PATH, new DefaultNodeValue("key", "changed"));
+
+      while (!"changed".equals(storage.getValue(NODE_PATH, "key").getValue()))
+        assertThat(System.currentTimeMillis()).isLessThan(deadline);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testWriteBehind() throws Exception {
+    InMemoryStorage masterStorage = new InMemoryStorage();
+    master = new JavaMaster(masterStorage, CommunicationOptions.DEFAULT);
+    try (PluginApi plugin = createPlugin(ALL_FEATURES
+      .withBatchOperations(true)
+      .withWriteBehindDelayMillis(60000))) {
+      StorageController storage = plugin.getStorage();
+      storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+      long received = master.getReceivedCount();
+
+      for (int i = 0; i < 100; i++) {
+        storage.addOrUpdateValue(NODE_PATH, new DefaultNodeValue("key" + i % 10, "v" + i));
+      }
+      assertThat(storage.getValue(NODE_PATH, "key3").getValue()).isEqualTo("v93");
+      assertThat(master.getReceivedCount()).isEqualTo(received);
+
+      storage.flush();
+      assertThat(master.getReceivedCount() - received).isLessThanOrEqualTo(2L);
+      assertThat(masterStorage.get(NODE_PATH).getValues()).hasSize(10);
+      assertThat(masterStorage.getValue(NODE_PATH, "key9").getValue()).isEqualTo("v99");
+
+      storage.addOrUpdateValue(NODE_PATH + "Missing", new DefaultNodeValue("key", "value"));
+      assertThatThrownBy(storage::flush).isInstanceOf(StorageException.class);
+      storage.flush();
+    }
+  }
+
+  @Test
+  public void testWriteBehindReadsChildOfBufferedNode() throws IOException {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT
+      .withWriteBehindDelayMillis(60000))) {
+      StorageController storage = plugin.getStorage();
+      Node node = new DefaultNode(NODE_PATH, PLUGIN_ID);
+      node.addChild(new DefaultNode(NODE_PATH + ":child", PLUGIN_ID));
+
+      storage.addOrUpdate(node);
+
+      assertThat(storage.get(NODE_PATH + ":child").getOwner()).isEqualTo(PLUGIN_ID);
+    }
+  }
+
+  @Test
+  public void testWriteBehindSendsAfterDelay() throws Exception {
+    InMemoryStorage masterStorage = new InMemoryStorage();
+    master = new JavaMaster(masterStorage, CommunicationOptions.DEFAULT);
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT
+      .withWriteBehindDelayMillis(10))) {
+      StorageController storage = plugin.getStorage();
+      storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+
+      storage.addOrUpdateValue(NODE_PATH, new DefaultNodeValue("key", "value"));
+
+      long deadline = System.currentTimeMillis() + 10000;
+      while (masterStorage.getValue(NODE_PATH, "key") == null)
+        assertThat(System.currentTimeMillis()).isLessThan(deadline);
+    }
+  }
+
+  @Test
+  public void testWriteBehindSerializesArgumentsBeforeReturning() throws Exception {
+    CountDownLatch flushing = new CountDownLatch(1);
+    InMemoryStorage masterStorage = new InMemoryStorage() {
+      @Override
+      public boolean addOrUpdateValue(String path, NodeValue value) throws StorageException {
+        try {
+          flushing.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.addOrUpdateValue(path, value);
+      }
+    };
+    master = new JavaMaster(masterStorage, CommunicationOptions.DEFAULT);
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT
+      .withWriteBehindDelayMillis(60000))) {
+      StorageController storage = plugin.getStorage();
+      storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+      storage.addOrUpdateValue(NODE_PATH, new DefaultNodeValue("key", "value"));
+      Node node = new DefaultNode(NODE_PATH + "Other", PLUGIN_ID);
+
+      // Waits for the buffered write, which the master holds back.
+      CompletableFuture<Void> added = storage.addAsync(node);
+      node.addValue(new DefaultNodeValue("late", "value"));
+      flushing.countDown();
+      added.get(10, TimeUnit.SECONDS);
+
+      assertThat(masterStorage.get(NODE_PATH + "Other").getValues()).isEmpty();
+    }
+  }
+
+  @Test
+  public void testNodeCacheAcceptsChangeEventsBeforeRegistration() throws Exception {
+    CountDownLatch registered = new CountDownLatch(1);
+    InMemoryStorage masterStorage = new InMemoryStorage() {
+      @Override
+      public synchronized void registerChangeListener(StorageListener listener,
+                                                      SearchCriteria criteria) {
+        super.registerChangeListener(listener, criteria);
+        // Notify the cache before the id of its registration is sent back.
+        try {
+          listener.gotStorageChange(ChangeType.UPDATE, null, get(NODE_PATH));
+          Thread.sleep(200);
+        } catch (StorageException e) {
+          throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        registered.countDown();
+      }
+    };
+    List<LogRecord> errors = Collections.synchronizedList(new ArrayList<>());
+    Handler handler = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        if (record.getLevel().intValue() >= Level.SEVERE.intValue()) errors.add(record);
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    GeigerApi.logger.addHandler(handler);
+    master = new JavaMaster(masterStorage, CommunicationOptions.DEFAULT);
+    try (PluginApi plugin = createPlugin(CommunicationOptions.DEFAULT.withNodeCacheCapacity(16))) {
+      StorageController storage = plugin.getStorage();
+      storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+
+      storage.get(NODE_PATH); // Registers the cache for changes.
+      assertThat(registered.await(10, TimeUnit.SECONDS)).isTrue();
+      storage.get(NODE_PATH);
+
+      assertThat(errors).isEmpty();
+    } finally {
+      GeigerApi.logger.removeHandler(handler);
+    }
+  }
+
+  @Test
+  public void testConcurrentCalls() throws Exception {
+    master = new JavaMaster();
+    try (PluginApi plugin = createPlugin(ALL_FEATURES)) {
+      StorageController storage = plugin.getStorage();
+      storage.add(new DefaultNode(NODE_PATH, PLUGIN_ID));
+      long received = master.getReceivedCount();
+
+      List<CompletableFuture<Void>> calls = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        String key = "key" + i;
+        calls.add(CompletableFuture.runAsync(() -> {
+          try {
+            storage.addValue(NODE_PATH, new DefaultNodeValue(key, key));
+          } catch (StorageException e) {
+            throw new IllegalStateException(e);
+          }
+        }));
+      }
+      CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+      Node node = storage.get(NODE_PATH);
+      assertThat(node.getValues()).hasSize(50);
+      assertThat(master.getReceivedCount() - received).isGreaterThanOrEqualTo(51L);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.CommunicationSecret;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestMessageFramer {
+  private static byte[] serialize(Message message) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    message.toByteArrayStream(out, new CommunicationSecret(new byte[]{1, 2, 3}));
+    return out.toByteArray();
+  }
+
+  private static void assertFramed(Message message) throws IOException {
+    byte[] bytes = serialize(message);
+    assertThat(MessageFramer.frameLength(ByteBuffer.wrap(bytes))).isEqualTo(bytes.length);
+    for (int i = 0; i < bytes.length; i++) {
+      assertThat(MessageFramer.frameLength(ByteBuffer.wrap(bytes, 0, i)))
+        .isEqualTo(MessageFramer.INCOMPLETE);
+    }
+  }
+
+  @Test
+  public void testMessageWithAction() throws IOException {
+    assertFramed(new Message(
+      "source", "target",
+      MessageType.STORAGE_EVENT,
+      new GeigerUrl("target", "getNode"),
+      new byte[]{1, 2, 3, 4, 5}
+    ));
+  }
+
+  @Test
+  public void testMessageWithoutAction() throws IOException {
+    assertFramed(new Message("source", null, MessageType.PING, null));
+  }
+
+  @Test
+  public void testConsecutiveMessages() throws IOException {
+    byte[] first = serialize(new Message("a", "b", MessageType.PING, null));
+    byte[] second = serialize(new Message("a", "b", MessageType.PONG, new GeigerUrl("b", "")));
+    ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length);
+    buffer.put(first).put(second).flip();
+
+    assertThat(MessageFramer.frameLength(buffer)).isEqualTo(first.length);
+    buffer.position(first.length);
+    assertThat(MessageFramer.frameLength(buffer)).isEqualTo(second.length);
+  }
+
+  @Test
+  public void testInvalidStringLength() throws IOException {
+    byte[] bytes = serialize(new Message("source", "target", MessageType.PING, null));
+    // Corrupt length of source id located after the start marker and the string UID.
+    ByteBuffer.wrap(bytes).putInt(16 + 8, -5);
+    assertThatThrownBy(() -> MessageFramer.frameLength(ByteBuffer.wrap(bytes)))
+      .isInstanceOf(ClassCastException.class);
+  }
+}
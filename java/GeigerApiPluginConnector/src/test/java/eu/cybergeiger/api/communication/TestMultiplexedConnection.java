@@ -0,0 +1,77 @@
+package eu.cybergeiger.api.communication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestMultiplexedConnection {
+  private ServerSocket server;
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = new ServerSocket(0);
+  }
+
+  @AfterEach
+  public void stopServer() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void testOutOfOrderAcknowledgements() throws Exception {
+    try (MultiplexedConnection connection = new MultiplexedConnection(server.getLocalPort())) {
+      CompletableFuture<Void> first = connection.send(new byte[]{1});
+      CompletableFuture<Void> second = connection.send(new byte[]{2, 3});
+
+      try (Socket socket = server.accept()) {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        assertThat(in.readLong()).isEqualTo(Frames.PREFACE);
+        int firstStream = readMessageFrame(in, 1);
+        int secondStream = readMessageFrame(in, 2);
+        assertThat(firstStream).isNotEqualTo(secondStream);
+
+        Frames.writeAck(out, secondStream);
+        out.flush();
+        second.get(5, TimeUnit.SECONDS);
+        assertThat(first.isDone()).isFalse();
+        assertThat(connection.isReused()).isTrue();
+
+        Frames.writeAck(out, firstStream);
+        out.flush();
+        first.get(5, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  @Test
+  public void testFailsPendingMessagesOnClose() throws Exception {
+    MultiplexedConnection connection = new MultiplexedConnection(server.getLocalPort());
+    CompletableFuture<Void> pending = connection.send(new byte[]{1});
+    server.accept().close();
+
+    assertThatThrownBy(() -> pending.get(5, TimeUnit.SECONDS))
+      .isInstanceOf(ExecutionException.class);
+    assertThat(connection.isOpen()).isFalse();
+    assertThatThrownBy(() -> connection.send(new byte[]{1}))
+      .isInstanceOf(IOException.class);
+  }
+
+  private static int readMessageFrame(DataInputStream in, int expectedLength) throws IOException {
+    assertThat(in.readInt()).isEqualTo(expectedLength);
+    int streamId = in.readInt();
+    assertThat(in.readByte()).isEqualTo(Frames.MESSAGE);
+    in.readFully(new byte[expectedLength]);
+    return streamId;
+  }
+}
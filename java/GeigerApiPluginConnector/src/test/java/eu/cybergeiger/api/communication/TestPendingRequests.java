@@ -0,0 +1,112 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.GeigerApi;
+import eu.cybergeiger.api.message.GeigerUrl;
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestPendingRequests {
+  private static final MessageType[] RESPONSE_TYPES = new MessageType[]{
+    MessageType.COMAPI_SUCCESS,
+    MessageType.COMAPI_ERROR
+  };
+
+  private static Message request() {
+    return new Message("plugin", GeigerApi.MASTER_ID, MessageType.PING,
+      new GeigerUrl(GeigerApi.MASTER_ID, "ping"));
+  }
+
+  private static CompletableFuture<Message> register(PendingRequests requests, Message request) {
+    return requests.register(request, RESPONSE_TYPES, 30000);
+  }
+
+  private static Message response(String sourceId, MessageType type, String requestId) {
+    return new Message(sourceId, "plugin", type, null, null, requestId);
+  }
+
+  @Test
+  public void testComplete() throws Exception {
+    PendingRequests requests = new PendingRequests();
+    Message request = request();
+    CompletableFuture<Message> response = register(requests, request);
+    assertThat(requests.size()).isEqualTo(1);
+
+    Message reply = response(
+      GeigerApi.MASTER_ID, MessageType.COMAPI_SUCCESS, request.getRequestId()
+    );
+    assertThat(requests.complete(reply)).isTrue();
+    assertThat(response.get()).isSameAs(reply);
+    assertThat(requests.size()).isEqualTo(0);
+    assertThat(requests.complete(reply)).isFalse();
+  }
+
+  @Test
+  public void testIgnoresNonMatchingMessages() {
+    PendingRequests requests = new PendingRequests();
+    Message request = request();
+    CompletableFuture<Message> response = register(requests, request);
+
+    assertThat(requests.complete(
+      response(GeigerApi.MASTER_ID, MessageType.COMAPI_SUCCESS, "other")
+    )).isFalse();
+    assertThat(requests.complete(
+      response("otherPlugin", MessageType.COMAPI_SUCCESS, request.getRequestId())
+    )).isFalse();
+    assertThat(requests.complete(
+      response(GeigerApi.MASTER_ID, MessageType.STORAGE_SUCCESS, request.getRequestId())
+    )).isFalse();
+    assertThat(response.isDone()).isFalse();
+  }
+
+  @Test
+  public void testForgetsCancelledRequests() {
+    PendingRequests requests = new PendingRequests();
+    register(requests, request()).cancel(false);
+    assertThat(requests.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDuplicateRequestId() {
+    PendingRequests requests = new PendingRequests();
+    Message request = request();
+    register(requests, request);
+    assertThatThrownBy(() -> register(requests, request).get())
+      .isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(IllegalStateException.class);
+    assertThat(requests.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFailAll() {
+    PendingRequests requests = new PendingRequests();
+    CompletableFuture<Message> first = register(requests, request());
+    CompletableFuture<Message> second = register(requests, request());
+    requests.failAll(new IOException("closed"));
+    assertThat(first.isCompletedExceptionally()).isTrue();
+    assertThat(second.isCompletedExceptionally()).isTrue();
+    assertThat(requests.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testTimeout() throws InterruptedException {
+    PendingRequests requests = new PendingRequests();
+    CompletableFuture<Message> response = requests.register(request(), RESPONSE_TYPES, 20);
+    assertThatThrownBy(() -> response.get(5, TimeUnit.SECONDS))
+      .isInstanceOf(ExecutionException.class)
+      .hasCauseInstanceOf(TimeoutException.class);
+    // The timer thread updates the statistics after completing the future.
+    for (int i = 0; i < 100 && requests.getTimedOutCount() == 0; i++) Thread.sleep(10);
+    assertThat(requests.size()).isEqualTo(0);
+    assertThat(requests.getTimedOutCount()).isEqualTo(1);
+  }
+}
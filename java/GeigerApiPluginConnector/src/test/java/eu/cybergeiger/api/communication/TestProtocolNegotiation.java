@@ -0,0 +1,112 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.plugin.Declaration;
+import eu.cybergeiger.api.plugin.PluginInformation;
+import eu.cybergeiger.api.utils.HashType;
+import eu.cybergeiger.serialization.SerializerHelper;
+import eu.cybergeiger.serialization.WireFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestProtocolNegotiation {
+  private static final PluginInformation PLUGIN = new PluginInformation(
+    "plugin", "", 1, Declaration.DO_NOT_SHARE_DATA
+  );
+
+  @Test
+  public void testLegacyActivation() throws IOException {
+    byte[] payload = ProtocolNegotiation.toActivationPayload(PLUGIN.withPort(1234));
+    assertThat(payload).isEqualTo(SerializerHelper.intToByteArray(1234));
+
+    PluginInformation activated = ProtocolNegotiation.readActivation(payload, PLUGIN);
+    assertThat(activated.getPort()).isEqualTo(1234);
+    assertThat(activated.getCapabilities()).isEmpty();
+  }
+
+  @Test
+  public void testActivation() throws IOException {
+    byte[] payload = ProtocolNegotiation.toActivationPayload(PLUGIN.withPort(1234)
+      .withCapabilities(EnumSet.allOf(Capability.class))
+      .withUnixSocketPath("/tmp/plugin.sock")
+      .withSharedMemoryPath("/tmp/plugin"));
+    PluginInformation activated = ProtocolNegotiation.readActivation(payload, PLUGIN);
+    assertThat(activated.getPort()).isEqualTo(1234);
+    assertThat(activated.getCapabilities()).containsExactly(
+      Capability.FRAMED_PROTOCOL, Capability.UNIX_DOMAIN_SOCKET, Capability.SHARED_MEMORY,
+      Capability.COMPACT_ENCODING, Capability.CHUNKED_TRANSFER, Capability.KEYED_INTEGRITY,
+      Capability.SESSION_AUTHENTICATION, Capability.BATCH_OPERATIONS
+    );
+    assertThat(activated.getUnixSocketPath()).isEqualTo("/tmp/plugin.sock");
+    assertThat(activated.getSharedMemoryPath()).isEqualTo("/tmp/plugin");
+    assertThat(activated.getSecret()).isSameAs(PLUGIN.getSecret());
+  }
+
+  @Test
+  public void testCapabilitiesRequirePaths() throws IOException {
+    byte[] payload = ProtocolNegotiation.toActivationPayload(
+      PLUGIN.withCapabilities(EnumSet.allOf(Capability.class))
+    );
+    PluginInformation activated = ProtocolNegotiation.readActivation(payload, PLUGIN);
+    assertThat(activated.getCapabilities()).containsExactly(
+      Capability.FRAMED_PROTOCOL, Capability.COMPACT_ENCODING, Capability.CHUNKED_TRANSFER,
+      Capability.KEYED_INTEGRITY, Capability.SESSION_AUTHENTICATION, Capability.BATCH_OPERATIONS
+    );
+    assertThat(activated.getUnixSocketPath()).isNull();
+    assertThat(activated.getSharedMemoryPath()).isNull();
+  }
+
+  @Test
+  public void testLegacyConfirmation() throws IOException {
+    Set<Capability> offered = EnumSet.allOf(Capability.class);
+    assertThat(ProtocolNegotiation.readConfirmation(null, PLUGIN, offered).getCapabilities())
+      .isEmpty();
+    assertThat(ProtocolNegotiation.readConfirmation(new byte[0], PLUGIN, offered).getCapabilities())
+      .isEmpty();
+  }
+
+  @Test
+  public void testConfirmation() throws IOException {
+    byte[] payload = ProtocolNegotiation.toConfirmationPayload(
+      EnumSet.allOf(Capability.class), "/tmp/master.sock"
+    );
+    PluginInformation master = ProtocolNegotiation.readConfirmation(
+      payload, PLUGIN, EnumSet.allOf(Capability.class)
+    );
+    assertThat(master.getCapabilities()).containsExactly(
+      Capability.FRAMED_PROTOCOL, Capability.UNIX_DOMAIN_SOCKET, Capability.SHARED_MEMORY,
+      Capability.COMPACT_ENCODING, Capability.CHUNKED_TRANSFER, Capability.KEYED_INTEGRITY,
+      Capability.SESSION_AUTHENTICATION, Capability.BATCH_OPERATIONS
+    );
+    assertThat(master.getUnixSocketPath()).isEqualTo("/tmp/master.sock");
+
+    master = ProtocolNegotiation.readConfirmation(
+      payload, PLUGIN, EnumSet.of(Capability.FRAMED_PROTOCOL)
+    );
+    assertThat(master.getCapabilities()).containsExactly(Capability.FRAMED_PROTOCOL);
+    assertThat(master.getUnixSocketPath()).isNull();
+  }
+
+  @Test
+  public void testWireFormat() {
+    assertThat(ProtocolNegotiation.getWireFormat(PLUGIN)).isEqualTo(WireFormat.V1);
+    assertThat(ProtocolNegotiation.getWireFormat(
+      PLUGIN.withCapabilities(EnumSet.of(Capability.COMPACT_ENCODING))
+    )).isEqualTo(WireFormat.V2);
+  }
+
+  @Test
+  public void testIntegrityHashType() {
+    assertThat(ProtocolNegotiation.getIntegrityHashType(PLUGIN, HashType.SHA1))
+      .isEqualTo(HashType.SHA1);
+    assertThat(ProtocolNegotiation.getIntegrityHashType(PLUGIN, HashType.HMAC_SHA256))
+      .isEqualTo(HashType.SHA512);
+    assertThat(ProtocolNegotiation.getIntegrityHashType(
+      PLUGIN.withCapabilities(EnumSet.of(Capability.KEYED_INTEGRITY)), HashType.HMAC_SHA256
+    )).isEqualTo(HashType.HMAC_SHA256);
+  }
+}
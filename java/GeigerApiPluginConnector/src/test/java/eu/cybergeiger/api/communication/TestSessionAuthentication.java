@@ -0,0 +1,114 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.plugin.CommunicationSecret;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestSessionAuthentication {
+  private static final CommunicationSecret SECRET = new CommunicationSecret(new byte[]{1, 2, 3});
+
+  private ServerSocket server;
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = new ServerSocket(0);
+  }
+
+  @AfterEach
+  public void stopServer() throws IOException {
+    server.close();
+  }
+
+  /**
+   * <p>Answers authentication frames like a receiving plugin would.</p>
+   *
+   * @return future completed with whether the session was authenticated
+   */
+  private CompletableFuture<Boolean> respond(CommunicationSecret secret) {
+    return CompletableFuture.supplyAsync(() -> {
+      SessionAuthentication.Responder responder = new SessionAuthentication.Responder(secret);
+      try (Socket socket = server.accept()) {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        assertThat(in.readLong()).isEqualTo(Frames.PREFACE);
+        while (!responder.isAuthenticated()) {
+          byte[] payload = new byte[in.readInt()];
+          int streamId = in.readInt();
+          assertThat(in.readByte()).isEqualTo(Frames.AUTH);
+          in.readFully(payload);
+          Frames.writeFrame(out, streamId, Frames.AUTH, responder.respond(payload));
+          out.flush();
+        }
+        return true;
+      } catch (IOException e) {
+        return false;
+      }
+    });
+  }
+
+  private MultiplexedConnection connect(CommunicationSecret secret) throws IOException {
+    return new MultiplexedConnection(
+      MultiplexedConnection.openTcpChannel(
+        new InetSocketAddress("localhost", server.getLocalPort())
+      ),
+      secret, 5000
+    );
+  }
+
+  @Test
+  public void testAuthentication() throws Exception {
+    CompletableFuture<Boolean> responder = respond(SECRET);
+    try (MultiplexedConnection connection = connect(SECRET)) {
+      assertThat(connection.isAuthenticated()).isTrue();
+    }
+    assertThat(responder.get(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testWrongSecret() throws Exception {
+    CompletableFuture<Boolean> responder = respond(new CommunicationSecret(new byte[]{4}));
+    assertThatThrownBy(() -> connect(SECRET)).isInstanceOf(IOException.class);
+    assertThat(responder.get(5, TimeUnit.SECONDS)).isFalse();
+  }
+
+  @Test
+  public void testForgedClientProof() throws IOException {
+    SessionAuthentication.Responder responder = new SessionAuthentication.Responder(SECRET);
+    byte[] challenge = responder.respond(new byte[SessionAuthentication.NONCE_SIZE]);
+    assertThat(challenge.length).isGreaterThan(SessionAuthentication.NONCE_SIZE);
+    assertThatThrownBy(() -> responder.respond(new byte[32])).isInstanceOf(IOException.class);
+    assertThat(responder.isAuthenticated()).isFalse();
+  }
+
+  @Test
+  public void testRequiresSecret() {
+    SessionAuthentication.Responder responder =
+      new SessionAuthentication.Responder(new CommunicationSecret());
+    assertThatThrownBy(() -> responder.respond(new byte[SessionAuthentication.NONCE_SIZE]))
+      .isInstanceOf(IOException.class);
+  }
+
+  @Test
+  public void testTimeout() {
+    // The connection is accepted by the backlog, but nobody answers.
+    assertThatThrownBy(() -> new MultiplexedConnection(
+      MultiplexedConnection.openTcpChannel(
+        new InetSocketAddress("localhost", server.getLocalPort())
+      ),
+      SECRET, 100
+    )).isInstanceOf(IOException.class);
+  }
+}
@@ -0,0 +1,75 @@
+package eu.cybergeiger.api.communication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestSharedMemoryRing {
+  private Path file;
+
+  @BeforeEach
+  public void createFile() throws IOException {
+    file = Files.createTempFile("geiger", ".ring");
+  }
+
+  @AfterEach
+  public void deleteFile() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void testRecordsPassBetweenMappings() throws IOException {
+    SharedMemoryRing producer = SharedMemoryRing.create(file, 64);
+    SharedMemoryRing consumer = SharedMemoryRing.open(file);
+    assertThat(consumer.poll()).isNull();
+
+    producer.offer(new byte[]{1, 2, 3}, 1000);
+    producer.offer(new byte[0], 1000);
+    assertThat(consumer.poll()).containsExactly(1, 2, 3);
+    assertThat(consumer.poll()).isEmpty();
+    assertThat(consumer.poll()).isNull();
+  }
+
+  @Test
+  public void testRecordsWrapAround() throws IOException {
+    SharedMemoryRing producer = SharedMemoryRing.create(file, 64);
+    SharedMemoryRing consumer = SharedMemoryRing.open(file);
+    byte[] record = new byte[25];
+    for (int i = 0; i < 100; i++) {
+      for (int j = 0; j < record.length; j++) record[j] = (byte) (i + j);
+      producer.offer(record, 1000);
+      assertThat(consumer.poll()).isEqualTo(record);
+    }
+  }
+
+  @Test
+  public void testFullRingTimesOut() throws IOException {
+    SharedMemoryRing producer = SharedMemoryRing.create(file, 64);
+    producer.offer(new byte[producer.getMaxRecordSize()], 1000);
+    assertThatThrownBy(() -> producer.offer(new byte[1], 10))
+      .isInstanceOf(IOException.class);
+  }
+
+  @Test
+  public void testClosedRingRejectsRecords() throws IOException {
+    SharedMemoryRing producer = SharedMemoryRing.create(file, 64);
+    SharedMemoryRing.open(file).close();
+    assertThat(producer.isClosed()).isTrue();
+    assertThatThrownBy(() -> producer.offer(new byte[1], 1000))
+      .isInstanceOf(IOException.class);
+  }
+
+  @Test
+  public void testOpenRejectsOtherFiles() throws IOException {
+    Files.write(file, new byte[1024]);
+    assertThatThrownBy(() -> SharedMemoryRing.open(file))
+      .isInstanceOf(IOException.class);
+  }
+}
@@ -0,0 +1,119 @@
+package eu.cybergeiger.api.communication;
+
+import eu.cybergeiger.api.message.Message;
+import eu.cybergeiger.api.message.MessageType;
+import eu.cybergeiger.api.plugin.Declaration;
+import eu.cybergeiger.api.plugin.PluginInformation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestSharedMemoryTransport {
+  private static final PluginInformation PEER = new PluginInformation(
+    "peer", "", 1, Declaration.DO_NOT_SHARE_DATA
+  );
+  private static final CommunicationOptions OPTIONS = CommunicationOptions.DEFAULT
+    .withSharedMemoryCapacity(4096);
+
+  private Path directory;
+  private final BlockingQueue<Message> createdReceived = new LinkedBlockingQueue<>();
+  private final BlockingQueue<Message> attachedReceived = new LinkedBlockingQueue<>();
+  private final List<Message> fallbackSent = new ArrayList<>();
+  private SharedMemoryTransport created;
+  private SharedMemoryTransport attached;
+
+  @BeforeEach
+  public void createTransports() throws IOException {
+    directory = Files.createTempDirectory("geiger");
+    String path = directory.resolve("plugin").toString();
+    MessageTransport fallback = new MessageTransport() {
+      @Override
+      public void sendMessage(PluginInformation info, Message message) {
+        synchronized (fallbackSent) {
+          fallbackSent.add(message);
+        }
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    created = SharedMemoryTransport.create(
+      path, OPTIONS, createdReceived::add, Runnable::run, fallback
+    );
+    attached = SharedMemoryTransport.attach(
+      path, OPTIONS, attachedReceived::add, Runnable::run, fallback
+    );
+  }
+
+  @AfterEach
+  public void closeTransports() throws IOException {
+    attached.close();
+    created.close();
+    Files.delete(directory);
+  }
+
+  private static Message message(int payloadSize) {
+    return new Message("source", "target", MessageType.PING, null, new byte[payloadSize]);
+  }
+
+  @Test
+  public void testMessagesInBothDirections() throws Exception {
+    Message toAttached = message(10);
+    Message toCreated = message(20);
+    created.sendMessage(PEER, toAttached);
+    attached.sendMessage(PEER, toCreated);
+
+    Message received = attachedReceived.poll(5, TimeUnit.SECONDS);
+    assertThat(received).isNotNull();
+    assertThat(received.getRequestId()).isEqualTo(toAttached.getRequestId());
+    received = createdReceived.poll(5, TimeUnit.SECONDS);
+    assertThat(received).isNotNull();
+    assertThat(received.getRequestId()).isEqualTo(toCreated.getRequestId());
+  }
+
+  @Test
+  public void testManyMessagesArriveInOrder() throws Exception {
+    List<String> sent = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      Message message = message(100);
+      sent.add(message.getRequestId());
+      created.sendMessage(PEER, message);
+    }
+    for (String requestId : sent) {
+      Message received = attachedReceived.poll(5, TimeUnit.SECONDS);
+      assertThat(received).isNotNull();
+      assertThat(received.getRequestId()).isEqualTo(requestId);
+    }
+  }
+
+  @Test
+  public void testLargeMessagesUseFallback() throws IOException {
+    Message large = message(8192);
+    created.sendMessage(PEER, large);
+    synchronized (fallbackSent) {
+      assertThat(fallbackSent).containsExactly(large);
+    }
+  }
+
+  @Test
+  public void testClosedPeerUsesFallback() throws IOException {
+    attached.close();
+    Message message = message(10);
+    created.sendMessage(PEER, message);
+    synchronized (fallbackSent) {
+      assertThat(fallbackSent).containsExactly(message);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package eu.cybergeiger.api.communication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TestUnixDomainSockets {
+  private Path directory;
+
+  @BeforeEach
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("geiger");
+  }
+
+  @AfterEach
+  public void deleteDirectory() throws IOException {
+    Files.deleteIfExists(directory.resolve("test.sock"));
+    Files.delete(directory);
+  }
+
+  @Test
+  public void testFramedMessageOverUnixDomainSocket() throws Exception {
+    assumeTrue(UnixDomainSockets.isSupported());
+    String path = directory.resolve("test.sock").toString();
+    try (ServerSocketChannel server = UnixDomainSockets.bind(path);
+         MultiplexedConnection connection = new MultiplexedConnection(
+           UnixDomainSockets.connect(path)
+         )) {
+      CompletableFuture<Void> acknowledged = connection.send(new byte[]{1, 2, 3});
+      try (SocketChannel channel = server.accept()) {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+        assertThat(in.readLong()).isEqualTo(Frames.PREFACE);
+        assertThat(in.readInt()).isEqualTo(3);
+        int streamId = in.readInt();
+        assertThat(in.readByte()).isEqualTo(Frames.MESSAGE);
+        in.readFully(new byte[3]);
+
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+        Frames.writeAck(out, streamId);
+        out.flush();
+        acknowledged.get(5, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  @Test
+  public void testReplacesStaleSocketFile() throws IOException {
+    assumeTrue(UnixDomainSockets.isSupported());
+    Path path = directory.resolve("test.sock");
+    Files.createFile(path);
+    try (ServerSocketChannel server = UnixDomainSockets.bind(path.toString())) {
+      assertThat(server.isOpen()).isTrue();
+      assertThat(Files.exists(path)).isTrue();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package eu.cybergeiger.api.storage;
+
+import eu.cybergeiger.storage.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestChunkedStreams {
+  private static final int CHUNK_SIZE = 4;
+
+  private static byte[] createValue(int length) {
+    byte[] value = new byte[length];
+    for (int i = 0; i < length; i++) value[i] = (byte) i;
+    return value;
+  }
+
+  private static InputStream openInput(byte[] value, List<Long> fetched) {
+    ChunkedInputStream.ChunkSource source = (offset, length) -> {
+      fetched.add(offset);
+      int from = (int) Math.min(offset, value.length);
+      return CompletableFuture.completedFuture(
+        Arrays.copyOfRange(value, from, Math.min(from + length, value.length))
+      );
+    };
+    return new ChunkedInputStream(source, CHUNK_SIZE, source.fetch(0, CHUNK_SIZE).join());
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[3];
+    int n;
+    while ((n = in.read(buffer, 0, buffer.length)) != -1) out.write(buffer, 0, n);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testRead() throws IOException {
+    for (int length : new int[]{0, 3, 4, 10, 12}) {
+      byte[] value = createValue(length);
+      List<Long> fetched = new ArrayList<>();
+      try (InputStream in = openInput(value, fetched)) {
+        assertThat(readAll(in)).containsExactly(value);
+        assertThat(in.read()).isEqualTo(-1);
+      }
+      assertThat(fetched).hasSize(length / CHUNK_SIZE + 1);
+    }
+  }
+
+  @Test
+  public void testReadSingleBytes() throws IOException {
+    byte[] value = createValue(9);
+    try (InputStream in = openInput(value, new ArrayList<>())) {
+      for (byte b : value) assertThat(in.read()).isEqualTo(b & 0xff);
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testReadFailure() throws IOException {
+    InputStream in = new ChunkedInputStream(
+      (offset, length) -> {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        result.completeExceptionally(new StorageException("failed"));
+        return result;
+      },
+      CHUNK_SIZE, createValue(CHUNK_SIZE)
+    );
+    assertThat(in.read(new byte[CHUNK_SIZE], 0, CHUNK_SIZE)).isEqualTo(CHUNK_SIZE);
+    assertThatThrownBy(in::read)
+      .isInstanceOf(StorageException.class)
+      .hasMessageContaining("failed");
+  }
+
+  @Test
+  public void testWrite() throws IOException {
+    for (int length : new int[]{0, 3, 4, 10, 12}) {
+      byte[] value = createValue(length);
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      List<Boolean> last = new ArrayList<>();
+      OutputStream out = new ChunkedOutputStream((offset, buffer, chunkLength, isLast) -> {
+        assertThat(offset).isEqualTo((long) received.size());
+        assertThat(chunkLength).isLessThanOrEqualTo(CHUNK_SIZE);
+        received.write(buffer, 0, chunkLength);
+        last.add(isLast);
+        return CompletableFuture.completedFuture(null);
+      }, CHUNK_SIZE);
+      out.write(value, 0, Math.min(length, 5));
+      for (int i = 5; i < length; i++) out.write(value[i]);
+      out.close();
+      out.close();
+
+      assertThat(received.toByteArray()).containsExactly(value);
+      assertThat(last).hasSize(length / CHUNK_SIZE + 1);
+      assertThat(last.get(last.size() - 1)).isTrue();
+      assertThat(last.subList(0, last.size() - 1)).doesNotContain(true);
+    }
+  }
+
+  @Test
+  public void testWriteWaitsForPreviousChunk() throws IOException {
+    List<CompletableFuture<Void>> sent = new ArrayList<>();
+    OutputStream out = new ChunkedOutputStream((offset, buffer, length, last) -> {
+      if (!sent.isEmpty()) assertThat(sent.get(sent.size() - 1).isDone()).isTrue();
+      CompletableFuture<Void> result = new CompletableFuture<>();
+      sent.add(result);
+      new Thread(() -> result.complete(null)).start();
+      return result;
+    }, CHUNK_SIZE);
+    out.write(createValue(10), 0, 10);
+    out.close();
+    assertThat(sent).hasSize(3);
+    for (CompletableFuture<Void> future : sent) assertThat(future.isDone()).isTrue();
+  }
+
+  @Test
+  public void testWriteAfterClose() throws IOException {
+    OutputStream out = new ChunkedOutputStream(
+      (offset, buffer, length, last) -> CompletableFuture.completedFuture(null), CHUNK_SIZE
+    );
+    out.close();
+    assertThatThrownBy(() -> out.write(1)).isInstanceOf(IOException.class);
+  }
+}
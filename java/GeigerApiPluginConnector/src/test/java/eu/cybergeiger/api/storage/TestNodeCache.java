@@ -0,0 +1,88 @@
+package eu.cybergeiger.api.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestNodeCache {
+  private static final byte[] PAYLOAD = {1, 2, 3};
+
+  private final AtomicLong now = new AtomicLong();
+
+  private NodeCache createCache(int capacity) {
+    return new NodeCache(capacity, 1000, now::get);
+  }
+
+  @Test
+  public void testHitAndMiss() {
+    NodeCache cache = createCache(4);
+
+    assertThat(cache.get(":a", "getNode")).isNull();
+    cache.put(":a", "getNode", PAYLOAD, cache.getGeneration());
+
+    assertThat(cache.get(":a", "getNode")).isSameAs(PAYLOAD);
+    assertThat(cache.get(":a", "getValue:key")).isNull();
+    assertThat(cache.getHitCount()).isEqualTo(1L);
+    assertThat(cache.getMissCount()).isEqualTo(2L);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedPath() {
+    NodeCache cache = createCache(2);
+    cache.put(":a", "getNode", PAYLOAD, cache.getGeneration());
+    cache.put(":b", "getNode", PAYLOAD, cache.getGeneration());
+    cache.get(":a", "getNode");
+
+    cache.put(":c", "getNode", PAYLOAD, cache.getGeneration());
+
+    assertThat(cache.get(":a", "getNode")).isNotNull();
+    assertThat(cache.get(":b", "getNode")).isNull();
+    assertThat(cache.get(":c", "getNode")).isNotNull();
+    assertThat(cache.getEvictionCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testExpires() {
+    NodeCache cache = createCache(2);
+    cache.put(":a", "getNode", PAYLOAD, cache.getGeneration());
+
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    assertThat(cache.get(":a", "getNode")).isNotNull();
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    assertThat(cache.get(":a", "getNode")).isNull();
+    assertThat(cache.getEvictionCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testInvalidatesNodeAndParent() {
+    NodeCache cache = createCache(8);
+    for (String path : new String[]{":a", ":a:b", ":a:b:c", ":d"})
+      cache.put(path, "getNode", PAYLOAD, cache.getGeneration());
+
+    cache.invalidate(":a:b", false);
+
+    assertThat(cache.get(":a", "getNode")).isNull();
+    assertThat(cache.get(":a:b", "getNode")).isNull();
+    assertThat(cache.get(":a:b:c", "getNode")).isNotNull();
+    assertThat(cache.get(":d", "getNode")).isNotNull();
+
+    cache.invalidate(":a", true);
+
+    assertThat(cache.get(":a:b:c", "getNode")).isNull();
+    assertThat(cache.get(":d", "getNode")).isNotNull();
+  }
+
+  @Test
+  public void testIgnoresResponsesRequestedBeforeInvalidation() {
+    NodeCache cache = createCache(2);
+    long generation = cache.getGeneration();
+
+    cache.invalidate(":b", false);
+    cache.put(":a", "getNode", PAYLOAD, generation);
+
+    assertThat(cache.get(":a", "getNode")).isNull();
+  }
+}
@@ -0,0 +1,125 @@
+package eu.cybergeiger.api.storage;
+
+import eu.cybergeiger.storage.StorageException;
+import eu.cybergeiger.storage.node.DefaultNode;
+import eu.cybergeiger.storage.node.value.DefaultNodeValue;
+import eu.cybergeiger.storage.node.value.NodeValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestWriteBehindBuffer {
+  private static final String OWNER = "owner";
+
+  @Test
+  public void testCoalescesValueWrites() {
+    WriteBehindBuffer buffer = new WriteBehindBuffer();
+    buffer.addValue(":a", new DefaultNodeValue("key", "1"));
+    buffer.addValue(":a", new DefaultNodeValue("other", "2"));
+
+    assertThat(buffer.addValue(":a", new DefaultNodeValue("key", "3"))).isEqualTo(2);
+
+    List<WriteBehindBuffer.Write> writes = buffer.drain();
+    assertThat(writes).hasSize(2);
+    assertThat(writes.get(0).getValue().getValue()).isEqualTo("3");
+    assertThat(writes.get(1).getValue().getValue()).isEqualTo("2");
+    assertThat(buffer.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testKeepsValueWritesBeforeNodeWrites() throws StorageException {
+    WriteBehindBuffer buffer = new WriteBehindBuffer();
+    buffer.addValue(":a", new DefaultNodeValue("key", "1"));
+    buffer.addNode(new DefaultNode(":a", OWNER));
+
+    assertThat(buffer.getValue(":a", "key")).isNull();
+    assertThat(buffer.addValue(":a", new DefaultNodeValue("key", "2"))).isEqualTo(3);
+    assertThat(buffer.getValue(":a", "key").getValue()).isEqualTo("2");
+
+    List<WriteBehindBuffer.Write> writes = buffer.drain();
+    assertThat(writes.get(0).getValue().getValue()).isEqualTo("1");
+    assertThat(writes.get(1).isNodeWrite()).isTrue();
+    assertThat(writes.get(2).getValue().getValue()).isEqualTo("2");
+  }
+
+  @Test
+  public void testCoalescesNodeWritesOnlyIfLastOnPath() throws StorageException {
+    WriteBehindBuffer buffer = new WriteBehindBuffer();
+    buffer.addNode(new DefaultNode(":a", OWNER));
+    assertThat(buffer.addNode(new DefaultNode(":a", OWNER))).isEqualTo(1);
+
+    buffer.addValue(":a", new DefaultNodeValue("key", "1"));
+    assertThat(buffer.addNode(new DefaultNode(":a", OWNER))).isEqualTo(3);
+  }
+
+  @Test
+  public void testKeepsValueWritesBeforeAncestorNodeWrites() throws StorageException {
+    WriteBehindBuffer buffer = new WriteBehindBuffer();
+    buffer.addValue(":a:b", new DefaultNodeValue("key", "1"));
+    DefaultNode parent = new DefaultNode(":a", OWNER);
+    DefaultNode child = new DefaultNode(":a:b", OWNER);
+    child.addValue(new DefaultNodeValue("key", "2"));
+    parent.addChild(child);
+    buffer.addNode(parent);
+
+    assertThat(buffer.getValue(":a:b", "key")).isNull();
+    assertThat(buffer.addValue(":a:b", new DefaultNodeValue("key", "3"))).isEqualTo(3);
+    assertThat(buffer.getValue(":a:b", "key").getValue()).isEqualTo("3");
+
+    List<WriteBehindBuffer.Write> writes = buffer.drain();
+    assertThat(writes.get(0).getValue().getValue()).isEqualTo("1");
+    assertThat(writes.get(1).getPath()).isEqualTo(":a");
+    assertThat(writes.get(2).getValue().getValue()).isEqualTo("3");
+  }
+
+  @Test
+  public void testKeepsNodeWritesAroundAncestorNodeWrites() throws StorageException {
+    WriteBehindBuffer buffer = new WriteBehindBuffer();
+    buffer.addNode(new DefaultNode(":a:b", OWNER));
+    buffer.addNode(new DefaultNode(":a", OWNER));
+    assertThat(buffer.addNode(new DefaultNode(":a:b", OWNER))).isEqualTo(3);
+    assertThat(buffer.addNode(new DefaultNode(":a", OWNER))).isEqualTo(4);
+
+    List<String> paths = buffer.drain().stream()
+      .map(WriteBehindBuffer.Write::getPath)
+      .collect(Collectors.toList());
+    assertThat(paths).containsExactly(":a:b", ":a", ":a:b", ":a");
+  }
+
+  @Test
+  public void testCopiesBufferedValues() {
+    WriteBehindBuffer buffer = new WriteBehindBuffer();
+    NodeValue value = new DefaultNodeValue("key", "1");
+    buffer.addValue(":a", value);
+    value.setValue("2");
+
+    assertThat(buffer.getValue(":a", "key").getValue()).isEqualTo("1");
+    buffer.getValue(":a", "key").setValue("3");
+    assertThat(buffer.getValue(":a", "key").getValue()).isEqualTo("1");
+  }
+
+  @Test
+  public void testTouchesNodeAndRelatives() throws StorageException {
+    WriteBehindBuffer buffer = new WriteBehindBuffer();
+    buffer.addNode(new DefaultNode(":a:b", OWNER));
+
+    assertThat(buffer.touches(":a:b")).isTrue();
+    assertThat(buffer.touches(":a")).isTrue();
+    assertThat(buffer.touches(":a:b:c")).isTrue();
+    assertThat(buffer.touches(":a:b:c:d")).isTrue();
+    assertThat(buffer.touches(":a:bc")).isFalse();
+    assertThat(buffer.touches(":ab")).isFalse();
+  }
+
+  @Test
+  public void testValueWritesDoNotTouchDescendants() {
+    WriteBehindBuffer buffer = new WriteBehindBuffer();
+    buffer.addValue(":a", new DefaultNodeValue("key", "1"));
+
+    assertThat(buffer.touches(":a")).isTrue();
+    assertThat(buffer.touches(":a:b")).isFalse();
+  }
+}
@@ -0,0 +1,77 @@
+package eu.cybergeiger.api.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestHashType {
+  private static byte[] expected(String algorithm, byte[] bytes) throws Exception {
+    return MessageDigest.getInstance(algorithm).digest(bytes);
+  }
+
+  @Test
+  public void testDigest() throws Exception {
+    byte[] bytes = "test".getBytes(StandardCharsets.UTF_8);
+    assertThat(HashType.SHA512.digest(bytes).getBytes())
+      .containsExactly(expected("SHA-512", bytes));
+    assertThat(HashType.SHA1.digest(bytes).getBytes()).containsExactly(expected("SHA-1", bytes));
+    assertThat(HashType.SHA512.getDigestLength()).isEqualTo(64);
+    assertThat(HashType.SHA1.getDigestLength()).isEqualTo(20);
+  }
+
+  @Test
+  public void testHasherReuse() throws Exception {
+    Hasher hasher = HashType.SHA512.hasher();
+    hasher.update("ab");
+    Hasher nested = HashType.SHA512.hasher();
+    assertThat(nested).isNotSameAs(hasher);
+    nested.update("other").finish();
+    Hash hash = hasher.update(new byte[]{'c'}).finish();
+    assertThat(hash.getBytes()).containsExactly(
+      expected("SHA-512", "abc".getBytes(StandardCharsets.UTF_8))
+    );
+    assertThat(HashType.SHA512.hasher()).isSameAs(hasher);
+    HashType.SHA512.hasher().finish();
+  }
+
+  @Test
+  public void testConcurrentDigests() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        byte[] bytes = ("value" + i).getBytes(StandardCharsets.UTF_8);
+        byte[] expected = expected("SHA-512", bytes);
+        results.add(executor.submit(() -> {
+          for (int j = 0; j < 1000; j++) {
+            if (!MessageDigest.isEqual(HashType.SHA512.digest(bytes).getBytes(), expected))
+              return false;
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result : results)
+        assertThat(result.get()).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testKeyedTypesRequireKey() {
+    assertThat(HashType.HMAC_SHA256.isKeyed()).isTrue();
+    assertThat(HashType.HMAC_SHA256.getDigestLength()).isEqualTo(32);
+    assertThatThrownBy(HashType.HMAC_SHA256::hasher).isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> HashType.HMAC_SHA512.digest(new byte[1]))
+      .isInstanceOf(IllegalStateException.class);
+  }
+}
@@ -0,0 +1,312 @@
+package mocks;
+
+import eu.cybergeiger.storage.ChangeType;
+import eu.cybergeiger.storage.SearchCriteria;
+import eu.cybergeiger.storage.StorageController;
+import eu.cybergeiger.storage.StorageException;
+import eu.cybergeiger.storage.StorageListener;
+import eu.cybergeiger.storage.node.DefaultNode;
+import eu.cybergeiger.storage.node.Field;
+import eu.cybergeiger.storage.node.Node;
+import eu.cybergeiger.storage.node.value.NodeValue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * <p>A StorageController keeping all nodes in memory.</p>
+ *
+ * <p>Nodes are stored without their children. Fetched nodes contain their children as skeletons.
+ * Deleted and renamed nodes leave tombstones behind. Listeners are notified while the storage is
+ * locked, so they must not call back into it.</p>
+ */
+public class InMemoryStorage implements StorageController {
+  private final NavigableMap<String, DefaultNode> nodes = new TreeMap<>();
+  private final Map<StorageListener, List<SearchCriteria>> listeners = new IdentityHashMap<>();
+
+  private static DefaultNode copyWithoutChildren(Node node) throws StorageException {
+    DefaultNode copy = (DefaultNode) node.deepClone();
+    for (String name : copy.getChildren().keySet()) copy.removeChild(name);
+    return copy;
+  }
+
+  private static String childPrefix(String path) {
+    return path + PATH_DELIMITER;
+  }
+
+  private List<String> getChildPaths(String path, boolean recursive) {
+    String prefix = childPrefix(path);
+    List<String> paths = new ArrayList<>();
+    for (String candidate : nodes.tailMap(prefix, false).keySet()) {
+      if (!candidate.startsWith(prefix)) break;
+      if (recursive || candidate.indexOf(PATH_DELIMITER, prefix.length()) == -1)
+        paths.add(candidate);
+    }
+    return paths;
+  }
+
+  private DefaultNode getStored(String path, boolean allowTombstone) throws StorageException {
+    DefaultNode node = nodes.get(path);
+    if (node == null || (!allowTombstone && node.isTombstone()))
+      throw new StorageException("Node \"" + path + "\" not found.");
+    return node;
+  }
+
+  private boolean exists(String path) {
+    DefaultNode node = nodes.get(path);
+    return node != null && !node.isTombstone();
+  }
+
+  private void checkParent(String path) throws StorageException {
+    String parent = DefaultNode.getParentFromPath(path);
+    if (!parent.isEmpty() && !exists(parent))
+      throw new StorageException("Parent node \"" + parent + "\" not found.");
+  }
+
+  private Node materialize(DefaultNode stored) throws StorageException {
+    Node node = stored.deepClone();
+    if (stored.isTombstone()) return node;
+    for (String childPath : getChildPaths(stored.getPath(), false)) {
+      DefaultNode child = nodes.get(childPath);
+      if (!child.isTombstone())
+        node.addChild(new DefaultNode(childPath, child.getOwner(), this));
+    }
+    return node;
+  }
+
+  private void store(Node node) throws StorageException {
+    nodes.put(node.getPath(), copyWithoutChildren(node));
+    for (Node child : node.getChildren().values()) {
+      if (!child.isSkeleton()) store(child);
+    }
+  }
+
+  private void tombstone(String path) throws StorageException {
+    nodes.put(path, new DefaultNode(path, nodes.get(path).getOwner(), true));
+  }
+
+  private static boolean matches(SearchCriteria criteria, Node node) throws StorageException {
+    for (Field field : Field.values()) {
+      String expected = criteria.get(field);
+      if (expected == null) continue;
+      switch (field) {
+        case OWNER:
+          if (!expected.equals(node.getOwner())) return false;
+          break;
+        case NAME:
+          if (!expected.equals(node.getName())) return false;
+          break;
+        case PATH:
+          if (!node.getPath().startsWith(expected)) return false;
+          break;
+        case VISIBILITY:
+          if (!expected.equals(node.getVisibility().toStringStandard())) return false;
+          break;
+        case TOMBSTONE:
+          if (Boolean.parseBoolean(expected) != node.isTombstone()) return false;
+          break;
+        case KEY:
+        case VALUE:
+        case TYPE:
+          if (!matchesValue(criteria, node)) return false;
+          break;
+        default:
+          break;
+      }
+    }
+    return criteria.get(Field.TOMBSTONE) != null || !node.isTombstone();
+  }
+
+  private static boolean matchesValue(SearchCriteria criteria, Node node) {
+    for (NodeValue value : node.getValues().values()) {
+      if (matchesValue(criteria.get(Field.KEY), value.getKey()) &&
+        matchesValue(criteria.get(Field.VALUE), value.getValue()) &&
+        matchesValue(criteria.get(Field.TYPE), value.getType()))
+        return true;
+    }
+    return false;
+  }
+
+  private static boolean matchesValue(String expected, String actual) {
+    return expected == null || expected.equals(actual);
+  }
+
+  private void notifyListeners(ChangeType type, Node oldNode, Node newNode)
+    throws StorageException {
+    for (Map.Entry<StorageListener, List<SearchCriteria>> entry : listeners.entrySet()) {
+      for (SearchCriteria criteria : entry.getValue()) {
+        if ((oldNode != null && matches(criteria, oldNode)) ||
+          (newNode != null && matches(criteria, newNode))) {
+          entry.getKey().gotStorageChange(type, oldNode, newNode);
+          break;
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized Node get(String path) throws StorageException {
+    return materialize(getStored(path, false));
+  }
+
+  @Override
+  public synchronized Node getNodeOrTombstone(String path) throws StorageException {
+    return materialize(getStored(path, true));
+  }
+
+  @Override
+  public synchronized void add(Node node) throws StorageException {
+    if (exists(node.getPath()))
+      throw new StorageException("Node \"" + node.getPath() + "\" already exists.");
+    checkParent(node.getPath());
+    store(node);
+    notifyListeners(ChangeType.CREATE, null, get(node.getPath()));
+  }
+
+  @Override
+  public synchronized void update(Node node) throws StorageException {
+    Node oldNode = get(node.getPath());
+    store(node);
+    notifyListeners(ChangeType.UPDATE, oldNode, get(node.getPath()));
+  }
+
+  @Override
+  public synchronized boolean addOrUpdate(Node node) throws StorageException {
+    if (node.isTombstone()) {
+      if (exists(node.getPath())) delete(node.getPath());
+      return false;
+    }
+    if (exists(node.getPath())) {
+      update(node);
+      return false;
+    }
+    add(node);
+    return true;
+  }
+
+  @Override
+  public synchronized Node delete(String path) throws StorageException {
+    Node oldNode = get(path);
+    for (String childPath : getChildPaths(path, true)) {
+      if (exists(childPath))
+        throw new StorageException("Node \"" + path + "\" still has children.");
+    }
+    tombstone(path);
+    notifyListeners(ChangeType.DELETE, oldNode, null);
+    return oldNode;
+  }
+
+  @Override
+  public synchronized void rename(String oldPath, String newName) throws StorageException {
+    String newPath = newName.contains(PATH_DELIMITER)
+      ? newName
+      : DefaultNode.getParentFromPath(oldPath) + PATH_DELIMITER + newName;
+    Node oldNode = get(oldPath);
+    if (exists(newPath))
+      throw new StorageException("Node \"" + newPath + "\" already exists.");
+    checkParent(newPath);
+    List<String> paths = getChildPaths(oldPath, true);
+    paths.add(0, oldPath);
+    for (String path : paths) {
+      DefaultNode stored = nodes.get(path);
+      if (stored.isTombstone()) continue;
+      String movedPath = newPath + path.substring(oldPath.length());
+      DefaultNode moved = new DefaultNode(
+        movedPath, stored.getOwner(), stored.getVisibility(),
+        stored.getValues().values().toArray(new NodeValue[0]), null
+      );
+      nodes.put(movedPath, moved);
+      tombstone(path);
+    }
+    notifyListeners(ChangeType.RENAME, oldNode, get(newPath));
+  }
+
+  @Override
+  public synchronized NodeValue getValue(String path, String key) throws StorageException {
+    return getStored(path, false).getValue(key);
+  }
+
+  @Override
+  public synchronized void addValue(String path, NodeValue value) throws StorageException {
+    Node oldNode = get(path);
+    getStored(path, false).addValue(value.deepClone());
+    notifyListeners(ChangeType.UPDATE, oldNode, get(path));
+  }
+
+  @Override
+  public synchronized boolean addOrUpdateValue(String path, NodeValue value)
+    throws StorageException {
+    if (getStored(path, false).getValue(value.getKey()) == null) {
+      addValue(path, value);
+      return true;
+    }
+    updateValue(path, value);
+    return false;
+  }
+
+  @Override
+  public synchronized void updateValue(String path, NodeValue value) throws StorageException {
+    Node oldNode = get(path);
+    getStored(path, false).updateValue(value.deepClone());
+    notifyListeners(ChangeType.UPDATE, oldNode, get(path));
+  }
+
+  @Override
+  public synchronized NodeValue deleteValue(String path, String key) throws StorageException {
+    Node oldNode = get(path);
+    NodeValue value = getStored(path, false).removeValue(key);
+    if (value == null)
+      throw new StorageException("Value \"" + key + "\" of node \"" + path + "\" not found.");
+    notifyListeners(ChangeType.UPDATE, oldNode, get(path));
+    return value;
+  }
+
+  @Override
+  public synchronized List<Node> search(SearchCriteria criteria) throws StorageException {
+    List<Node> result = new ArrayList<>();
+    for (DefaultNode node : nodes.values()) {
+      if (matches(criteria, node)) result.add(materialize(node));
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized void registerChangeListener(StorageListener listener,
+                                                  SearchCriteria criteria) {
+    listeners.computeIfAbsent(listener, ignored -> new ArrayList<>()).add(criteria);
+  }
+
+  @Override
+  public synchronized SearchCriteria[] deregisterChangeListener(StorageListener listener) {
+    List<SearchCriteria> criteria = listeners.remove(listener);
+    return criteria == null ? new SearchCriteria[0] : criteria.toArray(new SearchCriteria[0]);
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public synchronized void zap() {
+    nodes.clear();
+  }
+
+  @Override
+  public synchronized String dump(String rootNode, String prefix) throws StorageException {
+    StringBuilder sb = new StringBuilder();
+    for (DefaultNode node : nodes.values()) {
+      if (Objects.equals(rootNode, PATH_DELIMITER) || node.getPath().startsWith(rootNode))
+        sb.append(prefix).append(node).append('\n');
+    }
+    return sb.toString();
+  }
+}